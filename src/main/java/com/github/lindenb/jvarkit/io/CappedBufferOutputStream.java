@@ -0,0 +1,112 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Keeps the first 'capacity' bytes in memory. When more bytes are written,
+ * the buffer is written to the delegate and the remaining bytes go straight
+ * to the delegate. The delegate is never closed by this stream.
+ */
+public class CappedBufferOutputStream extends OutputStream
+	{
+	private final OutputStream delegate;
+	private final int capacity;
+	/** null once the content was written to the delegate */
+	private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+	public CappedBufferOutputStream(final OutputStream delegate,final int capacity)
+		{
+		this.delegate = delegate;
+		this.capacity = Math.max(0, capacity);
+		}
+
+	/** true if all the bytes written so far are still in memory */
+	public boolean isBuffered()
+		{
+		return this.buffer!=null;
+		}
+
+	/** returns the bytes in memory. Only valid if isBuffered() */
+	public byte[] toByteArray()
+		{
+		if(this.buffer==null) throw new IllegalStateException("content was written to the delegate");
+		return this.buffer.toByteArray();
+		}
+
+	private void spill() throws IOException
+		{
+		if(this.buffer==null) return;
+		this.buffer.writeTo(this.delegate);
+		this.buffer = null;
+		}
+
+	@Override
+	public void write(final int b) throws IOException
+		{
+		if(this.buffer!=null && this.buffer.size() < this.capacity)
+			{
+			this.buffer.write(b);
+			}
+		else
+			{
+			spill();
+			this.delegate.write(b);
+			}
+		}
+
+	@Override
+	public void write(final byte[] b,final int off,final int len) throws IOException
+		{
+		if(this.buffer!=null && this.buffer.size() + len <= this.capacity)
+			{
+			this.buffer.write(b, off, len);
+			}
+		else
+			{
+			spill();
+			this.delegate.write(b, off, len);
+			}
+		}
+
+	@Override
+	public void flush() throws IOException
+		{
+		if(this.buffer==null) this.delegate.flush();
+		}
+
+	@Override
+	public void close() throws IOException
+		{
+		flush();
+		}
+	}
@@ -0,0 +1,283 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.samtools.util.RuntimeIOException;
+
+/**
+ * Read-ahead BGZF input stream.
+ *
+ * The compressed blocks are read sequentially by the caller thread and are
+ * inflated by a pool of worker threads. The inflated blocks are stored in
+ * an ordered ring of 'Future' so the bytes are returned in the original order.
+ *
+ * Only sequential reading is supported: there is no 'seek'.
+ */
+public class ParallelBgzfInputStream extends InputStream
+	{
+	/** raw compressed input */
+	private DataInputStream in;
+	/** pool inflating the blocks */
+	private final ExecutorService executor;
+	/** ordered ring of the blocks being inflated */
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+	/** max number of blocks in the ring */
+	private final int capacity;
+	/** current inflated block */
+	private byte[] buffer = new byte[0];
+	/** position in the current block */
+	private int bufferPos = 0;
+	/** no more compressed block to read */
+	private boolean rawEof = false;
+
+	/**
+	 * @param in the BGZF stream. Will be closed by close()
+	 * @param nThreads number of threads inflating the blocks
+	 */
+	public ParallelBgzfInputStream(final InputStream in,final int nThreads)
+		{
+		if(nThreads<1) throw new IllegalArgumentException("Bad number of threads: "+nThreads);
+		this.in = new DataInputStream(in);
+		this.capacity = nThreads * 4;
+		this.executor = Executors.newFixedThreadPool(nThreads, R->{
+			final Thread t = new Thread(R,"bgzf-inflater");
+			t.setDaemon(true);
+			return t;
+			});
+		}
+
+	/** test whether the bytes are the beginning of a BGZF block */
+	public static boolean isBgzfBlockPreamble(final byte buffer[],int nReads)
+		{
+		return  nReads >= BlockCompressedStreamConstants.GZIP_BLOCK_PREAMBLE.length &&
+				buffer[0]==BlockCompressedStreamConstants.GZIP_ID1 &&
+				buffer[1]==(byte)BlockCompressedStreamConstants.GZIP_ID2 &&
+				buffer[2]==BlockCompressedStreamConstants.GZIP_CM_DEFLATE &&
+				buffer[3]==BlockCompressedStreamConstants.GZIP_FLG &&
+				buffer[8]==BlockCompressedStreamConstants.GZIP_XFL
+				;
+		}
+
+	/**
+	 * uncompress the input stream. If the stream is BGZF, it is wrapped into a ParallelBgzfInputStream,
+	 * if it is a plain GZIP stream, it is wrapped into a GZIPInputStream, else it is returned as is.
+	 */
+	public static InputStream uncompress(final InputStream in,final int nThreads) throws IOException
+		{
+		final byte buffer[]=new byte[BlockCompressedStreamConstants.GZIP_BLOCK_PREAMBLE.length];
+		final PushbackInputStream push_back=new PushbackInputStream(in,buffer.length);
+		int nReads=0;
+		while(nReads< buffer.length)
+			{
+			final int n = push_back.read(buffer,nReads,buffer.length-nReads);
+			if(n==-1) break;
+			nReads+=n;
+			}
+		push_back.unread(buffer, 0, nReads);
+		if(isBgzfBlockPreamble(buffer, nReads))
+			{
+			return new ParallelBgzfInputStream(push_back, nThreads);
+			}
+		if(IOUtils.isGZipCompressed(buffer))
+			{
+			return new GZIPInputStream(push_back);
+			}
+		return push_back;
+		}
+
+	/** read the next compressed block, returns null at the end of the stream */
+	private byte[] readRawBlock() throws IOException
+		{
+		final byte header[] = new byte[BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+		int n=0;
+		while(n< header.length)
+			{
+			final int c = this.in.read(header, n, header.length-n);
+			if(c==-1) break;
+			n+=c;
+			}
+		if(n==0) return null;
+		if(!isBgzfBlockPreamble(header, n) || n!=header.length)
+			{
+			throw new IOException("Not a valid BGZF block header");
+			}
+		/* BSIZE: total block size minus 1 */
+		final int blockSize = ((header[BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET] & 0xFF) |
+				((header[BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET+1] & 0xFF) << 8)) + 1;
+		if(blockSize < BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH)
+			{
+			throw new IOException("Bad BGZF block size "+blockSize);
+			}
+		final byte block[] = new byte[blockSize];
+		System.arraycopy(header, 0, block, 0, header.length);
+		try {
+			this.in.readFully(block, header.length, blockSize-header.length);
+			}
+		catch(final EOFException err)
+			{
+			throw new IOException("Truncated BGZF block",err);
+			}
+		return block;
+		}
+
+	/** inflate one block. Runs in a worker thread */
+	private static byte[] inflateBlock(final byte block[]) throws IOException
+		{
+		final int blockSize = block.length;
+		final int isize = (block[blockSize-4] & 0xFF) |
+				((block[blockSize-3] & 0xFF) << 8) |
+				((block[blockSize-2] & 0xFF) << 16) |
+				((block[blockSize-1] & 0xFF) << 24);
+		final int expectCrc = (block[blockSize-8] & 0xFF) |
+				((block[blockSize-7] & 0xFF) << 8) |
+				((block[blockSize-6] & 0xFF) << 16) |
+				((block[blockSize-5] & 0xFF) << 24);
+		final byte uncompressed[] = new byte[isize];
+		if(isize==0) return uncompressed;
+		final Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(block,
+					BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH,
+					blockSize - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH - BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH
+					);
+			final int n = inflater.inflate(uncompressed);
+			if(n!=isize) throw new IOException("Expected "+isize+" bytes in BGZF block but got "+n);
+			}
+		catch(final DataFormatException err)
+			{
+			throw new IOException(err);
+			}
+		finally
+			{
+			inflater.end();
+			}
+		final CRC32 crc32 = new CRC32();
+		crc32.update(uncompressed, 0, isize);
+		if((int)crc32.getValue()!=expectCrc) throw new IOException("CRC mismatch in BGZF block");
+		return uncompressed;
+		}
+
+	/** submit new blocks until the ring is full */
+	private void fill() throws IOException
+		{
+		while(!this.rawEof && this.pending.size() < this.capacity)
+			{
+			final byte block[] = readRawBlock();
+			if(block==null)
+				{
+				this.rawEof = true;
+				break;
+				}
+			this.pending.add(this.executor.submit(()->inflateBlock(block)));
+			}
+		}
+
+	/** move to the next non-empty inflated block. returns false at the end of the stream */
+	private boolean nextBuffer() throws IOException
+		{
+		while(this.bufferPos >= this.buffer.length)
+			{
+			if(this.in==null) return false;
+			fill();
+			final Future<byte[]> head = this.pending.poll();
+			if(head==null) return false;
+			try {
+				this.buffer = head.get();
+				this.bufferPos = 0;
+				}
+			catch(final InterruptedException err)
+				{
+				throw new RuntimeIOException(err);
+				}
+			catch(final ExecutionException err)
+				{
+				if(err.getCause() instanceof IOException) throw IOException.class.cast(err.getCause());
+				throw new IOException(err.getCause());
+				}
+			}
+		return true;
+		}
+
+	@Override
+	public int read() throws IOException
+		{
+		if(!nextBuffer()) return -1;
+		return this.buffer[this.bufferPos++] & 0xFF;
+		}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException
+		{
+		if(len==0) return 0;
+		if(!nextBuffer()) return -1;
+		final int n = Math.min(len, this.buffer.length - this.bufferPos);
+		System.arraycopy(this.buffer, this.bufferPos, b, off, n);
+		this.bufferPos += n;
+		return n;
+		}
+
+	@Override
+	public int available() throws IOException
+		{
+		return this.buffer.length - this.bufferPos;
+		}
+
+	@Override
+	public void close() throws IOException
+		{
+		for(final Future<byte[]> f:this.pending) f.cancel(true);
+		this.pending.clear();
+		this.executor.shutdownNow();
+		if(this.in!=null) this.in.close();
+		this.in=null;
+		this.buffer = new byte[0];
+		this.bufferPos = 0;
+		}
+
+	@Override
+	public String toString() {
+		return "ParallelBgzfInputStream";
+		}
+	}
@@ -30,7 +30,6 @@ package com.github.lindenb.jvarkit.tools.bam2wig;
 
 import java.io.File;
 import java.io.PrintWriter;
-import java.util.Arrays;
 import java.util.List;
 
 import htsjdk.samtools.CigarOperator;
@@ -45,11 +44,13 @@ import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.CloserUtil;
 
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.util.bio.samfilter.SamFilterParser;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
+import com.github.lindenb.jvarkit.util.samtools.CoverageRing;
 
 /**
 BEGIN_DOC
@@ -94,7 +95,7 @@ fixedStep chrom=ref2 start=1 step=3 span=1
 END_DOC
  */
 @Program(name="bam2wig",
-description="Bam to fixedStep Wiggle converter. Parses the cigar String to get the depth. Memory intensive: must alloc sizeof(int)*size(chrom)",
+description="Bam to fixedStep Wiggle converter. Parses the cigar String to get the depth. The BAM must be sorted on coordinate. The depths are only kept between the current window and the end of the furthest read, so the memory doesn't depend on the size of the chromosome.",
 keywords={"bam","wig","wiggle"}
 )
 public class Bam2Wig extends Launcher
@@ -137,158 +138,207 @@ public class Bam2Wig extends Launcher
 	
 	private PrintWriter pw = null;
 	
-	private void run(final SamReader sfr)
+	/** 
+	 * sweep-line over one contig. The depths are stored in a circular buffer
+	 * between the start of the next window and the end of the furthest read,
+	 * a window is printed as soon as no other read can overlap it.
+	 */
+	private class ContigSweep
 		{
-		SAMSequenceRecord prev_ssr=null;
-		SAMSequenceDictionary dict=sfr.getFileHeader().getSequenceDictionary();
-		SAMRecordIterator iter=sfr.iterator();
-		int array[]=null;
-		SAMSequenceDictionaryProgress progess=new SAMSequenceDictionaryProgress(dict);
-		if(custom_track)
+		final SAMSequenceRecord ssr;
+		final CoverageRing ring = new CoverageRing();
+		/** 1-based position of the last base having a depth &gt; 0 */
+		int last_covered_pos1 = 0;
+		/** the first base having a depth &gt; 0 was found */
+		boolean found_start = false;
+		/** 1-based start of the next window */
+		int window_start1 = 1;
+		/** alignment start of the previous read */
+		int prev_read_start = 0;
+		int last_non_zero_pos0 = 0;
+		int num_zero_regions_skipped=0;
+		boolean need_print_header=true;
+		
+		ContigSweep(final SAMSequenceRecord ssr)
 			{
-			pw.println("track type=wiggle_0 name=\"__REPLACE_WIG_NAME__\" description=\"__REPLACE_WIG_DESC__\"");
+			this.ssr = ssr;
 			}
 		
-		for(;;)
+		void add(final SAMRecord rec)
 			{
-			SAMRecord rec=null;
-			if(iter.hasNext())
+			final int readStart = rec.getAlignmentStart();
+			if(readStart < this.prev_read_start)
 				{
-				rec=iter.next();
-				progess.watch(rec);
-				if(rec.getReadUnmappedFlag()) continue;
-				if(samRecordFilter.filterOut(rec)) continue;
+				throw new JvarkitException.FileFormatError("BAM is not sorted on coordinate. Got "+rec.getReadName()+" at "+
+						rec.getContig()+":"+readStart+" after "+this.prev_read_start);
 				}
+			this.prev_read_start = readStart;
+			/* no read will cover the bases before readStart */
+			flush(readStart);
 			
-			if(		rec==null ||
-					(prev_ssr!=null && prev_ssr.getSequenceIndex()!=rec.getReferenceIndex()))
+			final Cigar cigar=rec.getCigar();
+			if(cigar==null) return;
+			final int chromLen = this.ssr.getSequenceLength();
+			int refpos1=readStart;
+			for(final CigarElement ce:cigar.getCigarElements())
+    			{
+    			final CigarOperator op = ce.getOperator();
+    			if(!op.consumesReferenceBases()) continue;
+    			if(op.consumesReadBases())
+    				{
+    				final int beg = Math.max(1, refpos1);
+    				final int end = Math.min(chromLen, refpos1+ce.getLength()-1);
+    				if(beg<=end)
+    					{
+    					this.ring.increment(beg, end);
+    					this.last_covered_pos1 = Math.max(this.last_covered_pos1, end);
+    					}
+    				}
+    			refpos1+=ce.getLength();
+    			if(refpos1>chromLen) break;
+    			}
+			}
+		
+		/** print the windows ending before 'limit1': their depths won't change */
+		void flush(final int limit1)
+			{
+			if(!this.found_start)
 				{
-				if(prev_ssr!=null)
+				/* look for the first base having a depth &gt; 0 */
+				while(this.ring.getStart() < limit1 && this.ring.getStart() <= this.last_covered_pos1)
 					{
-					int start0=0;
-					while(start0< array.length && array[start0]==0)
+					if(this.ring.get(this.ring.getStart())>0)
 						{
-						++start0;
+						this.found_start = true;
+						this.window_start1 = this.ring.getStart();
+						this.last_non_zero_pos0 = this.window_start1 - 1;
+						break;
 						}
-					
-					int end0 = prev_ssr.getSequenceLength();
-					while(end0 >0 && array[end0-1]==0)
+					this.ring.pop();
+					}
+				if(!this.found_start)
+					{
+					if(this.ring.getStart() < limit1) this.ring.skipTo(limit1);
+					return;
+					}
+				}
+			
+			/* 
+			 * http://genome.ucsc.edu/goldenPath/help/wiggle.html
+			   Wiggle track data values can be integer or real, positive or negative values.
+			   Chromosome positions are specified as 1-relative.
+			   For a chromosome of length N, the first position is 1 and the last position is N. Only positions specified have data. Positions not specified do not have data and will not be graphed. 
+			 */
+			final int chromLen = this.ssr.getSequenceLength();
+			while(this.window_start1 <= this.last_covered_pos1)
+				{
+				final int window_end1 = Math.min(chromLen, this.window_start1 + WINDOW_SIZE - 1);
+				if(window_end1 >= limit1) break;
+				final int start0 = this.window_start1 - 1;
+				
+				int n=0;
+				double sum=0;
+				for(int pos1=this.window_start1;pos1<=window_end1;++pos1)
+					{
+					sum+=this.ring.get(pos1);
+					n++;
+					}
+				
+				if(sum/n < min_depth)
+					{
+					sum=0;
+					}
+				
+				if(sum==0)
+					{
+					num_zero_regions_skipped++;
+					}
+				else
+					{
+					if((start0-last_non_zero_pos0)<= min_gap)
 						{
-						--end0;
+						for(int r=0;r < num_zero_regions_skipped;++r)
+							{
+							pw.println(0);
+							}
 						}
+					else
+						{
+						need_print_header=(num_zero_regions_skipped>0);
+						}
+					
+					last_non_zero_pos0=start0;
+					num_zero_regions_skipped=0;
+					
+					if(need_print_header)
+	 					{
+						need_print_header=false;
+						pw.println(
+		 						"fixedStep chrom="+this.ssr.getSequenceName()+
+		 						" start="+(start0+1)+
+		 						" step="+WINDOW_SHIFT +" span="+ WINDOW_SIZE);
+	 					}
 					
-					int last_non_zero_pos0=start0;
-					int num_zero_regions_skipped=0;
-					boolean need_print_header=true;
-					while(start0 < end0)
+					if(cast_to_integer)
 						{
-						/* 
-						 * http://genome.ucsc.edu/goldenPath/help/wiggle.html
-						   Wiggle track data values can be integer or real, positive or negative values.
-						   Chromosome positions are specified as 1-relative.
-						   For a chromosome of length N, the first position is 1 and the last position is N. Only positions specified have data. Positions not specified do not have data and will not be graphed. 
-						 */
-		 				
-		 					int n=0;
-		 					double sum=0;
-		 					for(int j=0;j< WINDOW_SIZE && start0+j< array.length;++j)
-		 						{
-		 						sum+=array[start0+j];
-		 						n++;
-		 						}
-		 					
-		 					if(sum/n < min_depth)
-		 						{
-		 						sum=0;
-		 						}
-		 					
-		 					
-		 					if(sum==0)
-		 						{
-		 						start0+=WINDOW_SHIFT;
-		 						num_zero_regions_skipped++;
-		 						continue;
-		 						}
-		 					else
-		 						{
-		 						if((start0-last_non_zero_pos0)<= min_gap)
-		 							{
-		 							for(int r=0;r < num_zero_regions_skipped;++r)
-		 								{
-		 								pw.println(0);
-		 								}
-		 							}
-		 						else
-		 							{
-		 							need_print_header=(num_zero_regions_skipped>0);
-		 							}
-		 						
-		 						last_non_zero_pos0=start0;
-		 						num_zero_regions_skipped=0;
-		 						}
-		 					
-		 					if(need_print_header)
-			 					{
-		 						need_print_header=false;
-		 						pw.println(
-				 						"fixedStep chrom="+prev_ssr.getSequenceName()+
-				 						" start="+(start0+1)+
-				 						" step="+WINDOW_SHIFT +" span="+ WINDOW_SIZE);
-			 					}
-		 					
-		 					if(cast_to_integer)
-		 						{
-		 						pw.println((int)(sum/n));
-		 						}
-		 					else
-		 						{
-		 						pw.println((float)(sum/n));
-		 						}
-		 					
-		 				if(pw.checkError()) break;
-		 				start0+=WINDOW_SHIFT;
+						pw.println((int)(sum/n));
+						}
+					else
+						{
+						pw.println((float)(sum/n));
 						}
-					array=null;
-					System.gc();
-					prev_ssr=null;
 					}
-				if(rec==null) break;
-				if(pw.checkError()) break;
+				this.window_start1 += WINDOW_SHIFT;
+				this.ring.skipTo(Math.min(this.window_start1, limit1));
 				}
-			if(prev_ssr==null)
+			/* no window will start before the end of the covered bases, nothing else to print */
+			if(this.window_start1 > this.last_covered_pos1)
 				{
-				prev_ssr=dict.getSequence(rec.getReferenceIndex());
-				LOG.info("Allocating int["+prev_ssr.getSequenceLength()+"]");
-				array=new int[prev_ssr.getSequenceLength()];
-				LOG.info("Allocating : Done.");
-				Arrays.fill(array, 0);
+				final int next = Math.min(this.window_start1, limit1);
+				if(this.ring.getStart() < next) this.ring.skipTo(next);
 				}
+			}
+		
+		/** print the remaining windows */
+		void finish()
+			{
+			flush(this.ssr.getSequenceLength()+1);
+			}
+		}
+	
+	private void run(final SamReader sfr)
+		{
+		final SAMSequenceDictionary dict=sfr.getFileHeader().getSequenceDictionary();
+		final SAMRecordIterator iter=sfr.iterator();
+		final SAMSequenceDictionaryProgress progess=new SAMSequenceDictionaryProgress(dict);
+		ContigSweep sweep=null;
+		if(custom_track)
+			{
+			pw.println("track type=wiggle_0 name=\"__REPLACE_WIG_NAME__\" description=\"__REPLACE_WIG_DESC__\"");
+			}
+		
+		while(iter.hasNext())
+			{
+			final SAMRecord rec=iter.next();
+			progess.watch(rec);
+			if(rec.getReadUnmappedFlag()) continue;
+			if(samRecordFilter.filterOut(rec)) continue;
 			
-			final Cigar cigar=rec.getCigar();
-			if(cigar==null) continue;
-    		int refpos1=rec.getAlignmentStart();
-    		for(CigarElement ce:cigar.getCigarElements())
-    			{
-    			final CigarOperator op = ce.getOperator();
-    			if(op.consumesReferenceBases())
-    				{
-    				if(op.consumesReadBases())
-    					{
-    					for(int i=0;i< ce.getLength() && refpos1<= array.length;++i)
-			    			{
-							if(refpos1>= 1 && refpos1<=array.length)
-								{
-								array[refpos1-1]++;
-								}
-							refpos1++;
-		    				}
-    					}
-    				else
-    					{
-    					refpos1+=ce.getLength();
-    					}
-    				}    				
-    			}
+			if(sweep!=null && sweep.ssr.getSequenceIndex()!=rec.getReferenceIndex())
+				{
+				sweep.finish();
+				sweep=null;
+				if(pw.checkError()) break;
+				}
+			if(sweep==null)
+				{
+				sweep = new ContigSweep(dict.getSequence(rec.getReferenceIndex()));
+				}
+			sweep.add(rec);
+			}
+		if(sweep!=null && !pw.checkError())
+			{
+			sweep.finish();
 			}
 		progess.finish();
 		iter.close();
@@ -28,18 +28,28 @@ History:
 */
 package com.github.lindenb.jvarkit.tools.bamindexnames;
 
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.util.Comparator;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.JvarkitSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
 import htsjdk.samtools.SAMFileHeader.SortOrder;
@@ -49,7 +59,6 @@ import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.util.CloseableIterator;
-import htsjdk.samtools.util.SortingCollection;
 
 /**
 BEGIN_DOC
@@ -60,6 +69,16 @@ BEGIN_DOC
 $  java -jar dist/bamindexreadnames.jar file.bam
 ```
 
+## Index
+
+The read names are sorted with a sorting collection (`--maxRecordsInRam`, `--tmpDir`; use `--sortThreads` to sort
+the chunks of names in parallel while the BAM is being read). The blocks of the index are compressed by `--threads` workers.
+
+The index `file.bam.names.idx` contains blocks of `--blockSize` sorted names. In a block, a name only stores
+the suffix that differs from the previous name, and the block is deflated. A small table of the first
+name of each block is stored at the end of the file and is loaded in memory by bamqueryreadnames.
+
+Indexes created by older versions of bamindexreadnames must be re-created.
 
 END_DOC
  */
@@ -69,23 +88,29 @@ public class BamIndexReadNames
 	extends BaseBamIndexReadNames
 	{
 	private static final Logger LOG=Logger.build(BamIndexReadNames.class).make();
-	private BamIndexReadNames()
+	
+	@Parameter(names={"--threads"},description="Number of threads compressing the blocks of the index. See also --sortThreads.")
+	private int nThreads=1;
+	@Parameter(names={"--blockSize"},description="Number of names in one block of the index. Larger blocks make a smaller index in memory but each query reads more data.")
+	private int recordsPerBlock=1000;
+	@ParametersDelegate
+	private WritingSortingCollection writingSortingCollection=new WritingSortingCollection();
+	
+	public BamIndexReadNames()
 		{
 		
 		}
 	
-	
-		
 	private static class NameAndPosCodec extends AbstractDataCodec<NameAndPos>
 		{
 		@Override
-		public NameAndPos decode(DataInputStream dis) throws IOException {
-			NameAndPos nap=new NameAndPos();
+		public NameAndPos decode(final DataInputStream dis) throws IOException {
+			final NameAndPos nap=new NameAndPos();
 			try
-				{	
+				{
 				nap.name=dis.readUTF();
 				}
-			catch(IOException err)
+			catch(final EOFException err)
 				{
 				return null;
 				}
@@ -94,8 +119,7 @@ public class BamIndexReadNames
 			return nap;
 			}
 		@Override
-		public void encode(DataOutputStream dos, NameAndPos nap)
-				throws IOException {
+		public void encode(final DataOutputStream dos,final NameAndPos nap) throws IOException {
 			dos.writeUTF(nap.name);
 			dos.writeInt(nap.tid);
 			dos.writeInt(nap.pos);
@@ -106,102 +130,124 @@ public class BamIndexReadNames
 			return new NameAndPosCodec();
 			}
 		}
-
-	private static class NameAndPosComparator
-		implements Comparator<NameAndPos>
+	
+	private void indexBamFile(final File bamFile) throws IOException
 		{
-		@Override
-		public int compare(NameAndPos o1, NameAndPos o2)
-			{
-			int i=o1.name.compareTo(o2.name);
-			if(i!=0) return i;
-			i=o1.tid-o2.tid;
-			if(i!=0) return i;
-			i=o1.pos-o2.pos;
-			return i;
-			}
-		}
-
-		private int maxRecordsInRAM=50000;
-
-		
-		private void indexBamFile(File bamFile) throws IOException
+		if(this.recordsPerBlock<1) throw new IllegalArgumentException("bad block size "+this.recordsPerBlock);
+		final ExecutorService executor=Executors.newFixedThreadPool(Math.max(1,this.nThreads));
+		JvarkitSortingCollection<NameAndPos> sorting=null;
+		try
 			{
-			
-			NameIndexDef indexDef=new NameIndexDef();
-
-			SortingCollection<NameAndPos> sorting=null;
+			long countReads=0L;
 			LOG.info("Opening "+bamFile);
-			SamReader sfr=SamReaderFactory.makeDefault().
+			final SamReader sfr=SamReaderFactory.makeDefault().
 					validationStringency(ValidationStringency.SILENT).
 					open(bamFile);
-			sorting=SortingCollection.newInstance(
-					NameAndPos.class,
-					new NameAndPosCodec() ,
-					new NameAndPosComparator(),
-					maxRecordsInRAM,
-					bamFile.getParentFile()
-					);
-			sorting.setDestructiveIteration(true);
 			if(sfr.getFileHeader().getSortOrder()!=SortOrder.coordinate)
 				{
+				sfr.close();
 				throw new IOException("not SortOrder.coordinate "+sfr.getFileHeader().getSortOrder());
 				}
+			sorting=this.writingSortingCollection.make(
+					NameAndPos.class,
+					new NameAndPosCodec(),
+					BaseBamIndexReadNames::compareNameAndPos
+					);
+			sorting.setDestructiveIteration(true);
 			
-			SAMRecordIterator iter=sfr.iterator();
-			SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(sfr.getFileHeader().getSequenceDictionary());
+			final SAMRecordIterator iter=sfr.iterator();
+			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(sfr.getFileHeader().getSequenceDictionary());
 			while(iter.hasNext())
 				{
-				SAMRecord rec=iter.next();
+				final SAMRecord rec=iter.next();
 				progress.watch(rec);
-				NameAndPos nap=new NameAndPos();
+				final NameAndPos nap=new NameAndPos();
 				nap.name=rec.getReadName();
-				indexDef.maxNameLengt =Math.max(nap.name.length()+1, indexDef.maxNameLengt );
 				nap.tid=rec.getReferenceIndex();
 				nap.pos=rec.getAlignmentStart();
-				indexDef.countReads++;
+				countReads++;
 				sorting.add(nap);
 				}
 			progress.finish();
 			iter.close();
 			sfr.close();
 			sorting.doneAdding();
-			LOG.info("Done Adding. N="+indexDef.countReads);
-			
-			File indexFile=new File(bamFile.getParentFile(), bamFile.getName()+NAME_IDX_EXTENSION);
+			LOG.info("Done Adding. N="+countReads);
 			
+			final File indexFile=new File(bamFile.getParentFile(), bamFile.getName()+NAME_IDX_EXTENSION);
 			LOG.info("Writing index "+indexFile);
-			FileOutputStream raf=new FileOutputStream(indexFile);
-			
-			ByteBuffer byteBuff= ByteBuffer.allocate(8+4);
-			byteBuff.putLong(indexDef.countReads);
-			byteBuff.putInt(indexDef.maxNameLengt);
-			raf.write(byteBuff.array());
-			
-			byteBuff= ByteBuffer.allocate( indexDef.maxNameLengt+4+4);
-			CloseableIterator<NameAndPos> iter2=sorting.iterator();
-			while(iter2.hasNext())
+			final CloseableIterator<NameAndPos> iter2=sorting.iterator();
+			writeIndex(indexFile,countReads,iter2,executor);
+			iter2.close();
+			}
+		finally
+			{
+			if(sorting!=null) sorting.cleanup();
+			executor.shutdownNow();
+			}
+		}
+	
+	/** write the sorted records into blocks of the index, the blocks are compressed by the workers */
+	private void writeIndex(
+		final File indexFile,
+		final long countReads,
+		final Iterator<NameAndPos> sortedIter,
+		final ExecutorService executor
+		) throws IOException
+		{
+		final DataOutputStream dos=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile),65536));
+		dos.write(MAGIC);
+		dos.writeLong(countReads);
+		dos.writeInt(this.recordsPerBlock);
+		/* offset of the block index, updated at the end */
+		dos.writeLong(0L);
+		long offset=FILE_PREFIX_SIZE;
+		
+		final List<Long> blockOffsets=new ArrayList<>();
+		final List<String> firstNames=new ArrayList<>();
+		final ArrayDeque<Future<byte[]>> pending=new ArrayDeque<>();
+		final int maxPending=Math.max(1,this.nThreads)*4;
+		List<NameAndPos> block=new ArrayList<>(this.recordsPerBlock);
+		for(;;)
+			{
+			final NameAndPos nap=(sortedIter.hasNext()?sortedIter.next():null);
+			if(nap!=null)
 				{
-				byteBuff.rewind();
-				NameAndPos nap=iter2.next();
-				for(int i=0;i< nap.name.length();++i)
-					{
-					byteBuff.put((byte)nap.name.charAt(i));
-					}
-				for(int i=nap.name.length();i< indexDef.maxNameLengt;++i)
-					{
-					byteBuff.put((byte)'\0');
-					}
-				byteBuff.putInt(nap.tid);
-				byteBuff.putInt(nap.pos);
-				raf.write(byteBuff.array());
-				
+				block.add(nap);
 				}
-			raf.flush();
-			raf.close();
-			sorting.cleanup();
+			if(block.size()>=this.recordsPerBlock || (nap==null && !block.isEmpty()))
+				{
+				firstNames.add(block.get(0).name);
+				final List<NameAndPos> toEncode=block;
+				pending.add(executor.submit(()->encodeBlock(toEncode)));
+				block=new ArrayList<>(this.recordsPerBlock);
+				}
+			while(!pending.isEmpty() && (pending.size()>=maxPending || nap==null))
+				{
+				final byte compressed[]=getFuture(pending.poll());
+				blockOffsets.add(offset);
+				dos.write(compressed);
+				offset+=compressed.length;
+				}
+			if(nap==null) break;
 			}
 		
+		final long indexOffset=offset;
+		dos.writeInt(firstNames.size());
+		for(int i=0;i< firstNames.size();++i)
+			{
+			dos.writeLong(blockOffsets.get(i));
+			dos.writeUTF(firstNames.get(i));
+			}
+		dos.flush();
+		dos.close();
+		
+		final RandomAccessFile raf=new RandomAccessFile(indexFile, "rw");
+		raf.seek(FILE_PREFIX_SIZE-8);
+		raf.writeLong(indexOffset);
+		raf.close();
+		LOG.info("Index contains "+firstNames.size()+" blocks.");
+		}
 	
 	@Override
 	public int doWork(final List<String> args) {	
@@ -30,6 +30,7 @@ History:
 package com.github.lindenb.jvarkit.tools.bamindexnames;
 
 import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
@@ -42,11 +43,13 @@ import htsjdk.tribble.readers.LineIterator;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
@@ -89,6 +92,12 @@ $ cat list.notfound
 ZZZZ:X
 ```
 
+## Batch mode
+
+With `--batch`, all the names are loaded and sorted, the index is read in one sweep and the BAM is read once
+using the positions found in the index. The reads are written in the order of the BAM (not in the order of the
+names). Use this mode to search a large number of names.
+
 
  
  END_DOC
@@ -100,109 +109,252 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 	@Parameter(names={"-o","--out"},description=OPT_OUPUT_FILE_OR_STDOUT)
 	private File outputFile=null;
 
-	@Parameter(names={"-s"},description="user list of read names is sorted")
+	@Parameter(names={"-s"},description="user list of read names is sorted. Not needed anymore: sorted names are always faster as each block of the index is only read once.")
 	private boolean query_reads_is_sorted=false;
 	
 	@Parameter(names={"-N"},description=" save unmatched names here")
 	private File notFoundFile=null;
 
+	@Parameter(names={"--batch"},description="Batch mode: load and sort all the names, read the index and the BAM in one sweep. The reads are written in the order of the BAM.")
+	private boolean batch_mode=false;
+
 	@ParametersDelegate
 	private WritingBamArgs writingBamArgs=new WritingBamArgs();
 	
-	private RandomAccessFile raf;
-	private NameIndexDef indexDef;
-
-	private BamQueryReadNames()
+	public BamQueryReadNames()
 		{
 		}
 	
-	
-	
-	private NameAndPos getNameAndPosAt(long index)
-		throws IOException
+	/** one name from the user */
+	private static class Query
 		{
-		long fileoffset=FILE_PREFIX_SIZE//header
-					+ index*(this.indexDef.sizeOfNameAndPos());
-		
-		ByteBuffer byteBuff= ByteBuffer.allocate( indexDef.sizeOfNameAndPos());
-		this.raf.seek(fileoffset);
-		this.raf.readFully(byteBuff.array());
-		
-		NameAndPos nap=new NameAndPos();
-		
-		StringBuilder b=new StringBuilder(indexDef.maxNameLengt);
-		for(int i=0;i< indexDef.maxNameLengt && byteBuff.get(i)!=0;++i)
+		final String line;
+		final String searchRead;
+		/** forward or reverse is specified ? */
+		final int side;
+		boolean found=false;
+		Query(final String line)
 			{
-			b.append((char)byteBuff.get(i));
+			this.line=line;
+			if(line.endsWith("/1"))
+				{
+				this.side=1;
+				this.searchRead=line.substring(0, line.length()-2);
+				}
+			else if(line.endsWith("/2"))
+				{
+				this.side=2;
+				this.searchRead=line.substring(0, line.length()-2);
+				}
+			else
+				{
+				this.side=-1;
+				this.searchRead=line;
+				}
+			}
+		boolean accept(final SAMRecord rec)
+			{
+			if(!rec.getReadName().equals(this.searchRead)) return false;
+			if(this.side==1 && !(rec.getReadPairedFlag() && rec.getFirstOfPairFlag()))
+				{
+				return false;
+				}
+			else if(this.side==2 && !(rec.getReadPairedFlag() && rec.getSecondOfPairFlag()))
+				{
+				return false;
+				}
+			return true;
 			}
-		nap.name=b.toString();
-		byteBuff.position( indexDef.maxNameLengt);
-		nap.tid=byteBuff.getInt();
-		nap.pos=byteBuff.getInt();
-		return nap;
-		
 		}
 	
-	private long lower_bound(long first, long last, final String readName) throws IOException
+	/** search the names one by one, in the order of the user */
+	private void queryOneByOne(
+			final LineIterator r,
+			final NameIndexReader nameIndex,
+			final SamReader sfr,
+			final SAMFileWriter bamw,
+			final PrintWriter notFoundStream
+			) throws IOException
 		{
-			long len = last-first;
-			while (len > 0)
+		final SAMFileHeader header=sfr.getFileHeader();
+		while(r.hasNext())
 			{
-				long half = len /2;
-				long middle = first + half;
-				String middle_s = getNameAndPosAt(middle).name;
-				
-				if (middle_s.compareTo(readName)<0)
+			final String line=r.next();
+			if(line.isEmpty() || line.startsWith("#")) continue;
+			final Query query=new Query(line);
+			
+			final Set<SAMRecord> found=new LinkedHashSet<SAMRecord>();
+			for(final NameAndPos nap:nameIndex.find(query.searchRead))
+				{
+				SAMRecordIterator iter;
+				if(nap.tid<0)
 					{
-					first = middle;
-					++first;
-					len = len - half - 1;
+					iter=sfr.queryUnmapped();
 					}
 				else
 					{
-					len = half;
+					iter=sfr.query(
+						header.getSequence(nap.tid).getSequenceName(),
+						nap.pos,
+						0,
+						true
+						);
 					}
-				
+				while(iter.hasNext())
+					{
+					final SAMRecord rec=iter.next();
+					if(nap.tid>=0)
+						{
+						if(nap.tid!=rec.getReferenceIndex())throw new IllegalStateException();
 
+						if(rec.getAlignmentStart()< nap.pos)
+							{
+							continue;
+							}
+						if(rec.getAlignmentStart()> nap.pos)
+							{
+							break;
+							}
+						}
+					if(query.accept(rec))
+						{
+						found.add(rec);
+						}
+					}
+				iter.close();
+				}
+			if(found.isEmpty())
+				{
+				notFoundStream.println(line);
+				}
+			else
+				{
+				for(final SAMRecord rec:found)
+					{
+					bamw.addAlignment(rec);
+					}
 				}
-			return first;
+			}
+		}
+	
+	/** load and sort all the names, sweep the index, then read the BAM once */
+	private void queryBatch(
+			final LineIterator r,
+			final NameIndexReader nameIndex,
+			final SamReader sfr,
+			final SAMFileWriter bamw,
+			final PrintWriter notFoundStream
+			) throws IOException
+		{
+		final List<Query> queries=new ArrayList<>();
+		final TreeMap<String,List<Query>> name2queries=new TreeMap<>();
+		while(r.hasNext())
+			{
+			final String line=r.next();
+			if(line.isEmpty() || line.startsWith("#")) continue;
+			final Query query=new Query(line);
+			queries.add(query);
+			List<Query> L=name2queries.get(query.searchRead);
+			if(L==null)
+				{
+				L=new ArrayList<>(1);
+				name2queries.put(query.searchRead, L);
+				}
+			L.add(query);
+			}
+		LOG.info("Searching "+name2queries.size()+" names");
+		
+		/* sorted names: each block of the index is read only once */
+		final Map<String,List<Query>> wanted=new HashMap<>(name2queries.size());
+		final List<QueryInterval> intervals=new ArrayList<>();
+		boolean search_unmapped=false;
+		for(final String name:name2queries.keySet())
+			{
+			final List<NameAndPos> hits=nameIndex.find(name);
+			if(hits.isEmpty()) continue;
+			wanted.put(name, name2queries.get(name));
+			for(final NameAndPos nap:hits)
+				{
+				if(nap.tid<0)
+					{
+					search_unmapped=true;
+					}
+				else
+					{
+					intervals.add(new QueryInterval(nap.tid, nap.pos, nap.pos));
+					}
+				}
+			}
+		name2queries.clear();
+		LOG.info(wanted.size()+" names found in the index");
+		
+		if(!intervals.isEmpty())
+			{
+			final SAMRecordIterator iter=sfr.query(QueryInterval.optimizeIntervals(intervals.toArray(new QueryInterval[intervals.size()])),false);
+			while(iter.hasNext())
+				{
+				writeIfWanted(iter.next(),wanted,bamw);
+				}
+			iter.close();
+			}
+		if(search_unmapped)
+			{
+			final SAMRecordIterator iter=sfr.queryUnmapped();
+			while(iter.hasNext())
+				{
+				writeIfWanted(iter.next(),wanted,bamw);
+				}
+			iter.close();
+			}
+		for(final Query query:queries)
+			{
+			if(!query.found) notFoundStream.println(query.line);
+			}
+		}
+	
+	private void writeIfWanted(final SAMRecord rec,final Map<String,List<Query>> wanted,final SAMFileWriter bamw)
+		{
+		final List<Query> L=wanted.get(rec.getReadName());
+		if(L==null) return;
+		boolean ok=false;
+		for(final Query query:L)
+			{
+			if(query.accept(rec))
+				{
+				query.found=true;
+				ok=true;
+				}
+			}
+		if(ok) bamw.addAlignment(rec);
 		}
-
-
-
 	
 	@Override
 	public int doWork(List<String> args) {
 		PrintWriter notFoundStream=new PrintWriter(new NullOuputStream());
 		SamReader sfr=null;
 		SAMFileWriter bamw=null;
+		NameIndexReader nameIndex=null;
+		LineIterator r=null;
 		try
 			{
-			
-			
 			if(!(2==args.size() ||1==args.size()))
 				{
 				LOG.error(getMessageBundle("illegal.number.of.arguments"));
 				return -1;
 				}
 			
-			if(this.notFoundFile==null)
+			if(this.notFoundFile!=null)
 				{
 				notFoundStream=openFileOrStdoutAsPrintWriter(notFoundFile);
 				}
 			
-			File bamFile=new File(args.get(0));
+			final File bamFile=new File(args.get(0));
 			sfr=SamReaderFactory.makeDefault().
 					validationStringency(ValidationStringency.SILENT).
 					open(bamFile);
-			File nameIdxFile=new File(bamFile.getParentFile(), bamFile.getName()+NAME_IDX_EXTENSION);
-			this.indexDef=new NameIndexDef();
-			this.raf=new RandomAccessFile(nameIdxFile, "r");
-			indexDef.countReads=raf.readLong();
-			indexDef.maxNameLengt=raf.readInt();
-			
+			final File nameIdxFile=new File(bamFile.getParentFile(), bamFile.getName()+NAME_IDX_EXTENSION);
+			nameIndex=new NameIndexReader(nameIdxFile);
 			
-			LineIterator r=null;
 			if(args.size()==2)
 				{
 				r=IOUtils.openURIForLineIterator(args.get(1));
@@ -211,126 +363,23 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 				{
 				r=IOUtils.openStdinForLineIterator();
 				}
-			SAMFileHeader header=sfr.getFileHeader().clone();
+			final SAMFileHeader header=sfr.getFileHeader().clone();
+			/* reads are written in the order of the names, only the batch mode keeps the order of the BAM */
+			if(!this.batch_mode)
+				{
+				header.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+				}
 			
 			bamw=writingBamArgs.openSAMFileWriter(this.outputFile, header, true);
 			
-			
-			long iter_start = 0L;
-			
-			while(r.hasNext())
+			if(this.batch_mode)
 				{
-				String line=r.next();
-				String searchRead=null;
-				int side=-1;
-				if(line.isEmpty() || line.startsWith("#")) continue;
-				
-				/* forward or reverse is specified ? */
-				if(line.endsWith("/1"))
-					{
-					side=1;
-					searchRead=line.substring(0, line.length()-2);
-					}
-				else if(line.endsWith("/2"))
-					{
-					side=2;
-					searchRead=line.substring(0, line.length()-2);
-					}
-				else
-					{
-					side=-1;
-					searchRead=line;
-					}	
-				long index=lower_bound(
-						iter_start,
-						this.indexDef.countReads,
-						searchRead
-						);
-				if(index>=this.indexDef.countReads)
-					{
-					notFoundStream.println(line);
-					continue;
-					}
-				if(query_reads_is_sorted)
-					{
-					iter_start=index;
-					}
-				
-				Set<SAMRecord> found=new LinkedHashSet<SAMRecord>();
-				while(index <this.indexDef.countReads )
-					{
-					NameAndPos nap=getNameAndPosAt(index);
-					if(nap.name.compareTo(searchRead)<0)
-						{
-						++index;
-						continue;
-						}
-					else if(nap.name.compareTo(searchRead)>0)
-						{
-						break;
-						}
-					SAMRecordIterator iter;
-					if(nap.tid<0)
-						{
-						iter=sfr.queryUnmapped();
-						}
-					else
-						{
-						iter=sfr.query(
-							header.getSequence(nap.tid).getSequenceName(),
-							nap.pos,
-							0,
-							true
-							);
-						}
-					while(iter.hasNext())
-						{
-						SAMRecord rec=iter.next();
-						if(nap.tid>=0)
-							{
-							if(nap.tid!=rec.getReferenceIndex())throw new IllegalStateException();
-
-							if(rec.getAlignmentStart()< nap.pos)
-								{
-								continue;
-								}
-							if(rec.getAlignmentStart()> nap.pos)
-								{
-								break;
-								}
-							}
-						if(rec.getReadName().equals(searchRead))
-							{
-							if(side==1 && !(rec.getReadPairedFlag() && rec.getFirstOfPairFlag()))
-								{
-								continue;
-								}
-							else if(side==2 && !(rec.getReadPairedFlag() && rec.getSecondOfPairFlag()))
-								{
-								continue;
-								}
-							found.add(rec);
-							}
-						
-						}
-					iter.close();
-					
-					++index;
-					}
-				if(found.isEmpty())
-					{
-					notFoundStream.println(line);
-					}
-				else
-					{
-					for(SAMRecord rec:found)
-						{
-						bamw.addAlignment(rec);
-						}
-					}
-				
+				queryBatch(r, nameIndex, sfr, bamw, notFoundStream);
+				}
+			else
+				{
+				queryOneByOne(r, nameIndex, sfr, bamw, notFoundStream);
 				}
-			CloserUtil.close(r);
 			
 			notFoundStream.flush();
 			return 0;
@@ -342,8 +391,9 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 			}
 		finally
 			{
+			CloserUtil.close(r);
 			CloserUtil.close(notFoundStream);
-			CloserUtil.close(raf);
+			CloserUtil.close(nameIndex);
 			CloserUtil.close(sfr);
 			CloserUtil.close(bamw);
 			}
@@ -29,24 +29,42 @@ History:
 package com.github.lindenb.jvarkit.tools.bamindexnames;
 
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 
 
+/**
+ * Read-name index.
+ * 
+ * The file starts with a header: MAGIC, number of reads (long), number of reads per block (int), offset of the block index (long).
+ * The (name,tid,pos) records are sorted on name and grouped into deflated blocks. In a block,
+ * each name only stores the length of the prefix shared with the previous name and the remaining suffix.
+ * The file ends with the block index: number of blocks (int) and, for each block, its offset (long) and its first name (UTF).
+ * The block index is loaded in memory, so finding a name costs one binary search in memory and one block read.
+ */
 public abstract class BaseBamIndexReadNames
 	extends Launcher
 	{
-	protected static final int FILE_PREFIX_SIZE=4+8;
 	protected static final String NAME_IDX_EXTENSION=".names.idx";
-	protected static class NameIndexDef
-		{
-		long countReads=0L;
-		int maxNameLengt=0;
-		
-		public int sizeOfNameAndPos()
-			{
-			return maxNameLengt+4+4;
-			}
-		}
+	protected static final byte MAGIC[]="BAMRNIX2".getBytes(StandardCharsets.US_ASCII);
+	protected static final int FILE_PREFIX_SIZE=MAGIC.length+8+4+8;
 
 	protected static class NameAndPos
 		{
@@ -54,5 +72,227 @@ public abstract class BaseBamIndexReadNames
 		int tid;
 		int pos;
 		}
-
+	
+	/** compare on name, tid, pos */
+	protected static int compareNameAndPos(final NameAndPos o1,final NameAndPos o2)
+		{
+		int i=o1.name.compareTo(o2.name);
+		if(i!=0) return i;
+		i=Integer.compare(o1.tid,o2.tid);
+		if(i!=0) return i;
+		return Integer.compare(o1.pos,o2.pos);
+		}
+	
+	/** wait for the result of a task running in a worker */
+	protected static <T> T getFuture(final Future<T> future) throws IOException
+		{
+		try {
+			return future.get();
+			}
+		catch(final InterruptedException err)
+			{
+			throw new IOException(err);
+			}
+		catch(final ExecutionException err)
+			{
+			if(err.getCause() instanceof IOException) throw IOException.class.cast(err.getCause());
+			if(err.getCause() instanceof RuntimeException) throw RuntimeException.class.cast(err.getCause());
+			throw new IOException(err.getCause());
+			}
+		}
+	
+	protected static void writeVarInt(final DataOutputStream out,int n) throws IOException
+		{
+		while((n & ~0x7F)!=0)
+			{
+			out.write((n & 0x7F) | 0x80);
+			n >>>= 7;
+			}
+		out.write(n);
+		}
+	
+	protected static int readVarInt(final ByteBuffer in)
+		{
+		int n=0;
+		int shift=0;
+		for(;;)
+			{
+			final int b = in.get() & 0xFF;
+			n |= (b & 0x7F) << shift;
+			if((b & 0x80)==0) return n;
+			shift+=7;
+			}
+		}
+	
+	/** encode and deflate a block of sorted records */
+	protected static byte[] encodeBlock(final List<NameAndPos> records) throws IOException
+		{
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final DataOutputStream dos = new DataOutputStream(baos);
+		writeVarInt(dos, records.size());
+		byte prev[]=new byte[0];
+		for(final NameAndPos nap:records)
+			{
+			final byte name[] = nap.name.getBytes(StandardCharsets.ISO_8859_1);
+			int shared=0;
+			while(shared< prev.length && shared< name.length && prev[shared]==name[shared]) ++shared;
+			writeVarInt(dos, shared);
+			writeVarInt(dos, name.length-shared);
+			dos.write(name, shared, name.length-shared);
+			writeVarInt(dos, nap.tid+1);
+			writeVarInt(dos, nap.pos);
+			prev=name;
+			}
+		dos.flush();
+		final byte raw[] = baos.toByteArray();
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+			final ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length/2+16);
+			final byte buffer[]=new byte[8192];
+			while(!deflater.finished())
+				{
+				final int n = deflater.deflate(buffer);
+				compressed.write(buffer, 0, n);
+				}
+			final ByteBuffer block = ByteBuffer.allocate(8+compressed.size());
+			block.putInt(raw.length);
+			block.putInt(compressed.size());
+			block.put(compressed.toByteArray());
+			return block.array();
+			}
+		finally
+			{
+			deflater.end();
+			}
+		}
+	
+	/** reads an index created by BamIndexReadNames */
+	protected static class NameIndexReader implements Closeable
+		{
+		private final RandomAccessFile raf;
+		private final long countReads;
+		private final long blockOffsets[];
+		private final String firstNames[];
+		/** last decoded block */
+		private int cachedBlockIndex=-1;
+		private List<NameAndPos> cachedBlock=Collections.emptyList();
+		
+		NameIndexReader(final File nameIdxFile) throws IOException
+			{
+			this.raf=new RandomAccessFile(nameIdxFile, "r");
+			final byte magic[]=new byte[MAGIC.length];
+			this.raf.readFully(magic);
+			if(!Arrays.equals(magic, MAGIC))
+				{
+				this.raf.close();
+				throw new IOException("Not a read-name index or index created by an older version: "+nameIdxFile+". Please re-run bamindexreadnames.");
+				}
+			this.countReads=this.raf.readLong();
+			/* records per block */
+			this.raf.readInt();
+			final long indexOffset=this.raf.readLong();
+			this.raf.seek(indexOffset);
+			final int nBlocks=this.raf.readInt();
+			this.blockOffsets=new long[nBlocks];
+			this.firstNames=new String[nBlocks];
+			for(int i=0;i< nBlocks;++i)
+				{
+				this.blockOffsets[i]=this.raf.readLong();
+				this.firstNames[i]=this.raf.readUTF();
+				}
+			}
+		
+		public long getCountReads()
+			{
+			return this.countReads;
+			}
+		
+		private List<NameAndPos> readBlock(final int blockIndex) throws IOException
+			{
+			if(blockIndex==this.cachedBlockIndex) return this.cachedBlock;
+			this.raf.seek(this.blockOffsets[blockIndex]);
+			final int rawLength=this.raf.readInt();
+			final int compressedLength=this.raf.readInt();
+			final byte compressed[]=new byte[compressedLength];
+			this.raf.readFully(compressed);
+			final byte raw[]=new byte[rawLength];
+			final Inflater inflater=new Inflater();
+			try {
+				inflater.setInput(compressed);
+				final int n=inflater.inflate(raw);
+				if(n!=rawLength) throw new IOException("Bad block in read-name index. Expected "+rawLength+" bytes but got "+n);
+				}
+			catch(final DataFormatException err)
+				{
+				throw new IOException(err);
+				}
+			finally
+				{
+				inflater.end();
+				}
+			final ByteBuffer in=ByteBuffer.wrap(raw);
+			final int n=readVarInt(in);
+			final List<NameAndPos> L=new ArrayList<>(n);
+			byte prev[]=new byte[0];
+			for(int i=0;i< n;++i)
+				{
+				final int shared=readVarInt(in);
+				final int suffix=readVarInt(in);
+				final byte name[]=Arrays.copyOf(prev, shared+suffix);
+				in.get(name, shared, suffix);
+				final NameAndPos nap=new NameAndPos();
+				nap.name=new String(name,StandardCharsets.ISO_8859_1);
+				nap.tid=readVarInt(in)-1;
+				nap.pos=readVarInt(in);
+				L.add(nap);
+				prev=name;
+				}
+			this.cachedBlockIndex=blockIndex;
+			this.cachedBlock=L;
+			return L;
+			}
+		
+		/** returns all the records for the given read name. Successive sorted queries read each block only once. */
+		public List<NameAndPos> find(final String readName) throws IOException
+			{
+			/* the last block whose first name is lower than readName: the name may start at the end of this block */
+			int lo=0,hi=this.firstNames.length;
+			while(lo<hi)
+				{
+				final int mid=(lo+hi)>>>1;
+				if(this.firstNames[mid].compareTo(readName)<0) lo=mid+1; else hi=mid;
+				}
+			int blockIndex=Math.max(0, lo-1);
+			final List<NameAndPos> found=new ArrayList<>();
+			while(blockIndex< this.firstNames.length)
+				{
+				final List<NameAndPos> block=readBlock(blockIndex);
+				/* lower bound in the block */
+				int first=0,last=block.size();
+				while(first<last)
+					{
+					final int mid=(first+last)>>>1;
+					if(block.get(mid).name.compareTo(readName)<0) first=mid+1; else last=mid;
+					}
+				for(int i=first;i< block.size();++i)
+					{
+					final NameAndPos nap=block.get(i);
+					if(!nap.name.equals(readName)) return found;
+					found.add(nap);
+					}
+				/* the name continues in the next block only if this block is its first name */
+				blockIndex++;
+				if(blockIndex>= this.firstNames.length || !this.firstNames[blockIndex].equals(readName)) break;
+				}
+			return found;
+			}
+		
+		@Override
+		public void close() throws IOException
+			{
+			this.raf.close();
+			}
+		}
 	}
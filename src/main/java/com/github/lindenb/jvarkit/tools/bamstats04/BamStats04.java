@@ -30,24 +30,30 @@ package com.github.lindenb.jvarkit.tools.bamstats04;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLine;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodec;
 import com.github.lindenb.jvarkit.util.bio.samfilter.SamFilterParser;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.samtools.CoverageRing;
 import com.github.lindenb.jvarkit.util.picard.GenomicSequence;
 
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.PeekableIterator;
 import htsjdk.samtools.Cigar;
 import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SAMSequenceDictionary;
@@ -76,6 +82,12 @@ $ java -jar dist/bamstats04.jar \
 1	789740	789877	137	245	688	528.6715328467153	0	1
 ```
 
+## Large BED files
+
+By default, the BAM is queried once for each line of the BED file. With the option `--sweep`,
+the BED is sorted and merged, the BAM is read only once and the median is computed from a histogram
+of the depths. The output is the same.
+
 END_DOC
  */
 @Program(name="bamstats04",
@@ -99,6 +111,9 @@ public class BamStats04 extends Launcher
 	@Parameter(names={"-B","--bed"},description="Bed File. Required",required=true)
 	private File bedFile = null;
 
+	@Parameter(names={"--sweep"},description="Sort and merge the BED intervals, read the BAM only once and compute the median using a histogram of depths. Faster for large BED files. The output is the same, in the same order.")
+	private boolean sweep = false;
+
 	@Parameter(names={"-R","--ref"},description=INDEXED_FASTA_REFERENCE_DESCRIPTION+" If set, a column with the GC% will be added")
 	private File faidxFile = null;
 
@@ -135,6 +150,14 @@ public class BamStats04 extends Launcher
 					(indexedFastaSequenceFile==null?"":"gc_percent\t")+
 					"mincov\tmaxcov\tmeancov\tmediancov\tnocoveragebp\tpercentcovered");
 	
+				if(this.sweep)
+					{
+					doSweep(bedIn,samReader,dict,indexedFastaSequenceFile,pw);
+					pw.flush();
+					pw.close();pw=null;
+					LOG.info("done");
+					return RETURN_OK;
+					}
 			
 				String line=null;
 				while((line=bedIn.readLine())!=null)
@@ -223,20 +246,7 @@ public class BamStats04 extends Launcher
 	                        }
 	
 					
-					pw.println(
-							bedLine.getContig()+"\t"+
-							(bedLine.getStart()-1)+"\t"+
-							(bedLine.getEnd())+"\t"+
-							counts.length+"\t"+
-							(genomicSequence==null?
-								"":
-								String.valueOf((genomicSequence.getGCPercent(bedLine.getStart()-1,bedLine.getEnd())).getGCPercentAsInteger())+"\t")+
-							counts[0]+"\t"+
-							counts[counts.length-1]+"\t"+
-							mean+"\t"+median_depth+"\t"+
-							count_no_coverage+"\t"+
-							(int)(((counts.length-count_no_coverage)/(double)counts.length)*100.0)
-							);
+					pw.println(format(bedLine,genomicSequence,counts.length,counts[0],counts[counts.length-1],mean,median_depth,count_no_coverage));
 					}
 				pw.flush();
 				pw.close();pw=null;
@@ -257,6 +267,245 @@ public class BamStats04 extends Launcher
 			}
 		}
 	
+	/** format one line of output */
+	private String format(
+			final BedLine bedLine,
+			final GenomicSequence genomicSequence,
+			final int length,
+			final int mincov,
+			final int maxcov,
+			final double mean,
+			final double median_depth,
+			final int count_no_coverage
+			)
+		{
+		return	bedLine.getContig()+"\t"+
+				(bedLine.getStart()-1)+"\t"+
+				(bedLine.getEnd())+"\t"+
+				length+"\t"+
+				(genomicSequence==null?
+					"":
+					String.valueOf((genomicSequence.getGCPercent(bedLine.getStart()-1,bedLine.getEnd())).getGCPercentAsInteger())+"\t")+
+				mincov+"\t"+
+				maxcov+"\t"+
+				mean+"\t"+median_depth+"\t"+
+				count_no_coverage+"\t"+
+				(int)(((length-count_no_coverage)/(double)length)*100.0)
+				;
+		}
+	
+	/** a BED line and the histogram of its depths, used by the sweep mode */
+	private static class SweepInterval
+		{
+		final BedLine bedLine;
+		/** index in the BED file */
+		final int index;
+		/** contig index */
+		final int tid;
+		/** histogram[depth] = number of bases */
+		int histogram[] = new int[100];
+		int count_no_coverage = 0;
+		long sum = 0L;
+		int mincov = Integer.MAX_VALUE;
+		int maxcov = 0;
+		SweepInterval(final BedLine bedLine,final int index,final int tid) {
+			this.bedLine = bedLine;
+			this.index = index;
+			this.tid = tid;
+			}
+		int getStart() { return this.bedLine.getStart();}
+		int getEnd() { return this.bedLine.getEnd();}
+		int length() { return getEnd()-getStart()+1;}
+		void add(final int depth,final int min_coverage) {
+			if(depth>=this.histogram.length) {
+				this.histogram = Arrays.copyOf(this.histogram, Math.max(depth+1,this.histogram.length*2));
+				}
+			this.histogram[depth]++;
+			if(depth<=min_coverage) this.count_no_coverage++;
+			this.sum += depth;
+			this.mincov = Math.min(this.mincov, depth);
+			this.maxcov = Math.max(this.maxcov, depth);
+			}
+		/** returns the k-th smallest depth (0-based) */
+		int kth(int k) {
+			for(int depth=this.mincov;depth<=this.maxcov;++depth) {
+				k-=this.histogram[depth];
+				if(k<0) return depth;
+				}
+			throw new IllegalStateException();
+			}
+		double median() {
+			final int length = length();
+			final int mid_x= length/2;
+			if(length%2==0)
+				{
+				return (kth(mid_x-1)+kth(mid_x))/2.0;
+				}
+			else
+				{
+				return kth(mid_x);
+				}
+			}
+		}
+	
+	/** sort and merge the BED, read the BAM once, and compute the stats using histograms of depths */
+	private void doSweep(
+			final BufferedReader bedIn,
+			final SamReader samReader,
+			final SAMSequenceDictionary dict,
+			final IndexedFastaSequenceFile indexedFastaSequenceFile,
+			final PrintWriter pw
+			) throws IOException
+		{
+		final BedLineCodec codec= new BedLineCodec();
+		final List<SweepInterval> intervals = new ArrayList<>();
+		String line;
+		while((line=bedIn.readLine())!=null)
+			{
+			if(line.isEmpty() || line.startsWith("#")) continue;
+			final BedLine bedLine = codec.decode(line);
+			if(bedLine==null) continue;
+			final int tid = dict.getSequenceIndex(bedLine.getContig());
+			if(tid<0)
+				{
+				throw new JvarkitException.ContigNotFoundInDictionary(bedLine.getContig(), dict);
+				}
+			if(bedLine.getEnd()-bedLine.getStart()+1<=0) continue;
+			intervals.add(new SweepInterval(bedLine, intervals.size(), tid));
+			}
+		final String output[] = new String[intervals.size()];
+		
+		final List<SweepInterval> sorted = new ArrayList<>(intervals);
+		sorted.sort((A,B)->{
+			final int i = Integer.compare(A.tid, B.tid);
+			if(i!=0) return i;
+			return Integer.compare(A.getStart(), B.getStart());
+			});
+		final QueryInterval queryIntervals[] = QueryInterval.optimizeIntervals(
+			sorted.stream().
+				map(I->new QueryInterval(I.tid, I.getStart(), I.getEnd())).
+				toArray(N->new QueryInterval[N])
+			);
+		
+		final SAMRecordIterator iter = samReader.query(queryIntervals, false);
+		final PeekableIterator<SAMRecord> peekIter = new PeekableIterator<>(iter);
+		final CoverageRing ring = new CoverageRing();
+		final List<SweepInterval> active = new ArrayList<>();
+		int sortedIndex = 0;
+		while(sortedIndex < sorted.size())
+			{
+			/* intervals on this contig */
+			final int tid = sorted.get(sortedIndex).tid;
+			int lastIndex = sortedIndex;
+			int contigEnd = 0;
+			while(lastIndex < sorted.size() && sorted.get(lastIndex).tid==tid) {
+				contigEnd = Math.max(contigEnd, sorted.get(lastIndex).getEnd());
+				lastIndex++;
+				}
+			final GenomicSequence genomicSequence = (indexedFastaSequenceFile==null?
+					null:
+					new GenomicSequence(indexedFastaSequenceFile, dict.getSequence(tid).getSequenceName())
+					);
+			ring.reset(sorted.get(sortedIndex).getStart());
+			active.clear();
+			/* next interval to be activated */
+			int nextIndex = sortedIndex;
+			/* next position to be processed */
+			int cursor = sorted.get(sortedIndex).getStart();
+			
+			for(;;)
+				{
+				SAMRecord rec = null;
+				while(peekIter.hasNext())
+					{
+					final SAMRecord rec2 = peekIter.peek();
+					if(rec2.getReadUnmappedFlag() || this.filter.filterOut(rec2) || rec2.getCigar()==null)
+						{
+						peekIter.next();
+						continue;
+						}
+					if(rec2.getReferenceIndex() < tid)
+						{
+						peekIter.next();
+						continue;
+						}
+					if(rec2.getReferenceIndex() == tid)
+						{
+						rec = peekIter.next();
+						}
+					break;
+					}
+				
+				/* positions before the start of the read are done */
+				final int flushEnd = (rec==null?contigEnd:Math.min(contigEnd,rec.getAlignmentStart()-1));
+				while(cursor <= flushEnd)
+					{
+					if(active.isEmpty())
+						{
+						if(nextIndex >= lastIndex || sorted.get(nextIndex).getStart() > flushEnd)
+							{
+							cursor = flushEnd+1;
+							ring.skipTo(cursor);
+							break;
+							}
+						if(sorted.get(nextIndex).getStart() > cursor)
+							{
+							cursor = sorted.get(nextIndex).getStart();
+							ring.skipTo(cursor);
+							}
+						}
+					while(nextIndex < lastIndex && sorted.get(nextIndex).getStart()<=cursor)
+						{
+						active.add(sorted.get(nextIndex));
+						nextIndex++;
+						}
+					final int depth = ring.pop();
+					int i=0;
+					while(i< active.size())
+						{
+						final SweepInterval si = active.get(i);
+						si.add(depth,this.MIN_COVERAGE);
+						if(si.getEnd()==cursor)
+							{
+							output[si.index] = format(si.bedLine, genomicSequence, si.length(),
+									si.mincov, si.maxcov,
+									si.sum/(double)si.length(),
+									si.median(),
+									si.count_no_coverage
+									);
+							active.remove(i);
+							}
+						else
+							{
+							++i;
+							}
+						}
+					cursor++;
+					}
+				if(rec==null) break;
+				
+				int refpos1=rec.getAlignmentStart();
+	    		for(final CigarElement ce:rec.getCigar())
+	    			{
+	    			final CigarOperator op=ce.getOperator();
+	    			if(!op.consumesReferenceBases()) continue;
+	    			if(op.consumesReadBases())
+	    				{
+	    				final int beg = Math.max(refpos1,cursor);
+	    				final int end = Math.min(refpos1+ce.getLength()-1,contigEnd);
+	    				if(beg<=end) ring.increment(beg, end);
+	    				}
+	    			refpos1+=ce.getLength();
+	    			if(refpos1>contigEnd) break;
+	    			}
+				}
+			sortedIndex = lastIndex;
+			}
+		peekIter.close();
+		
+		for(final String s:output) pw.println(s);
+		}
+	
 	public static void main(final String[] args) throws Exception
 		{
 		new BamStats04().instanceMainWithExit(args);
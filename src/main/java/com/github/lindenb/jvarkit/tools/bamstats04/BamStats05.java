@@ -34,13 +34,14 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Future;
 
 
 import com.beust.jcommander.Parameter;
@@ -51,13 +52,12 @@ import com.github.lindenb.jvarkit.util.bio.samfilter.SamFilterParser;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.samtools.CoverageEngine;
 import com.github.lindenb.jvarkit.util.samtools.SAMRecordPartition;
 
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Interval;
-import htsjdk.samtools.Cigar;
-import htsjdk.samtools.CigarElement;
-import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.util.IntervalTreeMap;
 import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMReadGroupRecord;
@@ -114,6 +114,10 @@ public class BamStats05 extends Launcher
 
 	@Parameter(names={"-f","--filter"},description=SamFilterParser.FILTER_DESCRIPTION,converter=SamFilterParser.StringConverter.class)
 	private SamRecordFilter filter  = SamFilterParser.buildDefault();
+	@Parameter(names={"--threads"},description="Number of threads. The work is split by (BAM, chunk of genes).")
+	private int nThreads = 1;
+	@Parameter(names={"--genesPerChunk"},description="Number of genes processed by one task.")
+	private int genesPerChunk = 100;
 	
 	private Map<String, List<Interval>> readBedFile(final File bedFile) throws IOException
     	{
@@ -169,133 +173,181 @@ public class BamStats05 extends Launcher
     		}
     	}
 	
-	protected  int doWork(
-			final PrintWriter pw,
+	/** a chunk of genes on the same contig, processed by one task */
+	private static class GeneChunk
+		{
+		final String contig;
+		final List<String> genes = new ArrayList<>();
+		GeneChunk(final String contig) {
+			this.contig = contig;
+			}
+		}
+	
+	/** split the genes into chunks of genes on the same contig */
+	private List<GeneChunk> splitGenes(final Map<String, List<Interval>> gene2interval)
+		{
+		final List<String> genes = new ArrayList<>(gene2interval.keySet());
+		genes.sort((A,B)->{
+			final Interval a = gene2interval.get(A).get(0);
+			final Interval b = gene2interval.get(B).get(0);
+			final int i = a.getContig().compareTo(b.getContig());
+			if(i!=0) return i;
+			return Integer.compare(a.getStart(), b.getStart());
+			});
+		final List<GeneChunk> chunks = new ArrayList<>();
+		for(final String gene:genes)
+			{
+			final String contig = gene2interval.get(gene).get(0).getContig();
+			GeneChunk chunk = (chunks.isEmpty()?null:chunks.get(chunks.size()-1));
+			if(chunk==null || !chunk.contig.equals(contig) || chunk.genes.size()>=this.genesPerChunk)
+				{
+				chunk = new GeneChunk(contig);
+				chunks.add(chunk);
+				}
+			chunk.genes.add(gene);
+			}
+		return chunks;
+		}
+	
+	/** get the partitions for a BAM */
+	private Set<String> getPartitions(final String filename,final SAMFileHeader header) throws IOException
+		{
+		final List<SAMReadGroupRecord> rgs = header.getReadGroups();
+		if(rgs==null || rgs.isEmpty())
+			throw new IOException("No read groups in "+filename);
+		final Set<String> groupNames = this.groupBy.getPartitions(rgs);
+		for(final String partition : groupNames)
+			{
+			if(partition.isEmpty()) throw new IOException("Empty "+groupBy.name());
+			}
+		return groupNames;
+		}
+	
+	/** scan a chunk of genes in one BAM. Returns partition -&gt; gene -&gt; histogram of depths */
+	private Map<String,Map<String,CoverageEngine.DepthHistogram>> scanChunk(
 			final Map<String, List<Interval>> gene2interval,
+			final GeneChunk chunk,
 			final String filename,
-			final SamReader IN) throws Exception
+			final SamReader IN
+			) throws IOException
 		{
+		final SAMFileHeader header = IN.getFileHeader();
+		final Set<String> groupNames = getPartitions(filename,header);
+		final int tid = header.getSequenceIndex(chunk.contig);
 		
-		try
+		/* intervals of the chunk with a non-empty length */
+		final List<Interval> intervals = new ArrayList<>();
+		final List<String> intervalGenes = new ArrayList<>();
+		final IntervalTreeMap<Integer> intervalTreeMap = new IntervalTreeMap<>();
+		for(final String gene: chunk.genes)
 			{
-			LOG.info("Scanning "+filename);
-			final SAMFileHeader header = IN.getFileHeader();
-			final List<SAMReadGroupRecord> rgs = header.getReadGroups();
-			if(rgs==null || rgs.isEmpty())
-				throw new IOException("No read groups in "+filename);
-			final Set<String> groupNames = this.groupBy.getPartitions(rgs);
-			
-			for(final String partition : groupNames)
+			for(final Interval interval:gene2interval.get(gene))
 				{
-				if(partition.isEmpty()) throw new IOException("Empty "+groupBy.name());
-				for(final String gene: gene2interval.keySet())
+				if(interval.getEnd()-interval.getStart()+1<=0) continue;
+				if(tid==-1)
 					{
-					int geneStart = Integer.MAX_VALUE;
-					int geneEnd = 0;
-					
-					final List<Integer> counts = new ArrayList<>();
-					
-					
-					for(final Interval interval:gene2interval.get(gene))
-						{
-						geneStart = Math.min(geneStart, interval.getStart()-1);
-						geneEnd = Math.max(geneEnd, interval.getEnd());
+					throw new IllegalArgumentException("NO DICT FOR \""+interval.getContig()+"\"");
+					}
+				intervalTreeMap.put(interval, intervals.size());
+				intervals.add(interval);
+				intervalGenes.add(gene);
+				}
+			}
 		
-						/* picard javadoc:  - Sequence name - Start position (1-based) - End position (1-based, end inclusive)  */
-						int interval_counts[]=new int[interval.getEnd()-interval.getStart()+1];
-						if(interval_counts.length==0) continue;
-						Arrays.fill(interval_counts, 0);
-						
-						if(IN.getFileHeader().getSequenceIndex(interval.getContig())==-1)
-							{
-							throw new IllegalArgumentException("NO DICT FOR \""+interval.getContig()+"\"");
-							}
-						
-						/**
-						 *     start - 1-based, inclusive start of interval of interest. Zero implies start of the reference sequence.
-			    		*	   end - 1-based, inclusive end of interval of interest. Zero implies end of the reference sequence. 
-						 */
-					
-						SAMRecordIterator r=IN.query(new QueryInterval[]{
-								new QueryInterval(
-								header.getSequenceIndex(interval.getContig()),
-								interval.getStart(),
-								interval.getEnd()
-								)},false)
-								;
-						while(r.hasNext())
-							{
-							final SAMRecord rec=r.next();
-							if(rec.getReadUnmappedFlag()) continue;
-							if(filter.filterOut(rec)) continue;
-							
-							if(!rec.getReferenceName().equals(interval.getContig())) continue;
-							
-							final SAMReadGroupRecord rg = rec.getReadGroup();
-							if(rg==null || !partition.equals(this.groupBy.apply(rg))) continue;
-							final Cigar cigar=rec.getCigar();
-							if(cigar==null) continue;
-				    		int refpos1=rec.getAlignmentStart();
-				    		for(final CigarElement ce:cigar.getCigarElements())
-				    			{
-				    			final CigarOperator op=ce.getOperator();
-				    			if(!op.consumesReferenceBases()) continue;
-				    			if(op.consumesReadBases())
-				    				{
-				    				for(int i=0;i< ce.getLength();++i)
-			    		    			{
-										if(refpos1+i>= interval.getStart() && refpos1+i<=interval.getEnd())
-											{
-											interval_counts[refpos1+i-interval.getStart()]++;
-											}
-					    				}
-				    				}
-				    			refpos1+=ce.getLength();
-				    			}
-							}/* end while r */
-						r.close();
-						for(int d: interval_counts)
-							{
-							counts.add(d);
-							}
-						}/* end interval */
-						
-						
-						Collections.sort(counts);
-						
-						int count_no_coverage=0;
-						double mean=0;
-						for(int cov:counts)
-							{
-							if(cov<=MIN_COVERAGE) ++count_no_coverage;
-							mean+=cov;
-							}
-						mean/=counts.size();
-						
-					pw.println(
-							gene2interval.get(gene).get(0).getContig()+"\t"+
-							geneStart+"\t"+geneEnd+"\t"+gene+"\t"+partition+"\t"+
-							counts.size()+"\t"+
-							counts.get(0)+"\t"+
-							counts.get(counts.size()-1)+"\t"+
-							mean+"\t"+
-							count_no_coverage+"\t"+
-							(int)(((counts.size()-count_no_coverage)/(double)counts.size())*100.0)
-							);
-					}//end gene
-				}//end sample
-		return RETURN_OK;
-		}
-	catch(final Exception err)
-		{
-		LOG.error(err);
-		return -1;
+		/* partition -&gt; depths for each interval */
+		final Map<String,int[][]> partition2counts = new HashMap<>(groupNames.size());
+		for(final String partition : groupNames)
+			{
+			final int counts[][] = new int[intervals.size()][];
+			for(int i=0;i< intervals.size();++i)
+				{
+				counts[i] = new int[intervals.get(i).getEnd()-intervals.get(i).getStart()+1];
+				}
+			partition2counts.put(partition, counts);
+			}
+		
+		if(!intervals.isEmpty())
+			{
+			final QueryInterval queryIntervals[] = QueryInterval.optimizeIntervals(
+				intervals.stream().
+					map(I->new QueryInterval(tid, I.getStart(), I.getEnd())).
+					toArray(N->new QueryInterval[N])
+				);
+			final SAMRecordIterator r = IN.query(queryIntervals,false);
+			while(r.hasNext())
+				{
+				final SAMRecord rec=r.next();
+				if(rec.getReadUnmappedFlag()) continue;
+				if(filter.filterOut(rec)) continue;
+				if(!rec.getReferenceName().equals(chunk.contig)) continue;
+				final SAMReadGroupRecord rg = rec.getReadGroup();
+				if(rg==null) continue;
+				final int counts[][] = partition2counts.get(this.groupBy.apply(rg));
+				if(counts==null) continue;
+				if(rec.getCigar()==null) continue;
+				for(final Integer idx: intervalTreeMap.getOverlapping(new Interval(chunk.contig,rec.getAlignmentStart(),rec.getAlignmentEnd())))
+					{
+					final Interval interval = intervals.get(idx);
+					CoverageEngine.addCoverage(rec, interval.getStart(), interval.getEnd(), counts[idx]);
+					}
+				}
+			r.close();
+			}
+		
+		/* merge the depths of the intervals of each gene */
+		final Map<String,Map<String,CoverageEngine.DepthHistogram>> partition2gene = new HashMap<>(groupNames.size());
+		for(final String partition : groupNames)
+			{
+			final Map<String,CoverageEngine.DepthHistogram> gene2hist = new HashMap<>(chunk.genes.size());
+			final int counts[][] = partition2counts.get(partition);
+			for(final String gene:chunk.genes)
+				{
+				gene2hist.put(gene, new CoverageEngine.DepthHistogram());
+				}
+			for(int i=0;i< intervals.size();++i)
+				{
+				gene2hist.get(intervalGenes.get(i)).addAll(counts[i]);
+				}
+			partition2gene.put(partition, gene2hist);
+			}
+		return partition2gene;
 		}
-	finally
+	
+	/** print the statistics for one BAM */
+	private void print(
+			final PrintWriter pw,
+			final Map<String, List<Interval>> gene2interval,
+			final Set<String> groupNames,
+			final Map<String,Map<String,CoverageEngine.DepthHistogram>> partition2gene
+			)
 		{
-		CloserUtil.close(IN);
+		for(final String partition : groupNames)
+			{
+			for(final String gene: gene2interval.keySet())
+				{
+				int geneStart = Integer.MAX_VALUE;
+				int geneEnd = 0;
+				for(final Interval interval:gene2interval.get(gene))
+					{
+					geneStart = Math.min(geneStart, interval.getStart()-1);
+					geneEnd = Math.max(geneEnd, interval.getEnd());
+					}
+				final CoverageEngine.DepthHistogram hist = partition2gene.get(partition).get(gene);
+				if(hist.getCount()==0L) throw new IllegalStateException("No base for gene "+gene);
+				final long count_no_coverage = hist.getCountAtMost(MIN_COVERAGE);
+				pw.println(
+						gene2interval.get(gene).get(0).getContig()+"\t"+
+						geneStart+"\t"+geneEnd+"\t"+gene+"\t"+partition+"\t"+
+						hist.getCount()+"\t"+
+						hist.getMin()+"\t"+
+						hist.getMax()+"\t"+
+						hist.getMean()+"\t"+
+						count_no_coverage+"\t"+
+						(int)(((hist.getCount()-count_no_coverage)/(double)hist.getCount())*100.0)
+						);
+				}//end gene
+			}//end sample
 		}
-	}
 	
 	@Override
 	public int doWork(List<String> args) {
@@ -307,6 +359,7 @@ public class BamStats05 extends Launcher
 		SamReader in=null;
 		BufferedReader r=null;
 		PrintWriter pw=null;
+		CoverageEngine engine=null;
 		try
 			{
 			Map<String, List<Interval>> gene2interval = readBedFile(BEDILE);
@@ -327,6 +380,7 @@ public class BamStats05 extends Launcher
 						LOG.error("line should end with .bam :"+line);
 						return -1;
 						}
+					files.add(line);
 					}
 				CloserUtil.close(r);
 				}
@@ -341,13 +395,40 @@ public class BamStats05 extends Launcher
 					}
 				}
 			
-			for(final String f:files)
+			final List<GeneChunk> chunks = splitGenes(gene2interval);
+			engine = new CoverageEngine(srf, this.nThreads);
+			/* submit all the tasks, then print the results in the order of the files */
+			final List<String> fileList = new ArrayList<>(files);
+			final List<List<Future<Map<String,Map<String,CoverageEngine.DepthHistogram>>>>> futures = new ArrayList<>(fileList.size());
+			for(final String f:fileList)
+				{
+				final List<Future<Map<String,Map<String,CoverageEngine.DepthHistogram>>>> fileFutures = new ArrayList<>(chunks.size());
+				for(final GeneChunk chunk:chunks)
+					{
+					fileFutures.add(engine.submit(new File(f), R->scanChunk(gene2interval,chunk,f,R)));
+					}
+				futures.add(fileFutures);
+				}
+			for(int i=0;i< fileList.size();++i)
 				{
+				final String f = fileList.get(i);
+				LOG.info("Scanning "+f);
 				in = srf.open(new File(f));
-				int tl =doWork(pw,gene2interval,f,in);
+				final Set<String> groupNames = getPartitions(f,in.getFileHeader());
 				CloserUtil.close(in);
 				in=null;
-				if(tl!=0) return tl;
+				final Map<String,Map<String,CoverageEngine.DepthHistogram>> partition2gene = new HashMap<>();
+				for(final String partition:groupNames) partition2gene.put(partition, new HashMap<>());
+				for(final Future<Map<String,Map<String,CoverageEngine.DepthHistogram>>> future: futures.get(i))
+					{
+					final Map<String,Map<String,CoverageEngine.DepthHistogram>> result = CoverageEngine.get(future);
+					for(final String partition:result.keySet())
+						{
+						partition2gene.get(partition).putAll(result.get(partition));
+						}
+					}
+				futures.set(i, null);
+				print(pw,gene2interval,groupNames,partition2gene);
 				}
 			pw.flush();
 			pw.close();
@@ -360,6 +441,7 @@ public class BamStats05 extends Launcher
 			}
 		finally
 			{
+			CloserUtil.close(engine);
 			CloserUtil.close(in);
 			CloserUtil.close(r);
 			CloserUtil.close(pw);
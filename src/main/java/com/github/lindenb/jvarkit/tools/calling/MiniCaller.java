@@ -28,7 +28,6 @@ History:
 */
 package com.github.lindenb.jvarkit.tools.calling;
 
-import htsjdk.samtools.Cigar;
 import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.CigarOperator;
 import htsjdk.samtools.MergingSamRecordIterator;
@@ -36,6 +35,7 @@ import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.SamFileHeaderMerger;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
@@ -43,6 +43,9 @@ import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.filter.SamRecordFilter;
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.PeekableIterator;
+import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
@@ -59,18 +62,28 @@ import htsjdk.variant.vcf.VCFInfoHeaderLine;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
-import com.github.lindenb.jvarkit.util.Counter;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.util.bio.samfilter.SamFilterParser;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
@@ -118,220 +131,494 @@ public class MiniCaller extends Launcher
 	@Parameter(names={"-f","--filter"},description=SamFilterParser.FILTER_DESCRIPTION,converter=SamFilterParser.StringConverter.class)
 	private SamRecordFilter readFilter  = SamFilterParser.buildDefault();
 
+	@Parameter(names={"--threads"},description="Number of threads. When greater than 1, the BAMs must be indexed: the dictionary is split into regions of '--regionSize' bases that are called in parallel and the VCF is written in order.")
+	private int nThreads = 1;
+	@Parameter(names={"--regionSize"},description="Size of the regions called by each thread when '--threads' is greater than 1. The variants of a region are kept in memory until they are printed.")
+	private int regionSize = 10_000;
+
 	
 	private SAMSequenceDictionary dictionary=null;
     private VariantContextWriter variantContextWriter = null;
     private IndexedFastaSequenceFile indexedFastaSequenceFile=null;
     private Map<String,Integer> sample2index=new TreeMap<>();
     private List<String> samples=new ArrayList<>();
-    private List<MyVariantContext> buffer=new ArrayList<>();
     private double min_fraction_alt=1.0/1000.0;
-
+    /** alternate alleles for the bases A,C,G,T */
+    private static final Allele BASE_ALLELES[]=new Allele[]{
+    	Allele.create("A",false),
+    	Allele.create("C",false),
+    	Allele.create("G",false),
+    	Allele.create("T",false)
+    	};
     
-    private class Base2
-        {
-        Allele alt;
-        @SuppressWarnings("unused")
-		byte qual;
-        int sample_index;
-        int count_strands[]={0,0};
-        Base2(Allele alt,byte qual,int sample_index,boolean negativeStrand)
-            {
-            this.alt=alt;
-            this.qual=qual;
-            this.sample_index=sample_index;
-            this.count_strands[negativeStrand?1:0]=1;
-            }
-        public int count()
-        	{
-        	return this.count_strands[0]+this.count_strands[1];
-        	}
-        }
-    private class MyVariantContext
-        implements Comparable<MyVariantContext>
-        {
-        int tid;
-        int pos0;
-        Allele ref;
-        List<Base2> bases = new ArrayList<Base2>();
-
-        
-        public String getReferenceName()
-        	{
-        	return dictionary.getSequence(this.tid).getSequenceName();
-        	}
-        
-        @Override
-        public int compareTo(final MyVariantContext o2)
-            {
-            int i = this.tid - o2.tid;
-            if( i !=0) return i;
-            i =this.pos0 - o2.pos0;
-            if( i !=0) return i;
-            i = this.ref.compareTo(o2.ref);
-            return i;
-            }
-        
-        void add(Base2 base)
-            {
-            if( base.alt.getBaseString().equals( this.ref.getBaseString() ))
-                {
-                base.alt = this.ref;
-                }
-            if(base.alt.getBaseString().equals("N")) return;
-            
-            //ugly, use std::lower_bound
-            int idx=0;
-            for(idx=0; idx<this.bases.size(); ++idx)
+    /** index of a base in BASE_ALLELES, -1 for 'N' */
+    private static int baseIndex(final char c)
+    	{
+    	switch(c)
+    		{
+    		case 'A': case 'a': return 0;
+    		case 'C': case 'c': return 1;
+    		case 'G': case 'g': return 2;
+    		case 'T': case 't': return 3;
+    		case 'N': case 'n': return -1;
+    		default: throw new IllegalArgumentException("Illegal base ["+c+"]");
+    		}
+    	}
+    
+    /** observations at one position of the genome. The slots are recycled by the Pileup */
+    private static class PileupSlot
+    	{
+    	/** 0-based position or -1 if this slot is free */
+    	int pos0 = -1;
+    	boolean touched = false;
+    	/** baseCounts[A,C,G,T][sample*2+strand] */
+    	int baseCounts[][] = null;
+    	/** insertions: alt allele (anchor base + inserted bases) to counts[sample*2+strand] */
+    	Map<String,int[]> insertions = null;
+    	/** deletions: ref allele (anchor base + deleted bases) to counts[sample*2+strand] */
+    	Map<String,int[]> deletions = null;
+    	
+    	void reset(final int pos0)
+    		{
+    		this.pos0 = pos0;
+    		if(!this.touched) return;
+    		if(this.baseCounts!=null)
+    			{
+    			for(final int array[]:this.baseCounts) Arrays.fill(array, 0);
+    			}
+    		this.insertions = null;
+    		this.deletions = null;
+    		this.touched = false;
+    		}
+    	}
+    
+    /** pileup of the reads: a ring of PileupSlot indexed by the genomic position */
+    private class Pileup
+    	{
+    	private final int nSamples = MiniCaller.this.samples.size();
+    	private final IndexedFastaSequenceFile fasta;
+    	private final Consumer<VariantContext> consumer;
+    	/** only the variants in [minPos0,maxPos0] are printed */
+    	private final int minPos0;
+    	private final int maxPos0;
+    	private PileupSlot ring[] = new PileupSlot[1024];
+    	private GenomicSequence genomicSeq = null;
+    	private int tid = -1;
+    	/** lowest position in the ring */
+    	private int first = 0;
+    	/** highest observed position */
+    	private int last = -1;
+    	
+    	Pileup(final IndexedFastaSequenceFile fasta,final Consumer<VariantContext> consumer,final int minPos0,final int maxPos0)
+    		{
+    		this.fasta = fasta;
+    		this.consumer = consumer;
+    		this.minPos0 = minPos0;
+    		this.maxPos0 = maxPos0;
+    		}
+    	
+    	private PileupSlot slot(final int pos0)
+    		{
+    		if(pos0 < this.first)
+    			{
+    			throw new JvarkitException.FileFormatError("reads are not sorted on coordinate: position "+(pos0+1)+" was already printed");
+    			}
+    		while(pos0 - this.first >= this.ring.length)
+    			{
+    			final PileupSlot array[] = new PileupSlot[this.ring.length*2];
+    			for(final PileupSlot s: this.ring)
+    				{
+    				if(s==null || s.pos0 < this.first) continue;
+    				array[s.pos0 & (array.length-1)] = s;
+    				}
+    			this.ring = array;
+    			}
+    		final int idx = pos0 & (this.ring.length-1);
+    		PileupSlot s = this.ring[idx];
+    		if(s==null)
+    			{
+    			s = new PileupSlot();
+    			this.ring[idx] = s;
+    			}
+    		if(s.pos0!=pos0) s.reset(pos0);
+    		s.touched = true;
+    		this.last = Math.max(this.last, pos0);
+    		return s;
+    		}
+    	
+    	private int[] baseCounts(final int pos0,final int base)
+    		{
+    		final PileupSlot s = slot(pos0);
+    		if(s.baseCounts==null) s.baseCounts = new int[4][this.nSamples*2];
+    		return s.baseCounts[base];
+    		}
+    	
+    	private int[] counts(final Map<String,int[]> map,final String key)
+    		{
+    		int array[] = map.get(key);
+    		if(array==null)
+    			{
+    			array = new int[this.nSamples*2];
+    			map.put(key, array);
+    			}
+    		return array;
+    		}
+    	
+    	void add(final SAMRecord rec,final int sample_index)
+    		{
+    		if(rec.getReferenceIndex()!=this.tid)
+    			{
+    			if(rec.getReferenceIndex() < this.tid)
+    				{
+    				throw new JvarkitException.FileFormatError("reads are not sorted on coordinate");
+    				}
+    			finish();
+    			this.tid = rec.getReferenceIndex();
+    			/* get genomic sequence at this position */
+    			this.genomicSeq = new GenomicSequence(this.fasta, rec.getReferenceName());
+    			this.first = Math.max(0, rec.getAlignmentStart()-2);
+    			}
+    		/* an insertion or a deletion at the start of the read is anchored one base before */
+    		flush(rec.getAlignmentStart()-2);
+    		
+    		final int strand = (rec.getReadNegativeStrandFlag()?1:0) + sample_index*2;
+    		final byte bases[] = rec.getReadBases();
+    		int readPos=0;
+    		int refPos0 = rec.getAlignmentStart() -1;//0 based-reference
+    		for(final CigarElement ce: rec.getCigar().getCigarElements())
                 {
-                Base2 b2 = this.bases.get(idx);
-                if(b2.sample_index < base.sample_index) continue;
-                if(b2.sample_index > base.sample_index) break;
-                int i = b2.alt.compareTo(base.alt);
-                if(i< 0) continue;
-                if(i>0 ) break;
-                //go it
-                b2.count_strands[0]+=base.count_strands[0];
-                b2.count_strands[1]+=base.count_strands[1];
-                return ;
+                final CigarOperator op =ce.getOperator();
+                switch(op)
+                    {
+                    case P: break;
+                    case H: break;
+                    case S: readPos+=ce.getLength(); break;
+                    case N://go
+                    case D:
+                        {
+                        // we need base before deletion, an alt allele 'N' is ignored
+                        if(refPos0>0 && Character.toUpperCase(this.genomicSeq.charAt(refPos0-1))!='N')
+                            {
+                        	final char refBase = this.genomicSeq.charAt(refPos0-1);/* we use base before deletion */
+                        	final StringBuilder sb=new StringBuilder(1+ce.getLength());
+                        	sb.append(refBase);
+                            for(int i=0;i< ce.getLength();++i)
+                            	{
+                            	sb.append(this.genomicSeq.charAt(refPos0+i));
+                            	}
+                            final PileupSlot s = slot(refPos0-1);
+                            if(s.deletions==null) s.deletions = new TreeMap<>();
+                            counts(s.deletions,sb.toString().toUpperCase())[strand]++;
+                            }
+                        refPos0+= ce.getLength();
+                        break;
+                        }
+                    case I:
+                        {
+                        if(refPos0>0)
+                            {
+                        	final StringBuilder sb=new StringBuilder(1+ce.getLength());
+                            sb.append(Character.toUpperCase(this.genomicSeq.charAt(refPos0-1)));
+                            for(int i=0;i< ce.getLength();++i)
+                            	{
+                            	sb.append((char)bases[readPos+i]);
+                            	}
+                            final PileupSlot s = slot(refPos0-1);
+                            if(s.insertions==null) s.insertions = new TreeMap<>();
+                            counts(s.insertions,sb.toString().toUpperCase())[strand]++;
+                            }
+                        readPos+=ce.getLength();
+                        break;
+                        }
+                    case EQ: case M: case X:
+                        {
+                        for(int i=0; i< ce.getLength();++i)
+                            {
+                            final int base = baseIndex((char)bases[ readPos + i ]);
+                            if(base<0) continue;
+                            baseCounts(refPos0 + i,base)[strand]++;
+                            }
+                        readPos+=ce.getLength();
+                        refPos0+= ce.getLength();
+                        break;
+                        }
+                    default : throw new
+                    IllegalStateException("Case statement didn't deal with cigar op: "+ op);
+                    }
                 }
-            //System.err.println("new at "+tid+":"+pos0+" idx="+idx+" N="+this.buffer);
-            this.bases.add(idx, base);
-            }
-        
-        @Override
-        public String toString() {
-        	return getReferenceName()+":"+pos0+" "+this.bases.size();
-        	}
-        
-        void print()
-        	{
-        	VariantContext ctx=make();
-        	if(ctx==null) return;
-        	variantContextWriter.add(ctx);
-        	}
-
-        VariantContext make()
+    		}
+    	
+    	/** print and release all the positions before limit0 */
+    	private void flush(final int limit0)
+    		{
+    		if(limit0 <= this.first) return;
+    		final int end0 = Math.min(limit0, this.last+1);
+    		for(int pos0 = this.first; pos0 < end0; ++pos0)
+    			{
+    			final PileupSlot s = this.ring[pos0 & (this.ring.length-1)];
+    			if(s==null || s.pos0!=pos0 || !s.touched) continue;
+    			if(pos0>=this.minPos0 && pos0<=this.maxPos0) print(s);
+    			s.reset(-1);
+    			}
+    		this.first = limit0;
+    		}
+    	
+    	/** print all the remaining positions on the current contig */
+    	void finish()
+    		{
+    		if(this.tid<0) return;
+    		flush(this.last+1);
+    		this.tid = -1;
+    		this.first = 0;
+    		this.last = -1;
+    		this.genomicSeq = null;
+    		}
+    	
+    	private void print(final PileupSlot s)
+    		{
+    		final List<Allele> alleles = new ArrayList<>();
+    		final List<int[]> counts = new ArrayList<>();
+    		if(s.baseCounts!=null || s.insertions!=null)
+	    		{
+    			final Allele ref = Allele.create(String.valueOf(this.genomicSeq.charAt(s.pos0)), true);
+	    		if(s.baseCounts!=null)
+	    			{
+	    			final int refIndex = baseIndex(ref.getBaseString().charAt(0));
+	    			for(int base=0;base< 4;++base)
+		    			{
+		    			alleles.add(base==refIndex?ref:BASE_ALLELES[base]);
+		    			counts.add(s.baseCounts[base]);
+		    			}
+	    			}
+	    		if(s.insertions!=null)
+		    		{
+		    		for(final String alt:s.insertions.keySet())
+		    			{
+		    			alleles.add(Allele.create(alt, false));
+		    			counts.add(s.insertions.get(alt));
+		    			}
+		    		}
+	    		final VariantContext ctx = make(s.pos0,ref,alleles,counts);
+	    		if(ctx!=null) this.consumer.accept(ctx);
+	    		}
+    		if(s.deletions!=null)
+    			{
+    			for(final String refStr:s.deletions.keySet())
+	    			{
+    				alleles.clear();
+    				counts.clear();
+	    			alleles.add(Allele.create(refStr.substring(0,1),false));
+	    			counts.add(s.deletions.get(refStr));
+	    			final VariantContext ctx = make(s.pos0,Allele.create(refStr, true),alleles,counts);
+		    		if(ctx!=null) this.consumer.accept(ctx);
+	    			}
+    			}
+    		}
+    	
+    	/** create the variant from the counts[allele][sample*2+strand] */
+    	private VariantContext make(final int pos0,final Allele ref,final List<Allele> alleles,final List<int[]> counts)
             {
-        	boolean indel=this.ref.getBaseString().length()!=1;
-            VariantContextBuilder vcb=new
+        	boolean indel=ref.getBaseString().length()!=1;
+            final VariantContextBuilder vcb=new
                     VariantContextBuilder();
-            vcb.chr(this.getReferenceName());
-            vcb.start(this.pos0+1);
+            vcb.chr(MiniCaller.this.dictionary.getSequence(this.tid).getSequenceName());
+            vcb.start(pos0+1);
             
-            List<Genotype> genotypes=new ArrayList<>();
-            Set<Allele> alleles=new TreeSet<Allele>();
+            final List<Genotype> genotypes=new ArrayList<>();
+            final Set<Allele> vcAlleles=new TreeSet<Allele>();
+            final int order[] = new int[alleles.size()];
+            final int depths[] = new int[alleles.size()];
             int total_depth=0;
 
-            for(int sample_index=0;sample_index <
-                    samples.size();++sample_index)
+            for(int sample_index=0;sample_index < this.nSamples;++sample_index)
                 {
-                Counter<Allele> count_alleles = new Counter<Allele>();
-                int dp4[]=new int[]{0,0,0,0};
-
-                for(Base2 v2: this.bases)
-                    {
-                    if(v2.sample_index!=sample_index) continue;
-                    count_alleles.incr(v2.alt,v2.count());
-                    
-                    
-                    
-                    //cal dp4 RF,RR,AF,AR
-                    if(v2.alt.isReference())
-                    	{
-                    	dp4[0] += v2.count_strands[0];
-                    	dp4[1] += v2.count_strands[1];
-                    	}
-                    else
-                    	{
-                    	dp4[2] += v2.count_strands[0];
-                    	dp4[3] += v2.count_strands[1];
-                    	}
-                    }
+                final int dp4[]=new int[]{0,0,0,0};
+                int total = 0;
+                int n_observed = 0;
+                for(int a=0;a< alleles.size();++a)
+                	{
+                	final int forward = counts.get(a)[sample_index*2];
+                	final int reverse = counts.get(a)[sample_index*2+1];
+                	if(forward+reverse==0) continue;
+                	//cal dp4 RF,RR,AF,AR
+                	final int offset = alleles.get(a).isReference()?0:2;
+                	dp4[offset] += forward;
+                	dp4[offset+1] += reverse;
+                	total += forward+reverse;
+                	depths[a] = forward+reverse;
+                	/* sort by decreasing depth, then on allele */
+                	int i = n_observed++;
+                	while(i>0 && (depths[order[i-1]] < depths[a] ||
+                			(depths[order[i-1]] == depths[a] && alleles.get(order[i-1]).compareTo(alleles.get(a)) > 0)))
+                		{
+                		order[i] = order[i-1];
+                		--i;
+                		}
+                	order[i] = a;
+                	}
                 
-                total_depth+= count_alleles.getTotal();
-                if(count_alleles.getTotal()> MiniCaller.this.min_depth)
+                total_depth+= total;
+                if(total > MiniCaller.this.min_depth)
                     {
-                	ArrayList<Allele> sample_alleles=new ArrayList<>(count_alleles.getCountCategories());
-                	ArrayList<Integer> sample_depths=new ArrayList<>(count_alleles.getCountCategories());
-                	for(Allele a: count_alleles.keySetDecreasing())
+                	final List<Allele> sample_alleles=new ArrayList<>(n_observed);
+                	final List<Integer> sample_depths=new ArrayList<>(n_observed);
+                	for(int i=0;i< n_observed;++i)
                 		{
+                		final Allele a = alleles.get(order[i]);
                 		//skip if fraction of variant too low
-                		if((float)count_alleles.count(a)/(float)count_alleles.getTotal() < MiniCaller.this.min_fraction_alt)
+                		if((float)depths[order[i]]/(float)total < MiniCaller.this.min_fraction_alt)
                 			{
                 			continue;
                 			}
                 		if(a.getBaseString().length()!=1) indel=true;
                 		
                 		sample_alleles.add(a);
-                		sample_depths.add((int)count_alleles.count(a));
+                		sample_depths.add(depths[order[i]]);
                 		}
                 	if(!sample_alleles.isEmpty())
 	                	{
-	                	GenotypeBuilder gb=new GenotypeBuilder(
+	                	final GenotypeBuilder gb=new GenotypeBuilder(
 	                			MiniCaller.this.samples.get(sample_index),
 	                			sample_alleles);
-	                	gb.DP((int)count_alleles.getTotal());
+	                	gb.DP(total);
 	                	gb.attribute("DPG", sample_depths);
 	                	gb.attribute("DP4",Arrays.asList(dp4));
-	                	Genotype gt = gb.make();
-	                    alleles.addAll(sample_alleles);
-	                    genotypes.add(gt);
+	                	vcAlleles.addAll(sample_alleles);
+	                    genotypes.add(gb.make());
 	                	}
                 	}
-               
                 }
-           
             
-            alleles.add(this.ref);
+            vcAlleles.add(ref);
             if(indel) vcb.attribute("INDEL", Boolean.TRUE);
             vcb.attribute("DP", total_depth);
             vcb.genotypes(genotypes);
-            vcb.alleles(alleles);
-            
-            /*int max_length=0;
-            for(Allele a:alleles)
-            	{
-            	max_length=Math.max(a.getBaseString().length(), max_length);
-            	}*/
-            vcb.stop(this.pos0+this.ref.getBaseString().length());
+            vcb.alleles(vcAlleles);
+            vcb.stop(pos0+ref.getBaseString().length());
 
-            VariantContext ctx= vcb.make();
+            final VariantContext ctx= vcb.make();
             if(ctx.getAlternateAlleles().isEmpty()) return null;   
             return ctx;
             }
-
-        }
-
-
+    	}
+    
+    /** per-thread readers used when the regions are called in parallel */
+    private class RegionResources
+    	{
+    	final IndexedFastaSequenceFile fasta;
+    	final List<SamReader> readers = new ArrayList<>();
+    	RegionResources(final List<File> bamFiles) throws IOException
+    		{
+    		this.fasta = new IndexedFastaSequenceFile(MiniCaller.this.fastaFile);
+    		final SamReaderFactory srf=SamReaderFactory.make();
+            srf.validationStringency(ValidationStringency.LENIENT);
+            for(final File bamFile:bamFiles) this.readers.add(srf.open(bamFile));
+    		}
+    	void close()
+    		{
+    		for(final SamReader r:this.readers) CloserUtil.close(r);
+    		CloserUtil.close(this.fasta);
+    		}
+    	}
+    
+    /** call the variants in one region using the indexed BAMs */
+    private List<VariantContext> callRegion(final RegionResources resources,final Interval region)
+    	{
+    	final List<VariantContext> variants = new ArrayList<>();
+    	final Pileup pileup = new Pileup(resources.fasta, variants::add, region.getStart()-1, region.getEnd()-1);
+    	final List<PeekableIterator<SAMRecord>> iterators = new ArrayList<>(resources.readers.size());
+    	try
+    		{
+    		final PriorityQueue<PeekableIterator<SAMRecord>> queue = new PriorityQueue<>(
+    			Math.max(1, resources.readers.size()),
+    			(A,B)->Integer.compare(A.peek().getAlignmentStart(), B.peek().getAlignmentStart())
+    			);
+    		for(final SamReader r:resources.readers)
+	    		{
+    			/* one base after the region: an indel at the start of a read is anchored on the previous base */
+    			final PeekableIterator<SAMRecord> iter = new PeekableIterator<>(
+    					r.queryOverlapping(region.getContig(), region.getStart(), region.getEnd()+1)
+    					);
+    			iterators.add(iter);
+    			if(iter.hasNext()) queue.add(iter);
+	    		}
+    		while(!queue.isEmpty())
+    			{
+    			final PeekableIterator<SAMRecord> iter = queue.poll();
+    			final SAMRecord rec = iter.next();
+    			if(iter.hasNext()) queue.add(iter);
+    			if(rec.getReadUnmappedFlag()) continue;
+                if(this.readFilter.filterOut(rec)) continue;
+                pileup.add(rec, sampleIndex(rec));
+    			}
+    		pileup.finish();
+    		return variants;
+    		}
+    	finally
+    		{
+    		for(final PeekableIterator<SAMRecord> iter:iterators) iter.close();
+    		}
+    	}
+
+    private int sampleIndex(final SAMRecord rec)
+    	{
+    	String sampleName= this.samRecordPartition.getPartion(rec);
+        if( sampleName == null ) sampleName=samRecordPartition.name();
+        return this.sample2index.get(sampleName);
+    	}
 
     public MiniCaller() {
         }
 
-    private MyVariantContext findContext(final int tid,final int pos0,final Allele ref)
-        {
-        int idx=0;
-        for(idx=0; idx<this.buffer.size(); ++idx)
-            {
-            MyVariantContext ctx = this.buffer.get(idx);
-            if(ctx.tid < tid) continue;
-            if(ctx.tid > tid) break;
-            if(ctx.pos0 < pos0) continue;
-            if(ctx.pos0 > pos0) break;
-            int i = ctx.ref.compareTo(ref);
-            if(i< 0) continue;
-            if(i>0 ) break;
-            //System.err.println("ok got "+ctx);
-            return ctx;
-            }
-        //System.err.println("new at "+tid+":"+pos0+" idx="+idx+" N="+this.buffer);
-        final MyVariantContext ctx=new MyVariantContext();
-        ctx.tid=tid;
-        ctx.pos0=pos0;
-        ctx.ref=ref;
-        this.buffer.add(idx, ctx);
-        return ctx;
-        }
+    /** call the regions of the dictionary in parallel, the variants are written in order */
+    private void callRegions(final List<File> bamFiles) throws Exception
+    	{
+    	final List<RegionResources> allResources = Collections.synchronizedList(new ArrayList<>());
+    	final ThreadLocal<RegionResources> threadResources = ThreadLocal.withInitial(()->{
+    		try {
+    			final RegionResources r = new RegionResources(bamFiles);
+    			allResources.add(r);
+    			return r;
+    			}
+    		catch(final IOException err)
+    			{
+    			throw new RuntimeIOException(err);
+    			}
+    		});
+    	final ExecutorService executor = Executors.newFixedThreadPool(this.nThreads);
+    	final Deque<Future<List<VariantContext>>> pending = new ArrayDeque<>();
+    	try
+    		{
+    		final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(this.dictionary);
+	    	for(final SAMSequenceRecord ssr:this.dictionary.getSequences())
+	    		{
+	    		for(int start=1;start<=ssr.getSequenceLength();start+=this.regionSize)
+	    			{
+	    			final Interval region = new Interval(ssr.getSequenceName(), start,
+	    				(int)Math.min((long)ssr.getSequenceLength(), (long)start+this.regionSize-1L));
+	    			pending.add(executor.submit(()->callRegion(threadResources.get(),region)));
+	    			/* keep a bounded number of regions in memory */
+	    			while(pending.size() > this.nThreads)
+	    				{
+	    				pending.removeFirst().get().forEach(this.variantContextWriter::add);
+	    				}
+	    			progress.watch(ssr.getSequenceName(), start);
+	    			}
+	    		}
+	    	while(!pending.isEmpty())
+	    		{
+	    		pending.removeFirst().get().forEach(this.variantContextWriter::add);
+	    		}
+	    	progress.finish();
+    		}
+    	finally
+    		{
+    		for(final Future<List<VariantContext>> f:pending) f.cancel(true);
+    		executor.shutdownNow();
+    		executor.awaitTermination(1, TimeUnit.MINUTES);
+    		for(final RegionResources r:allResources) r.close();
+    		}
+    	}
     
     @Override
     public int doWork(final List<String> args) {
@@ -431,20 +718,6 @@ public class MiniCaller extends Launcher
                 readers.add(samReader);
                 }
 
-            /* create merged sam header */
-            SamFileHeaderMerger merger=new SamFileHeaderMerger(
-            		SAMFileHeader.SortOrder.coordinate,
-            		headers,
-            		false
-            		);
-
-            /* create sam record iterator */
-            MergingSamRecordIterator iter= new MergingSamRecordIterator(
-                    merger,
-                    readers,
-                    true
-                    );
-
             /* create VCF metadata */
             Set<VCFHeaderLine> metaData=new HashSet<VCFHeaderLine>();
             metaData.add(new VCFFormatHeaderLine(
@@ -497,144 +770,53 @@ public class MiniCaller extends Launcher
             this.variantContextWriter = super.openVariantContextWriter(outputFile);
             this.variantContextWriter.writeHeader(vcfHeader);
 
-            GenomicSequence genomicSeq=null;
-            SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(this.dictionary);
-            for(;;)
-                {
-                SAMRecord rec=null;
-                
-                
-                if(iter.hasNext())
-                    {
-                    rec=progress.watch(iter.next());
-                    if(rec.getReadUnmappedFlag()) continue;
-                    if(this.readFilter.filterOut(rec)) continue;
-                  
-                    /* flush buffer if needed */
-                    while(!this.buffer.isEmpty() &&
-                    	(this.buffer.get(0).tid < rec.getReferenceIndex() ||
-                    	(this.buffer.get(0).tid == rec.getReferenceIndex() && (this.buffer.get(0).pos0+1) < rec.getAlignmentStart())))
-                    	{
-                    	this.buffer.remove(0).print();
-                    	}
-                    /* get genomic sequence at this position */
-                    if(genomicSeq==null ||
-                            !genomicSeq.getChrom().equals(rec.getReferenceName()))
-                            {
-                            genomicSeq = new GenomicSequence(
-                                    this.indexedFastaSequenceFile,
-                                    rec.getReferenceName());
-                            }
-                    Cigar cigar= rec.getCigar();
-                    int readPos=0;
-                    int refPos0 = rec.getAlignmentStart() -1;//0 based-reference
-                    byte bases[]=rec.getReadBases();
-                    byte quals[]=rec.getBaseQualities();
-                    String sampleName= this.samRecordPartition.getPartion(rec);
-                    if( sampleName == null ) sampleName=samRecordPartition.name();
-                    
-                    for(final CigarElement ce: cigar.getCigarElements())
-                        {
-                        final CigarOperator op =ce.getOperator();
-                        switch(op)
-                            {
-                            case P: break;
-                            case H: break;
-                            case S: readPos+=ce.getLength(); break;
-                            case N://go
-                            case D:
-                                {
-                                if(refPos0>0)// we need base before deletion
-	                                {
-                                	char refBase=genomicSeq.charAt(refPos0-1);/* we use base before deletion */
-                                	final StringBuilder sb=new StringBuilder(ce.getLength());
-	                            	sb.append(refBase);
-	                                for(int i=0;i< ce.getLength();++i)
-	                                	{
-	                                	sb.append(genomicSeq.charAt(refPos0+i));
-	                                	}
-	                                final MyVariantContext v=findContext(
-                                            rec.getReferenceIndex(),
-                                            refPos0-1,//we use base *before deletion */
-                                            Allele.create(sb.toString(), true)
-                                            );
-	                                v.add(new Base2(
-                                            Allele.create(String.valueOf(refBase),false),
-                                            (byte)0,
-                                            this.sample2index.get(sampleName),
-                                            rec.getReadNegativeStrandFlag()
-                                            ));
-	                                }
-                                refPos0+= ce.getLength();
-                                break;
-                                }
-                            case I:
-                                {
-                                if(refPos0>0)
-	                                {
-                                	float qual=0;
-                                	char refBase=Character.toUpperCase( genomicSeq.charAt(refPos0-1));
-                                	final StringBuilder sb=new StringBuilder(1+ce.getLength());
-	                                sb.append(refBase);
-	                                for(int i=0;i< ce.getLength();++i)
-	                                	{
-	                                	sb.append((char)bases[readPos+i]);
-	                                	qual+=(readPos + i < quals.length?quals[ readPos + i]:0);
-	                                	}
-	                                final MyVariantContext v=findContext(
-                                            rec.getReferenceIndex(),
-                                            refPos0-1,//we use base *before deletion */
-                                            Allele.create(String.valueOf(refBase), true)
-                                            );
-	                                
-	                                v.add(new Base2(
-                                            Allele.create(sb.toString().toUpperCase(),false),
-                                            (byte)(qual/ce.getLength()),
-                                            this.sample2index.get(sampleName),
-                                            rec.getReadNegativeStrandFlag()
-                                            ));
-	                                }
-                                readPos+=ce.getLength();
-                                break;
-                                }
-                            case EQ: case M: case X:
-                                {
-                                for(int i=0; i< ce.getLength();++i)
-                                    {
-                                    final MyVariantContext v=findContext(
-                                            rec.getReferenceIndex(),
-                                            refPos0 + i,
-                                            Allele.create(String.valueOf(genomicSeq.charAt( refPos0 + i)), true)
-                                            );
-                                    
-
-                                    v.add(new Base2(
-                                            Allele.create(String.valueOf((char)bases[ readPos + i ]),false),
-                                            (readPos + i < quals.length?quals[ readPos + i]:0),
-                                            this.sample2index.get(sampleName),
-                                            rec.getReadNegativeStrandFlag()
-                                            ));
-                                    }
-                                readPos+=ce.getLength();
-                                refPos0+= ce.getLength();
-                                break;
-                                }
-
-                            default : throw new
-                            IllegalStateException("Case statement didn't deal with cigar op: "+ op);
-                            }
-                        }
-                    }
-                else
-                    {
-                    break;
-                    }
-                }
-            
-            while(!buffer.isEmpty()) buffer.remove(0).print();
-            progress.finish();
-            iter.close();
+            if(this.nThreads<=1)
+	            {
+	            /* create merged sam header */
+	            final SamFileHeaderMerger merger=new SamFileHeaderMerger(
+	            		SAMFileHeader.SortOrder.coordinate,
+	            		headers,
+	            		false
+	            		);
+	
+	            /* create sam record iterator */
+	            final MergingSamRecordIterator iter= new MergingSamRecordIterator(
+	                    merger,
+	                    readers,
+	                    true
+	                    );
+	            final Pileup pileup = new Pileup(this.indexedFastaSequenceFile,this.variantContextWriter::add,0,Integer.MAX_VALUE);
+	            final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(this.dictionary);
+	            while(iter.hasNext())
+	                {
+	                final SAMRecord rec=progress.watch(iter.next());
+	                if(rec.getReadUnmappedFlag()) continue;
+	                if(this.readFilter.filterOut(rec)) continue;
+	                pileup.add(rec, sampleIndex(rec));
+	                }
+	            pileup.finish();
+	            progress.finish();
+	            iter.close();
+	            }
+            else
+            	{
+            	for(int i=0;i< readers.size();++i)
+            		{
+            		if(!readers.get(i).hasIndex())
+            			{
+            			LOG.error("BAM is not indexed "+bamFiles.get(i)+". Option --threads requires indexed BAMs.");
+            			return -1;
+            			}
+            		}
+            	if(this.regionSize<1)
+            		{
+            		LOG.error("bad region size "+this.regionSize);
+            		return -1;
+            		}
+            	callRegions(bamFiles);
+            	}
             this.variantContextWriter.close();
+            this.variantContextWriter=null;
             return RETURN_OK;
             }
         catch (Exception e)
@@ -27,26 +27,45 @@ History:
 
 */
 package com.github.lindenb.jvarkit.tools.cmpbams;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.util.bio.IntervalParser;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.JvarkitSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
 import htsjdk.samtools.util.Interval;
@@ -58,7 +77,6 @@ import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.SequenceUtil;
-import htsjdk.samtools.util.SortingCollection;
 /*
 BEGIN_DOC
 
@@ -265,6 +283,13 @@ HWI-1KL149:20:C1CU7ACXX:2:2311:14082:99026/2	EQ|EQ|EQ	K01:2081=163/100M	K01:2081
 HWI-1KL149:20:C1CU7ACXX:2:2315:4940:7934/1	EQ|EQ|EQ	K01:2133=83/100M	K01:2133=83/100M	K01:2133=83/100M
 HWI-1KL149:20:C1CU7ACXX:2:2315:4940:7934/2	EQ|EQ|EQ	K01:2059=163/100M	K01:2059=163/100M	K01:2059=163/100M</h:pre>
 ```
+
+## Partitions
+
+With `--partitions N`, the read names are hashed into N partitions written to disk while the BAMs are read (one thread per BAM).
+Each partition is then loaded in memory, sorted and compared on a pool of `--threads` workers, and the sorted reports
+of the partitions are merged. The report is the same as the default mode. Choose N so that one partition fits in memory.
+
 END_DOC
 */
 
@@ -293,6 +318,12 @@ public class CompareBams  extends Launcher
 	@Parameter(names={"-r","--region"},description=IntervalParser.OPT_DESC)
 	private String REGION = "";
 
+	@Parameter(names={"--partitions"},description="Hash the read names into N partitions spilled to disk. Each partition is sorted and compared in memory, in parallel with the others. 0: sort all the reads with one sorting collection.")
+	private int num_partitions = 0;
+	
+	@Parameter(names={"--threads"},description="Number of threads when using --partitions.")
+	private int nThreads = 1;
+	
 	@ParametersDelegate
 	private WritingSortingCollection writingSortingCollection=new WritingSortingCollection();
 	
@@ -453,22 +484,22 @@ public class CompareBams  extends Launcher
 		return compare(chrom1,chrom2);
 		}
 	
-	private void print(final Set<Match> set,final SAMSequenceDictionary dict)
+	private void print(final StringBuilder sb,final Set<Match> set,final SAMSequenceDictionary dict)
 		{
 		boolean first=true;
 		for(final Match m:set)
 			{
-			if(!first)this.out.print(',');
+			if(!first) sb.append(',');
 			first=false;
-			if(m.tid<0){ this.out.print("unmapped"); continue;}
+			if(m.tid<0){ sb.append("unmapped"); continue;}
 			final SAMSequenceRecord ssr=(dict==null?null:dict.getSequence(m.tid));
 			String seqName=(ssr==null?null:ssr.getSequenceName());
 			if(seqName==null) seqName="tid"+m.tid;
-			this.out.print(String.valueOf(seqName+":"+(m.pos)));
-			if(this.useSamFlag) this.out.print("="+m.flag);
-			if(this.useCigar) this.out.print("/"+m.cigar);
+			sb.append(seqName).append(':').append(m.pos);
+			if(this.useSamFlag) sb.append('=').append(m.flag);
+			if(this.useCigar) sb.append('/').append(m.cigar);
 			}
-		if(first) this.out.print("(empty)");
+		if(first) sb.append("(empty)");
 		}
 	
 	
@@ -503,11 +534,436 @@ public class CompareBams  extends Launcher
     	return false;
     	}
     
+    /** called for each read name/num_in_pair with its line of report */
+    private interface GroupHandler
+    	{
+    	/** return false to stop */
+    	public boolean accept(String readName,int num_in_pair,String line) throws IOException;
+    	}
+    
+    /** the line of report for one read */
+    private String formatGroup(final String readName,final int num_in_pair,final List<Set<Match>> matches)
+    	{
+    	final StringBuilder sb=new StringBuilder();
+    	sb.append(readName);
+		if(num_in_pair>0)
+			{
+			sb.append('/');
+			sb.append(num_in_pair);
+			}
+		sb.append('\t');
+		
+		for(int x=0;x<this.IN.size();++x)
+			{
+			final Set<Match> first=matches.get(x);
+			for(int y=x+1;y<this.IN.size();++y)
+				{
+				if(!(x==0 && y==1)) sb.append('|');
+				final Set<Match> second=matches.get(y);
+				if(same(first,second))
+					{
+					sb.append("EQ");
+					}
+				else
+					{
+					sb.append("NE");
+					}
+				}
+			}
+
+		for(int x=0;x<this.IN.size();++x)
+			{
+			sb.append('\t');
+			print(sb,matches.get(x),this.sequenceDictionaries.get(x));
+			}
+		return sb.toString();
+    	}
+    
+    /** scan the matches sorted on read name/num_in_pair, and call 'handler' for each read */
+    private void scanSortedMatches(final Iterator<Match> iter,final GroupHandler handler) throws IOException
+    	{
+		/* create an array of set<Match> */
+		final MatchComparator match_comparator=new MatchComparator();
+		final List<Set<Match>> matches=new ArrayList<Set<CompareBams.Match>>(this.IN.size());
+		while(matches.size() < this.IN.size())
+			{
+			matches.add(new TreeSet<CompareBams.Match>(match_comparator));
+			}
+		
+		String currReadName=null;
+		int curr_num_in_pair=-1;
+		for(;;)
+			{
+			Match nextMatch = null;
+			if(iter.hasNext())
+				{
+				nextMatch = iter.next();
+				}
+			if(nextMatch==null ||
+				(currReadName!=null && !currReadName.equals(nextMatch.readName)) ||
+				(curr_num_in_pair!=-1 && curr_num_in_pair!=nextMatch.num_in_pair))
+				{
+				if(currReadName!=null)
+					{
+					if(!handler.accept(currReadName,curr_num_in_pair,formatGroup(currReadName, curr_num_in_pair, matches))) break;
+					}
+				if(nextMatch==null) break;
+				for(Set<Match> set:matches) set.clear();
+				}
+			currReadName=nextMatch.readName;
+			curr_num_in_pair=nextMatch.num_in_pair;
+			matches.get(nextMatch.bamIndex).add(nextMatch);
+			}
+    	}
+    
+    /** load the sequence dictionaries of all the BAMs */
+    private void loadDictionaries() throws IOException
+    	{
+		this.samSequenceDictAreTheSame=true;
+		for(final File samFile:this.IN)
+			{
+			final SamReader samFileReader= super.createSamReaderFactory().open(samFile);
+			final SAMSequenceDictionary dict=samFileReader.getFileHeader().getSequenceDictionary();
+			samFileReader.close();
+			if(dict==null || dict.isEmpty())
+				{
+				throw new JvarkitException.DictionaryMissing("Empty Dict  in "+samFile);
+				}
+			
+			if(!this.sequenceDictionaries.isEmpty() &&
+				!SequenceUtil.areSequenceDictionariesEqual(this.sequenceDictionaries.get(0), dict))
+				{
+				this.samSequenceDictAreTheSame=false;
+				LOG.warn("FOOL !! THE SEQUENCE DICTIONARIES ARE **NOT** THE SAME. I will try to compare anyway but it will be slower.");
+				}
+			this.sequenceDictionaries.add(dict);
+			}
+    	}
+    
+    /** read the BAM number 'bamIndex', send each Match to 'consumer' */
+    private void readBam(final int bamIndex,final Consumer<Match> consumer) throws IOException
+    	{
+		final File samFile=this.IN.get(bamIndex);
+		LOG.info("Opening "+samFile);
+		final SamReader samFileReader= super.createSamReaderFactory().open(samFile);
+		final SAMSequenceDictionary dict=this.sequenceDictionaries.get(bamIndex);
+		
+		final Optional<Interval> interval;
+		if(REGION!=null && !REGION.trim().isEmpty())
+			{
+			final IntervalParser dix = new IntervalParser(dict);
+			interval = Optional.ofNullable(dix.parse(REGION));
+			
+			if(!interval.isPresent())
+				{
+				samFileReader.close();
+				throw new JvarkitException.UserError("Cannot parse "+REGION+" (bad syntax or not in dictionary)");
+				}
+			}
+		else
+			{
+			interval = Optional.empty();
+			}
+		
+		
+		SAMRecordIterator it=null;
+		if(!interval.isPresent())
+			{
+			it=samFileReader.iterator();
+			}
+		else
+			{
+			it=samFileReader.queryOverlapping(
+					interval.get().getContig(),
+					interval.get().getStart(),
+					interval.get().getEnd()
+					);
+			}
+		final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(dict);
+		while(it.hasNext() )
+			{
+			final SAMRecord rec=progress.watch(it.next());
+			if(!rec.getReadUnmappedFlag())
+				{
+				if(rec.getMappingQuality() < this.min_mapq) continue;
+				if(rec.isSecondaryOrSupplementary()) continue;
+				}
+			final Match m=new Match();
+			if(rec.getReadPairedFlag())
+				{
+				m.num_in_pair=(rec.getFirstOfPairFlag()?1:2);
+				}
+			else
+				{
+				m.num_in_pair=0;
+				}
+			m.readName=rec.getReadName();
+			m.bamIndex=bamIndex;
+			/* only keep the flag and the cigar if they are used: the codec only saves them in that case */
+			if(this.useSamFlag) m.flag=rec.getFlags();
+			if(this.useCigar) m.cigar=rec.getCigarString();
+			if(m.cigar==null ) m.cigar="";
+			if(rec.getReadUnmappedFlag())
+				{
+				m.tid=-1;
+				m.pos=-1;
+				}
+			else
+				{
+				m.tid=rec.getReferenceIndex();
+				m.pos=rec.getAlignmentStart();
+				}
+			consumer.accept(m);
+			}
+		it.close();
+		samFileReader.close();
+		LOG.info("Close "+samFile);
+    	}
+    
+    private void printHeader()
+    	{
+		//compute the differences for each read
+		this.out.print("#READ-Name\t");
+		for(int x=0;x<this.IN.size();++x)
+			{
+			for(int y=x+1;y<this.IN.size();++y)
+				{
+				if(!(x==0 && y==1)) this.out.print("|");
+				this.out.print(IN.get(x));
+				this.out.print(" ");
+				this.out.print(IN.get(y));
+				}
+			}
+		for(int x=0;x<this.IN.size();++x)
+			{
+			this.out.print("\t"+IN.get(x));
+			}
+		this.out.println();
+    	}
+    
+    /** one partition of the read names, spilled to disk */
+    private class Partition
+    	{
+    	final File file;
+    	final DataOutputStream dos;
+    	Partition(final File file) throws IOException
+    		{
+    		this.file = file;
+    		this.dos = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(
+    				new FileOutputStream(file), new Deflater(Deflater.BEST_SPEED)),65536));
+    		}
+    	}
+    
+    /** read one BAM and spill the matches to the partitions. Runs in a worker. */
+    private Void partitionBam(final int bamIndex,final List<Partition> partitions) throws IOException
+    	{
+    	final MatchCodec codec=new MatchCodec();
+    	/* local buffers: the partitions are only locked when a buffer is full */
+    	final ByteArrayOutputStream buffers[]=new ByteArrayOutputStream[partitions.size()];
+    	final DataOutputStream bufferStreams[]=new DataOutputStream[partitions.size()];
+    	for(int i=0;i< buffers.length;++i)
+    		{
+    		buffers[i]=new ByteArrayOutputStream();
+    		bufferStreams[i]=new DataOutputStream(buffers[i]);
+    		}
+    	final IOException error[]={null};
+    	readBam(bamIndex,M->{
+    		if(error[0]!=null) return;
+    		final int k=Math.floorMod(M.readName.hashCode(), buffers.length);
+    		try {
+    			codec.encode(bufferStreams[k], M);
+    			if(buffers[k].size()>=65536)
+    				{
+    				flushPartitionBuffer(buffers[k],partitions.get(k));
+    				}
+    			}
+    		catch(final IOException err)
+    			{
+    			error[0]=err;
+    			}
+    		});
+    	if(error[0]!=null) throw error[0];
+    	for(int i=0;i< buffers.length;++i)
+    		{
+    		flushPartitionBuffer(buffers[i],partitions.get(i));
+    		}
+    	return null;
+    	}
+    
+    private static void flushPartitionBuffer(final ByteArrayOutputStream buffer,final Partition partition) throws IOException
+    	{
+    	if(buffer.size()==0) return;
+		synchronized(partition)
+			{
+			buffer.writeTo(partition.dos);
+			}
+		buffer.reset();
+    	}
+    
+    /** load, sort and compare the reads of one partition, write the sorted lines of report. Runs in a worker. */
+    private File comparePartition(final Partition partition) throws IOException
+    	{
+    	final List<Match> L=new ArrayList<>();
+    	final MatchCodec codec=new MatchCodec();
+    	final DataInputStream dis=new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(partition.file)),65536));
+    	for(;;)
+    		{
+    		final Match m=codec.decode(dis);
+    		if(m==null) break;
+    		L.add(m);
+    		}
+    	dis.close();
+    	partition.file.delete();
+    	/* stable sort: keeps the order of the reads in each BAM */
+    	L.sort(new MatchOrderer());
+    	
+    	final File reportFile=File.createTempFile("cmpbams.", ".report", partition.file.getParentFile());
+    	reportFile.deleteOnExit();
+    	final DataOutputStream dos=new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(
+				new FileOutputStream(reportFile), new Deflater(Deflater.BEST_SPEED)),65536));
+    	scanSortedMatches(L.iterator(),(readName,num_in_pair,line)->{
+    		dos.writeUTF(readName);
+    		dos.writeInt(num_in_pair);
+    		final byte array[]=line.getBytes(StandardCharsets.UTF_8);
+    		dos.writeInt(array.length);
+    		dos.write(array);
+    		return true;
+    		});
+    	dos.close();
+    	return reportFile;
+    	}
+    
+    /** sorted lines of report of one partition */
+    private static class ReportReader
+    	{
+    	final File file;
+    	final DataInputStream dis;
+    	String readName;
+    	int num_in_pair;
+    	String line;
+    	ReportReader(final File file) throws IOException
+    		{
+    		this.file=file;
+    		this.dis=new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(file)),65536));
+    		}
+    	boolean next() throws IOException
+    		{
+    		try
+    			{
+    			this.readName=this.dis.readUTF();
+    			}
+    		catch(final EOFException err)
+    			{
+    			this.line=null;
+    			return false;
+    			}
+    		this.num_in_pair=this.dis.readInt();
+    		final byte array[]=new byte[this.dis.readInt()];
+    		this.dis.readFully(array);
+    		this.line=new String(array,StandardCharsets.UTF_8);
+    		return true;
+    		}
+    	void close()
+    		{
+    		CloserUtil.close(this.dis);
+    		this.file.delete();
+    		}
+    	}
+    
+    /** hash the read names into partitions, compare the partitions in parallel and merge the sorted reports */
+    private void doWorkPartitions() throws IOException
+    	{
+    	final File tmpDir=this.writingSortingCollection.getTmpDirectories().get(0);
+    	final List<Partition> partitions=new ArrayList<>(this.num_partitions);
+    	final List<ReportReader> reports=new ArrayList<>(this.num_partitions);
+    	final ExecutorService executor=Executors.newFixedThreadPool(Math.max(1, this.nThreads));
+    	try
+    		{
+	    	while(partitions.size()< this.num_partitions)
+	    		{
+	    		final File f=File.createTempFile("cmpbams.", ".partition", tmpDir);
+	    		f.deleteOnExit();
+	    		partitions.add(new Partition(f));
+	    		}
+	    	
+	    	/* read the BAMs in parallel */
+	    	final List<Future<Void>> readers=new ArrayList<>(this.IN.size());
+	    	for(int i=0;i< this.IN.size();++i)
+	    		{
+	    		final int bamIndex=i;
+	    		readers.add(executor.submit(()->partitionBam(bamIndex,partitions)));
+	    		}
+	    	for(final Future<Void> f:readers) getFuture(f);
+	    	for(final Partition partition:partitions) partition.dos.close();
+	    	
+	    	/* compare the partitions in parallel */
+	    	LOG.info("Comparing "+partitions.size()+" partitions");
+	    	final List<Future<File>> reportFiles=new ArrayList<>(partitions.size());
+	    	for(final Partition partition:partitions)
+	    		{
+	    		reportFiles.add(executor.submit(()->comparePartition(partition)));
+	    		}
+	    	for(final Future<File> f:reportFiles)
+	    		{
+	    		reports.add(new ReportReader(getFuture(f)));
+	    		}
+	    	
+	    	/* merge the sorted reports */
+	    	LOG.info("Writing results....");
+	    	this.out = super.openFileOrStdoutAsPrintWriter(this.outputFile);
+	    	printHeader();
+	    	final PriorityQueue<ReportReader> queue=new PriorityQueue<>(reports.size(),(A,B)->{
+	    		final int i=A.readName.compareTo(B.readName);
+	    		if(i!=0) return i;
+	    		return A.num_in_pair-B.num_in_pair;
+	    		});
+	    	for(final ReportReader r:reports)
+	    		{
+	    		if(r.next()) queue.add(r);
+	    		}
+	    	while(!queue.isEmpty())
+	    		{
+	    		final ReportReader r=queue.poll();
+	    		this.out.println(r.line);
+	    		if(this.out.checkError()) break;
+	    		if(r.next()) queue.add(r);
+	    		}
+	    	this.out.flush();
+    		}
+    	finally
+    		{
+    		executor.shutdownNow();
+    		for(final Partition partition:partitions)
+    			{
+    			CloserUtil.close(partition.dos);
+    			partition.file.delete();
+    			}
+    		for(final ReportReader r:reports) r.close();
+    		}
+    	}
+    
+    private static <T> T getFuture(final Future<T> future) throws IOException
+    	{
+    	try {
+			return future.get();
+			}
+		catch(final InterruptedException err)
+			{
+			throw new IOException(err);
+			}
+		catch(final ExecutionException err)
+			{
+			if(err.getCause() instanceof IOException) throw IOException.class.cast(err.getCause());
+			if(err.getCause() instanceof RuntimeException) throw RuntimeException.class.cast(err.getCause());
+			if(err.getCause() instanceof Error) throw Error.class.cast(err.getCause());
+			throw new IOException(err.getCause());
+			}
+    	}
+    
     @Override
     public int doWork(final List<String> args) {
     	this.IN.addAll(args.stream().map(S->new File(S)).collect(Collectors.toList()));
-   		SortingCollection<Match> database = null;
-		SamReader samFileReader=null;
+   		JvarkitSortingCollection<Match> database = null;
 		CloseableIterator<Match> iter=null;
 		try
 			{
@@ -516,202 +972,38 @@ public class CompareBams  extends Launcher
 				LOG.error("Need more bams please");
 				return -1;
 				}
+			loadDictionaries();
+			
+			if(this.num_partitions>0)
+				{
+				doWorkPartitions();
+				return RETURN_OK;
+				}
 			
-			database = SortingCollection.newInstance(
+			database = this.writingSortingCollection.make(
 					Match.class,
 					new MatchCodec(),
-					new MatchOrderer(),
-					this.writingSortingCollection.getMaxRecordsInRam(),
-					this.writingSortingCollection.getTmpDirectories()
+					new MatchOrderer()
 					);
-			this.samSequenceDictAreTheSame=true;
 			database.setDestructiveIteration(true);
 	
-			
 			for(int currentSamFileIndex=0;
 					currentSamFileIndex<this.IN.size();
 					currentSamFileIndex++ )
 				{
-				final File samFile=this.IN.get(currentSamFileIndex);
-				LOG.info("Opening "+samFile);
-				samFileReader= super.createSamReaderFactory().open(samFile);
-				final SAMSequenceDictionary dict=samFileReader.getFileHeader().getSequenceDictionary();
-				if(dict==null || dict.isEmpty())
-					{
-					LOG.error("Empty Dict  in "+samFile);
-					return -1;
-					}
-				
-				if(!this.sequenceDictionaries.isEmpty() &&
-					!SequenceUtil.areSequenceDictionariesEqual(this.sequenceDictionaries.get(0), dict))
-					{
-					this.samSequenceDictAreTheSame=false;
-					LOG.warn("FOOL !! THE SEQUENCE DICTIONARIES ARE **NOT** THE SAME. I will try to compare anyway but it will be slower.");
-					}
-				this.sequenceDictionaries.add(dict);
-				
-				
-				final Optional<Interval> interval;
-				if(REGION!=null && !REGION.trim().isEmpty())
-					{
-					final IntervalParser dix = new IntervalParser(dict);
-					interval = Optional.ofNullable(dix.parse(REGION));
-					
-					if(!interval.isPresent())
-						{
-						LOG.error("Cannot parse "+REGION+" (bad syntax or not in dictionary)");
-						return -1;
-						}
-					}
-				else
-					{
-					interval = Optional.empty();
-					}
-				
-				
-				SAMRecordIterator it=null;
-				if(!interval.isPresent())
-					{
-					it=samFileReader.iterator();
-					}
-				else
-					{
-					it=samFileReader.queryOverlapping(
-							interval.get().getContig(),
-							interval.get().getStart(),
-							interval.get().getEnd()
-							);
-					}
-				final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(dict);
-				while(it.hasNext() )
-					{
-					final SAMRecord rec=progress.watch(it.next());
-					if(!rec.getReadUnmappedFlag())
-						{
-						if(rec.getMappingQuality() < this.min_mapq) continue;
-						if(rec.isSecondaryOrSupplementary()) continue;
-						}
-					final Match m=new Match();
-					if(rec.getReadPairedFlag())
-						{
-						m.num_in_pair=(rec.getFirstOfPairFlag()?1:2);
-						}
-					else
-						{
-						m.num_in_pair=0;
-						}
-					m.readName=rec.getReadName();
-					m.bamIndex=currentSamFileIndex;
-					m.flag=rec.getFlags();
-					m.cigar=rec.getCigarString();
-					if(m.cigar==null ) m.cigar="";
-					if(rec.getReadUnmappedFlag())
-						{
-						m.tid=-1;
-						m.pos=-1;
-						}
-					else
-						{
-						m.tid=rec.getReferenceIndex();
-						m.pos=rec.getAlignmentStart();
-						}
-					database.add(m);
-					}
-				it.close();
-				samFileReader.close();
-				samFileReader=null;
-				LOG.info("Close "+samFile);
+				readBam(currentSamFileIndex,database::add);
 				}
 			database.doneAdding();
 			LOG.info("Writing results....");
 			
 			this.out = super.openFileOrStdoutAsPrintWriter(this.outputFile);
-			
-			//compute the differences for each read
-			this.out.print("#READ-Name\t");
-			for(int x=0;x<this.IN.size();++x)
-				{
-				for(int y=x+1;y<this.IN.size();++y)
-					{
-					if(!(x==0 && y==1)) this.out.print("|");
-					this.out.print(IN.get(x));
-					this.out.print(" ");
-					this.out.print(IN.get(y));
-					}
-				}
-			for(int x=0;x<this.IN.size();++x)
-				{
-				this.out.print("\t"+IN.get(x));
-				}
-			this.out.println();
-			
-			/* create an array of set<Match> */
-			final MatchComparator match_comparator=new MatchComparator();
-			final List<Set<Match>> matches=new ArrayList<Set<CompareBams.Match>>(this.IN.size());
-			while(matches.size() < this.IN.size())
-				{
-				matches.add(new TreeSet<CompareBams.Match>(match_comparator));
-				}
+			printHeader();
 			
 			iter = database.iterator();
-			String currReadName=null;
-			int curr_num_in_pair=-1;
-			for(;;)
-				{
-				Match nextMatch = null;
-				if(iter.hasNext())
-					{
-					nextMatch = iter.next();
-					}
-				if(nextMatch==null ||
-					(currReadName!=null && !currReadName.equals(nextMatch.readName)) ||
-					(curr_num_in_pair!=-1 && curr_num_in_pair!=nextMatch.num_in_pair))
-					{
-					if(currReadName!=null)
-						{
-						this.out.print(currReadName);
-						if(curr_num_in_pair>0)
-							{
-							this.out.print("/");
-							this.out.print(curr_num_in_pair);
-							}
-						this.out.print("\t");
-						
-						
-						for(int x=0;x<this.IN.size();++x)
-							{
-							final Set<Match> first=matches.get(x);
-							for(int y=x+1;y<this.IN.size();++y)
-								{
-								if(!(x==0 && y==1)) this.out.print("|");
-								Set<Match> second=matches.get(y);
-								if(same(first,second))
-									{
-									this.out.print("EQ");
-									}
-								else
-									{
-									this.out.print("NE");
-									}
-								}
-							}
-	
-						for(int x=0;x<this.IN.size();++x)
-							{
-							this.out.print("\t");
-							print(matches.get(x),sequenceDictionaries.get(x));
-							}
-						
-						this.out.println();
-						}
-					if(nextMatch==null) break;
-					for(Set<Match> set:matches) set.clear();
-					}
-				currReadName=nextMatch.readName;
-				curr_num_in_pair=nextMatch.num_in_pair;
-				matches.get(nextMatch.bamIndex).add(nextMatch);
-				if(this.out.checkError()) break;
-				}
+			scanSortedMatches(iter,(readName,num_in_pair,line)->{
+				this.out.println(line);
+				return !this.out.checkError();
+				});
 			
 			iter.close();
 			this.out.flush();
@@ -725,7 +1017,6 @@ public class CompareBams  extends Launcher
 		finally
 			{
 			if(database!=null) database.cleanup();
-			CloserUtil.close(samFileReader);
 			CloserUtil.close(this.out);this.out=null;
 			}
 		}
@@ -32,6 +32,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
@@ -51,6 +52,8 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.JvarkitSortingCollection;
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.semontology.Term;
 
@@ -215,6 +218,9 @@ public class BamToFastq
 	@Parameter(names={"-maxRecordsInRam","--maxRecordsInRam"},description="Max records in RAM")
 	private int maxRecordsInRam =50000;
 
+	@Parameter(names={"--sortThreads"},description="When greater than 0, the records are sorted and written to deflated temporary files by 'sortThreads' threads while the BAM is read. Up to (sortThreads+1)*maxRecordsInRam records are held in RAM. 0: use the htsjdk SortingCollection.")
+	private int sortThreads = 0;
+
 	
 	private static class MappedFastq
 		{
@@ -300,7 +306,7 @@ public class BamToFastq
 	public int doWork(List<String> args) {
 
 		SamReader sfr=null;
-		SortingCollection<MappedFastq> fastqCollection=null;
+		JvarkitSortingCollection<MappedFastq> fastqCollection=null;
 		try
 			{
 			boolean found_single=false;
@@ -309,13 +315,27 @@ public class BamToFastq
 			
 			sfr = super.openSamReader(oneFileOrNull(args));
 			
-			fastqCollection = SortingCollection.newInstance(
+			if(this.sortThreads>0)
+				{
+				fastqCollection = new ParallelSortingCollection<>(
 					MappedFastq.class,
 					new MappedFastqCodec(),
 					new MappedFastqComparator(),
 					this.maxRecordsInRam,
-					this.tmpDir
+					Collections.singletonList(this.tmpDir),
+					this.sortThreads
 					);
+				}
+			else
+				{
+				fastqCollection = JvarkitSortingCollection.wrap(SortingCollection.newInstance(
+					MappedFastq.class,
+					new MappedFastqCodec(),
+					new MappedFastqComparator(),
+					this.maxRecordsInRam,
+					this.tmpDir
+					));
+				}
 			fastqCollection.setDestructiveIteration(true);
 
 			SAMRecordIterator iter=sfr.iterator();
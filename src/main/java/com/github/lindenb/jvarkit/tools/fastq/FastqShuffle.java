@@ -41,7 +41,6 @@ import htsjdk.samtools.fastq.FastqRecord;
 import htsjdk.samtools.fastq.FastqWriter;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.SortingCollection;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
@@ -51,6 +50,7 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.picard.FastqReader;
 import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.picard.JvarkitSortingCollection;
 import com.github.lindenb.semontology.Term;
 
 /**
@@ -250,12 +250,10 @@ public class FastqShuffle extends Launcher
 	private void runPaired(final FastqReader r1, final FastqReader r2,final FastqWriter w1) throws IOException
 		{
 		long nReads=0;
-		final SortingCollection<TwoReads> sorting= SortingCollection.newInstance(
+		final JvarkitSortingCollection<TwoReads> sorting= this.writingSortingCollection.make(
 				TwoReads.class,
 				new TwoReadsCodec(),
-				new TwoReadsCompare(),
-				this.writingSortingCollection.getMaxRecordsInRam(),
-				this.writingSortingCollection.getTmpDirectories()
+				new TwoReadsCompare()
 				);
 		sorting.setDestructiveIteration(true);
 		while(r1.hasNext())
@@ -304,12 +302,10 @@ public class FastqShuffle extends Launcher
 	private void runSingle(final FastqReader r1,final FastqWriter w1) throws IOException
 		{
 		long nReads=0;
-		final  SortingCollection<OneRead> sorting= SortingCollection.newInstance(
+		final  JvarkitSortingCollection<OneRead> sorting= this.writingSortingCollection.make(
 				OneRead.class,
 				new OneReadCodec(),
-				new OneReadCompare(),
-				this.writingSortingCollection.getMaxRecordsInRam(),
-				this.writingSortingCollection.getTmpDirectories()
+				new OneReadCompare()
 				);
 		sorting.setDestructiveIteration(true);
 		while(r1.hasNext())
@@ -32,7 +32,6 @@ import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -50,13 +49,14 @@ import javax.xml.bind.annotation.XmlType;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
-import com.github.lindenb.jvarkit.tools.vcfcmp.EqualRangeVcfIterator;
+import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.ContigPosRef;
 import com.github.lindenb.jvarkit.util.vcf.DelegateVariantContextWriter;
+import com.github.lindenb.jvarkit.util.vcf.MergeJoinAnnotationSource;
 import com.github.lindenb.jvarkit.util.vcf.TabixVcfFileReader;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.VariantContextWriterFactory;
@@ -191,7 +191,7 @@ public class VcfGnomad extends Launcher{
 		private int gnomadBufferSize=100000;
 		
 		@XmlElement(name="streaming")
-		@Parameter(names={"--streaming"},description="[20170707] Don't use tabix random-access (which are ok for small inputs) but you a streaming process (better to annotate a large WGS file). Assume dictionaries are sorted the same way.")
+		@Parameter(names={"--streaming"},description="[20170707] Don't use tabix random-access (which are ok for small inputs) but you a streaming process (better to annotate a large WGS file). Gnomad and the input are read in one sorted merge-join pass. Assume dictionaries are sorted the same way. The input VCF must have a dictionary.")
 		private boolean streaming=false;
 		
 		/** entries mapping chromosome/type->vcf.gz */
@@ -288,31 +288,34 @@ public class VcfGnomad extends Launcher{
 			/** when using Tabix reader */
 			TabixVcfFileReader gnomad_tabix=null;
 			/** when using vcf streaming */
-			VcfIterator gnomad_vcf_iterator = null;
-			EqualRangeVcfIterator gnomad_equal_range=null;
+			MergeJoinAnnotationSource<VariantContext> gnomad_join = null;
 			
 			int buffferChromEnd=0;
 			final Map<ContigPosRef,VariantContext> buffer=new HashMap<>();
 			@Override
 			public void close() {
 				CloserUtil.close(gnomad_tabix);
-				CloserUtil.close(gnomad_equal_range);
-				CloserUtil.close(gnomad_vcf_iterator);
+				CloserUtil.close(gnomad_join);
 				this.buffer.clear();
 				this.buffferChromEnd=0;
 				this.gnomad_tabix=null;
-				this.gnomad_vcf_iterator=null;
+				this.gnomad_join=null;
 				}
-			public void open()
+			/** open the resource. userDict is the dictionary of the user's VCF, only used when streaming */
+			public void open(final SAMSequenceDictionary userDict)
 				{
 				try {
 					if(CtxWriterFactory.this.streaming)
 						{
-						this.gnomad_vcf_iterator = VCFUtils.createVcfIterator(this.uri);
-						final SAMSequenceDictionary dict = this.gnomad_vcf_iterator.getHeader().getSequenceDictionary();
-						if(dict==null || dict.isEmpty()) throw new JvarkitException.VcfDictionaryMissing(this.uri);
-						final Comparator<VariantContext> cmp = VCFUtils.createTidPosComparator(dict);
-						this.gnomad_equal_range = new EqualRangeVcfIterator(this.gnomad_vcf_iterator, cmp);
+						if(userDict==null || userDict.isEmpty()) throw new JvarkitException.DictionaryMissing("A dictionary is required in the input VCF when using the streaming mode");
+						final VcfIterator gnomad_vcf_iterator = VCFUtils.createVcfIterator(this.uri);
+						final SAMSequenceDictionary dict = gnomad_vcf_iterator.getHeader().getSequenceDictionary();
+						final ContigNameConverter converter = (dict==null || dict.isEmpty()?
+								ContigNameConverter.fromOneDictionary(userDict):
+								ContigNameConverter.fromDictionaries(dict, userDict)
+								);
+						converter.setOnNotFound(ContigNameConverter.OnNotFound.SKIP);
+						this.gnomad_join = new MergeJoinAnnotationSource<>(gnomad_vcf_iterator, userDict, converter);
 						}
 					else
 						{
@@ -332,34 +335,28 @@ public class VcfGnomad extends Launcher{
 				{
 				
 				if( CtxWriterFactory.this.streaming) {
-					try {
-						final List<VariantContext> found = this.gnomad_equal_range.next(
-								userVariantCtx
-								);
-						for(final VariantContext ctx:found)
-							{
-							if( !ctx.getReference().equals(userVariantCtx.getReference())) continue;
-							if( CtxWriterFactory.this.filteredGnomad && ctx.isFiltered()) continue;
-							if( CtxWriterFactory.this.noMultiAltGnomad && ctx.getAlternateAlleles().size()>1) continue;
-							return ctx;
-							}
-						return null;
-						}
-					catch(final IOException err)
+					/* contigs of gnomad are converted to the user's contigs by the merge-join */
+					for(final VariantContext ctx: this.gnomad_join.query(userVariantCtx))
 						{
-						throw new RuntimeIOException(err);
+						if( ctx.getStart()!=userVariantCtx.getStart()) continue;
+						if( !ctx.getReference().equals(userVariantCtx.getReference())) continue;
+						if( CtxWriterFactory.this.filteredGnomad && ctx.isFiltered()) continue;
+						if( CtxWriterFactory.this.noMultiAltGnomad && ctx.getAlternateAlleles().size()>1) continue;
+						return ctx;
 						}
+					return null;
 					}
 				else
 					{
-					final ContigPosRef userCtx=new ContigPosRef(userVariantCtx);
+					final VariantContext normCtx = normalizeVariantContig(userVariantCtx);
+					final ContigPosRef userCtx=new ContigPosRef(normCtx);
 					//past last buffer ? refill buffer
 					if(this.buffferChromEnd <= userCtx.getPos())
 						{
 						buffer.clear();
 						this.buffferChromEnd = userCtx.getPos() + CtxWriterFactory.this.gnomadBufferSize;
 						final Iterator<VariantContext> iter=this.gnomad_tabix.iterator(
-								userVariantCtx.getContig(),
+								normCtx.getContig(),
 								Math.max(0,userCtx.getPos()-1),
 								this.buffferChromEnd
 								);
@@ -385,6 +382,7 @@ public class VcfGnomad extends Launcher{
 			private final List<InfoField> infoFields=new ArrayList<>();
 			private String prevContig=null;
 			private final ManifestEntry ome2manifest[]=new ManifestEntry[OmeType.values().length];
+			private SAMSequenceDictionary userDict = null;
 
 
 			CtxWriter(final VariantContextWriter delegate) {
@@ -407,6 +405,7 @@ public class VcfGnomad extends Launcher{
 			@Override
 			public void writeHeader(final VCFHeader header) {
 				
+				this.userDict = header.getSequenceDictionary();
 				final VCFHeader h2=new VCFHeader(header);
 				if(CtxWriterFactory.this.inGnomadFilterName!=null)
 					{
@@ -473,7 +472,7 @@ public class VcfGnomad extends Launcher{
 							if(prevEntry!=null) prevEntry.close();
 							this.ome2manifest[ome.ordinal()]=newEntry;
 							LOG.info("opening "+newEntry.uri);
-							newEntry.open();
+							newEntry.open(this.userDict);
 							}
 						}
 					}
@@ -491,7 +490,7 @@ public class VcfGnomad extends Launcher{
 					final ManifestEntry entry = this.ome2manifest[i];
 					if(entry==null) continue;
 					
-					final VariantContext ctx2=entry.findMatching(normalizeVariantContig(ctx));
+					final VariantContext ctx2=entry.findMatching(ctx);
 					if(ctx2==null) continue;
 					for(final InfoField infoField: infoFields)
 						{
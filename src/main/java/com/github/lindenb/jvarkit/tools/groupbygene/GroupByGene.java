@@ -34,10 +34,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -48,12 +50,10 @@ import java.util.stream.Collectors;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.AbstractVCFCodec;
-import htsjdk.variant.vcf.VCFConstants;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.tribble.readers.LineIterator;
 
@@ -62,13 +62,13 @@ import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.math.stats.FisherExactTest;
-import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.EqualRangeIterator;
 import com.github.lindenb.jvarkit.util.Pedigree;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.JvarkitSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.VcfTools;
@@ -159,14 +159,6 @@ public class GroupByGene
 		return tid;
 		};
 	
-	private final Comparator<String> contigComparator = (S1,S2) -> {
-		if(S1.equals(S2)) return 0;
-		if(the_dictionary==null || the_dictionary.isEmpty()) {
-			return S1.compareTo(S2);
-			} else {
-				return contig2tid.apply(S1) - contig2tid.apply(S2);
-			}
-		};
 
 	
 	
@@ -205,60 +197,118 @@ public class GroupByGene
 		
 		}
 	
-	private class Call implements Comparable<Call>
+	/** data of one gene on one contig. The variants are folded into the accumulator as they are read,
+	 * only the accumulators are written to the sorting collection */
+	private static class GeneAccumulator
 		{
+		int tid;
 		GeneName gene;
-		String line;
+		int minPos = Integer.MAX_VALUE;
+		int maxPos = Integer.MIN_VALUE;
+		int countVariants = 0;
+		/* genotypes for the fisher test */
+		int countCaseMut = 0;
+		int countCaseWild = 0;
+		int countCtrlMut = 0;
+		int countCtrlWild = 0;
+		/** number of variants per sample while the VCF is read. null if there is no carrier or after compact() */
+		int sampleCounts[] = null;
+		/** sorted indexes of the samples carrying a variant, and their number of variants, after compact() */
+		int carriers[] = null;
+		int carrierCounts[] = null;
 		
-		
-		String getContig()
+		/** converts sampleCounts to the sparse arrays carriers/carrierCounts */
+		void compact()
 			{
-			final int tab=this.line.indexOf(VCFConstants.FIELD_SEPARATOR);
-			if(tab<1) throw new IllegalStateException("Cannot find tab in "+this.line);
-			return this.line.substring(0, tab);
-			}
-		
-		@Override
-		public int compareTo(final Call o) {
-			int i= contigComparator.compare(this.getContig(),o.getContig());
-			if(i!=0) return i;
-			i= this.gene.name.compareTo(o.gene.name);
-			if(i!=0) return i;
-			i= this.gene.type.compareTo(o.gene.type);
-			return i;
+			int n=0;
+			if(this.sampleCounts!=null)
+				{
+				for(int i=0;i< this.sampleCounts.length;++i) if(this.sampleCounts[i]>0) n++;
+				}
+			this.carriers = new int[n];
+			this.carrierCounts = new int[n];
+			n=0;
+			if(this.sampleCounts!=null)
+				{
+				for(int i=0;i< this.sampleCounts.length;++i)
+					{
+					if(this.sampleCounts[i]==0) continue;
+					this.carriers[n] = i;
+					this.carrierCounts[n] = this.sampleCounts[i];
+					n++;
+					}
+				}
+			this.sampleCounts = null;
 			}
 		}
 	
-	private class CallCodec
-		extends AbstractDataCodec<Call>
+	/** order of the output: contig, gene name, gene type */
+	private static int compareGeneAccumulators(final GeneAccumulator A,final GeneAccumulator B)
+		{
+		int i= Integer.compare(A.tid, B.tid);
+		if(i!=0) return i;
+		i= A.gene.name.compareTo(B.gene.name);
+		if(i!=0) return i;
+		return A.gene.type.compareTo(B.gene.type);
+		}
+	
+	private static class GeneAccumulatorCodec
+		extends AbstractDataCodec<GeneAccumulator>
 		{
 		@Override
-		public void encode(final DataOutputStream dos,final Call c)
+		public void encode(final DataOutputStream dos,final GeneAccumulator acc)
 				throws IOException
 			{
-			dos.writeUTF(c.gene.name);
-			dos.writeUTF(c.gene.type);
-			writeString(dos, c.line);
+			dos.writeInt(acc.tid);
+			dos.writeUTF(acc.gene.name);
+			dos.writeUTF(acc.gene.type);
+			dos.writeInt(acc.minPos);
+			dos.writeInt(acc.maxPos);
+			dos.writeInt(acc.countVariants);
+			dos.writeInt(acc.countCaseMut);
+			dos.writeInt(acc.countCaseWild);
+			dos.writeInt(acc.countCtrlMut);
+			dos.writeInt(acc.countCtrlWild);
+			dos.writeInt(acc.carriers.length);
+			for(int i=0;i< acc.carriers.length;++i)
+				{
+				dos.writeInt(acc.carriers[i]);
+				dos.writeInt(acc.carrierCounts[i]);
+				}
 			}
 		
 		@Override
-		public Call decode(final DataInputStream dis) throws IOException
+		public GeneAccumulator decode(final DataInputStream dis) throws IOException
 			{
-			final String gName;
+			final GeneAccumulator acc = new GeneAccumulator();
 			try {
-				gName=dis.readUTF();
+				acc.tid = dis.readInt();
 			} catch (final Exception e) {
 				return null;
 				}
-			final String gType=dis.readUTF();
-			final Call c= new Call();
-			c.gene=new GeneName(gName, gType);
-			c.line = readString(dis);
-			return c;
+			final String gName = dis.readUTF();
+			final String gType = dis.readUTF();
+			acc.gene = new GeneName(gName, gType);
+			acc.minPos = dis.readInt();
+			acc.maxPos = dis.readInt();
+			acc.countVariants = dis.readInt();
+			acc.countCaseMut = dis.readInt();
+			acc.countCaseWild = dis.readInt();
+			acc.countCtrlMut = dis.readInt();
+			acc.countCtrlWild = dis.readInt();
+			final int n = dis.readInt();
+			acc.carriers = new int[n];
+			acc.carrierCounts = new int[n];
+			for(int i=0;i< n;++i)
+				{
+				acc.carriers[i] = dis.readInt();
+				acc.carrierCounts[i] = dis.readInt();
+				}
+			return acc;
 			}
 		@Override
-		public CallCodec clone() {
-			return new CallCodec();
+		public GeneAccumulatorCodec clone() {
+			return new GeneAccumulatorCodec();
 			}
 		}
 	
@@ -346,11 +396,57 @@ public class GroupByGene
 		}
 	
 
+	/** data of the variant shared by all its genes */
+	private static class VariantData
+		{
+		int start;
+		int end;
+		/** indexes of the samples carrying the variant */
+		final BitSet carriers;
+		int countCaseMut;
+		int countCaseWild;
+		int countCtrlMut;
+		int countCtrlWild;
+		VariantData(final int nSamples)
+			{
+			this.carriers = new BitSet(nSamples);
+			}
+		}
+	
+	/** fold the variant into the accumulator */
+	private static void visit(final GeneAccumulator acc,final VariantData variant,final int nSamples)
+		{
+		acc.minPos = Math.min(acc.minPos, variant.start);
+		acc.maxPos = Math.max(acc.maxPos, variant.end);
+		acc.countVariants++;
+		acc.countCaseMut += variant.countCaseMut;
+		acc.countCaseWild += variant.countCaseWild;
+		acc.countCtrlMut += variant.countCtrlMut;
+		acc.countCtrlWild += variant.countCtrlWild;
+		if(variant.carriers.isEmpty()) return;
+		if(acc.sampleCounts==null) acc.sampleCounts = new int[nSamples];
+		for(int i=variant.carriers.nextSetBit(0);i>=0;i=variant.carriers.nextSetBit(i+1))
+			{
+			acc.sampleCounts[i]++;
+			}
+		}
+	
+	/** returns a BitSet of the indexes of 'samples' in 'sampleNames' */
+	private static BitSet toBitSet(final List<String> sampleNames,final Set<String> samples)
+		{
+		final BitSet bits = new BitSet(sampleNames.size());
+		for(int i=0;i< sampleNames.size();++i)
+			{
+			if(samples.contains(sampleNames.get(i))) bits.set(i);
+			}
+		return bits;
+		}
+	
 	private void read(final String input) throws IOException
 		{
 		LineIterator lineiter=null;
-		SortingCollection<Call> sortingCollection=null;
-		
+		JvarkitSortingCollection<GeneAccumulator> sortingCollection=null;
+		CloseableIterator<GeneAccumulator> iter=null;
 		
 		
 		try {
@@ -361,16 +457,10 @@ public class GroupByGene
 						IOUtils.openURIForLineIterator(input)
 						);
 
-			sortingCollection =SortingCollection.newInstance(
-					Call.class,
-					new CallCodec(),
-					(C1,C2)->{
-						int i= C1.compareTo(C2);
-						if(i!=0) return i;
-						return C1.line.compareTo(C2.line);
-					},
-					this.writingSortingCollection.getMaxRecordsInRam(),
-					this.writingSortingCollection.getTmpDirectories()
+			sortingCollection =this.writingSortingCollection.make(
+					GeneAccumulator.class,
+					new GeneAccumulatorCodec(),
+					GroupByGene::compareGeneAccumulators
 					);
 			sortingCollection.setDestructiveIteration(true);
 	
@@ -393,6 +483,9 @@ public class GroupByGene
 				{
 				sampleNames = Collections.emptyList();
 				}
+			final int nSamples = sampleNames.size();
+			final Map<String,Integer> sample2index = new HashMap<>(nSamples);
+			for(int i=0;i< nSamples;++i) sample2index.put(sampleNames.get(i), i);
 			
 			final VcfTools vcfTools = new VcfTools(header);
 			final Pedigree pedigree;
@@ -404,39 +497,6 @@ public class GroupByGene
 				pedigree = Pedigree.newParser().parse(header);
 				}
 			
-			final Pattern tab = Pattern.compile("[\t]");
-			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(the_dictionary).logger(LOG);
-			while(lineiter.hasNext())
-				{
-				String line = lineiter.next();
-				final VariantContext ctx = progress.watch(this.the_codec.decode(line));
-				if(!ctx.isVariant()) continue;
-				if(ignore_filtered && ctx.isFiltered()) continue;
-				
-				//simplify line
-				final String tokens[]=tab.split(line);
-				tokens[2]=VCFConstants.EMPTY_ID_FIELD;//ID
-				tokens[5]=VCFConstants.MISSING_VALUE_v4;//QUAL
-				tokens[6]=VCFConstants.UNFILTERED;//FILTER
-				tokens[7]=VCFConstants.EMPTY_INFO_FIELD;//INFO
-				line = String.join(VCFConstants.FIELD_SEPARATOR, Arrays.asList(tokens));
-				
-				for(final GeneName g:getGenes(vcfTools,ctx))
-					{
-					if(regexType!=null && regexType.matcher(g.type).matches()) continue;
-					final Call c=new Call();
-					c.line=line;
-					c.gene=g;
-					sortingCollection.add(c);
-					}
-				}
-			CloserUtil.close(lineiter);lineiter=null;
-			sortingCollection.doneAdding();
-			
-			
-			
-			/** dump */			
-	
 			final Set<String> casesSamples = pedigree.getPersons().stream().
 						filter(P->P.isAffected()).
 						map(P->P.getId()).
@@ -462,6 +522,11 @@ public class GroupByGene
 					filter(ID->sampleNames.contains(ID)).
 					collect(Collectors.toSet())
 					;
+			final BitSet casesBits = toBitSet(sampleNames, casesSamples);
+			final BitSet controlsBits = toBitSet(sampleNames, controlsSamples);
+			final BitSet malesBits = toBitSet(sampleNames, maleSamples);
+			final BitSet femalesBits = toBitSet(sampleNames, femaleSamples);
+			
 			final Predicate<Genotype> genotypeFilter = genotype -> {
 				if(!genotype.isAvailable()) return false;
 				if(!genotype.isCalled()) return false;
@@ -471,8 +536,105 @@ public class GroupByGene
 				return true;
 			};
 			
+			/* accumulators of the current contig. They are moved to the sorting collection when the contig changes
+			 * or when they use more than a quarter of the heap */
+			final Map<GeneName,GeneAccumulator> gene2accumulator = new HashMap<>();
+			final long maxBytesInMemory = Runtime.getRuntime().maxMemory()/4L;
+			final long bytesPerAccumulator = 100L + 4L * nSamples;
+			int currentTid = -1;
+			final VariantData variant = new VariantData(nSamples);
+			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(the_dictionary).logger(LOG);
+			while(lineiter.hasNext())
+				{
+				final String line = lineiter.next();
+				final VariantContext ctx = progress.watch(this.the_codec.decode(line));
+				if(!ctx.isVariant()) continue;
+				if(ignore_filtered && ctx.isFiltered()) continue;
+				
+				final Set<GeneName> genes = getGenes(vcfTools,ctx);
+				if(regexType!=null) genes.removeIf(G->regexType.matcher(G.type).matches());
+				if(genes.isEmpty()) continue;
+				
+				final int tid = this.contig2tid.apply(ctx.getContig());
+				if(tid!=currentTid || gene2accumulator.size()*bytesPerAccumulator > maxBytesInMemory)
+					{
+					for(final GeneAccumulator acc:gene2accumulator.values())
+						{
+						acc.compact();
+						sortingCollection.add(acc);
+						}
+					gene2accumulator.clear();
+					currentTid = tid;
+					}
+				
+				/* the INFO column is ignored, so END is the end of the REF allele */
+				variant.start = ctx.getStart();
+				variant.end = ctx.getStart() + ctx.getReference().length() - 1;
+				variant.carriers.clear();
+				variant.countCaseMut = 0;
+				variant.countCaseWild = 0;
+				variant.countCtrlMut = 0;
+				variant.countCtrlWild = 0;
+				for(int i=0;i< ctx.getNSamples();++i)
+					{
+					final Genotype genotype = ctx.getGenotype(i);
+					final int sampleIndex = (i< nSamples && sampleNames.get(i).equals(genotype.getSampleName())?
+							i:
+							sample2index.get(genotype.getSampleName())
+							);
+					final boolean has_mutation = genotypeFilter.test(genotype);
+					if(has_mutation) variant.carriers.set(sampleIndex);
+					if(controlsBits.get(sampleIndex))
+						{
+						if(has_mutation)
+							{
+							variant.countCtrlMut++;
+							}
+						else
+							{
+							variant.countCtrlWild++;
+							}
+						}
+					else if(casesBits.get(sampleIndex))
+						{
+						if(has_mutation)
+							{
+							variant.countCaseMut++;
+							}
+						else
+							{
+							variant.countCaseWild++;
+							}
+						}
+					}
+				
+				for(final GeneName g:genes)
+					{
+					GeneAccumulator acc = gene2accumulator.get(g);
+					if(acc==null)
+						{
+						acc = new GeneAccumulator();
+						acc.tid = tid;
+						acc.gene = g;
+						gene2accumulator.put(g, acc);
+						}
+					visit(acc, variant, nSamples);
+					}
+				}
+			for(final GeneAccumulator acc:gene2accumulator.values())
+				{
+				acc.compact();
+				sortingCollection.add(acc);
+				}
+			gene2accumulator.clear();
+			progress.finish();
+			CloserUtil.close(lineiter);lineiter=null;
+			sortingCollection.doneAdding();
+			
 			
 			
+			/** dump */			
+	
 			PrintStream pw = openFileOrStdoutAsPrintStream(this.outFile);
 			
 			
@@ -529,53 +691,42 @@ public class GroupByGene
 			pw.println();
 				
 			
-			final CloseableIterator<Call> iter=sortingCollection.iterator();
-			final EqualRangeIterator<Call> eqiter = new EqualRangeIterator<>(iter, (C1,C2)->C1.compareTo(C2));
+			final int sampleCounts[] = new int[nSamples];
+			final BitSet carriers = new BitSet(nSamples);
+			final BitSet bits = new BitSet(nSamples);
+			iter=sortingCollection.iterator();
+			final EqualRangeIterator<GeneAccumulator> eqiter = new EqualRangeIterator<>(iter, GroupByGene::compareGeneAccumulators);
 			while(eqiter.hasNext())
 				{
-				final List<Call> row = eqiter.next();
-				final Call first= row.get(0);
-	
-				final List<VariantContext> variantList =row.stream().map(R-> GroupByGene.this.the_codec.decode(R.line)).collect(Collectors.toList());
-				final int minPos = variantList.stream().mapToInt(R->R.getStart()).min().getAsInt();
-				final int maxPos = variantList.stream().mapToInt(R->R.getEnd()).max().getAsInt();
-				final Set<String> sampleCarryingMut = new HashSet<String>();
-				final Counter<String> pedCasesCarryingMut = new Counter<String>();
-				final Counter<String> pedCtrlsCarryingMut = new Counter<String>();
-				final Counter<String> malesCarryingMut = new Counter<String>();
-				final Counter<String> femalesCarryingMut = new Counter<String>();
-				final Counter<String> sample2count = new Counter<String>();
-				for(final VariantContext ctx: variantList)
+				/* the same gene can be found in more than one flush of the accumulators */
+				final List<GeneAccumulator> row = eqiter.next();
+				final GeneAccumulator first= row.get(0);
+				int minPos = Integer.MAX_VALUE;
+				int maxPos = Integer.MIN_VALUE;
+				int countVariants = 0;
+				int count_case_mut =0;
+				int count_ctrl_mut = 0;
+				int count_case_wild = 0;
+				int count_ctrl_wild = 0;
+				Arrays.fill(sampleCounts, 0);
+				carriers.clear();
+				for(final GeneAccumulator acc:row)
 					{
-					for(final Genotype genotype:ctx.getGenotypes())
+					minPos = Math.min(minPos, acc.minPos);
+					maxPos = Math.max(maxPos, acc.maxPos);
+					countVariants += acc.countVariants;
+					count_case_mut += acc.countCaseMut;
+					count_case_wild += acc.countCaseWild;
+					count_ctrl_mut += acc.countCtrlMut;
+					count_ctrl_wild += acc.countCtrlWild;
+					for(int i=0;i< acc.carriers.length;++i)
 						{
-						if(!genotypeFilter.test(genotype)) continue;
-	 					final String sampleName= genotype.getSampleName();
-	 					
-						sample2count.incr(sampleName);
-						sampleCarryingMut.add(sampleName);
-						
-						if(casesSamples.contains(sampleName))
-							{
-							pedCasesCarryingMut.incr(sampleName);
-							}
-						if(controlsSamples.contains(sampleName))
-							{
-							pedCtrlsCarryingMut.incr(sampleName);
-							}
-						if(maleSamples.contains(sampleName))
-							{
-							malesCarryingMut.incr(sampleName);
-							}
-						if(femaleSamples.contains(sampleName))
-							{
-							femalesCarryingMut.incr(sampleName);
-							}
+						sampleCounts[acc.carriers[i]] += acc.carrierCounts[i];
+						carriers.set(acc.carriers[i]);
 						}
 					}
 				
-				
-					pw.print(first.getContig());
+					pw.print(this.the_dictionary.getSequence(first.tid).getSequenceName());
 					pw.print('\t');
 					pw.print(minPos-1);//convert to bed
 					pw.print('\t');
@@ -585,66 +736,22 @@ public class GroupByGene
 					pw.print('\t');
 					pw.print(first.gene.type);
 					pw.print('\t');
-					pw.print(sampleCarryingMut.size());
+					pw.print(carriers.cardinality());
 					pw.print('\t');
-					pw.print(variantList.size());
+					pw.print(countVariants);
 					
-					if(!casesSamples.isEmpty())
-						{
-						pw.print('\t');
-						pw.print(pedCasesCarryingMut.getCountCategories());
-						}
-					if(!controlsSamples.isEmpty())
+					for(final BitSet mask:new BitSet[]{casesBits,controlsBits,malesBits,femalesBits})
 						{
+						if(mask.isEmpty()) continue;
+						bits.clear();
+						bits.or(carriers);
+						bits.and(mask);
 						pw.print('\t');
-						pw.print(pedCtrlsCarryingMut.getCountCategories());
-						}
-					if(!maleSamples.isEmpty())
-						{
-						pw.print('\t');
-						pw.print(malesCarryingMut.getCountCategories());
-						}
-					if(!femaleSamples.isEmpty())
-						{
-						pw.print('\t');
-						pw.print(femalesCarryingMut.getCountCategories());
+						pw.print(bits.cardinality());
 						}
 					
 					if(this.print_fisher && !controlsSamples.isEmpty() && !casesSamples.isEmpty())
 						{
-						int count_case_mut =0;
-						int count_ctrl_mut = 0;
-						int count_case_wild = 0;
-						int count_ctrl_wild = 0;
-						
-						for(final VariantContext ctx: variantList) {
-							for(final Genotype genotype:ctx.getGenotypes())
-								{
-								final String sampleName =  genotype.getSampleName();
-								final boolean has_mutation = genotypeFilter.test(genotype);
-								if( controlsSamples.contains(sampleName)) {
-									if(has_mutation)
-										{
-										count_ctrl_mut++;
-										}
-									else
-										{
-										count_ctrl_wild++;
-										}
-									}
-								else if( casesSamples.contains(sampleName)) {
-									if(has_mutation)
-										{
-										count_case_mut++;
-										}
-									else
-										{
-										count_case_wild++;
-										}
-									}
-								}
-							}
-						
 						final FisherExactTest fisher = FisherExactTest.compute(
 								count_case_mut,count_case_wild,
 								count_ctrl_mut,count_ctrl_wild
@@ -654,10 +761,10 @@ public class GroupByGene
 						}
 	
 					
-					for(final String sample: sampleNames)
+					for(int i=0;i< nSamples;++i)
 						{
 						pw.print('\t');
-						pw.print(sample2count.count(sample));
+						pw.print(sampleCounts[i]);
 						}
 					pw.println();
 					if(pw.checkError()) break;
@@ -665,6 +772,7 @@ public class GroupByGene
 				}
 			eqiter.close();
 			iter.close();
+			iter=null;
 			pw.flush();
 			if(this.outFile!=null) pw.close();
 			
@@ -673,6 +781,7 @@ public class GroupByGene
 		finally
 			{
 			CloserUtil.close(lineiter);
+			CloserUtil.close(iter);
 			if(sortingCollection!=null) sortingCollection.cleanup();
 			}
 		}
@@ -24,6 +24,7 @@ SOFTWARE.
 
 History:
 * 2014 creation
+* 2017 background readers
 
 */
 package com.github.lindenb.jvarkit.tools.misc;
@@ -160,6 +161,9 @@ public class BamCmpCoverage extends Launcher
 	@Parameter(names={"-filter","--filter"},description=SamFilterParser.FILTER_DESCRIPTION,converter=SamFilterParser.StringConverter.class)
 	private SamRecordFilter filter= SamFilterParser.buildDefault();
 	
+	@Parameter(names={"--readAhead"},description="Number of records decoded in advance by a background thread for each BAM. 0: read the BAMs in the main thread.")
+	private int readAhead = MergingSamRecordIterator.DEFAULT_READ_AHEAD;
+	
 	private double sampleWidth=0;
 	private double marginWidth=0;
 	private BufferedImage image=null;
@@ -572,7 +576,7 @@ public class BamCmpCoverage extends Launcher
 			
 			//create merging sam-reader
 			MergingSamRecordIterator iter=new MergingSamRecordIterator(
-					comparator,iterators);
+					comparator,iterators,this.readAhead);
 			
 			
 			//create image
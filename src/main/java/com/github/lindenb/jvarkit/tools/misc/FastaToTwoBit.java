@@ -0,0 +1,115 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.tools.misc;
+
+import java.io.File;
+import java.util.List;
+
+import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import htsjdk.samtools.util.CloserUtil;
+
+import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.util.bio.fasta.TwoBitGenome;
+import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.jcommander.Program;
+import com.github.lindenb.jvarkit.util.log.Logger;
+/**
+BEGIN_DOC
+
+Builds a memory-mapped 2-bit image of an indexed fasta file.
+
+When the image is saved next to the fasta file ( `ref.fa.twobit` for `ref.fa` ), the tools
+reading the reference with `GenomicSequence` (e.g. vcfpolyx, vcfpredictions, bamstats04, minicaller...)
+use this image instead of the fasta file: random access to a base and GC% of an interval are
+done in constant time and the image is shared by all the threads.
+
+The case of the bases and the IUPAC symbols are kept. The image is ignored if it is older than the fasta file.
+
+## Example
+
+```bash
+$ java -jar dist/fasta2twobit.jar -R ref.fa
+$ ls ref.fa*
+ref.fa  ref.fa.fai  ref.fa.twobit
+```
+
+END_DOC
+
+ */
+@Program(name="fasta2twobit",
+	description="Builds a memory-mapped 2-bit image of an indexed fasta reference, used by the tools for fast random access.",
+	keywords={"fasta","reference"})
+public class FastaToTwoBit
+	extends Launcher
+	{
+	private static final Logger LOG = Logger.build(FastaToTwoBit.class).make();
+
+	@Parameter(names={"-R","--reference"},description=INDEXED_FASTA_REFERENCE_DESCRIPTION,required=true)
+	private File faidx = null;
+
+	@Parameter(names={"-o","--output"},description="Output file. Default: ${REF}"+TwoBitGenome.SUFFIX)
+	private File outputFile = null;
+
+	@Override
+	public int doWork(final List<String> args) {
+		if(!args.isEmpty())
+			{
+			LOG.error("Illegal number of arguments.");
+			return -1;
+			}
+		IndexedFastaSequenceFile fasta=null;
+		try
+			{
+			fasta = new IndexedFastaSequenceFile(this.faidx);
+			if(fasta.getSequenceDictionary()==null)
+				{
+				throw new JvarkitException.FastaDictionaryMissing(this.faidx.getPath());
+				}
+			final File out = (this.outputFile==null?new File(this.faidx.getPath()+TwoBitGenome.SUFFIX):this.outputFile);
+			LOG.info("writing "+out);
+			TwoBitGenome.write(fasta, out);
+			return 0;
+			}
+		catch(final Exception err)
+			{
+			LOG.error(err);
+			return -1;
+			}
+		finally
+			{
+			CloserUtil.close(fasta);
+			}
+		}
+	
+	public static void main(final String[] args) {
+		new FastaToTwoBit().instanceMainWithExit(args);
+	}
+
+}
@@ -26,10 +26,8 @@ package com.github.lindenb.jvarkit.tools.misc;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import htsjdk.samtools.fastq.BasicFastqWriter;
@@ -41,6 +39,7 @@ import htsjdk.samtools.util.CloserUtil;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.util.CompactNameSet;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -69,8 +68,10 @@ public class FastqGrep
 	private int n_before_remove=-1;
 	@Parameter(names="-V",description="invert)")
 	private boolean inverse=false;
+	@Parameter(names="--bloom",description="use a Bloom filter to quickly reject the reads that are not in the list of names (faster when most reads are not in the list, e.g. with -V)")
+	private boolean useBloomFilter=false;
 	
-	private Map<String,Integer> readNames=new HashMap<String,Integer>(); 
+	private CompactNameSet readNames=new CompactNameSet(); 
 
 	
 	
@@ -104,8 +105,8 @@ public class FastqGrep
 			FastqRecord fastq=r.next();
 			boolean keep=false;
 			String readName=getReadName(fastq);
-			Integer count=readNames.get(readName);
-			if(count!=null)
+			final int count=readNames.incrementCount(readName);
+			if(count!=-1)
 				{
 				keep=true;
 				}
@@ -118,16 +119,11 @@ public class FastqGrep
 			
 			if(n_before_remove!=-1 && !inverse && keep)
 				{
-				count++;
 				if(count>=n_before_remove)
 					{
 					readNames.remove(readName);
 					if(readNames.isEmpty()) break;
 					}
-				else
-					{
-					readNames.put(readName,count);
-					}
 				}
 			
 			
@@ -149,20 +145,25 @@ public class FastqGrep
 		    		{
 		    		line=line.trim();
 		    		if(line.isEmpty()) continue;
-		    		this.readNames.put(getReadName(line),0);
+		    		this.readNames.add(getReadName(line));
 		    		}
 		    	in.close();
 				}
 			
 			for(final String r: this.readNamesInput)
 				{	
-				this.readNames.put(getReadName(r),0);
+				this.readNames.add(getReadName(r));
 				}
 			
 			if(readNames.isEmpty())
 	    		{
 	    		LOG.warn("no read name found.");
 	    		}
+			if(this.useBloomFilter)
+				{
+				this.readNames.buildBloomFilter(10);
+				}
+			LOG.info("read names: "+readNames.size()+" memory: "+(readNames.getMemoryUsage()/1000000L)+"Mb");
 
 			
 			if(this.outputFile!=null)
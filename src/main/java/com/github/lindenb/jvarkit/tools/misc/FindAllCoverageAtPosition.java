@@ -32,17 +32,21 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import htsjdk.samtools.Cigar;
 import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
@@ -64,6 +68,7 @@ import com.github.lindenb.jvarkit.util.bio.samfilter.SamFilterParser;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.samtools.CoverageEngine;
 import com.github.lindenb.jvarkit.util.samtools.SAMRecordPartition;
 
 /**
@@ -126,6 +131,10 @@ public class FindAllCoverageAtPosition extends Launcher
 	
 	@Parameter(names={"-filter","--filter"},description=SamFilterParser.FILTER_DESCRIPTION,converter=SamFilterParser.StringConverter.class)
 	private SamRecordFilter filter = SamFilterParser.buildDefault();
+	@Parameter(names={"--threads"},description="Number of threads. The work is split by (BAM, chunk of positions).")
+	private int nThreads = 1;
+	@Parameter(names={"--positionsPerChunk"},description="Number of positions processed by one task.")
+	private int mutationsPerChunk = 1000;
 
 	
 	private static class Mutation implements Comparable<Mutation>
@@ -232,187 +241,269 @@ public class FindAllCoverageAtPosition extends Launcher
     	return null;
     	}
 
-    private void scan(final BufferedReader in,final Set<Mutation> mutations) throws Exception
+    private static final String DEFAULT_SAMPLE_NAME="(undefined)";
+    
+    /** split the mutations into chunks on the same chromosome */
+    private List<List<Mutation>> splitMutations(final Set<Mutation> mutations)
     	{
-
-    	final String DEFAULT_SAMPLE_NAME="(undefined)";
-    	String line;
-    	while((line=in.readLine())!=null)
+    	final List<List<Mutation>> chunks = new ArrayList<>();
+    	List<Mutation> chunk = null;
+    	for(final Mutation src:mutations)
+    		{
+    		if(chunk==null || chunk.size()>=this.mutationsPerChunk || !chunk.get(0).chrom.equals(src.chrom))
+    			{
+    			chunk = new ArrayList<>();
+    			chunks.add(chunk);
+    			}
+    		chunk.add(src);
+    		}
+    	return chunks;
+    	}
+    
+    /** update the counters for the read 'rec' at position 'm' */
+    private void count(final SAMRecord rec,final Mutation m,final Map<String, CigarAndBases> sample2count)
+    	{
+		final Cigar cigar=rec.getCigar();
+		if(cigar==null) return;
+		final String readString = rec.getReadString().toUpperCase();
+		String sampleName=DEFAULT_SAMPLE_NAME;
+		final SAMReadGroupRecord rg=rec.getReadGroup();
+		if(rg!=null)
 			{
-    		if(out.checkError()) break;
-			if(line.isEmpty() || line.startsWith("#")) continue;
-			File f=new File(line);
-			if(!f.exists()) continue;
-			if(!f.isFile()) continue;
-			if(!f.canRead()) continue;
-			String filename=f.getName();
-			if(filename.endsWith(".cram"))
+			String sn= groupBy.apply(rg);
+			if(sn!=null && !sn.trim().isEmpty())
 				{
-				LOG.warn("Sorry CRAM is not supported "+filename);
-				continue;
+				sampleName=sn;
 				}
-			if(!filename.endsWith(".bam")) continue;
-			
-    			
-			SamReader samReader=null;
-			SAMRecordIterator iter=null;
-			try
+			}
+		CigarAndBases counter= sample2count.get(sampleName);
+		if(counter==null)
+			{
+			counter=new CigarAndBases();
+			sample2count.put(sampleName, counter);
+			}	
+		
+		
+		int ref= rec.getUnclippedStart();
+		int readPos = 0;
+		for(int k=0;k<cigar.numCigarElements() && ref< m.pos+1;++k)
+			{
+			final CigarElement ce=cigar.getCigarElement(k);
+			final CigarOperator op=ce.getOperator();
+			switch(op)
 				{
-				samReader = this.samReaderFactory.open(f);
-				if(!samReader.hasIndex())
-					{
-					LOG.warn("no index for "+f);
-					continue;
-					}
-				final SAMFileHeader header=samReader.getFileHeader();
-				for(final Mutation src:mutations)
+				case P: break;
+				case I: 
 					{
-					final Map<String, CigarAndBases> sample2count=new TreeMap<String,CigarAndBases>();
-					for(SAMReadGroupRecord rg:header.getReadGroups())
+					if(ref==m.pos)
 						{
-						if(rg!=null)
-							{
-							String sn=this.groupBy.apply(rg);
-							if(sn!=null && !sn.trim().isEmpty())
-								{
-								sample2count.put(sn, new CigarAndBases());
-								}
-							}
+						counter.operators.incr(op);
+						counter.bases.incr(INSERTION_CHAR);
 						}
-					
-					if(sample2count.isEmpty())
-						{
-						sample2count.put(DEFAULT_SAMPLE_NAME, new CigarAndBases());
-						}
-
-					
-					
-					final Mutation m = convertFromSamHeader(f,header,src);
-					if(m==null) continue;
-					iter=samReader.query(m.chrom, m.pos-1, m.pos+1,	false);
-					while(iter.hasNext())
+					readPos += ce.getLength();
+					break;
+					}
+				case D:case N:
+				case M: case X: case EQ: 
+				case H:
+				case S:
+					{
+					for(int i=0;i< ce.getLength();++i )
 						{
-						final SAMRecord rec=iter.next();
-						if(this.filter.filterOut(rec)) continue;
-						final Cigar cigar=rec.getCigar();
-						if(cigar==null) continue;
-						final String readString = rec.getReadString().toUpperCase();
-						String sampleName=DEFAULT_SAMPLE_NAME;
-						final SAMReadGroupRecord rg=rec.getReadGroup();
-						if(rg!=null)
-							{
-							String sn= groupBy.apply(rg);
-							if(sn!=null && !sn.trim().isEmpty())
-								{
-								sampleName=sn;
-								}
-							}
-						CigarAndBases counter= sample2count.get(sampleName);
-						if(counter==null)
-							{
-							counter=new CigarAndBases();
-							sample2count.put(sampleName, counter);
-							}	
-						
-						
-						int ref= rec.getUnclippedStart();
-						int readPos = 0;
-						for(int k=0;k<cigar.numCigarElements() && ref< m.pos+1;++k)
+						if(ref==m.pos)
 							{
-							final CigarElement ce=cigar.getCigarElement(k);
-							final CigarOperator op=ce.getOperator();
+							counter.operators.incr(op);
 							switch(op)
 								{
-								case P: break;
-								case I: 
-									{
-									if(ref==m.pos)
-										{
-										counter.operators.incr(op);
-										counter.bases.incr(INSERTION_CHAR);
-										}
-									readPos += ce.getLength();
+								case M:case X:case EQ:
+									counter.bases.incr(readString.charAt(readPos));
 									break;
-									}
 								case D:case N:
-								case M: case X: case EQ: 
-								case H:
-								case S:
-									{
-									for(int i=0;i< ce.getLength();++i )
-										{
-										if(ref==m.pos)
-											{
-											counter.operators.incr(op);
-											switch(op)
-												{
-												case M:case X:case EQ:
-													counter.bases.incr(readString.charAt(readPos));
-													break;
-												case D:case N:
-													counter.bases.incr(DELETION_CHAR);
-													break;
-												default:break;
-												}
-											break;
-											}	
-										if(op.consumesReadBases()) ++readPos;
-										ref++;
-										}
+									counter.bases.incr(DELETION_CHAR);
 									break;
-									}
-								default: throw new RuntimeException("unknown operator:"+op);
+								default:break;
 								}
-							}
+							break;
+							}	
+						if(op.consumesReadBases()) ++readPos;
+						ref++;
 						}
-					iter.close();
-					iter=null;
-						
-					
-					for(final String sample:sample2count.keySet())
+					break;
+					}
+				default: throw new RuntimeException("unknown operator:"+op);
+				}
+			}
+    	}
+    
+    /** scan a chunk of mutations in one BAM, returns the lines of output */
+    private String scanChunk(final File f,final SamReader samReader,final List<Mutation> chunk)
+    	{
+    	if(!samReader.hasIndex())
+			{
+			return "";
+			}
+		final SAMFileHeader header=samReader.getFileHeader();
+		
+		/* converted mutations, sorted on position */
+		final List<Mutation> converted = new ArrayList<>(chunk.size());
+		final List<Map<String, CigarAndBases>> counters = new ArrayList<>(chunk.size());
+		for(final Mutation src:chunk)
+			{
+			final Mutation m = convertFromSamHeader(f,header,src);
+			if(m==null) continue;
+			final Map<String, CigarAndBases> sample2count=new TreeMap<String,CigarAndBases>();
+			for(SAMReadGroupRecord rg:header.getReadGroups())
+				{
+				if(rg!=null)
+					{
+					String sn=this.groupBy.apply(rg);
+					if(sn!=null && !sn.trim().isEmpty())
 						{
-						final CigarAndBases counter= sample2count.get(sample);
-						
-						out.print(f);
-						out.print('\t');
-						out.print(m.chrom);
-						out.print('\t');
-						out.print(m.pos);
-						out.print('\t');
-						out.print(sample);
-						out.print('\t');
-						out.print(
-								counter.operators.count(CigarOperator.M)+
-								counter.operators.count(CigarOperator.EQ)+
-								counter.operators.count(CigarOperator.X)
-								);
-						for(CigarOperator op:CigarOperator.values())
-							{
-							out.print('\t');
-							out.print(counter.operators.count(op));
-							}
-						for(char c:BASES_To_PRINT)
-							{
-							out.print('\t');
-							out.print(counter.bases.count(c));
-							}
-						
-						out.println();
+						sample2count.put(sn, new CigarAndBases());
 						}
-					}//end of loop over mutations
+					}
 				}
-			catch(Exception err)
+			if(sample2count.isEmpty())
 				{
-				LOG.error(err);
-				throw err;
+				sample2count.put(DEFAULT_SAMPLE_NAME, new CigarAndBases());
 				}
-			finally
+			converted.add(m);
+			counters.add(sample2count);
+			}
+		if(converted.isEmpty()) return "";
+		
+		final int tid = header.getSequenceIndex(converted.get(0).chrom);
+		final QueryInterval queryIntervals[] = QueryInterval.optimizeIntervals(
+				converted.stream().
+				map(M->new QueryInterval(tid, Math.max(1,M.pos-1), M.pos+1)).
+				toArray(N->new QueryInterval[N])
+				);
+		final SAMRecordIterator iter=samReader.query(queryIntervals,false);
+		while(iter.hasNext())
+			{
+			final SAMRecord rec=iter.next();
+			if(this.filter.filterOut(rec)) continue;
+			if(rec.getCigar()==null) continue;
+			final int recStart = rec.getAlignmentStart();
+			final int recEnd = (rec.getReadUnmappedFlag()?recStart:rec.getAlignmentEnd());
+			/* first mutation such as pos+1 >= recStart */
+			int lo=0,hi=converted.size();
+			while(lo<hi)
+				{
+				final int mid=(lo+hi)>>>1;
+				if(converted.get(mid).pos+1 < recStart) lo=mid+1; else hi=mid;
+				}
+			for(int i=lo;i< converted.size() && converted.get(i).pos-1 <= recEnd;++i)
 				{
-				CloserUtil.close(iter);
-				CloserUtil.close(samReader);
-				}    				
-			}		
-	    
+				count(rec,converted.get(i),counters.get(i));
+				}
+			}
+		iter.close();
+		
+		final StringWriter sw = new StringWriter();
+		final PrintWriter out = new PrintWriter(sw);
+		for(int i=0;i< converted.size();++i)
+			{
+			final Mutation m = converted.get(i);
+			final Map<String, CigarAndBases> sample2count = counters.get(i);
+			for(final String sample:sample2count.keySet())
+				{
+				final CigarAndBases counter= sample2count.get(sample);
+				
+				out.print(f);
+				out.print('\t');
+				out.print(m.chrom);
+				out.print('\t');
+				out.print(m.pos);
+				out.print('\t');
+				out.print(sample);
+				out.print('\t');
+				out.print(
+						counter.operators.count(CigarOperator.M)+
+						counter.operators.count(CigarOperator.EQ)+
+						counter.operators.count(CigarOperator.X)
+						);
+				for(CigarOperator op:CigarOperator.values())
+					{
+					out.print('\t');
+					out.print(counter.operators.count(op));
+					}
+				for(char c:BASES_To_PRINT)
+					{
+					out.print('\t');
+					out.print(counter.bases.count(c));
+					}
+				
+				out.println();
+				}
+			}
+		out.flush();
+		return sw.toString();
+    	}
+    
+    private void scan(final BufferedReader in,final Set<Mutation> mutations) throws Exception
+    	{
+    	final List<File> bamFiles = new ArrayList<>();
+    	String line;
+    	while((line=in.readLine())!=null)
+			{
+			if(line.isEmpty() || line.startsWith("#")) continue;
+			File f=new File(line);
+			if(!f.exists()) continue;
+			if(!f.isFile()) continue;
+			if(!f.canRead()) continue;
+			String filename=f.getName();
+			if(filename.endsWith(".cram"))
+				{
+				LOG.warn("Sorry CRAM is not supported "+filename);
+				continue;
+				}
+			if(!filename.endsWith(".bam")) continue;
+			bamFiles.add(f);
+			}
+    	
+    	final List<List<Mutation>> chunks = splitMutations(mutations);
+    	final CoverageEngine engine = new CoverageEngine(this.samReaderFactory, this.nThreads);
+    	try
+    		{
+	    	/* submit all the tasks, then print the results in the order of the files */
+	    	final List<List<Future<String>>> futures = new ArrayList<>(bamFiles.size());
+	    	for(final File f:bamFiles)
+	    		{
+	    		final List<Future<String>> fileFutures = new ArrayList<>(chunks.size());
+	    		for(final List<Mutation> chunk:chunks)
+	    			{
+	    			fileFutures.add(engine.submit(f, R->scanChunk(f,R,chunk)));
+	    			}
+	    		futures.add(fileFutures);
+	    		}
+	    	for(int i=0;i< bamFiles.size();++i)
+	    		{
+	    		if(out.checkError()) break;
+	    		final File f = bamFiles.get(i);
+	    		final SamReader samReader = this.samReaderFactory.open(f);
+	    		final boolean hasIndex = samReader.hasIndex();
+	    		samReader.close();
+	    		if(!hasIndex)
+					{
+					LOG.warn("no index for "+f);
+					}
+	    		for(final Future<String> future:futures.get(i))
+	    			{
+	    			out.print(CoverageEngine.get(future));
+	    			}
+	    		futures.set(i, null);
+	    		}
+    		}
+		catch(final Exception err)
+			{
+			LOG.error(err);
+			throw err;
+			}
+    	finally
+    		{
+    		engine.close();
+    		}
     	}
     
     @Override
@@ -0,0 +1,90 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.tools.misc;
+
+import java.io.File;
+import java.util.List;
+
+import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.jcommander.Program;
+import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGeneStore;
+
+/**
+
+BEGIN_DOC
+
+Converts a UCSC knownGene file to a binary store. The store can be used instead of the
+knownGene file by `vcfpredictions`, `vcfstats` and `vcfcombinetwosnvs`: the file is memory-mapped,
+nothing is parsed or indexed when the tool starts and the pages of the file are shared
+by the concurrent processes.
+
+### Example
+
+```
+$ java -jar dist/kg2bin.jar -o knownGene.bin "http://hgdownload.cse.ucsc.edu/goldenPath/hg19/database/knownGene.txt.gz"
+$ java -jar dist/vcfpredictions.jar -R ref.fa -k knownGene.bin input.vcf
+```
+
+END_DOC
+*/
+@Program(name="kg2bin",
+	description="converts UCSC knownGenes file to a binary, memory-mapped store.",
+	keywords={"ucsc","knownGenes"}
+	)
+public class KnownGenesToBinary extends Launcher
+	{
+	private static final Logger LOG = Logger.build(KnownGenesToBinary.class).make();
+
+	@Parameter(names={"-o","--output"},description="Output file",required=true)
+	private File outputFile = null;
+
+	@Override
+	public int doWork(final List<String> args) {
+		try
+			{
+			final String input = oneAndOnlyOneFile(args);
+			LOG.info("converting "+input+" to "+this.outputFile);
+			KnownGeneStore.write(input, this.outputFile);
+			final KnownGeneStore store = KnownGeneStore.open(this.outputFile);
+			LOG.info("done: "+store.size()+" genes.");
+			return RETURN_OK;
+			}
+		catch(final Exception err)
+			{
+			LOG.error(err);
+			return -1;
+			}
+		}
+
+	public static void main(final String[] args) {
+		new KnownGenesToBinary().instanceMainWithExit(args);
+		}
+	}
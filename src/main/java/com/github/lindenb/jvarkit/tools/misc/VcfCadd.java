@@ -39,7 +39,12 @@ import java.util.regex.Pattern;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.AbstractIterator;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Locatable;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.tribble.readers.LineIterator;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
@@ -51,11 +56,14 @@ import htsjdk.variant.vcf.VCFHeaderLineType;
 import htsjdk.variant.vcf.VCFInfoHeaderLine;
 
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.tabix.TabixFileReader;
+import com.github.lindenb.jvarkit.util.vcf.MergeJoinAnnotationSource;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 
 /**
@@ -103,15 +111,30 @@ public class VcfCadd extends Launcher
 	private static final String CADD_FLAG="CADD";
 	@Parameter(names="-d",description="processing window size")
 	private int buffer_distance=1000;
+	@Parameter(names={"--streaming"},description="Don't use tabix random-access (which are ok for small inputs) but read the CADD file and the VCF in one sorted merge-join pass (better to annotate a large WGS file). Assume dictionaries are sorted the same way. The input VCF must have a dictionary.")
+	private boolean streaming=false;
 	
 	
-	private static class Record
+	private static class Record implements Locatable
 		{
+		String contig;
 		int pos;
 		Allele ref;
 		Allele alt;
 		float score;
 		float phred;
+		@Override
+		public String getContig() {
+			return contig;
+			}
+		@Override
+		public int getStart() {
+			return pos;
+			}
+		@Override
+		public int getEnd() {
+			return pos;
+			}
 		}
 	
 	public VcfCadd()
@@ -142,52 +165,112 @@ public class VcfCadd extends Launcher
 		while(iter.hasNext() )
 			{
 			String line=iter.next();
-			String tokens[]=TAB.split(line);
-			if(tokens.length!=6) throw new IOException("Bad CADD line . Expected 6 fields:"+line);
-			Record rec=new Record();
-			rec.pos= Integer.parseInt(tokens[1]);
-			rec.ref=Allele.create(tokens[2],true);
-			rec.alt=Allele.create(tokens[3],false);
-			rec.score = Float.parseFloat(tokens[4]);
-			rec.phred = Float.parseFloat(tokens[5]);
-			caddList.add(rec);
+			caddList.add(parseRecord(line));
 			}
 		CloserUtil.close(iter);
 		
 		
 		for(int i=0;i< buffer.size();++i)
 			{
-			List<String> cadd_array=new ArrayList<>();
-			VariantContext ctx=buffer.get(i);
-			for(Record rec:caddList)
-				{
-				if(rec.pos!=ctx.getStart()) continue;
-				if(!ctx.getReference().equals(rec.ref)) continue;
+			buffer.set(i, annotate(buffer.get(i),caddList));
+			}
 
-				
-				for(Allele alt:ctx.getAlternateAlleles())
+		
+		}
+	
+	private Record parseRecord(final String line) throws IOException
+		{
+		String tokens[]=TAB.split(line);
+		if(tokens.length!=6) throw new IOException("Bad CADD line . Expected 6 fields:"+line);
+		Record rec=new Record();
+		rec.contig = tokens[0];
+		rec.pos= Integer.parseInt(tokens[1]);
+		rec.ref=Allele.create(tokens[2],true);
+		rec.alt=Allele.create(tokens[3],false);
+		rec.score = Float.parseFloat(tokens[4]);
+		rec.phred = Float.parseFloat(tokens[5]);
+		return rec;
+		}
+	
+	/** annotate the variant with the CADD records */
+	private VariantContext annotate(final VariantContext ctx,final List<Record> caddList)
+		{
+		List<String> cadd_array=new ArrayList<>();
+		for(Record rec:caddList)
+			{
+			if(rec.pos!=ctx.getStart()) continue;
+			if(!ctx.getReference().equals(rec.ref)) continue;
+
+			
+			for(Allele alt:ctx.getAlternateAlleles())
+				{
+				if(alt.isSymbolic() || !alt.equals(rec.alt)) continue;
+				cadd_array.add(alt.getDisplayString()+"|"+rec.score+"|"+rec.phred);
+				}
+			}
+		
+		if(cadd_array.isEmpty()) return ctx;
+		VariantContextBuilder vcb=new VariantContextBuilder(ctx);
+		vcb.attribute(CADD_FLAG, cadd_array);
+		return vcb.make();
+		}
+	
+	/** iterator over the records of the whole CADD file */
+	private class RecordIterator extends AbstractIterator<Record>
+		implements CloseableIterator<Record>
+		{
+		private LineIterator lineIter;
+		RecordIterator(final LineIterator lineIter) {
+			this.lineIter = lineIter;
+			}
+		@Override
+		protected Record advance() {
+			try {
+				while(this.lineIter!=null && this.lineIter.hasNext())
 					{
-					if(alt.isSymbolic() || !alt.equals(rec.alt)) continue;
-					cadd_array.add(alt.getDisplayString()+"|"+rec.score+"|"+rec.phred);
+					final String line = this.lineIter.next();
+					if(line.isEmpty() || line.startsWith("#")) continue;
+					return parseRecord(line);
 					}
+				close();
+				return null;
 				}
-			
-			if(!cadd_array.isEmpty())
+			catch(final IOException err)
 				{
-				VariantContextBuilder vcb=new VariantContextBuilder(ctx);
-				vcb.attribute(CADD_FLAG, cadd_array);
-				buffer.set(i, vcb.make());
+				throw new RuntimeIOException(err);
 				}
 			}
-
-		
+		@Override
+		public void close() {
+			CloserUtil.close(this.lineIter);
+			this.lineIter = null;
+			}
+		}
+	
+	/** annotate the VCF reading the CADD file in one merge-join pass */
+	private void runStreaming(final VcfIterator in,final VariantContextWriter out,final SAMSequenceDictionaryProgress progress)
+		throws IOException
+		{
+		final SAMSequenceDictionary dict = in.getHeader().getSequenceDictionary();
+		if(dict==null || dict.isEmpty()) throw new JvarkitException.VcfDictionaryMissing("input");
+		final MergeJoinAnnotationSource<Record> join = new MergeJoinAnnotationSource<>(
+				new RecordIterator(IOUtils.openURIForLineIterator(this.ccaduri)),
+				dict
+				);
+		while(in.hasNext())
+			{
+			final VariantContext ctx = progress.watch(in.next());
+			out.add(annotate(ctx,join.query(ctx)));
+			}
+		join.close();
 		}
+	
 	@Override
 	protected int doVcfToVcf(String inputName, VcfIterator in, VariantContextWriter out) {
 		
 			try {
 			VCFHeader header=in.getHeader();
-			if(header.getSequenceDictionary()!=null)
+			if(header.getSequenceDictionary()!=null && this.tabix!=null)
 				{
 				SAMSequenceDictionary dict=header.getSequenceDictionary();
 				Set<String> vcfchr=new HashSet<String>();
@@ -210,6 +293,12 @@ public class VcfCadd extends Launcher
 			 
 			
 			out.writeHeader(header);
+			if(this.streaming)
+				{
+				runStreaming(in,out,progress);
+				progress.finish();
+				return 0;
+				}
 			List<VariantContext> buffer= new ArrayList<>();
 			for(;;)
 				{	
@@ -257,9 +346,12 @@ public class VcfCadd extends Launcher
 				return -1;
 				}
 			
-			LOG.info("Loading index for "+this.ccaduri+". Please wait...");
-			this.tabix=new TabixFileReader(this.ccaduri);
-			LOG.info("End loading index");
+			if(!this.streaming)
+				{
+				LOG.info("Loading index for "+this.ccaduri+". Please wait...");
+				this.tabix=new TabixFileReader(this.ccaduri);
+				LOG.info("End loading index");
+				}
 			
 			return doVcfToVcf(args,outputFile);
 			}
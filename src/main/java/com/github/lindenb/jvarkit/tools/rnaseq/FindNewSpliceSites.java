@@ -33,6 +33,7 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.ucsc.KnownGene;
 import com.github.lindenb.jvarkit.util.ucsc.KnownGene.Exon;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGeneStore;
 import com.github.lindenb.semontology.Term;
 /**
 BEGIN_DOC
@@ -58,9 +59,11 @@ public class FindNewSpliceSites extends Launcher
 	private static final Logger LOG = Logger.build(FindNewSpliceSites.class).make();
 
 	private IntervalTreeMap<List<KnownGene>> knownGenesMap=new IntervalTreeMap<>();
+	/** used instead of knownGenesMap if knownGeneUri is a binary store */
+	private KnownGeneStore knownGeneStore=null;
 	@Parameter(names={"-out","--out"},description=OPT_OUPUT_FILE_OR_STDOUT)
 	private File outputFile = null;
-	@Parameter(names="-k",description=KnownGene.OPT_KNOWNGENE_DESC)
+	@Parameter(names="-k",description=KnownGeneStore.OPT_KNOWNGENE_DESC)
 	private String knownGeneUri = KnownGene.getDefaultUri();
 	@Parameter(names="-d",description="max distance between known splice site and cigar end")
 	private int max_distance=10;
@@ -70,7 +73,7 @@ public class FindNewSpliceSites extends Launcher
 	private SAMFileWriter sfw=null;
 	private SAMFileWriter weird=null;
 
-	private FindNewSpliceSites()
+	public FindNewSpliceSites()
 		{
 		}
 	
@@ -120,11 +123,22 @@ public class FindNewSpliceSites extends Launcher
 
 		
 			
-			final Interval interval=new Interval(rec.getReferenceName(), rec.getAlignmentStart(), rec.getAlignmentEnd());
 			final List<KnownGene> genes=new ArrayList<>();
-			for(final List<KnownGene> list:this.knownGenesMap.getOverlapping(interval))
+			if(this.knownGeneStore!=null)
 				{
-				genes.addAll(list);
+				for(final KnownGene g:this.knownGeneStore.getOverlapping(rec.getReferenceName(), rec.getAlignmentStart(), rec.getAlignmentEnd()))
+					{
+					if(g.getExonCount()==1) continue;//need spliced one
+					genes.add(g);
+					}
+				}
+			else
+				{
+				final Interval interval=new Interval(rec.getReferenceName(), rec.getAlignmentStart(), rec.getAlignmentEnd());
+				for(final List<KnownGene> list:this.knownGenesMap.getOverlapping(interval))
+					{
+					genes.addAll(list);
+					}
 				}
 			if(genes.isEmpty())
 				{
@@ -240,6 +254,12 @@ public class FindNewSpliceSites extends Launcher
 			{
 
 			final Pattern tab=Pattern.compile("[\t]");
+			if(KnownGeneStore.isStore(this.knownGeneUri))
+				{
+				LOG.info("Opening "+this.knownGeneUri);
+				this.knownGeneStore=KnownGeneStore.open(new File(this.knownGeneUri));
+				}
+			else
 				{
 				LOG.info("Opening "+this.knownGeneUri);
 				LineIterator r=IOUtils.openURIForLineIterator(this.knownGeneUri);
@@ -31,13 +31,12 @@ package com.github.lindenb.jvarkit.tools.samgrep;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.util.CompactNameSet;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
 import htsjdk.samtools.SAMFileHeader;
@@ -176,18 +175,21 @@ public class SamGrep extends Launcher
 	@Parameter(names={"-V","--invert"},description="invert")
 	private boolean inverse = false;
 	
+	@Parameter(names={"--bloom"},description="use a Bloom filter to quickly reject the reads that are not in the list of names (faster when most reads are not in the list, e.g. with --invert)")
+	private boolean useBloomFilter = false;
+	
 	@ParametersDelegate
 	private WritingBamArgs writingBamArgs=new WritingBamArgs();
 	
 
-	private final Map<String,Integer> readNames=new HashMap<String,Integer>(); 
+	private CompactNameSet readNames=new CompactNameSet(); 
    
     
     @Override
     public int doWork(List<String> args) {
     	
     	
-    	readNames.clear();
+    	readNames=new CompactNameSet();
     	
     	if(namefile!=null) {
 	    	BufferedReader in=null;
@@ -199,7 +201,7 @@ public class SamGrep extends Launcher
 		    		{
 		    		line=line.trim();
 		    		if(line.isEmpty()) continue;
-		    		readNames.put(line,0);
+		    		readNames.add(line);
 		    		}
 				}
 			catch(Exception err)
@@ -213,12 +215,17 @@ public class SamGrep extends Launcher
 				}
 	    	}
     	for(final String line: this.nameStrings) {
-    		readNames.put(line,0);
+    		readNames.add(line);
     		}
     	if(readNames.isEmpty())
 			{
 			LOG.warn("no read found.");
 			}
+    	if(this.useBloomFilter)
+    		{
+    		readNames.buildBloomFilter(10);
+    		}
+    	LOG.info("read names: "+readNames.size()+" memory: "+(readNames.getMemoryUsage()/1000000L)+"Mb");
     	
     	
 		SAMFileWriter sfw=null;
@@ -248,8 +255,8 @@ public class SamGrep extends Launcher
 				boolean keep=false;
 				final SAMRecord rec=progress.watch(iter.next());
 				if(samStdout!=null) samStdout.addAlignment(rec);
-				Integer count = readNames.get(rec.getReadName());
-				if(count!=null)
+				final int count = readNames.incrementCount(rec.getReadName());
+				if(count!=-1)
 					{
 					keep=true;
 					}
@@ -261,16 +268,11 @@ public class SamGrep extends Launcher
 				
 				if(n_before_remove!=-1 && !inverse && keep)
 					{
-					count++;
 					if(count>=n_before_remove)
 						{
 						readNames.remove(rec.getReadName());
 						if(samStdout==null && readNames.isEmpty()) break;
 						}
-					else
-						{
-						readNames.put(rec.getReadName(),count);
-						}
 					}
 				}
 			progress.finish();
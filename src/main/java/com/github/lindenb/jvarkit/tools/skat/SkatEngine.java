@@ -0,0 +1,967 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.tools.skat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoubleUnaryOperator;
+
+import org.apache.commons.math3.exception.MaxCountExceededException;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.special.Gamma;
+
+/**
+ * Native java implementation of the SKAT test for a dichotomous phenotype without covariate,
+ * following the R package SKAT (Wu et al. 2011, Lee et al. 2012):
+ * <code>SKAT_Null_Model(y~1, out_type="D")</code> followed by <code>SKAT(Z, obj, kernel="linear.weighted", weights=w, method="davies"|"optimal")</code>.
+ *
+ * The genotypes are given as one vector of dosages per variant (a byte 0,1,2 for each sample),
+ * so the same vectors can be shared between several tests.
+ *
+ * The p-value of the quadratic form is computed with the algorithm of Davies (AS 155),
+ * the moment matching approximation of Liu is used when Davies fails.
+ */
+public class SkatEngine
+	{
+	/** grid of rho used by SKAT for method="optimal" , rho=1 is replaced by 0.999 */
+	private static final double OPTIMAL_RHOS[] = {0,0.1,0.2,0.3,0.4,0.5,0.6,0.7,0.8,0.9,0.999};
+	private static final double DAVIES_ACC = 1E-6;
+	private static final int DAVIES_LIM = 10000;
+
+	private final boolean optimal;
+
+	/** @param optimal use SKAT-O (method="optimal") instead of SKAT (method="davies") */
+	public SkatEngine(final boolean optimal)
+		{
+		this.optimal = optimal;
+		}
+
+	public boolean isOptimal() {
+		return this.optimal;
+		}
+
+	/**
+	 * compute the p-value.
+	 * @param genotypes one vector per variant, genotypes.get(variant)[sample] is the number of alternate alleles
+	 * @param phenotypes phenotypes[sample] is 0 (unaffected) or 1 (affected)
+	 * @param weights weights[variant]
+	 * @return the p-value
+	 */
+	public double pValue(final List<byte[]> genotypes,final double phenotypes[],final double weights[])
+		{
+		final int nSamples = phenotypes.length;
+		if(nSamples==0) throw new IllegalArgumentException("no sample");
+		if(genotypes.size()!=weights.length) throw new IllegalArgumentException("genotypes.size!=weights.length");
+		/* null model : intercept only */
+		double mu = 0;
+		for(final double y:phenotypes)
+			{
+			if(!(y==0 || y==1)) throw new IllegalArgumentException("phenotype should be 0 or 1 but got "+y);
+			mu+=y;
+			}
+		mu/=nSamples;
+		final double pi1 = mu*(1.0-mu);
+		if(pi1<=0) throw new IllegalArgumentException("all samples have the same phenotype");
+		final double res[] = new double[nSamples];
+		for(int i=0;i< nSamples;i++) res[i]=phenotypes[i]-mu;
+
+		/* as SKAT_MAIN_Check_Z : flip the variants with MAF>0.5, remove the monomorphic variants */
+		final List<double[]> Z = new ArrayList<>(genotypes.size());
+		for(int j=0;j< genotypes.size();++j)
+			{
+			final byte g[] = genotypes.get(j);
+			if(g.length!=nSamples) throw new IllegalArgumentException("genotypes.length!=phenotypes.length");
+			double sum=0;
+			for(final double x:g) sum+=x;
+			final boolean flip = sum/(2.0*nSamples) > 0.5;
+			if(flip) sum = 2.0*nSamples - sum;
+			if(sum<=0) continue;
+			final double w = weights[j];
+			if(Double.isNaN(w) || Double.isInfinite(w)) throw new IllegalArgumentException("bad weight for variant["+j+"] : "+w);
+			final double z[] = new double[nSamples];
+			for(int i=0;i< nSamples;i++) z[i] = w*(flip?2.0-g[i]:g[i]);
+			Z.add(z);
+			}
+		final int p = Z.size();
+		if(p==0) return 1.0;
+
+		/* score vector s = res'Z */
+		final double s[] = new double[p];
+		for(int j=0;j< p;j++)
+			{
+			final double z[] = Z.get(j);
+			double t=0;
+			for(int i=0;i< nSamples;i++) t+=res[i]*z[i];
+			s[j]=t;
+			}
+		/* A = Z1'Z1 with Z1 = sqrt(pi1)*(centered Z)/sqrt(2) */
+		final double zc[][] = new double[p][];
+		for(int j=0;j< p;j++)
+			{
+			final double z[] = Z.get(j);
+			double m=0;
+			for(int i=0;i< nSamples;i++) m+=z[i];
+			m/=nSamples;
+			final double c[] = new double[nSamples];
+			final double f = Math.sqrt(pi1/2.0);
+			for(int i=0;i< nSamples;i++) c[i]=(z[i]-m)*f;
+			zc[j]=c;
+			}
+
+		if(!this.optimal || p==1)
+			{
+			double q=0;
+			for(final double x:s) q+=x*x;
+			return pValueLambda(eigenValuesOfCrossProduct(zc), q/2.0);
+			}
+		return optimalPValue(s, zc);
+		}
+
+	/**
+	 * as SKAT's Get_Lambda(t(X) %*% X) where X is given by columns. t(X)X and X t(X)
+	 * have the same non-zero eigen values, so the smallest of both matrices is decomposed.
+	 */
+	static double[] eigenValuesOfCrossProduct(final double cols[][])
+		{
+		final int p = cols.length;
+		final int n = cols[0].length;
+		final double M[][];
+		if(p<=n)
+			{
+			M = new double[p][p];
+			for(int a=0;a< p;a++)
+				{
+				for(int b=a;b< p;b++)
+					{
+					double t=0;
+					final double ca[]=cols[a];
+					final double cb[]=cols[b];
+					for(int i=0;i< n;i++) t+=ca[i]*cb[i];
+					M[a][b]=t;
+					M[b][a]=t;
+					}
+				}
+			}
+		else
+			{
+			M = new double[n][n];
+			for(final double c[]:cols)
+				{
+				for(int a=0;a< n;a++)
+					{
+					if(c[a]==0) continue;
+					for(int b=a;b< n;b++) M[a][b]+=c[a]*c[b];
+					}
+				}
+			for(int a=0;a< n;a++) for(int b=a+1;b< n;b++) M[b][a]=M[a][b];
+			}
+		return eigenValues(M);
+		}
+
+	/** eigen values of a symmetric matrix using the cyclic Jacobi method, used when commons-math doesn't converge */
+	private static double[] jacobiEigenValues(final double K[][])
+		{
+		final int n = K.length;
+		final double A[][] = new double[n][];
+		for(int i=0;i< n;i++) A[i]=K[i].clone();
+		for(int sweep=0;sweep< 100;sweep++)
+			{
+			double off=0,diag=0;
+			for(int i=0;i< n;i++)
+				{
+				diag+=A[i][i]*A[i][i];
+				for(int j=i+1;j< n;j++) off+=A[i][j]*A[i][j];
+				}
+			if(off <= 1E-30*diag) break;
+			for(int p=0;p< n;p++)
+				{
+				for(int q=p+1;q< n;q++)
+					{
+					final double apq = A[p][q];
+					if(apq==0) continue;
+					final double theta = (A[q][q]-A[p][p])/(2.0*apq);
+					final double t = Math.signum(theta==0?1:theta)/(Math.abs(theta)+Math.sqrt(theta*theta+1.0));
+					final double cs = 1.0/Math.sqrt(t*t+1.0);
+					final double sn = t*cs;
+					for(int k=0;k< n;k++)
+						{
+						final double akp = A[k][p];
+						final double akq = A[k][q];
+						A[k][p] = cs*akp - sn*akq;
+						A[k][q] = sn*akp + cs*akq;
+						}
+					for(int k=0;k< n;k++)
+						{
+						final double apk = A[p][k];
+						final double aqk = A[q][k];
+						A[p][k] = cs*apk - sn*aqk;
+						A[q][k] = sn*apk + cs*aqk;
+						}
+					}
+				}
+			}
+		final double ev[] = new double[n];
+		for(int i=0;i< n;i++) ev[i]=A[i][i];
+		return ev;
+		}
+
+	/** as SKAT's Get_Lambda: eigen values of a symmetric matrix, keeping the values > mean(positive values)/1E5 */
+	static double[] eigenValues(final double K[][])
+		{
+		double ev[];
+		if(K.length==1)
+			{
+			ev = new double[]{K[0][0]};
+			}
+		else
+			{
+			try
+				{
+				ev = new EigenDecomposition(new Array2DRowRealMatrix(K,false)).getRealEigenvalues();
+				}
+			catch(final MaxCountExceededException err)
+				{
+				ev = jacobiEigenValues(K);
+				}
+			}
+		double sum=0;
+		int n=0;
+		for(final double v:ev) if(v>=0) {sum+=v;n++;}
+		final double threshold = (n==0?0:sum/n)/1E5;
+		return Arrays.stream(ev).filter(V->V>threshold).toArray();
+		}
+
+	/** as SKAT's Get_PValue.Lambda : P(sum(lambda*chisq1) &gt; q) using Davies, fallback to Liu */
+	public static double pValueLambda(final double lambda[],final double q)
+		{
+		if(lambda.length==0) return 1.0;
+		if(lambda.length==1) return liuPValue(lambda, q);
+		final Davies davies = new Davies(lambda,q,DAVIES_LIM,DAVIES_ACC);
+		final double pvalue = 1.0 - davies.qfval;
+		/* like SKAT, a non-zero ifault is only reported, Liu is used when the p-value is out of range */
+		if(pvalue>1.0 || pvalue<=0.0)
+			{
+			return liuPValue(lambda, q);
+			}
+		return pvalue;
+		}
+
+	/** parameters of the modified Liu's approximation (SKAT's Get_Liu_Params_Mod) */
+	private static class LiuParams
+		{
+		final double muQ;
+		final double sigmaQ;
+		final double l;
+		final double d;
+		final double muX;
+		final double sigmaX;
+		LiuParams(final double lambda[])
+			{
+			final double c1[] = new double[4];
+			for(final double v:lambda)
+				{
+				c1[0]+=v;
+				c1[1]+=v*v;
+				c1[2]+=v*v*v;
+				c1[3]+=v*v*v*v;
+				}
+			this.muQ = c1[0];
+			this.sigmaQ = Math.sqrt(2.0*c1[1]);
+			final double s1 = c1[2]/Math.pow(c1[1],1.5);
+			final double s2 = c1[3]/(c1[1]*c1[1]);
+			final double a;
+			if(s1*s1 > s2)
+				{
+				a = 1.0/(s1-Math.sqrt(s1*s1-s2));
+				this.d = s1*a*a*a - a*a;
+				this.l = a*a - 2.0*this.d;
+				}
+			else
+				{
+				this.l = 1.0/s2;
+				a = Math.sqrt(this.l);
+				this.d = 0;
+				}
+			this.muX = this.l + this.d;
+			this.sigmaX = Math.sqrt(2.0)*a;
+			}
+		}
+
+	/** SKAT's Get_Liu_PVal.MOD.Lambda */
+	public static double liuPValue(final double lambda[],final double q)
+		{
+		final LiuParams param = new LiuParams(lambda);
+		final double qNorm = (q - param.muQ)/param.sigmaQ;
+		final double qNorm1 = qNorm * param.sigmaX + param.muX;
+		return chiSquareUpperTail(qNorm1, param.l, param.d);
+		}
+
+	/** upper tail of the chi-square distribution, pchisq(x,df,lower.tail=FALSE) */
+	static double chiSquareUpperTail(final double x,final double df)
+		{
+		if(x<=0) return 1.0;
+		return Gamma.regularizedGammaQ(df/2.0, x/2.0);
+		}
+
+	/** upper tail of the non-central chi-square distribution, as a Poisson mixture of central chi-squares */
+	static double chiSquareUpperTail(final double x,final double df,final double ncp)
+		{
+		if(ncp<=0) return chiSquareUpperTail(x, df);
+		if(x<=0) return 1.0;
+		final double halfNcp = ncp/2.0;
+		final int mode = (int)Math.floor(halfNcp);
+		final int kmax = (int)Math.ceil(halfNcp + 12.0*Math.sqrt(halfNcp) + 50.0);
+		double sum = 0;
+		for(int k=Math.max(0, mode - (kmax-mode));k<=kmax;k++)
+			{
+			final double logw = -halfNcp + k*Math.log(halfNcp) - Gamma.logGamma(k+1.0);
+			if(logw < -745) continue;
+			sum += Math.exp(logw)*chiSquareUpperTail(x, df+2.0*k);
+			}
+		return Math.min(1.0, sum);
+		}
+
+	/** density of the chi-square distribution with one degree of freedom */
+	private static double dchisq1(final double x)
+		{
+		return Math.exp(-x/2.0)/Math.sqrt(2.0*Math.PI*x);
+		}
+
+	/** quantile of the chi-square distribution for the upper tail 'pUpper' */
+	private static double chiSquareUpperQuantile(final double pUpper,final double df)
+		{
+		if(pUpper<=0) return Double.POSITIVE_INFINITY;
+		if(pUpper>=1) return 0;
+		double lo=0,hi=Math.max(1.0,df);
+		while(chiSquareUpperTail(hi, df) > pUpper) { lo=hi; hi*=2.0;}
+		for(int i=0;i< 200 && (hi-lo) > 1E-12*hi;i++)
+			{
+			final double mid=(lo+hi)/2.0;
+			if(chiSquareUpperTail(mid, df) > pUpper) lo=mid; else hi=mid;
+			}
+		return (lo+hi)/2.0;
+		}
+
+	/** SKAT-O, as SKAT_Optimal_Logistic with method="optimal.mod" */
+	private double optimalPValue(final double s[],final double Z1[][])
+		{
+		final int p = s.length;
+		final int nSamples = Z1[0].length;
+		final int nr = OPTIMAL_RHOS.length;
+		double sumS=0,sumS2=0;
+		for(final double x:s) {sumS+=x;sumS2+=x*x;}
+		final double rowSumZ1[] = new double[nSamples];
+		for(int j=0;j< p;j++) for(int i=0;i< nSamples;i++) rowSumZ1[i]+=Z1[j][i];
+
+		/* Q for each rho and the associated eigen values */
+		final double Q[] = new double[nr];
+		final double pvalEach[] = new double[nr];
+		final LiuParams params[] = new LiuParams[nr];
+		for(int r=0;r< nr;r++)
+			{
+			final double rho = OPTIMAL_RHOS[r];
+			Q[r] = ((1.0-rho)*sumS2 + rho*sumS*sumS)/2.0;
+			/* eigen values of L t(Z1) Z1 t(L) with t(L)L=R.M are the eigen values of S t(Z1) Z1 S where S is the symmetric square root of R.M */
+			final double a = Math.sqrt(1.0-rho);
+			final double b = (Math.sqrt(1.0-rho+p*rho)-a)/p;
+			final double Z1S[][] = new double[p][nSamples];
+			for(int j=0;j< p;j++)
+				{
+				for(int i=0;i< nSamples;i++) Z1S[j][i] = a*Z1[j][i] + b*rowSumZ1[i];
+				}
+			final double lambda[] = eigenValuesOfCrossProduct(Z1S);
+			params[r] = new LiuParams(lambda);
+			pvalEach[r] = pValueLambda(lambda, Q[r]);
+			}
+		double pmin = pvalEach[0];
+		for(final double v:pvalEach) pmin=Math.min(pmin, v);
+		/* as R: qchisq(1-pmin) */
+		final double pminUpper = 1.0 - (1.0 - pmin);
+		final double pminQ[] = new double[nr];
+		for(int r=0;r< nr;r++)
+			{
+			final LiuParams lp = params[r];
+			final double df = lp.l;
+			final double qOrg = chiSquareUpperQuantile(pminUpper, df);
+			pminQ[r] = (qOrg - df)/Math.sqrt(2.0*df)*lp.sigmaQ + lp.muQ;
+			}
+
+		/* SKAT_Optimal_Param */
+		final double zMean[] = new double[nSamples];
+		for(int j=0;j< p;j++) for(int i=0;i< nSamples;i++) zMean[i]+=Z1[j][i];
+		double sumZMean2=0;
+		for(int i=0;i< nSamples;i++) {zMean[i]/=p; sumZMean2+=zMean[i]*zMean[i];}
+		final double cof1[] = new double[p];
+		double sumCof2=0;
+		for(int j=0;j< p;j++)
+			{
+			double t=0;
+			for(int i=0;i< nSamples;i++) t+=zMean[i]*Z1[j][i];
+			cof1[j]=t/sumZMean2;
+			sumCof2+=cof1[j]*cof1[j];
+			}
+		final double item2[][] = new double[p][nSamples];
+		for(int j=0;j< p;j++) for(int i=0;i< nSamples;i++) item2[j][i]=Z1[j][i]-zMean[i]*cof1[j];
+		final double mixLambda[] = eigenValuesOfCrossProduct(item2);
+		/* sum((t(Z.item1) %*% Z.item1) * (t(Z.item2) %*% Z.item2)) * 4 = 4 * sum(zMean^2) * |Z.item2 %*% cof1|^2 */
+		final double item2cof[] = new double[nSamples];
+		for(int j=0;j< p;j++) for(int i=0;i< nSamples;i++) item2cof[i]+=item2[j][i]*cof1[j];
+		double w33=0;
+		for(final double v:item2cof) w33+=v*v;
+		w33*=4.0*sumZMean2;
+		double sumL=0,sumL2=0,sumL4=0;
+		for(final double v:mixLambda) {sumL+=v;sumL2+=v*v;sumL4+=v*v*v*v;}
+		final double muQ = sumL;
+		final double varQ = 2.0*sumL2 + w33;
+		final double tau[] = new double[nr];
+		for(int r=0;r< nr;r++)
+			{
+			final double rho = OPTIMAL_RHOS[r];
+			tau[r] = (p*p*rho + sumCof2*(1.0-rho))*sumZMean2;
+			}
+		final double sumLambda = sumL;
+		final double varRemain = w33;
+		final double kerQ = sumL4/(sumL2*sumL2)*12.0;
+		final double dfQ = 12.0/kerQ;
+
+		/* integrate over x in [0,40], the substitution x=t^2 removes the singularity of dchisq(x,1) at 0.
+		 * SKAT computes 1-integrate((1-upper)*dchisq), here the upper tail is integrated directly:
+		 * 1-integrate((1-upper)*dchisq) = P(chisq1&gt;40) + integrate(upper*dchisq), so the relative
+		 * tolerance of the integration applies to the p-value and not to 1-pvalue. */
+		final DoubleUnaryOperator minQ = X->{
+			double m = Double.POSITIVE_INFINITY;
+			for(int r=0;r< nr;r++) m=Math.min(m, (pminQ[r]-tau[r]*X)/(1.0-OPTIMAL_RHOS[r]));
+			return m;
+			};
+		double pvalue;
+		try
+			{
+			final double sd1 = Math.sqrt(varQ-varRemain)/Math.sqrt(varQ);
+			final DoubleUnaryOperator davies = T->{
+				final double x = T*T;
+				final double min1 = minQ.applyAsDouble(x);
+				double upper;
+				if(min1 > sumLambda*1E4)
+					{
+					upper=0;
+					}
+				else
+					{
+					final double min1st = (min1-muQ)*sd1 + muQ;
+					final Davies d = new Davies(mixLambda, min1st, DAVIES_LIM, DAVIES_ACC);
+					if(d.ifault!=0) throw new ArithmeticException("Davies ifault="+d.ifault);
+					upper = 1.0 - d.qfval;
+					}
+				if(upper>1) upper=1;
+				return upper*dchisq1(x)*2.0*T;
+				};
+			pvalue = chiSquareUpperTail(40.0, 1.0) + integrate(davies, 0, Math.sqrt(40.0));
+			}
+		catch(final ArithmeticException err)
+			{
+			final DoubleUnaryOperator liu = T->{
+				final double x = T*T;
+				final double q = (minQ.applyAsDouble(x)-muQ)/Math.sqrt(varQ)*Math.sqrt(2.0*dfQ)+dfQ;
+				return chiSquareUpperTail(q, dfQ)*dchisq1(x)*2.0*T;
+				};
+			pvalue = chiSquareUpperTail(40.0, 1.0) + integrate(liu, 0, Math.sqrt(40.0));
+			}
+		if(pmin*nr < pvalue) pvalue = pmin*nr;
+
+		/* SKAT-O p-value should be <= min(p-values) * 3 */
+		int nPositive=0;
+		double minPositive = Double.POSITIVE_INFINITY;
+		for(final double v:pvalEach) if(v>0) { nPositive++; minPositive=Math.min(minPositive, v);}
+		if(pvalue<=0 || nPositive < nr) pvalue = pmin*3.0;
+		if(pvalue==0 && nPositive>0) pvalue = minPositive;
+		return pvalue;
+		}
+
+	/** 15-points Gauss-Kronrod nodes and weights */
+	private static final double GK_NODES[]= {
+		0.991455371120812639206854697526329,
+		0.949107912342758524526189684047851,
+		0.864864423359769072789712788640926,
+		0.741531185599394439863864773280788,
+		0.586087235467691130294144845693013,
+		0.405845151377397166906606412076961,
+		0.207784955007898467600689403773245,
+		0.000000000000000000000000000000000
+		};
+	private static final double GK_WEIGHTS[]= {
+		0.022935322010529224963732008058970,
+		0.063092092629978553290700663189204,
+		0.104790010322250183839876322541518,
+		0.140653259715525918745189590510238,
+		0.169004726639267902826583426888937,
+		0.190350578064785409913256402421014,
+		0.204432940075298892414161999234649,
+		0.209482141084727828012999174891714
+		};
+	private static final double GAUSS_WEIGHTS[]= {
+		0.129484966168869693270611432679082,
+		0.279705391489276667901467771423780,
+		0.381830050505118944950369775488975,
+		0.417959183673469387755102040816327
+		};
+
+	/** adaptive Gauss-Kronrod integration, relative tolerance ~ R's integrate */
+	static double integrate(final DoubleUnaryOperator f,final double a,final double b)
+		{
+		final double relTol = 1.22E-4;
+		final int maxIntervals = 1000;
+		final List<double[]> intervals = new ArrayList<>();/* a, b, integral, error */
+		intervals.add(gaussKronrod(f,a,b));
+		for(;;)
+			{
+			double total=0,error=0;
+			int worst=0;
+			for(int i=0;i< intervals.size();i++)
+				{
+				final double r[] = intervals.get(i);
+				total+=r[2];
+				error+=r[3];
+				if(r[3] > intervals.get(worst)[3]) worst=i;
+				}
+			if(error <= Math.max(1E-25, relTol*Math.abs(total)) || intervals.size()>=maxIntervals)
+				{
+				return total;
+				}
+			final double r[] = intervals.remove(worst);
+			final double mid = (r[0]+r[1])/2.0;
+			intervals.add(gaussKronrod(f,r[0],mid));
+			intervals.add(gaussKronrod(f,mid,r[1]));
+			}
+		}
+
+	private static double[] gaussKronrod(final DoubleUnaryOperator f,final double a,final double b)
+		{
+		final double center=(a+b)/2.0;
+		final double half=(b-a)/2.0;
+		final double fc = f.applyAsDouble(center);
+		double kronrod = fc*GK_WEIGHTS[7];
+		double gauss = fc*GAUSS_WEIGHTS[3];
+		for(int i=0;i< 7;i++)
+			{
+			final double dx = half*GK_NODES[i];
+			final double f1 = f.applyAsDouble(center-dx);
+			final double f2 = f.applyAsDouble(center+dx);
+			kronrod += GK_WEIGHTS[i]*(f1+f2);
+			if(i%2==1) gauss += GAUSS_WEIGHTS[i/2]*(f1+f2);
+			}
+		return new double[]{a,b,kronrod*half,Math.abs((kronrod-gauss)*half)};
+		}
+
+	/**
+	 * Davies' algorithm AS 155: distribution function of a linear combination
+	 * of central chi-squared random variables with one degree of freedom.
+	 * qfval = P(sum(lambda[j]*chisq1) &lt; c)
+	 */
+	static class Davies
+		{
+		private static final double LOG28 = 0.0866;
+		private final double lb[];
+		private final int r;
+		private final int lim;
+		private final double c;
+		private double sigsq,lmax,lmin,mean;
+		private double intl,ersm;
+		private int count;
+		private boolean ndtsrt,fail;
+		private final int th[];
+		/** P(Q &lt; c) */
+		double qfval = -1.0;
+		/** 0 : ok; 1: required accuracy NOT achieved; 2: round-off error possibly significant; 3 invalid parameters; 4 unable to locate integration parameters */
+		int ifault = 0;
+
+		/** thrown when the maximum number of terms is reached */
+		private static class TooManyTermsException extends RuntimeException
+			{
+			private static final long serialVersionUID = 1L;
+			}
+
+		Davies(final double lambda[],final double c,final int lim,final double acc)
+			{
+			this.lb = lambda;
+			this.r = lambda.length;
+			this.lim = lim;
+			this.c = c;
+			this.th = new int[this.r];
+			try
+				{
+				compute(acc);
+				}
+			catch(final TooManyTermsException err)
+				{
+				this.ifault = 4;
+				}
+			}
+
+		private static double exp1(final double x) { return x < -50.0 ? 0.0 : Math.exp(x); }
+		private static double square(final double x) { return x*x; }
+
+		private void counter()
+			{
+			this.count++;
+			if(this.count > this.lim) throw new TooManyTermsException();
+			}
+
+		/** if (first) log(1 + x) ; else  log(1 + x) - x */
+		private static double log1(final double x,final boolean first)
+			{
+			if(Math.abs(x) > 0.1)
+				{
+				return first ? Math.log(1.0 + x) : (Math.log(1.0 + x) - x);
+				}
+			double y = x / (2.0 + x);
+			double term = 2.0 * y * y * y;
+			double k = 3.0;
+			double s = (first ? 2.0 : - x) * y;
+			y = y * y;
+			for(double s1 = s + term / k; s1 != s; s1 = s + term / k)
+				{
+				k = k + 2.0;
+				term = term * y;
+				s = s1;
+				}
+			return s;
+			}
+
+		/** find order of absolute values of lb */
+		private void order()
+			{
+			for(int j=0; j< r; j++ )
+				{
+				final double lj = Math.abs(lb[j]);
+				int k;
+				for(k = j-1; k>=0; k--)
+					{
+					if( lj > Math.abs(lb[th[k]]) ) th[k + 1] = th[k];
+					else break;
+					}
+				th[k + 1] = j;
+				}
+			this.ndtsrt = false;
+			}
+
+		/** find bound on tail probability using mgf, cutoff point returned to cx[0] */
+		private double errbd(double u,final double cx[])
+			{
+			counter();
+			double xconst = u * sigsq;
+			double sum1 = u * xconst;
+			u = 2.0 * u;
+			for(int j=r-1; j>=0; j--)
+				{
+				final double lj = lb[j];
+				final double x = u * lj;
+				final double y = 1.0 - x;
+				xconst = xconst + lj / y;
+				sum1 = sum1 + (square(x) / y + log1(-x, false ));
+				}
+			cx[0] = xconst;
+			return exp1(-0.5 * sum1);
+			}
+
+		/** find ctff so that p(qf > ctff) &lt; accx  if (upn > 0), p(qf &lt; ctff) &lt; accx otherwise */
+		private double ctff(final double accx,final double upn[])
+			{
+			double u1 = 0.0,u2 = upn[0],u;
+			double c1 = mean,c2;
+			final double tmp[]={0};
+			final double rb = 2.0 * ((u2 > 0.0) ? lmax : lmin);
+			for(u = u2 / (1.0 + u2 * rb); errbd(u, tmp) > accx; u = u2 / (1.0 + u2 * rb))
+				{
+				u1 = u2;
+				c1 = tmp[0];
+				u2 = 2.0 * u2;
+				}
+			c2 = tmp[0];
+			for(u = (c1 - mean) / (c2 - mean); u < 0.9; u = (c1 - mean) / (c2 - mean))
+				{
+				u = (u1 + u2) / 2.0;
+				if(errbd(u / (1.0 + u * rb), tmp) > accx)
+					{
+					u1 = u;
+					c1 = tmp[0];
+					}
+				else
+					{
+					u2 = u;
+					c2 = tmp[0];
+					}
+				}
+			upn[0] = u2;
+			return c2;
+			}
+
+		/** bound integration error due to truncation at u */
+		private double truncation(double u,final double tausq)
+			{
+			counter();
+			double sum1  = 0.0, prod2 = 0.0, prod3 = 0.0;
+			int s = 0;
+			double sum2 = (sigsq + tausq) * square(u);
+			double prod1 = 2.0 * sum2;
+			u = 2.0 * u;
+			for(int j=0; j< r; j++ )
+				{
+				final double x = square(u * lb[j]);
+				if(x > 1.0)
+					{
+					prod2 = prod2 + Math.log(x);
+					prod3 = prod3 + log1(x, true );
+					s = s + 1;
+					}
+				else
+					{
+					prod1 = prod1 + log1(x, true );
+					}
+				}
+			sum1 = 0.5 * sum1;
+			prod2 = prod1 + prod2;
+			prod3 = prod1 + prod3;
+			double x = exp1(-sum1 - 0.25 * prod2) / Math.PI;
+			final double y = exp1(-sum1 - 0.25 * prod3) / Math.PI;
+			double err1 =  ( s  ==  0 )  ? 1.0 : x * 2.0 / s;
+			double err2 =  ( prod3 > 1.0 )  ? 2.5 * y : 1.0;
+			if(err2 < err1) err1 = err2;
+			x = 0.5 * sum2;
+			err2 =  ( x  <=  y )  ? 1.0  : y / x;
+			return ( err1 < err2 )  ? err1  :  err2;
+			}
+
+		/** find u such that truncation(u) &lt; accx and truncation(u / 1.2) &gt; accx */
+		private double findu(final double utx,final double accx)
+			{
+			final double divis[]={2.0,1.4,1.2,1.1};
+			double ut = utx;
+			double u = ut / 4.0;
+			if(truncation(u, 0.0) > accx)
+				{
+				for(u = ut; truncation(u, 0.0) > accx;  u = ut) ut = ut * 4.0;
+				}
+			else
+				{
+				ut = u;
+				for(u = u / 4.0; truncation(u, 0.0) <=  accx; u = u / 4.0 ) ut = u;
+				}
+			for(int i=0;i<4;i++)
+				{
+				u = ut/divis[i];
+				if(truncation(u, 0.0)  <=  accx )  ut = u;
+				}
+			return ut;
+			}
+
+		/** carry out integration with nterm terms, at stepsize interv. if (! mainx) multiply integrand by 1.0-exp(-0.5*tausq*u^2) */
+		private void integrate(final int nterm,final double interv,final double tausq,final boolean mainx)
+			{
+			final double inpi = interv / Math.PI;
+			for(int k = nterm; k>=0; k--)
+				{
+				final double u = (k + 0.5) * interv;
+				double sum1 = - 2.0 * u * c;
+				double sum2 = Math.abs(sum1);
+				double sum3 = - 0.5 * sigsq * square(u);
+				for(int j = r-1; j>=0; j--)
+					{
+					final double x = 2.0 * lb[j] * u;
+					final double y = square(x);
+					sum3 = sum3 - 0.25 * log1(y, true );
+					final double z = Math.atan(x);
+					sum1 = sum1 + z;
+					sum2 = sum2 + Math.abs(z);
+					}
+				double x = inpi * exp1(sum3) / u;
+				if( !mainx ) x = x * (1.0 - exp1(-0.5 * tausq * square(u)));
+				sum1 = Math.sin(0.5 * sum1) * x;
+				sum2 = 0.5 * sum2 * x;
+				intl = intl + sum1;
+				ersm = ersm + sum2;
+				}
+			}
+
+		/** coef of tausq in error when convergence factor of exp1(-0.5*tausq*u^2) is used when df is evaluated at x */
+		private double cfe(final double x)
+			{
+			counter();
+			if(ndtsrt) order();
+			double axl = Math.abs(x);
+			final double sxl = (x>0.0) ? 1.0 : -1.0;
+			double sum1 = 0.0;
+			for(int j = r-1; j>=0; j-- )
+				{
+				final int t = th[j];
+				if( lb[t] * sxl > 0.0 )
+					{
+					final double lj = Math.abs(lb[t]);
+					final double axl1 = axl - lj;
+					final double axl2 = lj / LOG28;
+					if( axl1 > axl2 )
+						{
+						axl = axl1;
+						}
+					else
+						{
+						if( axl > axl2 )  axl = axl2;
+						sum1 = (axl - axl1) / lj;
+						for(int k = j-1; k>=0; k--) sum1 = sum1 + 1.0;
+						break;
+						}
+					}
+				}
+			if(sum1 > 100.0)
+				{
+				fail = true;
+				return 1.0;
+				}
+			return Math.pow(2.0,(sum1 / 4.0)) / (Math.PI * square(axl));
+			}
+
+		private void compute(final double acc)
+			{
+			final int rats[]={1,2,4,8};
+			double acc1 = acc;
+			double xlim = this.lim;
+			double tausq;
+			this.ndtsrt = true;
+			this.fail = false;
+			/* find mean, sd, max and min of lb, check that parameter values are valid */
+			this.sigsq = 0;
+			double sd = this.sigsq;
+			this.lmax = 0.0;
+			this.lmin = 0.0;
+			this.mean = 0.0;
+			for(int j=0; j< r; j++ )
+				{
+				final double lj = lb[j];
+				sd  = sd  + square(lj) * 2.0;
+				mean = mean + lj;
+				if(lmax < lj) lmax = lj ; else if (lmin > lj) lmin = lj;
+				}
+			if( sd == 0.0  )
+				{
+				this.qfval = (c > 0.0) ? 1.0 : 0.0;
+				return;
+				}
+			if( (lmin == 0.0) && (lmax == 0.0) )
+				{
+				this.ifault = 3;
+				return;
+				}
+			sd = Math.sqrt(sd);
+			final double almx = (lmax < - lmin) ? - lmin : lmax;
+			/* starting values for findu, ctff */
+			double utx = 16.0 / sd;
+			final double up[] = {4.5 / sd};
+			final double un[] = {-up[0]};
+			/* truncation point with no convergence factor */
+			utx = findu(utx, .5 * acc1);
+			/* does convergence factor help */
+			if(c != 0.0  && (almx > 0.07 * sd))
+				{
+				tausq = .25 * acc1 / cfe(c);
+				if(fail)
+					{
+					fail = false ;
+					}
+				else if(truncation(utx, tausq) < .2 * acc1)
+					{
+					sigsq = sigsq + tausq;
+					utx = findu(utx, .25 * acc1);
+					}
+				}
+			acc1 = 0.5 * acc1;
+			double intv;
+			double xnt;
+			/* find RANGE of distribution, quit if outside this */
+			for(;;)
+				{
+				final double d1 = ctff(acc1, up) - c;
+				if(d1 < 0.0)
+					{
+					this.qfval = 1.0;
+					return;
+					}
+				final double d2 = c - ctff(acc1, un);
+				if(d2 < 0.0)
+					{
+					this.qfval = 0.0;
+					return;
+					}
+				/* find integration interval */
+				intv = 2.0 * Math.PI / ((d1 > d2) ? d1 : d2);
+				/* calculate number of terms required for main and auxillary integrations */
+				xnt = utx / intv;
+				final double xntm = 3.0 / Math.sqrt(acc1);
+				if(xnt <= xntm * 1.5) break;
+				/* parameters for auxillary integration */
+				if(xntm > xlim)
+					{
+					this.ifault = 1;
+					return;
+					}
+				final int ntm = (int)Math.floor(xntm+0.5);
+				final double intv1 = utx / ntm;
+				final double x = 2.0 * Math.PI / intv1;
+				if(x <= Math.abs(c)) break;
+				/* calculate convergence factor */
+				tausq = .33 * acc1 / (1.1 * (cfe(c - x) + cfe(c + x)));
+				if(fail) break;
+				acc1 = .67 * acc1;
+				/* auxillary integration */
+				integrate(ntm, intv1, tausq, false );
+				xlim = xlim - xntm;
+				sigsq = sigsq + tausq;
+				/* find truncation point with new convergence factor */
+				utx = findu(utx, .25 * acc1);
+				acc1 = 0.75 * acc1;
+				}
+			/* main integration */
+			if(xnt > xlim)
+				{
+				this.ifault = 1;
+				return;
+				}
+			final int nt = (int)Math.floor(xnt+0.5);
+			integrate(nt, intv, 0.0, true );
+			this.qfval = 0.5 - intl;
+			/* test whether round-off error could be significant allow for radix 8 or 16 machines */
+			final double up2 = ersm;
+			final double x = up2 + acc / 10.0;
+			for(int j=0;j<4;j++)
+				{
+				if(rats[j] * x == rats[j] * up2) this.ifault = 2;
+				}
+			}
+		}
+	}
@@ -28,6 +28,7 @@ package com.github.lindenb.jvarkit.tools.skat;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
@@ -65,6 +66,11 @@ public class SkatFactory {
 	private boolean acceptFILTERED = false;
 	@Parameter(names={"--skat-num-retry"},description="compute n-times the p-value")
 	private int n_retry = 1;
+	@Parameter(names={"--skat-engine"},description="How to compute SKAT. RSCRIPT: invoke the R package SKAT for each test. JAVA: native java implementation (no R needed, '--skat-adjusted' is not available).")
+	private Engine engine = Engine.RSCRIPT;
+
+	/** how the p-values are computed */
+	public static enum Engine {RSCRIPT,JAVA};
 
 	private String RScript= "Rscript";
 	
@@ -77,8 +83,39 @@ public class SkatFactory {
 			List<VariantContext> variants,
 			Collection<Pedigree.Person> ped
 			);
+		
+		/** decode a variant for the samples in this order. Returns null if the MAF cannot be calculated */
+		public DosageVector decode(
+			VariantContext ctx,
+			List<Pedigree.Person> samples
+			);
+		
+		/** compute the p-value for variants already decoded for the samples in this order */
+		public SkatResult executeDosages(
+			List<DosageVector> variants,
+			List<Pedigree.Person> samples
+			);
 		};
 	
+	/** a variant decoded once for a fixed list of samples, can be shared between several tests */
+	public static class DosageVector
+		{
+		private final byte dosages[];
+		private final double maf;
+		DosageVector(final byte dosages[],final double maf)
+			{
+			this.dosages = dosages;
+			this.maf = maf;
+			}
+		/** dosages[sample] is the number of ALT alleles (0,1,2) for the sample at this index */
+		public byte[] getDosages() {
+			return this.dosages;
+			}
+		public double getMaf() {
+			return this.maf;
+			}
+		}
+	
 		
 		
 		
@@ -135,6 +172,14 @@ public boolean isOptimal() {
 	return optimal;
 	}
 
+public void setEngine(final Engine engine) {
+	this.engine = engine;
+	}
+@XmlElement(name = "engine")
+public Engine getEngine() {
+	return engine;
+	}
+
 public SkatExecutor build() {
 	return new ExecutorImpl();
 	}
@@ -148,15 +193,24 @@ private final boolean acceptFILTERED = SkatFactory.this.acceptFILTERED;
 private final int n_retry = SkatFactory.this.n_retry;
 private final String RScript=  SkatFactory.this.RScript;
 private final int set_random_seed_value = SkatFactory.this.set_random_seed_value;
+private final SkatEngine javaEngine = (SkatFactory.this.engine==Engine.JAVA?new SkatEngine(SkatFactory.this.optimal):null);
 private final File scriptFile;
 private final File saveFile;
 
 public ExecutorImpl() {
 	try 
 		{
-		this.scriptFile = File.createTempFile("skat", ".R");
-		//this.scriptFile.deleteOnExit();
-		this.saveFile = File.createTempFile("skat", ".txt");
+		if(this.javaEngine!=null)
+			{
+			this.scriptFile = null;
+			this.saveFile = null;
+			}
+		else
+			{
+			this.scriptFile = File.createTempFile("skat", ".R");
+			//this.scriptFile.deleteOnExit();
+			this.saveFile = File.createTempFile("skat", ".txt");
+			}
 		//this.saveFile.deleteOnExit();		
 		if(this.n_retry<1) throw new IllegalArgumentException("n_retry <1");
 		}
@@ -236,10 +290,44 @@ public SkatFactory.SkatResult execute(
 		;
 	if(samples.isEmpty()) return new ResultError("no valid persons");
 	
-	variants =  variants.stream().
-			filter(V->!calculateMaf(V,samples).isEmpty()).
+	final List<DosageVector> vectors = variants.stream().
+			map(V->decode(V,samples)).
+			filter(D->D!=null).
 			collect(Collectors.toList());
-	if(variants.isEmpty()) return new ResultError("no variants with valid MAF");
+	if(vectors.isEmpty()) return new ResultError("no variants with valid MAF");
+	return executeDosages(vectors,samples);
+	}
+
+@Override
+public DosageVector decode(final VariantContext ctx,final List<Pedigree.Person> samples)
+	{
+	final MafCalculator mafCalculator = calculateMaf(ctx, samples);
+	if(mafCalculator.isEmpty()) return null;
+	final byte dosages[] = new byte[samples.size()];
+	for(int i=0;i< dosages.length;i++)
+		{
+		final Genotype genotype= ctx.getGenotype(samples.get(i).getId());
+		if(genotype.isHomVar())
+			{
+			dosages[i] = 2;
+			}
+		else if(genotype.isHet())
+			{
+			dosages[i] = 1;
+			}
+		}
+	return new DosageVector(dosages,mafCalculator.getMaf());
+	}
+
+@Override
+public SkatFactory.SkatResult executeDosages(
+		final List<DosageVector> variants,
+		final List<Pedigree.Person> samples
+		)
+	{
+	if(variants==null || variants.isEmpty()) return new ResultError("no variant");
+	if(samples==null || samples.isEmpty()) return new ResultError("no valid persons");
+	if(this.javaEngine!=null) return executeJava(variants,samples);
 	
 	PrintWriter pw = null;
 	try {
@@ -259,30 +347,18 @@ public SkatFactory.SkatResult execute(
 		pw.println(")");
 		
 		pw.print("MAFs <- c(");
-		pw.print(variants.stream().map(V->String.valueOf(calculateMaf(V, samples).getMaf())).collect(Collectors.joining(",")));
+		pw.print(variants.stream().map(V->String.valueOf(V.getMaf())).collect(Collectors.joining(",")));
 		pw.println(")");
 
 
 		pw.print("genotypes <- c("); boolean first=true;
-		for(final VariantContext ctx:variants)
+		for(final DosageVector vector:variants)
 			{
-			for(final Pedigree.Person p: samples)
+			for(final byte dosage: vector.getDosages())
 				{
-				final Genotype genotype= ctx.getGenotype(p.getId());
 				if(!first) pw.print(","); 
 				first=false;
-				if(genotype.isHomVar())
-					{
-					pw.print(2);
-					}
-				else if(genotype.isHet())
-					{
-					pw.print(1);
-					}
-				else
-					{
-					pw.print(0);
-					}
+				pw.print(dosage);
 				}
 			}
 		pw.println(")");
@@ -331,5 +407,35 @@ public SkatFactory.SkatResult execute(
 		this.saveFile.delete();
 		}
 	}
+
+/** compute the p-value with the native java engine */
+private SkatFactory.SkatResult executeJava(
+		final List<DosageVector> variants,
+		final List<Pedigree.Person> samples
+		)
+	{
+	if(isAdjusted()) return new ResultError("SKAT adjusted is not available with the java engine");
+	try {
+		final double phenotypes[] = new double[samples.size()];
+		for(int i=0;i< samples.size();i++)
+			{
+			phenotypes[i] = samples.get(i).isUnaffected()?0:1;
+			}
+		final double weights[] = new double[variants.size()];
+		final List<byte[]> genotypes = new ArrayList<>(variants.size());
+		for(int j=0;j< variants.size();j++)
+			{
+			final double maf = variants.get(j).getMaf();
+			weights[j] = 1.0/Math.sqrt(samples.size()*maf*(1.0-maf));
+			genotypes.add(variants.get(j).getDosages());
+			}
+		return new ResultImpl(this.javaEngine.pValue(genotypes, phenotypes, weights));
+		}
+	catch(final Throwable err)
+		{
+		LOG.error(err);
+		return  new ResultError(err.getMessage());
+		}
+	}
 }
 }
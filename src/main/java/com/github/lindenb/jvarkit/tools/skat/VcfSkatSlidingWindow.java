@@ -26,12 +26,16 @@ package com.github.lindenb.jvarkit.tools.skat;
 
 import java.io.File;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -81,6 +85,8 @@ public class VcfSkatSlidingWindow extends Launcher
 	private int contigWinLength=1000;
 	@Parameter(names={"--contigWinShift"},description="window shift when splitting per contig")
 	private int contigWinShift=500;
+	@Parameter(names={"--stream"},description="Read each contig once: each variant is decoded once into a vector of dosages shared by all the overlapping windows. The windows are computed by the '--jobs' threads and printed in the genomic order.")
+	private boolean streaming = false;
 	@ParametersDelegate
 	private SkatFactory skat = new SkatFactory();
 	
@@ -209,6 +215,145 @@ public class VcfSkatSlidingWindow extends Launcher
 			}
 		}
 		
+	/** a variant decoded once, shared by all the windows overlapping it */
+	private static class DecodedVariant
+		{
+		final int start;
+		final int end;
+		/** null if the MAF cannot be calculated */
+		final SkatFactory.DosageVector dosages;
+		DecodedVariant(final VariantContext ctx,final SkatFactory.DosageVector dosages)
+			{
+			this.start = ctx.getStart();
+			this.end = ctx.getEnd();
+			this.dosages = dosages;
+			}
+		}
+	
+	/** wait for a window computed by a worker */
+	private static SkatCallerResult getFuture(final Future<SkatCallerResult> future)
+		{
+		try {
+			return future.get();
+			}
+		catch(final InterruptedException err)
+			{
+			throw new RuntimeException(err);
+			}
+		catch(final ExecutionException err)
+			{
+			if(err.getCause() instanceof RuntimeException) throw RuntimeException.class.cast(err.getCause());
+			throw new RuntimeException(err.getCause());
+			}
+		}
+	
+	/** compute the windows of one contig, reading the variants only once */
+	private void streamContig(
+			final VCFFileReader vcfFileReader,
+			final SAMSequenceRecord ssr,
+			final List<Pedigree.Person> samples,
+			final ExecutorService executorService,
+			final ThreadLocal<SkatFactory.SkatExecutor> workerSkat,
+			final SkatFactory.SkatExecutor skatExec
+			)
+		{
+		final String contig = ssr.getSequenceName();
+		final int contigLength = ssr.getSequenceLength();
+		/* variants overlapping the current window, sorted on start */
+		final ArrayDeque<DecodedVariant> buffer = new ArrayDeque<>();
+		/* windows being computed, in genomic order */
+		final ArrayDeque<Future<SkatCallerResult>> pending = new ArrayDeque<>();
+		/* the windows are [x, x+contigWinLength] with x=1+n*contigWinShift, as in the default mode */
+		int x = 1;
+		int prevStart = 0;
+		try(final CloseableIterator<VariantContext> iter = vcfFileReader.query(contig, 1, contigLength))
+			{
+			while(iter.hasNext())
+				{
+				final VariantContext ctx = iter.next();
+				if(!skatExec.getUpstreamVariantFilter().test(ctx)) continue;
+				if(ctx.getStart() < prevStart)
+					{
+					throw new JvarkitException.FileFormatError("VCF is not sorted: got "+contig+":"+ctx.getStart()+" after "+prevStart);
+					}
+				prevStart = ctx.getStart();
+				while(x < contigLength && ctx.getStart() > x + this.contigWinLength)
+					{
+					submitWindow(contig, x, buffer, pending, samples, executorService, workerSkat);
+					x += this.contigWinShift;
+					final int winStart = x;
+					buffer.removeIf(V->V.end < winStart);
+					}
+				/* when contigWinShift > contigWinLength, the variant can lie between two windows */
+				if(ctx.getEnd() < x) continue;
+				buffer.add(new DecodedVariant(ctx, skatExec.decode(ctx, samples)));
+				}
+			}
+		while(x < contigLength)
+			{
+			submitWindow(contig, x, buffer, pending, samples, executorService, workerSkat);
+			x += this.contigWinShift;
+			final int winStart = x;
+			buffer.removeIf(V->V.end < winStart);
+			}
+		while(!pending.isEmpty())
+			{
+			this.writer.println(getFuture(pending.poll()));
+			}
+		}
+	
+	/** send the window starting at 'x' to the workers, the variants in 'buffer' all overlap this window */
+	private void submitWindow(
+			final String contig,
+			final int x,
+			final ArrayDeque<DecodedVariant> buffer,
+			final ArrayDeque<Future<SkatCallerResult>> pending,
+			final List<Pedigree.Person> samples,
+			final ExecutorService executorService,
+			final ThreadLocal<SkatFactory.SkatExecutor> workerSkat
+			)
+		{
+		final SkatCallerResult result = new SkatCallerResult();
+		result.interval = new Interval(contig, x, x+this.contigWinLength);
+		result.nVariants = buffer.size();
+		if(buffer.isEmpty())
+			{
+			result.pvalue = 1;
+			pending.add(CompletableFuture.completedFuture(result));
+			}
+		else
+			{
+			/* the window only holds references to the shared dosage vectors */
+			final List<SkatFactory.DosageVector> variants = new ArrayList<>(buffer.size());
+			for(final DecodedVariant v:buffer)
+				{
+				if(v.dosages!=null) variants.add(v.dosages);
+				}
+			pending.add(executorService.submit(()->{
+				if(variants.isEmpty())
+					{
+					result.error_msg = "no variants with valid MAF";
+					return result;
+					}
+				final SkatFactory.SkatResult skatResult = workerSkat.get().executeDosages(variants, samples);
+				if(skatResult.isError())
+					{
+					result.error_msg=skatResult.getMessage();
+					}
+				else
+					{
+					result.pvalue = skatResult.getPValue();
+					}
+				return result;
+				}));
+			}
+		/* print the finished windows, limit the number of windows in memory */
+		while(!pending.isEmpty() && (pending.size() > 4*this.nJobs || pending.peek().isDone()))
+			{
+			this.writer.println(getFuture(pending.poll()));
+			}
+		}
+	
 	@Override
 	public int doWork(final List<String> args)
 		{
@@ -256,6 +401,39 @@ public class VcfSkatSlidingWindow extends Launcher
 			
 			   
 			this.writer = super.openFileOrStdoutAsPrintWriter(this.outputFile);
+			if(this.streaming)
+				{
+				/* fixed order of the samples: cases, then controls */
+				final List<Pedigree.Person> sampleList = new ArrayList<>(samples);
+				sampleList.sort((A,B)->{
+					if(A.isAffected()!=B.isAffected()) return A.isAffected()?-1:1;
+					return A.getId().compareTo(B.getId());
+					});
+				final SkatFactory.SkatExecutor skatExec = this.skat.build();
+				final ThreadLocal<SkatFactory.SkatExecutor> workerSkat = ThreadLocal.withInitial(()->this.skat.build());
+				final ExecutorService executorService = Executors.newFixedThreadPool(this.nJobs);
+				try(final VCFFileReader vcfFileReader = new VCFFileReader(vcfFile, true))
+					{
+					for(final SAMSequenceRecord ssr:dict.getSequences())
+						{
+						if(!this.limit_contigs.isEmpty() && !this.limit_contigs.contains(ssr.getSequenceName())) {
+							LOG.warning("skipping contig " + ssr.getSequenceName());
+							continue;
+							}
+						LOG.info("contig " + ssr.getSequenceName());
+						streamContig(vcfFileReader, ssr, sampleList, executorService, workerSkat, skatExec);
+						}
+					}
+				finally
+					{
+					executorService.shutdownNow();
+					}
+				this.writer.flush();
+				this.writer.close();
+				this.writer=null;
+				return 0;
+				}
+			
 			final Consumer<SkatCallerResult> writeResult  = (R) -> {
 				synchronized (this.writer) {
 					this.writer.println(R.toString());
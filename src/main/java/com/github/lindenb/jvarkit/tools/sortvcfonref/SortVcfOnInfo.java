@@ -54,12 +54,12 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.JvarkitSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.SortingCollection;
 
 /**
 BEGIN_DOC
@@ -232,7 +232,7 @@ public class SortVcfOnInfo extends Launcher
 		{
 		CloseableIterator<VcfLine> iter=null;
 		VariantContextWriter w=null;
-		SortingCollection<VcfLine> sorted=null;
+		JvarkitSortingCollection<VcfLine> sorted=null;
 		LineIterator r=null;
 		try {
 			if(args.isEmpty())
@@ -279,12 +279,10 @@ public class SortVcfOnInfo extends Launcher
 			w.writeHeader(header);
 			
 			
-			sorted=SortingCollection.newInstance(
+			sorted=this.writingSortingCollection.make(
 					VcfLine.class,
 					new VariantCodec(),
-					(V1,V2)->V1.compareTo(V2),
-					this.writingSortingCollection.getMaxRecordsInRam(),
-					this.writingSortingCollection.getTmpDirectories()
+					(V1,V2)->V1.compareTo(V2)
 					);
 			sorted.setDestructiveIteration(true);
 			while(r.hasNext())
@@ -28,11 +28,15 @@ History:
 */
 package com.github.lindenb.jvarkit.tools.sortvcfonref;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Comparator;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -44,13 +48,19 @@ import htsjdk.variant.vcf.VCFHeader;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.JvarkitSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.SortingCollection;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+import htsjdk.tribble.util.TabixUtils;
 
 
 import com.beust.jcommander.Parameter;
@@ -76,6 +86,17 @@ cat input.vcf |\
    tabix -p vcf -f result.vcf.gz
 ```
 
+### Binary mode
+
+With `--binary`, the variants are sorted on a fixed-width binary key (contig index, position, hash of REF)
+and the VCF lines are kept as raw bytes: they are never decoded and they are written 'as is'.
+The order of the variants sharing the same position and the same REF is the order of the input.
+If the output file ends with `.vcf.gz`, it is written as BGZF and indexed with tabix in the same pass.
+
+```
+java -jar dist/sortvcfonref2.jar --binary -o result.vcf.gz input.vcf
+```
+
 END_DOC
 */
 
@@ -98,6 +119,9 @@ public class SortVcfOnRef2 extends Launcher
 	@Parameter(names={"-R","--reference"},description=INDEXED_FASTA_REFERENCE_DESCRIPTION)
 	private File refdict = null;
 
+	@Parameter(names={"--binary"},description="Sort on a binary key (contig index, position, hash of REF) and write the raw VCF lines without decoding them. If the output file ends with '.vcf.gz', it is BGZF-compressed and indexed with tabix on the fly.")
+	private boolean binaryKey = false;
+
 	@ParametersDelegate
 	private WritingSortingCollection writingSortingCollection=new WritingSortingCollection();
 	
@@ -203,6 +227,136 @@ public class SortVcfOnRef2 extends Launcher
 			}
 		}
 	
+	/** a VCF line as an opaque payload, sorted on a fixed-width key */
+	private static class BinaryKeyLine
+		{
+		/** contig index in the 32 upper bits, position in the 32 lower bits */
+		long key;
+		int refHash;
+		byte line[];
+		
+		int getTid() { return (int)(this.key>>>32);}
+		int getPos() { return (int)this.key;}
+		
+		/** same as VariantContext.getEnd(): INFO/END or POS+length(REF)-1 */
+		int getEnd()
+			{
+			int column=0;
+			int refLength=1;
+			int i=0;
+			while(i< this.line.length && column<7)
+				{
+				if(this.line[i]=='\t')
+					{
+					column++;
+					if(column==3)
+						{
+						int j=i+1;
+						while(j< this.line.length && this.line[j]!='\t') j++;
+						refLength = j-(i+1);
+						}
+					}
+				i++;
+				}
+			/* i is now the start of the INFO column */
+			while(i< this.line.length && this.line[i]!='\t')
+				{
+				if(i+4< this.line.length &&
+					this.line[i]=='E' && this.line[i+1]=='N' && this.line[i+2]=='D' && this.line[i+3]=='=')
+					{
+					int j=i+4;
+					int end=0;
+					while(j< this.line.length && this.line[j]>='0' && this.line[j]<='9')
+						{
+						end = end*10 + (this.line[j]-'0');
+						j++;
+						}
+					if(j>i+4 && (j==this.line.length || this.line[j]==';' || this.line[j]=='\t')) return end;
+					}
+				/* go to the next INFO field */
+				while(i< this.line.length && this.line[i]!=';' && this.line[i]!='\t') i++;
+				if(i< this.line.length && this.line[i]==';') i++;
+				}
+			return this.getPos()+Math.max(1,refLength)-1;
+			}
+		}
+	
+	private static class BinaryKeyCodec extends AbstractDataCodec<BinaryKeyLine>
+		{
+		@Override
+		public BinaryKeyLine decode(final DataInputStream dis) throws IOException
+			{
+			final BinaryKeyLine rec=new BinaryKeyLine();
+			try
+				{
+				rec.key=dis.readLong();
+				}
+			catch(IOException err)
+				{
+				return null;
+				}
+			rec.refHash=dis.readInt();
+			rec.line=new byte[dis.readInt()];
+			dis.readFully(rec.line);
+			return rec;
+			}
+		@Override
+		public void encode(final DataOutputStream dos,final BinaryKeyLine rec)
+				throws IOException {
+			dos.writeLong(rec.key);
+			dos.writeInt(rec.refHash);
+			dos.writeInt(rec.line.length);
+			dos.write(rec.line);
+			}
+		@Override
+		public BinaryKeyCodec clone() {
+			return new BinaryKeyCodec();
+			}
+		}
+	
+	private static class BinaryKeyComparator implements Comparator<BinaryKeyLine>
+		{
+		@Override
+		public int compare(final BinaryKeyLine o1,final BinaryKeyLine o2)
+			{
+			final int i=Long.compare(o1.key, o2.key);
+			if(i!=0) return i;
+			return Integer.compare(o1.refHash, o2.refHash);
+			}
+		}
+	
+	private BinaryKeyLine toBinaryKeyLine(final String line)
+		{
+		final int t1=line.indexOf('\t');
+		final int t2=(t1==-1?-1:line.indexOf('\t',t1+1));
+		final int t3=(t2==-1?-1:line.indexOf('\t',t2+1));
+		final int t4=(t3==-1?-1:line.indexOf('\t',t3+1));
+		if(t4==-1) throw new IllegalArgumentException("Bad VCF line in "+line);
+		final String chrom=line.substring(0,t1);
+		final int tid=this.dict.getSequenceIndex(chrom);
+		if(tid==-1) throw new RuntimeException("unknown chromosome "+ chrom+" in "+line);
+		final int pos;
+		try
+			{
+			pos=Integer.parseInt(line.substring(t1+1,t2));
+			}
+		catch(NumberFormatException err)
+			{
+			throw new IllegalArgumentException("Bad POS in VCF line in "+line);
+			}
+		if(pos<0) throw new IllegalArgumentException("Bad POS in VCF line in "+line);
+		int refHash=0;
+		for(int i=t3+1;i< t4;++i)
+			{
+			refHash = 31*refHash + Character.toUpperCase(line.charAt(i));
+			}
+		final BinaryKeyLine rec=new BinaryKeyLine();
+		rec.key = (((long)tid)<<32) | pos;
+		rec.refHash = refHash;
+		rec.line = line.getBytes(StandardCharsets.UTF_8);
+		return rec;
+		}
+	
 	@Override
 	public int doWork(List<String> args) {
 		BufferedReader in =null;
@@ -268,16 +422,16 @@ public class SortVcfOnRef2 extends Launcher
 			LOG.warn("SEQUENCE DICTIONARY IS EMPTY/NULL");
 			}
 		
+		if(this.binaryKey) return sortBinary(in,h2);
+		
     	CloseableIterator<ChromPosLine> iter=null;
-    	SortingCollection<ChromPosLine> array=null;
+    	JvarkitSortingCollection<ChromPosLine> array=null;
     	VariantContextWriter w =null;
     	try {
-			array= SortingCollection.newInstance(
+			array= this.writingSortingCollection.make(
 					ChromPosLine.class,
 					new VariantCodec(),
-					new VariantComparator(),
-					this.writingSortingCollection.getMaxRecordsInRam(),
-					this.writingSortingCollection.getTmpDirectories()
+					new VariantComparator()
 					);
 			array.setDestructiveIteration(true);
 			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(this.dict);
@@ -316,6 +470,98 @@ public class SortVcfOnRef2 extends Launcher
     	
     	}
 
+	/** sort the lines on a binary key, write the raw lines, index the output on the fly if it's a .vcf.gz file */
+	private int sortBinary(final BufferedReader in,final VCFHeader h2)
+		{
+		CloseableIterator<BinaryKeyLine> iter=null;
+		JvarkitSortingCollection<BinaryKeyLine> array=null;
+		OutputStream out=null;
+		BlockCompressedOutputStream bgzf=null;
+		TabixIndexCreator indexCreator=null;
+		try {
+			array= this.writingSortingCollection.make(
+					BinaryKeyLine.class,
+					new BinaryKeyCodec(),
+					new BinaryKeyComparator()
+					);
+			array.setDestructiveIteration(true);
+			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(this.dict);
+			String line;
+			while((line=in.readLine())!=null)
+				{
+				final BinaryKeyLine rec=toBinaryKeyLine(line);
+				progress.watch(rec.getTid(),rec.getPos());
+				array.add(rec);
+				}
+			array.doneAdding();
+			progress.finish();
+			
+			if(this.outputFile==null)
+				{
+				out = new BufferedOutputStream(stdout());
+				}
+			else if(this.outputFile.getName().endsWith(".vcf.gz"))
+				{
+				bgzf = new BlockCompressedOutputStream(this.outputFile);
+				indexCreator = new TabixIndexCreator(this.dict,TabixFormat.VCF);
+				out = bgzf;
+				}
+			else
+				{
+				out = new BufferedOutputStream(IOUtils.openFileForWriting(this.outputFile));
+				}
+			
+			final ByteArrayOutputStream headerBytes=new ByteArrayOutputStream();
+			final VariantContextWriter headerWriter=VCFUtils.createVariantContextWriterToOutputStream(headerBytes);
+			headerWriter.writeHeader(h2);
+			headerWriter.close();
+			headerBytes.writeTo(out);
+			
+			iter=array.iterator();
+			while(iter.hasNext())
+				{
+				final BinaryKeyLine rec=iter.next();
+				if(indexCreator!=null)
+					{
+					final long filePosition=bgzf.getFilePointer();
+					out.write(rec.line);
+					out.write('\n');
+					indexCreator.addFeature(new SimpleFeature(
+							this.dict.getSequence(rec.getTid()).getSequenceName(),
+							rec.getPos(),
+							rec.getEnd()),
+							filePosition);
+					}
+				else
+					{
+					out.write(rec.line);
+					out.write('\n');
+					}
+				}
+			out.flush();
+			if(indexCreator!=null)
+				{
+				final Index index = indexCreator.finalizeIndex(bgzf.getFilePointer());
+				LOG.info("Writing index to "+this.outputFile+TabixUtils.STANDARD_INDEX_EXTENSION);
+				index.writeBasedOnFeatureFile(this.outputFile);
+				}
+			out.close();
+			out=null;
+			return RETURN_OK;
+			}
+		catch (Exception e)
+			{
+			LOG.error(e);
+			return -1;
+			}
+		finally
+			{
+			CloserUtil.close(out);
+			CloserUtil.close(iter);
+			if(array!=null) array.cleanup();
+			}
+		}
+	
 	/**
 	 * @param args
 	 */
@@ -30,8 +30,16 @@ import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 import java.util.Random;
@@ -40,12 +48,17 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import org.apache.commons.math3.special.Erf;
 import org.testng.Assert;
 import org.testng.annotations.*;
 
+import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.tools.bam2graphics.Bam2Raster;
+import com.github.lindenb.jvarkit.tools.bamindexnames.BamIndexReadNames;
+import com.github.lindenb.jvarkit.tools.bamindexnames.BamQueryReadNames;
 import com.github.lindenb.jvarkit.tools.bam2graphics.LowResBam2Raster;
 import com.github.lindenb.jvarkit.tools.bam2wig.Bam2Wig;
+import com.github.lindenb.jvarkit.tools.bamstats04.BamStats04;
 import com.github.lindenb.jvarkit.tools.bioalcidae.BioAlcidaeJdk;
 import com.github.lindenb.jvarkit.tools.biostar.Biostar59647;
 import com.github.lindenb.jvarkit.tools.biostar.Biostar86480;
@@ -61,17 +74,21 @@ import com.github.lindenb.jvarkit.tools.burden.VcfInjectPedigree;
 import com.github.lindenb.jvarkit.tools.burden.VcfLoopOverGenes;
 import com.github.lindenb.jvarkit.tools.burden.VcfMoveFiltersToInfo;
 import com.github.lindenb.jvarkit.tools.calling.MiniCaller;
+import com.github.lindenb.jvarkit.tools.cmpbams.CompareBams;
 import com.github.lindenb.jvarkit.tools.fastq.FastqShuffle;
 import com.github.lindenb.jvarkit.tools.gnomad.VcfGnomad;
 import com.github.lindenb.jvarkit.tools.groupbygene.GroupByGene;
 import com.github.lindenb.jvarkit.tools.misc.BamToSql;
 import com.github.lindenb.jvarkit.tools.misc.ConvertVcfChromosomes;
 import com.github.lindenb.jvarkit.tools.misc.FindAVariation;
+import com.github.lindenb.jvarkit.tools.misc.ForkVcf;
 import com.github.lindenb.jvarkit.tools.misc.FindAllCoverageAtPosition;
 import com.github.lindenb.jvarkit.tools.misc.FixVcfMissingGenotypes;
 import com.github.lindenb.jvarkit.tools.misc.Gff2KnownGene;
+import com.github.lindenb.jvarkit.tools.misc.KnownGenesToBinary;
 import com.github.lindenb.jvarkit.tools.misc.PadEmptyFastq;
 import com.github.lindenb.jvarkit.tools.misc.VCFPolyX;
+import com.github.lindenb.jvarkit.tools.misc.VcfCadd;
 import com.github.lindenb.jvarkit.tools.misc.VcfCreateDictionary;
 import com.github.lindenb.jvarkit.tools.misc.VcfHead;
 import com.github.lindenb.jvarkit.tools.misc.VcfMultiToOneAllele;
@@ -83,10 +100,14 @@ import com.github.lindenb.jvarkit.tools.misc.VcfToSvg;
 import com.github.lindenb.jvarkit.tools.misc.VcfToTable;
 import com.github.lindenb.jvarkit.tools.ngsfiles.NgsFilesSummary;
 import com.github.lindenb.jvarkit.tools.onesamplevcf.VcfMultiToOne;
+import com.github.lindenb.jvarkit.tools.rnaseq.FindNewSpliceSites;
 import com.github.lindenb.jvarkit.tools.sam2tsv.Sam2Tsv;
 import com.github.lindenb.jvarkit.tools.sam4weblogo.SAM4WebLogo;
 import com.github.lindenb.jvarkit.tools.samjs.SamJdk;
+import com.github.lindenb.jvarkit.tools.skat.SkatEngine;
+import com.github.lindenb.jvarkit.tools.skat.VcfSkatSlidingWindow;
 import com.github.lindenb.jvarkit.tools.sortvcfonref.SortVcfOnInfo;
+import com.github.lindenb.jvarkit.tools.sortvcfonref.SortVcfOnRef2;
 import com.github.lindenb.jvarkit.tools.trap.TrapIndexer;
 import com.github.lindenb.jvarkit.tools.trap.VcfTrap;
 import com.github.lindenb.jvarkit.tools.vcf2xml.Vcf2Xml;
@@ -94,28 +115,65 @@ import com.github.lindenb.jvarkit.tools.vcfamalgation.VcfXmlAmalgamation;
 import com.github.lindenb.jvarkit.tools.vcfbed.VCFBed;
 import com.github.lindenb.jvarkit.tools.vcfbigwig.VCFBigWig;
 import com.github.lindenb.jvarkit.tools.vcfcmp.VcfCompareCallers;
+import com.github.lindenb.jvarkit.tools.vcfeigen.VcfEigen01;
 import com.github.lindenb.jvarkit.tools.vcffilterjs.VcfFilterJdk;
 import com.github.lindenb.jvarkit.tools.vcffilterso.VcfFilterSequenceOntology;
 import com.github.lindenb.jvarkit.tools.vcffixindels.VCFFixIndels;
 import com.github.lindenb.jvarkit.tools.vcflist.VcfList;
 import com.github.lindenb.jvarkit.tools.vcflist.VcfOffsetsIndexFactory;
+import com.github.lindenb.jvarkit.tools.vcfmerge.VCFMerge2;
 import com.github.lindenb.jvarkit.tools.vcfrebase.VcfRebase;
 import com.github.lindenb.jvarkit.tools.vcfstats.VcfStats;
 import com.github.lindenb.jvarkit.tools.vcfstripannot.VCFStripAnnotations;
 import com.github.lindenb.jvarkit.tools.vcftrios.VCFTrios;
+import com.github.lindenb.jvarkit.tools.vcfvcf.VcfVcf;
 import com.github.lindenb.jvarkit.util.Algorithms;
+import com.github.lindenb.jvarkit.util.CompactNameSet;
+import com.github.lindenb.jvarkit.util.LRUCache;
+import com.github.lindenb.jvarkit.util.ReaderPool;
+import com.github.lindenb.jvarkit.util.bio.fasta.TwoBitGenome;
+import com.github.lindenb.jvarkit.util.picard.MergingSamRecordIterator;
 import com.github.lindenb.jvarkit.util.so.SequenceOntologyTree;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGene;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGeneStore;
+import com.github.lindenb.jvarkit.util.vcf.GenotypeConcordanceMatrix;
 import com.github.lindenb.jvarkit.util.vcf.predictions.AnnPredictionParser;
 import com.github.lindenb.jvarkit.util.vcf.predictions.AnnPredictionParserFactory;
+import com.github.lindenb.jvarkit.util.vcf.predictions.SnpEffPredictionParser;
+import com.github.lindenb.jvarkit.util.vcf.predictions.SnpEffPredictionParserFactory;
+import com.github.lindenb.jvarkit.util.vcf.predictions.VepPredictionParser;
+import com.github.lindenb.jvarkit.util.vcf.predictions.VepPredictionParserFactory;
 
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.IntervalTreeMap;
 import htsjdk.samtools.util.IterableAdapter;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+import htsjdk.tribble.util.TabixUtils;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypeBuilder;
 import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.variantcontext.writer.Options;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
 import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLineCount;
+import htsjdk.variant.vcf.VCFHeaderLineType;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
 
 class TestNg01 {
 	static final File TEST_RESULTS_DIR= new File("test-results");
@@ -194,6 +252,32 @@ class TestNg01 {
 		return h;
 	 	}
 	
+	 /** write the lines to a BGZF file and index them with tabix. The header lines are not indexed */
+	 static void writeTabix(final File out,final TabixFormat format,final List<String> header,final List<String> lines) throws IOException {
+		final BlockCompressedOutputStream bgzf = new BlockCompressedOutputStream(out);
+		final TabixIndexCreator indexCreator = new TabixIndexCreator(format);
+		for(final String line:header) bgzf.write((line+"\n").getBytes());
+		for(final String line:lines) {
+			final String tokens[] = line.split("[\t]");
+			final int pos = Integer.parseInt(tokens[format.startPositionColumn-1]);
+			final int end = (format==TabixFormat.VCF?pos+tokens[3].length()-1:pos);
+			final long filePosition = bgzf.getFilePointer();
+			bgzf.write((line+"\n").getBytes());
+			indexCreator.addFeature(new SimpleFeature(tokens[format.sequenceColumn-1], pos, end), filePosition);
+			}
+		final Index index = indexCreator.finalizeIndex(bgzf.getFilePointer());
+		bgzf.close();
+		index.writeBasedOnFeatureFile(out);
+	 	}
+	 
+	 /** the biallelic SNPs of VCF01 as 'contig pos ref alt' */
+	 static List<String[]> vcf01Snps() {
+		return streamVcf(new File(VCF01)).
+			filter(V->V.isSNP() && V.isBiallelic()).
+			map(V->new String[]{V.getContig(),String.valueOf(V.getStart()),V.getReference().getDisplayString(),V.getAlternateAllele(0).getDisplayString()}).
+			collect(Collectors.toList());
+	 	}
+	
     @Test(dataProvider="all_vcfs")
     public void testVcf2Table(final String vcfPath) {
     	File output = new File(TEST_RESULTS_DIR,"jeter.txt");
@@ -278,6 +362,75 @@ class TestNg01 {
         Assert.assertTrue( output.exists());
     	}
 
+    @Test
+    public void testGroupByGeneSpill() throws IOException{
+    	final File output1 = new File(TEST_RESULTS_DIR,"jeter1.txt");
+    	final File output2 = new File(TEST_RESULTS_DIR,"jeter2.txt");
+        Assert.assertEquals(0,new GroupByGene().instanceMain(new String[]{
+        		"-o",output1.getPath(),
+        		"--pedigree",PED01,
+        		"--fisher",
+        		VCF01
+        	}));
+        /* the accumulators are spilled to disk two by two */
+        Assert.assertEquals(0,new GroupByGene().instanceMain(new String[]{
+        		"-o",output2.getPath(),
+        		"--pedigree",PED01,
+        		"--fisher",
+        		"--maxRecordsInRam","2",
+        		VCF01
+        	}));
+        final List<String> lines1 = Files.readAllLines(output1.toPath());
+        Assert.assertTrue(lines1.size()>1);
+        Assert.assertTrue(lines1.get(0).contains("pedigree.cases"));
+        Assert.assertEquals(Files.readAllLines(output2.toPath()), lines1);
+        
+        /* spread the variants over three contigs: sorted, and shuffled so that a gene is found in more than one flush */
+        final List<String> lines = Files.readAllLines(Paths.get(VCF01));
+        final List<String> header = lines.stream().filter(L->L.startsWith("#")).collect(Collectors.toList());
+        final List<String> variants = lines.stream().filter(L->!L.startsWith("#")).collect(Collectors.toList());
+        final List<String> sorted = new ArrayList<>();
+        for(int contig=1;contig<=3;contig++)
+        	{
+        	for(int i=contig-1;i< variants.size();i+=3)
+        		{
+        		sorted.add(String.valueOf(contig)+variants.get(i).substring(variants.get(i).indexOf('\t')));
+        		}
+        	}
+        final List<String> shuffled = new ArrayList<>(sorted);
+        Collections.shuffle(shuffled, new Random(0L));
+        final File input1 = new File(TEST_RESULTS_DIR,"jeter1.vcf");
+        final File input2 = new File(TEST_RESULTS_DIR,"jeter2.vcf");
+        for(final File input:Arrays.asList(input1,input2))
+        	{
+        	final PrintWriter pw = new PrintWriter(input);
+        	header.forEach(L->pw.println(L));
+        	(input==input1?sorted:shuffled).forEach(L->pw.println(L));
+        	pw.flush();
+        	pw.close();
+        	}
+        Assert.assertEquals(0,new GroupByGene().instanceMain(new String[]{
+        		"-o",output1.getPath(),
+        		"--pedigree",PED01,
+        		"--fisher",
+        		input1.getPath()
+        	}));
+        Assert.assertEquals(0,new GroupByGene().instanceMain(new String[]{
+        		"-o",output2.getPath(),
+        		"--pedigree",PED01,
+        		"--fisher",
+        		"--maxRecordsInRam","2",
+        		input2.getPath()
+        	}));
+        final List<String> lines3 = Files.readAllLines(output1.toPath());
+        Assert.assertTrue(lines3.stream().anyMatch(L->L.startsWith("3\t")));
+        Assert.assertEquals(Files.readAllLines(output2.toPath()), lines3);
+        Assert.assertTrue(input1.delete());
+        Assert.assertTrue(input2.delete());
+        Assert.assertTrue(output1.delete());
+        Assert.assertTrue(output2.delete());
+    	}
+
     @Test(dataProvider="all_vcfs")
     public void testBioAlcidaeJdkVcf(final String vcfPath) throws IOException{
     	File output = new File(TEST_RESULTS_DIR,"jeter.txt");
@@ -390,6 +543,25 @@ class TestNg01 {
         Assert.assertTrue( tmp.exists());
     	}
     @Test
+    public void testBamStats04() throws IOException{
+    	final File out1 = new File(TEST_RESULTS_DIR,"jeter1.txt");
+    	final File out2 = new File(TEST_RESULTS_DIR,"jeter2.txt");
+        Assert.assertEquals(0,new BamStats04().instanceMain(new String[]{
+        		"-o",out1.getPath(),
+        		"-B","src/test/resources/toy.bed.gz",
+        		TOY_BAM
+        	}));
+        Assert.assertEquals(0,new BamStats04().instanceMain(new String[]{
+        		"-o",out2.getPath(),
+        		"-B","src/test/resources/toy.bed.gz",
+        		"--sweep",
+        		TOY_BAM
+        	}));
+        Assert.assertEquals(Files.readAllLines(out1.toPath()),Files.readAllLines(out2.toPath()));
+        Assert.assertTrue(out1.delete());
+        Assert.assertTrue(out2.delete());
+    	}
+    @Test
     public void testBamToSql() throws IOException{
     	File tmp = new File(TEST_RESULTS_DIR,"jeter.sql");
     	Assert.assertEquals(0,new BamToSql().instanceMain(new String[]{
@@ -441,6 +613,57 @@ class TestNg01 {
         	}));
         Assert.assertEquals(streamVcf(JETER_VCF).count(),1L);
     	}
+    @Test(dataProvider="all_vcfs")
+    public void testVcfReadingThreads(final String vcfPath) throws IOException{    
+    	final File jeter2 = new File(TEST_RESULTS_DIR,"jeter2.vcf");
+        Assert.assertEquals(0,new VcfTail().instanceMain(new String[]{
+        		"-o",jeter2.getPath(),
+        		"-n","1000000",
+        		vcfPath
+        	}));
+        Assert.assertEquals(0,new VcfTail().instanceMain(new String[]{
+        		"-o",JETER_VCF.getPath(),
+        		"-n","1000000",
+        		"--vcfBgzfThreads","3",
+        		vcfPath
+        	}));
+        Assert.assertEquals(
+        		streamVcf(JETER_VCF).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList()),
+        		streamVcf(jeter2).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList())
+        		);
+        Assert.assertEquals(0,new VcfTail().instanceMain(new String[]{
+        		"-o",JETER_VCF.getPath(),
+        		"-n","1000000",
+        		"--vcfDecodeThreads","3",
+        		vcfPath
+        	}));
+        Assert.assertEquals(
+        		streamVcf(JETER_VCF).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList()),
+        		streamVcf(jeter2).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList())
+        		);
+        Assert.assertTrue(jeter2.delete());
+    	}
+    @Test(dataProvider="all_vcfs")
+    public void testForkVcf(final String vcfPath) throws IOException{    
+    	final File output = new File(TEST_RESULTS_DIR,"fork.__GROUPID__.vcf");
+        Assert.assertEquals(0,new ForkVcf().instanceMain(new String[]{
+        		"-o",output.getPath(),
+        		"-n","2",
+        		"-c",
+        		"--maxRecordsInRam","3",
+        		vcfPath
+        	}));
+        final List<String> L = new ArrayList<>();
+        for(int i=1;i<=2;i++)
+        	{
+        	final File f = new File(TEST_RESULTS_DIR,"fork."+i+".vcf");
+        	L.addAll(streamVcf(f).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList()));
+        	Assert.assertTrue(f.delete());
+        	}
+        Assert.assertEquals(L,
+        		streamVcf(new File(vcfPath)).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList())
+        		);
+    	}
     @Test
     public void testVcfInjectPed() throws IOException{ 
     	final File tmp=new File(TEST_RESULTS_DIR,"tmp.ped.vcf");
@@ -548,6 +771,143 @@ class TestNg01 {
         		}));
     	}
     @Test
+    public void testSequenceOntologyClosure() {
+    	final SequenceOntologyTree tree = SequenceOntologyTree.getInstance();
+    	final SequenceOntologyTree other = SequenceOntologyTree.createDefault();
+    	for(final SequenceOntologyTree.Term term: tree.getTerms()) {
+    		/* recursive descendants, as computed before the closure */
+    		final Set<SequenceOntologyTree.Term> expect = new HashSet<>();
+    		final List<SequenceOntologyTree.Term> stack = new ArrayList<>();
+    		stack.add(term);
+    		while(!stack.isEmpty()) {
+    			final SequenceOntologyTree.Term t = stack.remove(stack.size()-1);
+    			if(expect.add(t)) stack.addAll(t.getChildren());
+    			}
+    		Assert.assertEquals(term.getAllDescendants(), expect);
+    		for(final SequenceOntologyTree.Term t: expect) {
+    			Assert.assertTrue(t.isA(term));
+    			Assert.assertTrue(tree.isA(other.getTermByAcn(t.getAcn()), term));
+    			}
+    		for(final SequenceOntologyTree.Term p: term.getParents()) {
+    			Assert.assertTrue(term.isA(p));
+    			Assert.assertTrue(p==term || !p.isA(term));
+    			}
+    		}
+    	final SequenceOntologyTree.Term term =tree.getTermByAcn("SO:0001583");
+    	final SequenceOntologyTree.TermMatcher matcher = tree.createTermMatcher(Collections.singleton(term), true);
+    	Assert.assertEquals(matcher.getTerms(), term.getAllDescendants());
+    	Assert.assertTrue(matcher.testLabel("missense_variant"));
+    	Assert.assertFalse(matcher.test(tree.getTermByAcn("SO:0001819")));
+    	Assert.assertFalse(tree.createTermMatcher(Collections.singleton(term), false).testAny(term.getChildren()));
+    	}
+    @Test
+    public void testAnnPredictionParserFields() {
+    	final AnnPredictionParser parser = new AnnPredictionParserFactory().createDefaultParser();
+    	for(final String ann: new String[]{
+    			"",
+    			"||",
+    			"T|intergenic_region",
+    			"T|missense_variant&splice_region_variant&|MODERATE|GENE1|ENSG01|transcript|ENST01|protein_coding|1/2|c.1A>T|p.M1L||||",
+    			"T|&missense_variant|LOW|||||||||||||W1"
+    			}) {
+    		final String tokens[] = ann.split("[\\|]");
+    		final AnnPredictionParser.AnnPrediction pred = parser.parseOnePrediction(ann);
+    		Assert.assertEquals(pred.getAllele(), tokens.length>0?tokens[0]:null);
+    		Assert.assertEquals(pred.getSOTermsString(), tokens.length<2?"":tokens[1]);
+    		Assert.assertEquals(pred.getSOTermsStrings(), tokens.length<2 || tokens[1].isEmpty()?
+    				Collections.emptyList():
+    				Arrays.asList(tokens[1].split("[&]")));
+    		Assert.assertEquals(pred.isIntergenicRegion(), tokens.length>1 && tokens[1].equals("intergenic_region"));
+    		Assert.assertEquals(pred.getGeneName(), tokens.length>3?tokens[3]:null);
+    		Assert.assertEquals(pred.getMessages(), tokens.length>15?tokens[15]:null);
+    		Assert.assertEquals(pred.getOriginalAttributeAsString(), ann);
+    		}
+    	}
+    @Test
+    public void testVepPredictionParserFields() {
+    	final VCFHeader header = new VCFHeader();
+    	header.addMetaDataLine(new VCFInfoHeaderLine("CSQ",VCFHeaderLineCount.UNBOUNDED,VCFHeaderLineType.String,
+    			"Consequence annotations from Ensembl VEP. Format: Allele|Consequence|IMPACT|SYMBOL|Gene|EXON|STRAND"));
+    	final VepPredictionParser parser = new VepPredictionParserFactory(header).get();
+    	Assert.assertTrue(parser.isValid());
+    	final VariantContext snp = new VariantContextBuilder().chr("1").start(10).stop(10).
+    			alleles(Arrays.asList(Allele.create("A",true),Allele.create("T",false))).make();
+    	for(final String csq: new String[]{
+    			"",
+    			"||",
+    			"T|intergenic_variant|MODIFIER",
+    			"T|missense_variant&splice_region_variant|MODERATE|GENE1|ENSG01|1/2|-1",
+    			"T|&missense_variant|LOW||||1"
+    			}) {
+    		final String tokens[] = csq.split("[\\|]");
+    		final VepPredictionParser.VepPrediction pred = parser.parseOnePrediction(snp,csq);
+    		Assert.assertEquals(pred.getAlleleStr(), tokens.length<1 || tokens[0].isEmpty()?null:tokens[0]);
+    		Assert.assertEquals(pred.getSOTermsString(), tokens.length<2 || tokens[1].isEmpty()?null:tokens[1]);
+    		Assert.assertEquals(pred.getSOTermsStrings(), tokens.length<2 || tokens[1].isEmpty()?
+    				Collections.emptyList():
+    				Arrays.asList(tokens[1].split("[&]")));
+    		Assert.assertEquals(pred.getSymbol(), tokens.length<4 || tokens[3].isEmpty()?null:tokens[3]);
+    		Assert.assertEquals(pred.getGene(), tokens.length<5 || tokens[4].isEmpty()?null:tokens[4]);
+    		Assert.assertEquals(pred.getExon(), tokens.length<6 || tokens[5].isEmpty()?null:tokens[5]);
+    		Assert.assertEquals(pred.getStrand(), tokens.length<7?0:Integer.parseInt(tokens[6]));
+    		Assert.assertNull(pred.get("SIFT"));
+    		Assert.assertEquals(pred.getOriginalAttributeAsString(), csq);
+    		}
+    	Assert.assertTrue(parser.parseOnePrediction(snp,"T|missense_variant").getSOTerms().contains(
+    			SequenceOntologyTree.getInstance().getTermByAcn("SO:0001583")));
+    	
+    	/* VEP writes '-' for the deleted allele */
+    	final VariantContext del = new VariantContextBuilder().chr("1").start(10).stop(11).
+    			alleles(Arrays.asList(Allele.create("AT",true),Allele.create("A",false))).make();
+    	VepPredictionParser.VepPrediction pred = parser.parseOnePrediction(del,"-|frameshift_variant|HIGH|GENE1");
+    	Assert.assertEquals(pred.getAlleleStr(), "A");
+    	Assert.assertEquals(pred.getAllele(), Allele.create("A",false));
+    	Assert.assertEquals(pred.getSymbol(), "GENE1");
+    	Assert.assertEquals(pred.getOriginalAttributeAsString(), "-|frameshift_variant|HIGH|GENE1");
+    	final VariantContext multi = new VariantContextBuilder(del).
+    			alleles(Arrays.asList(Allele.create("AT",true),Allele.create("A",false),Allele.create("ATT",false))).make();
+    	pred = parser.parseOnePrediction(multi,"-|frameshift_variant|HIGH|GENE1");
+    	Assert.assertEquals(pred.getAlleleStr(), VepPredictionParser.INDEL_SYMBOL_STR);
+    	/* only the Allele column is replaced */
+    	pred = parser.parseOnePrediction(del,"A|-|HIGH|-");
+    	Assert.assertEquals(pred.getAlleleStr(), "A");
+    	Assert.assertEquals(pred.getSOTermsString(), "-");
+    	Assert.assertEquals(pred.getSymbol(), "-");
+    	}
+    @Test
+    public void testSnpEffPredictionParserFields() {
+    	final VCFHeader header = new VCFHeader();
+    	header.addMetaDataLine(new VCFInfoHeaderLine("EFF",VCFHeaderLineCount.UNBOUNDED,VCFHeaderLineType.String,
+    			"Predicted effects for this variant.Format: 'Effect ( Effect_Impact | Functional_Class | Codon_Change | Amino_Acid_change| Amino_Acid_length | Gene_Name | Transcript_BioType | Gene_Coding | Transcript | Exon_Rank  | Genotype_Number [ | ERRORS | WARNINGS ] )'"));
+    	final SnpEffPredictionParser parser = new SnpEffPredictionParserFactory(header).get();
+    	Assert.assertTrue(parser.isValid());
+    	final SequenceOntologyTree.Term missense = SequenceOntologyTree.getInstance().getTermByAcn("SO:0001583");
+    	
+    	SnpEffPredictionParser.SnpEffPrediction pred = parser.parseOnePrediction("missense_variant(MODERATE|MISSENSE|Gtc/Ctc|V135L|301|GENE1|protein_coding|CODING|ENST01|2|1)");
+    	Assert.assertEquals(pred.getGeneName(), "GENE1");
+    	Assert.assertEquals(pred.getEnsemblTranscript(), "ENST01");
+    	Assert.assertEquals(pred.getReferenceAminoAcid(), "V");
+    	Assert.assertEquals(pred.getAminoAcidPosition(), Integer.valueOf(135));
+    	Assert.assertEquals(pred.getAltAminoAcid(), "L");
+    	Assert.assertEquals(pred.getSOTerms(), Collections.singleton(missense));
+    	
+    	/* synonymous: no alt amino acid */
+    	pred = parser.parseOnePrediction("synonymous_variant(LOW|SILENT|atG/atA|M1|301|GENE1|protein_coding|CODING|NM_01|1|1)");
+    	Assert.assertEquals(pred.getReferenceAminoAcid(), "M");
+    	Assert.assertEquals(pred.getAminoAcidPosition(), Integer.valueOf(1));
+    	Assert.assertNull(pred.getAltAminoAcid());
+    	Assert.assertNull(pred.getEnsemblTranscript());
+    	
+    	/* empty fields and an effect that is not an ontology label */
+    	pred = parser.parseOnePrediction("NON_SYNONYMOUS_CODING(MODERATE||||||||||1)");
+    	Assert.assertNull(pred.getGeneName());
+    	Assert.assertNull(pred.getAminoAcidPosition());
+    	Assert.assertTrue(pred.getSOTerms().isEmpty());
+    	pred = parser.parseOnePrediction("");
+    	Assert.assertNull(pred.getGeneName());
+    	Assert.assertTrue(pred.getSOTerms().isEmpty());
+    	}
+    @Test
     public void testVcfFilterSo() throws IOException{   
     	File output = new File(TEST_RESULTS_DIR, "jeter.filrerso.vcf");
     	final AnnPredictionParser parser = new AnnPredictionParserFactory().createDefaultParser();
@@ -611,6 +971,246 @@ class TestNg01 {
         		VCF01}));
     	}
     @Test
+    public void testGenotypeConcordanceMatrix() throws IOException {
+    	final List<VariantContext> variants = streamVcf(new File(VCF01)).collect(Collectors.toList());
+    	/* one variant with more than three classes of genotypes */
+    	final List<Allele> alleles = Arrays.asList(Allele.create("A",true),Allele.create("C"),Allele.create("G"));
+    	final List<Genotype> genotypes = new ArrayList<>();
+    	for(int i=0;i< variants.get(0).getNSamples();++i) {
+    		genotypes.add(new GenotypeBuilder(variants.get(0).getGenotype(i).getSampleName(),
+    				Arrays.asList(alleles.get(i%3),alleles.get((i/2)%3))).make());
+    		}
+    	variants.add(new VariantContextBuilder("x","1",1,1,alleles).genotypes(genotypes).make());
+    	
+    	final int n = variants.get(0).getNSamples();
+    	final GenotypeConcordanceMatrix matrix = new GenotypeConcordanceMatrix(n);
+    	variants.forEach(V->matrix.visit(V));
+    	for(int x=0;x< n;++x) {
+    		for(int y=0;y< n;++y) {
+    			long count=0L;
+    			for(final VariantContext ctx:variants) {
+    				final Genotype g1 = ctx.getGenotype(x);
+    				final Genotype g2 = ctx.getGenotype(y);
+    				if(g1.isCalled() && g2.isCalled() && g1.sameGenotype(g2)) count++;
+    				}
+    			Assert.assertEquals(matrix.count(x, y), count);
+    			}
+    		}
+    	}
+    @Test
+    public void testMergingSamRecordIterator() throws IOException {
+    	final SAMFileHeader header = new SAMFileHeader();
+    	header.addSequence(new SAMSequenceRecord("chr1", 1000));
+    	final Random rand = new Random(0L);
+    	final List<List<SAMRecord>> sources = new ArrayList<>();
+    	for(int i=0;i< 5;i++) {
+    		final List<SAMRecord> L = new ArrayList<>();
+    		int pos = 1;
+    		for(int j=0;j< 100;j++) {
+    			/* many records with the same position */
+    			pos += rand.nextInt(2);
+    			final SAMRecord rec = new SAMRecord(header);
+    			rec.setReadName("S"+i+"R"+j);
+    			rec.setReferenceIndex(0);
+    			rec.setAlignmentStart(pos);
+    			L.add(rec);
+    			}
+    		sources.add(L);
+    		}
+    	/* expected order: position, rank of the record among the records with the same position in its source, source */
+    	final List<String> expect = new ArrayList<>();
+    	final List<int[]> keys = new ArrayList<>();
+    	for(int i=0;i< sources.size();++i) {
+    		int rank = 0;
+    		for(int j=0;j< sources.get(i).size();++j) {
+    			final SAMRecord rec = sources.get(i).get(j);
+    			rank = (j>0 && sources.get(i).get(j-1).getAlignmentStart()==rec.getAlignmentStart()?rank+1:0);
+    			keys.add(new int[]{rec.getAlignmentStart(),rank,i,j});
+    			}
+    		}
+    	keys.sort((A,B)->{for(int k=0;k< 3;++k) {final int c=Integer.compare(A[k],B[k]);if(c!=0) return c;} return 0;});
+    	for(final int[] k:keys) expect.add("S"+k[2]+"R"+k[3]);
+    	
+    	final Comparator<SAMRecord> comparator = (A,B)->Integer.compare(A.getAlignmentStart(), B.getAlignmentStart());
+    	for(final int readAhead: new int[]{0,1,3,MergingSamRecordIterator.DEFAULT_READ_AHEAD}) {
+    		final List<CloseableIterator<SAMRecord>> iterators = new ArrayList<>();
+    		for(final List<SAMRecord> L:sources) {
+    			final Iterator<SAMRecord> it = L.iterator();
+    			iterators.add(new CloseableIterator<SAMRecord>() {
+    				@Override public boolean hasNext() { return it.hasNext();}
+    				@Override public SAMRecord next() { return it.next();}
+    				@Override public void close() {}
+    				});
+    			}
+    		final MergingSamRecordIterator iter = new MergingSamRecordIterator(comparator, iterators, readAhead);
+    		final List<String> names = new ArrayList<>();
+    		while(iter.hasNext()) names.add(iter.next().getReadName());
+    		iter.close();
+    		Assert.assertEquals(names, expect);
+    		}
+    	}
+    @Test
+    public void testReaderPoolAndLRUCache() throws IOException {
+    	final ReaderPool.FileKey vcf = new ReaderPool.FileKey(new File(TOY_VCF_GZ));
+    	final int opened[] = new int[]{0};
+    	final ReaderPool<ReaderPool.FileKey,VCFFileReader> pool = new ReaderPool<>(K->{opened[0]++;return new VCFFileReader(K.getFile(),true);},2);
+    	final VCFFileReader r1 = pool.borrow(vcf);
+    	final VCFFileReader r2 = pool.borrow(vcf);
+    	Assert.assertNotSame(r1, r2);
+    	pool.release(vcf, r1);
+    	pool.release(vcf, r2);
+    	Assert.assertEquals(pool.getIdleCount(vcf), 2);
+    	/* readers are reused, no new index is loaded */
+    	for(int i=0;i< 10;++i) {
+    		final VCFFileReader r = pool.borrow(vcf);
+    		Assert.assertTrue(r==r1 || r==r2);
+    		final CloseableIterator<VariantContext> iter = r.query("RF01", 1, 1000);
+    		while(iter.hasNext()) iter.next();
+    		iter.close();
+    		pool.release(vcf, r);
+    		}
+    	Assert.assertEquals(opened[0], 2);
+    	pool.invalidate(vcf, pool.borrow(vcf));
+    	Assert.assertEquals(pool.getIdleCount(vcf), 1);
+    	/* a retired key: the idle reader is closed, a borrowed reader is not kept */
+    	final VCFFileReader r3 = pool.borrow(vcf);
+    	pool.retireIf(K->K.equals(vcf));
+    	Assert.assertEquals(pool.getIdleCount(vcf), 0);
+    	pool.release(vcf, r3);
+    	Assert.assertEquals(pool.getIdleCount(vcf), 0);
+    	/* a reader released after close is closed, not kept */
+    	final VCFFileReader r4 = pool.borrow(vcf);
+    	pool.close();
+    	pool.release(vcf, r4);
+    	Assert.assertEquals(pool.getIdleCount(vcf), 0);
+    	
+    	final LRUCache<String,Integer> cache = new LRUCache<>(2);
+    	cache.put("A", 1);
+    	cache.put("B", 2);
+    	Assert.assertEquals(cache.get("A"), Integer.valueOf(1));
+    	cache.put("C", 3);
+    	/* B was the least recently used */
+    	Assert.assertNull(cache.get("B"));
+    	Assert.assertEquals(cache.get("A"), Integer.valueOf(1));
+    	Assert.assertEquals(cache.get("C"), Integer.valueOf(3));
+    	final LRUCache<String,Integer> nocache = new LRUCache<>(0);
+    	nocache.put("A", 1);
+    	Assert.assertNull(nocache.get("A"));
+    	}
+    @Test
+    public void testVCFMerge2Chunks() throws IOException {
+    	/* a second indexed VCF: one variant out of two, other sample names */
+    	final File vcf2 = new File(TEST_RESULTS_DIR,"jeter2.vcf.gz");
+    	final VCFFileReader r = new VCFFileReader(new File(VCF01),false);
+    	final VCFHeader header = r.getFileHeader();
+    	final VCFHeader header2 = new VCFHeader(header.getMetaDataInInputOrder(),
+    			header.getSampleNamesInOrder().stream().map(S->S+".2").collect(Collectors.toList()));
+    	final VariantContextWriter w = new VariantContextWriterBuilder().
+    			setOutputFile(vcf2).
+    			setReferenceDictionary(header.getSequenceDictionary()).
+    			setOption(Options.INDEX_ON_THE_FLY).
+    			build();
+    	w.writeHeader(header2);
+    	final List<VariantContext> variants2 = new ArrayList<>();
+    	int n=0;
+    	for(final VariantContext ctx:r) {
+    		if(n==0) {
+    			/* a deletion chr1:835995-836004 crossing the boundary of two 1000bp chunks */
+    			final List<Allele> alleles = Arrays.asList(Allele.create("ACGTACGTAC",true),Allele.create("A",false));
+    			variants2.add(new VariantContextBuilder(ctx).start(835995).stop(836004).alleles(alleles).
+    				genotypes(ctx.getGenotypes().stream().
+    				map(G->new GenotypeBuilder(G).name(G.getSampleName()+".2").
+    					alleles(G.getAlleles().stream().map(A->A.isNoCall()?A:alleles.get(ctx.getAlleleIndex(A))).collect(Collectors.toList())).
+    					make()).
+    				collect(Collectors.toList())).make());
+    			}
+    		if(n++%2==0) continue;
+    		variants2.add(new VariantContextBuilder(ctx).genotypes(ctx.getGenotypes().stream().
+    				map(G->new GenotypeBuilder(G).name(G.getSampleName()+".2").make()).
+    				collect(Collectors.toList())).make());
+    		}
+    	variants2.sort((A,B)->Integer.compare(A.getStart(), B.getStart()));
+    	variants2.forEach(V->w.add(V));
+    	w.close();
+    	r.close();
+    	
+    	/* small chunks, the deletion is merged by the chunk where it starts */
+    	final String region = "1:832000-1054000";
+    	final File out1 = new File(TEST_RESULTS_DIR,"jeter.merge1.vcf");
+    	final File out2 = new File(TEST_RESULTS_DIR,"jeter.merge2.vcf.gz");
+    	Assert.assertEquals(0,new VCFMerge2().instanceMain(new String[]{
+        		"-s","--region",region,"-o",out1.getPath(),VCF01,vcf2.getPath()}));
+    	Assert.assertEquals(0,new VCFMerge2().instanceMain(new String[]{
+        		"--threads","2","--chunkSize","1000","--region",region,"-o",out2.getPath(),VCF01,vcf2.getPath()}));
+    	final Reader r1 = IOUtils.openFileForReader(out1);
+    	final Reader r2 = IOUtils.openFileForReader(out2);
+    	Assert.assertEquals(IOUtils.copyToString(r2), IOUtils.copyToString(r1));
+    	r1.close();
+    	r2.close();
+    	Assert.assertEquals(streamVcf(out2).filter(V->V.getStart()==835995).count(),1L);
+    	/* two VCFs, at most two readers: one thread */
+    	final File out3 = new File(TEST_RESULTS_DIR,"jeter.merge3.vcf.gz");
+    	Assert.assertEquals(0,new VCFMerge2().instanceMain(new String[]{
+        		"--threads","2","--maxOpenReaders","2","--chunkSize","1000","--region",region,"-o",out3.getPath(),VCF01,vcf2.getPath()}));
+    	final Reader r3 = IOUtils.openFileForReader(out3);
+    	final Reader r4 = IOUtils.openFileForReader(out1);
+    	Assert.assertEquals(IOUtils.copyToString(r3), IOUtils.copyToString(r4));
+    	r3.close();
+    	r4.close();
+    	Assert.assertTrue(out1.delete());
+    	Assert.assertTrue(out2.delete());
+    	Assert.assertTrue(out3.delete());
+    	Assert.assertTrue(vcf2.delete());
+    	Assert.assertTrue(new File(vcf2.getPath()+TabixUtils.STANDARD_INDEX_EXTENSION).delete());
+    	}
+    @Test
+    public void testBamQueryReadNames() throws IOException {
+    	/* the index is created next to the BAM */
+    	final File bam = new File(TEST_RESULTS_DIR,"jeter.bam");
+    	final File bai = new File(TEST_RESULTS_DIR,"jeter.bam.bai");
+    	final File nameIdx = new File(TEST_RESULTS_DIR,"jeter.bam.names.idx");
+    	Files.copy(new File(TOY_BAM).toPath(), bam.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    	Files.copy(new File(TOY_BAM+".bai").toPath(), bai.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    	/* small chunks and blocks: the names are spilled to disk and found across blocks */
+    	Assert.assertEquals(0,new BamIndexReadNames().instanceMain(new String[]{
+        		"--maxRecordsInRam","3","--blockSize","2",bam.getPath()}));
+    	Assert.assertTrue(nameIdx.exists());
+    	
+    	final File names = new File(TEST_RESULTS_DIR,"jeter.names.txt");
+    	final PrintWriter pw = new PrintWriter(names);
+    	for(final String s: new String[]{"x6","r003","x1","r001","x4","x2","r004","x5","r002","x3","zz"}) pw.println(s);
+    	pw.flush();
+    	pw.close();
+    	
+    	final List<List<String>> results = new ArrayList<>();
+    	for(int batch=0;batch<2;++batch) {
+    		final File out = new File(TEST_RESULTS_DIR,"jeter.names.sam");
+    		final File notFound = new File(TEST_RESULTS_DIR,"jeter.notfound.txt");
+    		final List<String> args = new ArrayList<>(Arrays.asList("-o",out.getPath(),"-N",notFound.getPath()));
+    		if(batch==1) args.add("--batch");
+    		args.add(bam.getPath());
+    		args.add(names.getPath());
+    		Assert.assertEquals(0,new BamQueryReadNames().instanceMain(args.toArray(new String[args.size()])));
+    		final SamReader sr = SamReaderFactory.makeDefault().open(out);
+    		final List<String> L = sr.iterator().stream().map(R->R.getSAMString()).sorted().collect(Collectors.toList());
+    		sr.close();
+    		/* r001 and r003 are paired: 10 names but 12 records */
+    		Assert.assertEquals(L.size(), 12);
+    		final BufferedReader br = new BufferedReader(new FileReader(notFound));
+    		Assert.assertEquals(br.lines().collect(Collectors.toList()), Collections.singletonList("zz"));
+    		br.close();
+    		results.add(L);
+    		Assert.assertTrue(out.delete());
+    		Assert.assertTrue(notFound.delete());
+    		}
+    	Assert.assertEquals(results.get(1), results.get(0));
+    	
+    	Assert.assertTrue(names.delete());
+    	Assert.assertTrue(nameIdx.delete());
+    	Assert.assertTrue(bai.delete());
+    	Assert.assertTrue(bam.delete());
+    	}
+    @Test
     public void testVcfStats() throws IOException{    
     	final File tmp = new File(TEST_RESULTS_DIR, "jeter.zip");
 
@@ -691,8 +1291,169 @@ class TestNg01 {
 	        		"-m",manifest.getPath(),
 	        		VCF01}));
 	    	Assert.assertTrue( JETER_VCF.delete());
+	    	
+	    	final File jeter2 = new File(TEST_RESULTS_DIR,"jeter2.vcf");
+	    	Assert.assertEquals(0,new VcfGnomad().instanceMain(new String[]{
+	        		"-o",jeter2.getPath(),
+	        		"-m",manifest.getPath(),
+	        		"-gf","IN_GNOMAD",
+	        		"src/test/resources/gnomad.genomes.r2.0.1.sites.1.vcf.gz"
+	        		}));
+	    	Assert.assertEquals(0,new VcfGnomad().instanceMain(new String[]{
+	        		"-o",JETER_VCF.getPath(),
+	        		"-m",manifest.getPath(),
+	        		"-gf","IN_GNOMAD",
+	        		"--streaming",
+	        		"src/test/resources/gnomad.genomes.r2.0.1.sites.1.vcf.gz"
+	        		}));
+	    	Assert.assertTrue(streamVcf(JETER_VCF).allMatch(V->V.getFilters().contains("IN_GNOMAD")));
+	    	Assert.assertEquals(
+	    		streamVcf(JETER_VCF).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList()),
+	    		streamVcf(jeter2).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList())
+	    		);
+	    	Assert.assertTrue( JETER_VCF.delete());
+	    	Assert.assertTrue( jeter2.delete());
 	    	Assert.assertTrue( manifest.delete());
 	    	}
+    @Test
+    public void testVcfCaddStreaming() throws IOException{
+    	/* a CADD file with the SNPs of VCF01, another ALT and a position that is not in VCF01 */
+    	final List<String> lines = new ArrayList<>();
+    	for(final String snp[]:vcf01Snps()) {
+    		final int pos = Integer.parseInt(snp[1]);
+    		for(final String alt:new String[]{snp[3],snp[3].equals("A")?"C":"A"}) {
+    			lines.add(String.join("\t",snp[0],snp[1],snp[2],alt,String.valueOf((pos%1000)/1000.0),String.valueOf((pos%100)/10.0)));
+    			}
+    		lines.add(String.join("\t",snp[0],String.valueOf(pos+1),"A","T","0.5","5.0"));
+    		}
+    	final File cadd = new File(TEST_RESULTS_DIR,"jeter.cadd.tsv.gz");
+    	final File tbi = new File(cadd.getPath()+TabixUtils.STANDARD_INDEX_EXTENSION);
+    	writeTabix(cadd,new TabixFormat(TabixFormat.GENERIC_FLAGS, 1, 2, 2, '#', 0),
+    		Arrays.asList("## CADD v1.3","#Chrom\tPos\tRef\tAlt\tRawScore\tPHRED"),lines);
+    	final File out1 = new File(TEST_RESULTS_DIR,"jeter1.vcf");
+    	final File out2 = new File(TEST_RESULTS_DIR,"jeter2.vcf");
+    	Assert.assertEquals(0,new VcfCadd().instanceMain(new String[]{
+        		"-o",out1.getPath(),
+        		"-u",cadd.getPath(),
+        		VCF01}));
+    	Assert.assertEquals(0,new VcfCadd().instanceMain(new String[]{
+        		"-o",out2.getPath(),
+        		"-u",cadd.getPath(),
+        		"--streaming",
+        		VCF01}));
+    	Assert.assertTrue(streamVcf(out1).anyMatch(V->V.hasAttribute("CADD")));
+    	Assert.assertEquals(
+    		streamVcf(out2).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList()),
+    		streamVcf(out1).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList())
+    		);
+    	Assert.assertTrue(out1.delete());
+    	Assert.assertTrue(out2.delete());
+    	Assert.assertTrue(cadd.delete());
+    	Assert.assertTrue(tbi.delete());
+    	}
+    @Test
+    public void testVcfEigenStreaming() throws IOException{
+    	final File dir = new File(TEST_RESULTS_DIR,"eigen");
+    	dir.mkdir();
+    	final List<String> coding = new ArrayList<>();
+    	final List<String> noncoding = new ArrayList<>();
+    	int n=0;
+    	for(final String snp[]:vcf01Snps()) {
+    		final int pos = Integer.parseInt(snp[1]);
+    		final List<String> tokens = new ArrayList<>(Arrays.asList(snp));
+    		for(int i=0;i< 29;i++) tokens.add(String.valueOf(((pos+i)%100)/100.0));
+    		noncoding.add(String.join("\t",tokens));
+    		/* one SNP out of three is coding */
+    		if(n++%3!=0) continue;
+    		tokens.set(4+12,"missense_variant");
+    		coding.add(String.join("\t",tokens.subList(0, 4+17)));
+    		}
+    	final TabixFormat format = new TabixFormat(TabixFormat.GENERIC_FLAGS, 1, 2, 2, '#', 1);
+    	final File codingFile = new File(dir,"Eigen_hg19_coding_annot_04092016.tab.bgz");
+    	final File noncodingFile = new File(dir,"Eigen_hg19_noncoding_annot_chr1.tab.bgz");
+    	writeTabix(codingFile,format,Collections.singletonList("chr\tposition\tref\talt"),coding);
+    	writeTabix(noncodingFile,format,Collections.singletonList("chr\tposition\tref\talt"),noncoding);
+    	final File out1 = new File(TEST_RESULTS_DIR,"jeter1.vcf");
+    	final File out2 = new File(TEST_RESULTS_DIR,"jeter2.vcf");
+    	Assert.assertEquals(0,new VcfEigen01().instanceMain(new String[]{
+        		"-o",out1.getPath(),
+        		"-D",dir.getPath(),
+        		VCF01}));
+    	Assert.assertEquals(0,new VcfEigen01().instanceMain(new String[]{
+        		"-o",out2.getPath(),
+        		"-D",dir.getPath(),
+        		"--streaming",
+        		VCF01}));
+    	Assert.assertTrue(streamVcf(out1).anyMatch(V->V.hasAttribute("EIGEN_CODING_Consequence")));
+    	Assert.assertTrue(streamVcf(out1).anyMatch(V->V.hasAttribute("EIGEN_NC_Eigen_raw")));
+    	Assert.assertEquals(
+    		streamVcf(out2).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList()),
+    		streamVcf(out1).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList())
+    		);
+    	Assert.assertTrue(out1.delete());
+    	Assert.assertTrue(out2.delete());
+    	for(final File f:new File[]{codingFile,noncodingFile}) {
+    		Assert.assertTrue(f.delete());
+    		Assert.assertTrue(new File(f.getPath()+TabixUtils.STANDARD_INDEX_EXTENSION).delete());
+    		}
+    	Assert.assertTrue(dir.delete());
+    	}
+    @Test
+    public void testVcfVcfStreaming() throws IOException{
+    	final File annot = new File(TEST_RESULTS_DIR,"jeter.annot.vcf.gz");
+    	writeVcfVcfSource(annot);
+    	final File out1 = new File(TEST_RESULTS_DIR,"jeter1.vcf");
+    	final File out2 = new File(TEST_RESULTS_DIR,"jeter2.vcf");
+    	for(final File out:new File[]{out1,out2}) {
+    		final List<String> args = new ArrayList<>(Arrays.asList("-o",out.getPath(),"-TBX",annot.getPath(),"-INFO","XANNOT"));
+    		if(out==out2) args.add("--streaming");
+    		args.add(VCF01);
+    		Assert.assertEquals(0,new VcfVcf().instanceMain(args.toArray(new String[args.size()])));
+    		}
+    	Assert.assertEquals(
+    		streamVcf(out2).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList()),
+    		streamVcf(out1).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList())
+    		);
+    	Assert.assertTrue(out1.delete());
+    	Assert.assertTrue(out2.delete());
+    	Assert.assertTrue(annot.delete());
+    	Assert.assertTrue(new File(annot.getPath()+TabixUtils.STANDARD_INDEX_EXTENSION).delete());
+    	}
+    @Test
+    public void testVcfVcfAnnotates() throws IOException{
+    	/* the tool used to compare the contig with the start of the variant and never annotated anything */
+    	final File annot = new File(TEST_RESULTS_DIR,"jeter.annot.vcf.gz");
+    	final int nAnnotated = writeVcfVcfSource(annot);
+    	Assert.assertTrue(nAnnotated>0);
+    	for(final boolean streaming:new boolean[]{false,true}) {
+    		final List<String> args = new ArrayList<>(Arrays.asList("-o",JETER_VCF.getPath(),"-TBX",annot.getPath(),"-INFO","XANNOT"));
+    		if(streaming) args.add("--streaming");
+    		args.add(VCF01);
+    		Assert.assertEquals(0,new VcfVcf().instanceMain(args.toArray(new String[args.size()])));
+    		Assert.assertEquals(streamJeterVcf().filter(V->V.hasAttribute("XANNOT")).count(), (long)nAnnotated);
+    		Assert.assertTrue(streamJeterVcf().filter(V->V.hasAttribute("XANNOT")).allMatch(V->
+    			V.getAttributeAsInt("XANNOT",-1)==V.getStart() && V.getID().equals("rs"+V.getStart())));
+    		Assert.assertTrue(JETER_VCF.delete());
+    		}
+    	Assert.assertTrue(annot.delete());
+    	Assert.assertTrue(new File(annot.getPath()+TabixUtils.STANDARD_INDEX_EXTENSION).delete());
+    	}
+    /** source of annotation for VcfVcf: one SNP of VCF01 out of two, with an ID and XANNOT=position */
+    private static int writeVcfVcfSource(final File annot) throws IOException {
+    	final List<String> lines = new ArrayList<>();
+    	int n=0;
+    	for(final String snp[]:vcf01Snps()) {
+    		if(n++%2!=0) continue;
+    		lines.add(String.join("\t",snp[0],snp[1],"rs"+snp[1],snp[2],snp[3],".",".","XANNOT="+snp[1]));
+    		}
+    	writeTabix(annot,TabixFormat.VCF,Arrays.asList(
+    		"##fileformat=VCFv4.2",
+    		"##INFO=<ID=XANNOT,Number=1,Type=Integer,Description=\"annotation\">",
+    		"##contig=<ID=1,length=249250621>",
+    		"#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO"
+    		),lines);
+    	return lines.size();
+    	}
     @Test(dependsOnMethods={"testVcfInjectPed"})
     public void testVcfFisherH() throws IOException{
     		final File input =new File(TEST_RESULTS_DIR,"tmp.multi2oneallele.vcf");
@@ -756,6 +1517,18 @@ class TestNg01 {
         		TOY_BAM
         		}));
     	Assert.assertTrue( output.delete());
+    	Assert.assertEquals(0,new Bam2Wig().instanceMain(new String[]{
+        		"-o",output.getPath(),
+        		"-w","1","-s","3","-i",
+        		TOY_BAM
+        		}));
+    	final List<String> lines = Files.readAllLines(output.toPath());
+    	Assert.assertEquals(lines.subList(0, 14), Arrays.asList(
+    			"fixedStep chrom=ref start=7 step=3 span=1",
+    			"1","3","3","3","1","1","0","0","1","0","2","2","1"
+    			));
+    	Assert.assertEquals(lines.get(14),"fixedStep chrom=ref2 start=1 step=3 span=1");
+    	Assert.assertTrue( output.delete());
     	}
     
     @Test
@@ -787,6 +1560,26 @@ class TestNg01 {
     	Assert.assertTrue( input.delete());
     	}
     @Test
+    public void testCompareBams() throws IOException{   
+		final File output1 =new File(TEST_RESULTS_DIR,"jeter1.txt");
+    	Assert.assertEquals(0,new CompareBams().instanceMain(new String[]{
+        		"-o",output1.getPath(),
+        		"-F","-c",
+        		TOY_BAM,TOY_BAM
+        		}));
+		final File output2 =new File(TEST_RESULTS_DIR,"jeter2.txt");
+    	Assert.assertEquals(0,new CompareBams().instanceMain(new String[]{
+        		"-o",output2.getPath(),
+        		"-F","-c",
+        		"--partitions","3",
+        		"--threads","2",
+        		TOY_BAM,TOY_BAM
+        		}));
+    	Assert.assertEquals(Files.readAllLines(output1.toPath()), Files.readAllLines(output2.toPath()));
+    	Assert.assertTrue( output1.delete());
+    	Assert.assertTrue( output2.delete());
+    	}
+    @Test
     public void testFindAllCoverageAtPosition() throws IOException{   
 		final File input =new File(TEST_RESULTS_DIR,"jeter.path.txt");
     	PrintWriter pw=new PrintWriter(input);
@@ -803,6 +1596,34 @@ class TestNg01 {
     	Assert.assertTrue( input.delete());
     	}
     @Test
+    public void testFindAllCoverageAtPositionThreads() throws IOException{
+		final File input =new File(TEST_RESULTS_DIR,"jeter.path.txt");
+    	PrintWriter pw=new PrintWriter(input);
+    	pw.println(TOY_BAM);
+    	pw.flush();
+    	pw.close();
+		final File output =new File(TEST_RESULTS_DIR,"jeter.txt");
+    	Assert.assertEquals(0,new FindAllCoverageAtPosition().instanceMain(new String[]{
+        		"-o",output.getPath(),
+        		"-p","ref2:14 ref:10 ref2:20",
+        		input.getPath()
+        		}));
+		final File output2 =new File(TEST_RESULTS_DIR,"jeter2.txt");
+    	Assert.assertEquals(0,new FindAllCoverageAtPosition().instanceMain(new String[]{
+        		"-o",output2.getPath(),
+        		"-p","ref2:14 ref:10 ref2:20",
+        		"--threads","3",
+        		"--positionsPerChunk","1",
+        		input.getPath()
+        		}));
+    	final List<String> lines = Files.readAllLines(output.toPath());
+    	Assert.assertEquals(lines.stream().filter(L->!L.startsWith("#")).count(), 3L);
+    	Assert.assertEquals(Files.readAllLines(output2.toPath()), lines);
+    	Assert.assertTrue( output.delete());
+    	Assert.assertTrue( output2.delete());
+    	Assert.assertTrue( input.delete());
+    	}
+    @Test
     public void testFindAVariation() throws IOException{   
 		final File input =new File(TEST_RESULTS_DIR,"jeter.path.txt");
     	PrintWriter pw=new PrintWriter(input);
@@ -839,6 +1660,28 @@ class TestNg01 {
     	Assert.assertTrue( output.delete());
     	}
     @Test
+    public void testMiniCallerThreads() throws IOException{
+    	final File out1 = new File(TEST_RESULTS_DIR,"jeter1.vcf");
+    	final File out2 = new File(TEST_RESULTS_DIR,"jeter2.vcf");
+    	Assert.assertEquals(0,new MiniCaller().instanceMain(new String[]{
+        		"-o",out1.getPath(),
+        		"-R",TOY_FA,
+        		"-d","0",
+        		TOY_BAM
+        		}));
+    	Assert.assertEquals(0,new MiniCaller().instanceMain(new String[]{
+        		"-o",out2.getPath(),
+        		"-R",TOY_FA,
+        		"-d","0",
+        		"--threads","3",
+        		"--regionSize","7",
+        		TOY_BAM
+        		}));
+    	Assert.assertEquals(Files.readAllLines(out1.toPath()),Files.readAllLines(out2.toPath()));
+    	Assert.assertTrue(out1.delete());
+    	Assert.assertTrue(out2.delete());
+    	}
+    @Test
     public void testVCFTrios() throws IOException{   
 		final File output =new File(TEST_RESULTS_DIR,"jeter.vcf");
     	Assert.assertEquals(0,new VCFTrios().instanceMain(new String[]{
@@ -868,6 +1711,90 @@ class TestNg01 {
     	Assert.assertTrue( output.delete());
     	}
     @Test
+    public void testSortVcfOnRef2Binary() throws IOException{
+    	/* shuffle the variants of VCF01 */
+    	final File input = new File(TEST_RESULTS_DIR,"jeter.shuffled.vcf");
+    	final List<String> lines = Files.readAllLines(Paths.get(VCF01));
+    	final List<String> variants = lines.stream().filter(L->!L.startsWith("#")).collect(Collectors.toList());
+    	/* add a deletion chr1:835580-835589 crossing the 16kb bin boundary at 835584 */
+    	final String tokens[] = variants.get(0).split("[\t]");
+    	tokens[1]="835580";
+    	tokens[3]="ACGTACGTAC";
+    	tokens[4]="A";
+    	variants.add(String.join("\t", tokens));
+    	Collections.shuffle(variants, new Random(0L));
+    	final PrintWriter pw = new PrintWriter(input);
+    	lines.stream().filter(L->L.startsWith("#")).forEach(L->pw.println(L));
+    	variants.forEach(L->pw.println(L));
+    	pw.flush();
+    	pw.close();
+    	
+    	final File expect = new File(TEST_RESULTS_DIR,"jeter.vcf");
+    	Assert.assertEquals(0,new SortVcfOnRef2().instanceMain(new String[]{
+        		"-o",expect.getPath(),
+        		"--maxRecordsInRam","10",
+        		input.getPath()
+        		}));
+    	final File output = new File(TEST_RESULTS_DIR,"jeter.vcf.gz");
+    	final File tbi = new File(output.getPath()+TabixUtils.STANDARD_INDEX_EXTENSION);
+    	Assert.assertEquals(0,new SortVcfOnRef2().instanceMain(new String[]{
+        		"-o",output.getPath(),
+        		"--binary",
+        		"--maxRecordsInRam","10",
+        		input.getPath()
+        		}));
+    	Assert.assertTrue(tbi.exists());
+    	/* same content as the text mode */
+    	final Reader r1 = IOUtils.openFileForReader(expect);
+    	final Reader r2 = IOUtils.openFileForReader(output);
+    	Assert.assertEquals(IOUtils.copyToString(r2), IOUtils.copyToString(r1));
+    	r1.close();
+    	r2.close();
+    	try(VCFFileReader r=new VCFFileReader(output,true);
+    		CloseableIterator<VariantContext> iter=r.query("1",1,Integer.MAX_VALUE-1)) {
+    		Assert.assertEquals(iter.stream().count(), (long)variants.size());
+    		}
+    	/* query inside the deletion: the index must use the length of REF */
+    	for(final int pos: new int[]{835580,835583,835584,835589}) {
+    		try(VCFFileReader r=new VCFFileReader(output,true);
+    			CloseableIterator<VariantContext> iter=r.query("1",pos,pos)) {
+    			Assert.assertEquals(iter.stream().filter(V->V.getStart()==835580).count(), 1L);
+    			}
+    		}
+    	try(VCFFileReader r=new VCFFileReader(output,true);
+    		CloseableIterator<VariantContext> iter=r.query("1",835590,835590)) {
+    		Assert.assertEquals(iter.stream().filter(V->V.getStart()==835580).count(), 0L);
+    		}
+    	Assert.assertTrue(input.delete());
+    	Assert.assertTrue(expect.delete());
+    	Assert.assertTrue(output.delete());
+    	Assert.assertTrue(tbi.delete());
+    	}
+    @Test
+    public void testParallelSortingCollection() throws IOException{
+    	final File out1 = new File(TEST_RESULTS_DIR,"jeter1.vcf");
+    	final File out2 = new File(TEST_RESULTS_DIR,"jeter2.vcf");
+    	Assert.assertEquals(0,new SortVcfOnInfo().instanceMain(new String[]{
+        		"-o",out1.getPath(),
+        		"-T","AC",
+        		"--maxRecordsInRam","3",
+        		VCF01
+        		}));
+    	Assert.assertEquals(0,new SortVcfOnInfo().instanceMain(new String[]{
+        		"-o",out2.getPath(),
+        		"-T","AC",
+        		"--maxRecordsInRam","3",
+        		"--sortThreads","2",
+        		VCF01
+        		}));
+    	Assert.assertEquals(
+    		Files.readAllLines(out1.toPath()).stream().filter(L->!L.startsWith("#")).collect(Collectors.toList()),
+    		Files.readAllLines(out2.toPath()).stream().filter(L->!L.startsWith("#")).collect(Collectors.toList())
+    		);
+    	Assert.assertTrue(out1.delete());
+    	Assert.assertTrue(out2.delete());
+    	}
+    @Test
     public void testNoCallToHomRef() throws IOException{   
 		final File output =new File(TEST_RESULTS_DIR,"jeter.vcf");
     	Assert.assertEquals(0,new VcfNoCallToHomRef().instanceMain(new String[]{
@@ -1006,6 +1933,282 @@ class TestNg01 {
 		Assert.assertEquals(data.size(),Algorithms.upper_bound(data,60));
     	}
     @Test
+    public void testTwoBitGenome() throws IOException {
+    	final File image = new File(TEST_RESULTS_DIR,"jeter.twobit");
+    	try(IndexedFastaSequenceFile fasta = new IndexedFastaSequenceFile(new File(TOY_FA))) {
+    		TwoBitGenome.write(fasta, image);
+    		final TwoBitGenome twoBit = TwoBitGenome.open(image);
+    		Assert.assertTrue(twoBit.isCompatible(fasta.getSequenceDictionary()));
+    		for(final SAMSequenceRecord ssr: fasta.getSequenceDictionary().getSequences()) {
+    			final byte bases[] = fasta.getSequence(ssr.getSequenceName()).getBases();
+    			final TwoBitGenome.Contig contig = twoBit.getContig(ssr.getSequenceName());
+    			Assert.assertEquals(contig.length(), bases.length);
+    			int gc=0;
+    			for(int i=0;i< bases.length;++i) {
+    				Assert.assertEquals(contig.charAt(i), (char)bases[i]);
+    				if("CGScgs".indexOf(bases[i])!=-1) gc++;
+    				}
+    			Assert.assertEquals(contig.countGC(0, bases.length), gc);
+    			}
+    		}
+    	Assert.assertTrue(image.delete());
+    	}
+    @Test
+    public void testKnownGeneStore() throws IOException {
+    	final File storeFile = new File(TEST_RESULTS_DIR,"jeter.kg.bin");
+    	Assert.assertEquals(0,new KnownGenesToBinary().instanceMain(new String[]{
+        		"-o",storeFile.getPath(),
+        		KNOWN_GENES01}));
+    	Assert.assertTrue(KnownGeneStore.isStore(storeFile.getPath()));
+    	Assert.assertFalse(KnownGeneStore.isStore(KNOWN_GENES01));
+    	final IntervalTreeMap<List<KnownGene>> treeMap = KnownGene.loadUriAsIntervalTreeMap(KNOWN_GENES01, KG->true);
+    	final KnownGeneStore store = KnownGeneStore.open(storeFile);
+    	Assert.assertEquals(store.size(), treeMap.values().stream().mapToInt(L->L.size()).sum());
+    	final Random rand = new Random(0L);
+    	for(int i=0;i< 1000;i++) {
+    		final String contig = store.getContigs().get(rand.nextInt(store.getContigs().size()));
+    		final int start = 1 + rand.nextInt(250_000_000);
+    		final int end = start + rand.nextInt(1_000_000);
+    		final List<String> expect = new ArrayList<>();
+    		for(final List<KnownGene> L : treeMap.getOverlapping(new Interval(contig, start, end))) {
+    			for(final KnownGene kg:L) expect.add(kg.getName()+":"+kg.getTxStart()+":"+kg.getExonCount());
+    			}
+    		Assert.assertEquals(
+    			store.getOverlapping(contig, start, end).stream().map(kg->kg.getName()+":"+kg.getTxStart()+":"+kg.getExonCount()).collect(Collectors.toList()),
+    			expect);
+    		}
+    	Assert.assertTrue(storeFile.delete());
+    	}
+    @Test
+    public void testFindNewSpliceSitesKnownGeneStore() throws IOException {
+    	/* s1 has a junction between ref:14 and ref:35 */
+    	final File samFile = new File(TEST_RESULTS_DIR,"jeter.sam");
+    	PrintWriter pw = new PrintWriter(samFile);
+    	pw.println("@SQ\tSN:ref\tLN:45");
+    	pw.println("s1\t0\tref\t10\t30\t5M20N5M\t*\t0\t0\tACGTAACGTA\t*");
+    	pw.println("s2\t0\tref\t12\t30\t10M\t*\t0\t0\tACGTAACGTA\t*");
+    	pw.flush();
+    	pw.close();
+    	final String known[]={
+    		"0\tkg1\tref\t+\t9\t45\t9\t45\t2\t9,34,\t13,45,",
+    		"0\tkg2\tref\t+\t0\t45\t0\t45\t1\t0,\t45,"
+    		};
+    	final String unknown[]={
+    		"0\tkg3\tref\t-\t2\t45\t2\t45\t2\t2,42,\t5,45,",
+    		"0\tkg2\tref\t+\t0\t45\t0\t45\t1\t0,\t45,"
+    		};
+    	final File kgFile = new File(TEST_RESULTS_DIR,"jeter.kg.txt");
+    	final File storeFile = new File(TEST_RESULTS_DIR,"jeter.kg.bin");
+    	final File out = new File(TEST_RESULTS_DIR,"jeter.splice.sam");
+    	for(final String genes[]:Arrays.asList(known,unknown))
+    		{
+    		pw = new PrintWriter(kgFile);
+    		for(final String line:genes) pw.println(line);
+    		pw.flush();
+    		pw.close();
+    		Assert.assertEquals(0,new KnownGenesToBinary().instanceMain(new String[]{
+        		"-o",storeFile.getPath(),
+        		kgFile.getPath()}));
+    		final List<List<String>> results = new ArrayList<>();
+    		for(final File f:Arrays.asList(kgFile,storeFile))
+    			{
+    			Assert.assertEquals(0,new FindNewSpliceSites().instanceMain(new String[]{
+        			"-out",out.getPath(),
+        			"-d","2",
+        			"-k",f.getPath(),
+        			samFile.getPath()}));
+    			final SamReader sr = SamReaderFactory.makeDefault().open(out);
+    			results.add(sr.iterator().stream().map(R->R.getReadName()).collect(Collectors.toList()));
+    			sr.close();
+    			Assert.assertTrue(out.delete());
+    			}
+    		Assert.assertEquals(results.get(0), genes==known?Collections.emptyList():Collections.singletonList("s1"));
+    		Assert.assertEquals(results.get(1), results.get(0));
+    		}
+    	Assert.assertTrue(samFile.delete());
+    	Assert.assertTrue(kgFile.delete());
+    	Assert.assertTrue(storeFile.delete());
+    	}
+    @Test
+    public void testCompactNameSet() throws IOException {
+    	final CompactNameSet set = new CompactNameSet();
+    	for(int i=0;i< 5000;i++)
+    		{
+    		Assert.assertTrue(set.add("read"+i));
+    		}
+    	Assert.assertFalse(set.add("read0"));
+    	Assert.assertTrue(set.add("r\u00e9ad"));
+    	Assert.assertEquals(set.size(),5001);
+    	set.buildBloomFilter(10);
+    	Assert.assertTrue(set.contains("read4999"));
+    	Assert.assertTrue(set.contains("r\u00e9ad"));
+    	Assert.assertFalse(set.contains("read5000"));
+    	Assert.assertEquals(set.incrementCount("read10"),1);
+    	Assert.assertEquals(set.incrementCount("read10"),2);
+    	Assert.assertEquals(set.incrementCount("read5000"),-1);
+    	Assert.assertTrue(set.remove("read10"));
+    	Assert.assertFalse(set.remove("read10"));
+    	Assert.assertFalse(set.contains("read10"));
+    	Assert.assertTrue(set.add("read10"));
+    	Assert.assertEquals(set.incrementCount("read10"),1);
+    	Assert.assertEquals(set.size(),5001);
+    	}
+    @Test
+    public void testSkatEngine() throws IOException {
+    	final double phenotypes[]={1,1,1,1,0,0,0,0,0,0};
+    	final byte g1[]={2,1,1,0,0,1,0,0,0,0};
+    	final byte g2[]={0,1,0,1,0,0,0,1,0,0};
+    	final byte g3[]={1,1,0,0,0,0,1,0,0,0};
+    	/* one variant: SKAT is the score test, T ~ chisq(1) */
+    	final double mu = 0.4;
+    	double u=0,v=0;
+    	for(int i=0;i< phenotypes.length;i++) u+=(phenotypes[i]-mu)*g1[i];
+    	for(int i=0;i< phenotypes.length;i++) v+=(g1[i]-0.5)*(g1[i]-0.5);
+    	final double expect = Erf.erfc(Math.sqrt(u*u/(mu*(1-mu)*v)/2.0));
+    	for(final boolean optimal:new boolean[]{false,true})
+    		{
+    		final SkatEngine engine = new SkatEngine(optimal);
+    		Assert.assertEquals(engine.pValue(Arrays.asList(g1), phenotypes, new double[]{2.0}), expect, 1E-9);
+    		/* the order of the samples doesn't matter */
+    		final double p1 = engine.pValue(Arrays.asList(g1,g2,g3), phenotypes, new double[]{1,2,3});
+    		final int perm[]={9,3,0,8,1,7,2,6,5,4};
+    		final double phenotypes2[]=new double[perm.length];
+    		final List<byte[]> genotypes2 = new ArrayList<>();
+    		for(final byte g[]:Arrays.asList(g1,g2,g3))
+    			{
+    			final byte g4[]=new byte[perm.length];
+    			for(int i=0;i< perm.length;i++) {g4[i]=g[perm[i]];phenotypes2[i]=phenotypes[perm[i]];}
+    			genotypes2.add(g4);
+    			}
+    		Assert.assertTrue(p1>0 && p1<=1);
+    		Assert.assertEquals(engine.pValue(genotypes2, phenotypes2, new double[]{1,2,3}), p1, 1E-9);
+    		}
+		}
+    @Test
+    public void testSkatEngineDavies() {
+    	/* closed forms: 3*chisq(2)+chisq(2) and chisq(2) */
+    	for(final double q:new double[]{1,5,12,30})
+    		{
+    		Assert.assertEquals(SkatEngine.pValueLambda(new double[]{3,3,1,1}, q),
+    			(3.0*Math.exp(-q/6.0)-Math.exp(-q/2.0))/2.0, 1E-6);
+    		Assert.assertEquals(SkatEngine.pValueLambda(new double[]{1,1}, q), Math.exp(-q/2.0), 1E-6);
+    		/* Liu matches the first four cumulants, exact for a single chisq */
+    		Assert.assertEquals(SkatEngine.liuPValue(new double[]{1,1}, q), Math.exp(-q/2.0), 1E-12);
+    		}
+    	}
+    @Test
+    public void testSkatEngineNullCalibration() {
+    	final int nSamples=200;
+    	final double maf[]={0.05,0.1,0.2,0.3};
+    	final double phenotypes[]=new double[nSamples];
+    	for(int i=0;i< nSamples/2;i++) phenotypes[i]=1;
+    	for(final boolean optimal:new boolean[]{false,true})
+    		{
+    		/* SKAT-O is much slower, fewer replicates */
+    		final int nRep = optimal?100:1000;
+    		final Random rand = new Random(1L);
+    		final SkatEngine engine = new SkatEngine(optimal);
+    		int n05=0,n20=0;
+    		double mean=0;
+    		for(int r=0;r< nRep;++r)
+    			{
+    			final List<byte[]> genotypes = new ArrayList<>();
+    			for(final double f:maf)
+    				{
+    				final byte g[]=new byte[nSamples];
+    				for(int i=0;i< nSamples;i++) g[i]=(byte)((rand.nextDouble()<f?1:0)+(rand.nextDouble()<f?1:0));
+    				genotypes.add(g);
+    				}
+    			final double p = engine.pValue(genotypes, phenotypes, new double[]{1,1,1,1});
+    			Assert.assertTrue(p>0 && p<=1);
+    			if(p<0.05) n05++;
+    			if(p<0.2) n20++;
+    			mean+=p;
+    			}
+    		mean/=nRep;
+    		/* under the null, the p-values are uniform: allow three standard deviations */
+    		Assert.assertEquals(n05, nRep*0.05, 3.0*Math.sqrt(nRep*0.05*0.95), "p<0.05");
+    		Assert.assertEquals(n20, nRep*0.2, 3.0*Math.sqrt(nRep*0.2*0.8), "p<0.2");
+    		Assert.assertEquals(mean, 0.5, 3.0*Math.sqrt(1.0/(12.0*nRep)), "mean");
+    		}
+    	}
+    @Test
+    public void testSkatEngineReference() {
+    	/* expected values: exact distribution of the quadratic form (Imhof), computed outside of jvarkit */
+    	final double phenotypes[]=new double[24];
+    	for(int i=0;i< 10;i++) phenotypes[i]=1;
+    	final byte g0[]={0,1,0,0,0,0,0,0,0,0,0,0,0,0,0,1,0,0,0,0,0,0,0,0};
+    	final byte g1[]={0,0,1,0,0,0,0,0,0,1,0,0,0,1,1,0,0,0,0,0,0,0,0,0};
+    	final byte g2[]={0,1,1,0,1,2,0,1,1,1,1,1,0,1,0,0,0,1,0,1,1,0,0,0};
+    	final byte g3[]={2,1,0,2,2,1,1,2,1,0,0,0,1,0,1,0,0,0,0,0,0,1,0,0};
+    	final byte g4[]={2,1,0,2,1,1,1,2,1,1,2,0,0,1,0,0,0,0,1,0,1,0,1,0};
+    	final SkatEngine skat = new SkatEngine(false);
+    	final SkatEngine skato = new SkatEngine(true);
+    	/* Davies */
+    	Assert.assertEquals(skat.pValue(Arrays.asList(g0,g1,g2,g3,g4), phenotypes, new double[]{1.0,2.0,0.5,1.5,1.0}), 0.0014482756169374444, 1E-7);
+    	Assert.assertEquals(skat.pValue(Arrays.asList(g3,g4), phenotypes, new double[]{1.5,1.0}), 0.0010104451816834853, 1E-7);
+    	/* one eigen value: Liu, exact */
+    	Assert.assertEquals(skat.pValue(Arrays.asList(g3), phenotypes, new double[]{1.5}), 0.0015792786734663414, 1E-9);
+    	/* Davies fails (ifault=1), like SKAT the Liu approximation is returned. The exact p-value is 0.5683 */
+    	Assert.assertEquals(skat.pValue(Arrays.asList(g2,g1), phenotypes, new double[]{0.5,2.0}), 0.5495286646887294, 1E-9);
+    	/* SKAT-O, Davies in the integrand */
+    	Assert.assertEquals(skato.pValue(Arrays.asList(g3,g4), phenotypes, new double[]{1.5,1.0}), 8.915960247206645E-4, 1E-5);
+    	/* SKAT-O, Davies fails in the integrand, Liu is integrated */
+    	Assert.assertEquals(skato.pValue(Arrays.asList(g2,g1), phenotypes, new double[]{0.5,2.0}), 0.4809581650227158, 1E-4);
+    	}
+    @Test
+    public void testVcfSkatSlidingWindowStream() throws IOException {
+    	final File pedFile = new File(TEST_RESULTS_DIR,"jeter.ped");
+    	final PrintWriter pw = new PrintWriter(pedFile);
+    	for(int i=1;i<=6;i++) pw.println("FAM\tS"+i+"\t0\t0\t"+(1+i%2)+"\t"+(i<=3?2:1));
+    	pw.flush();
+    	pw.close();
+    	final File out1 = new File(TEST_RESULTS_DIR,"jeter1.txt");
+    	final File out2 = new File(TEST_RESULTS_DIR,"jeter2.txt");
+    	/* overlapping windows, and windows with a gap between them */
+    	for(final int[] win:new int[][]{{100000,50000},{20000,50000}})
+    	for(final boolean optimal:new boolean[]{false,true})
+    		{
+    		final List<List<String>> results = new ArrayList<>();
+    		for(final File out:Arrays.asList(out1,out2))
+    			{
+    			final List<String> args = new ArrayList<>(Arrays.asList(
+    				"-o",out.getPath(),
+    				"-ped",pedFile.getPath(),
+    				"-C","1",
+    				"--contigWinLength",String.valueOf(win[0]),
+    				"--contigWinShift",String.valueOf(win[1]),
+    				"--skat-engine","JAVA"));
+    			if(optimal) args.add("--skat-optimized");
+    			if(out==out2) args.add("--stream");
+    			args.add(VCF01);
+    			Assert.assertEquals(0,new VcfSkatSlidingWindow().instanceMain(args.toArray(new String[args.size()])));
+    			results.add(Files.readAllLines(out.toPath()).stream().sorted().collect(Collectors.toList()));
+    			Assert.assertTrue(out.delete());
+    			}
+    		Assert.assertEquals(results.get(1).size(), results.get(0).size());
+    		int nTested = 0;
+    		for(int i=0;i< results.get(0).size();i++)
+    			{
+    			final String tokens1[] = results.get(0).get(i).split("[\t]");
+    			final String tokens2[] = results.get(1).get(i).split("[\t]");
+    			/* interval, number of variants and error message must be the same */
+    			Assert.assertEquals(tokens2.length, tokens1.length);
+    			for(int j=0;j< tokens1.length;j++)
+    				{
+    				if(j==4) continue;
+    				Assert.assertEquals(tokens2[j], tokens1[j]);
+    				}
+    			/* the p-values can differ by the order of the floating point additions */
+    			final double p = Double.parseDouble(tokens1[4]);
+    			Assert.assertEquals(Double.parseDouble(tokens2[4]), p, 1E-9);
+    			if(p<1.0) nTested++;
+    			}
+    		Assert.assertTrue(nTested>0);
+    		}
+    	Assert.assertTrue(pedFile.delete());
+    	}
+    @Test
     public void testVcfTrap() throws IOException {
     	final File dbFile =new File(TEST_RESULTS_DIR,"chr1.TraPv2.txt");
     	PrintWriter pw =new PrintWriter(dbFile);
@@ -1035,10 +2238,25 @@ class TestNg01 {
         		"src/test/resources/gnomad.genomes.r2.0.1.sites.1.vcf.gz"
         		}));
     	Assert.assertTrue(streamVcf(outvcf).anyMatch(V->V.hasAttribute("TRAP")));
+    	
+    	final File outvcf2 =new File(TEST_RESULTS_DIR,"jeter2.vcf");
+    	Assert.assertEquals(0,new VcfTrap().instanceMain(new String[]{
+        		"-o",outvcf2.getPath(),
+        		"-A","TRAP",
+        		"--mmap",
+        		"-m",manifestFile.getPath(),
+        		"src/test/resources/gnomad.genomes.r2.0.1.sites.1.vcf.gz"
+        		}));
+    	Assert.assertEquals(
+    		streamVcf(outvcf).map(V->String.valueOf(V.getAttribute("TRAP"))).collect(Collectors.toList()),
+    		streamVcf(outvcf2).map(V->String.valueOf(V.getAttribute("TRAP"))).collect(Collectors.toList())
+    		);
+    	
     	Assert.assertTrue(manifestFile.delete());
     	Assert.assertTrue(indexFile.delete());
     	Assert.assertTrue(dbFile.delete());
     	Assert.assertTrue(outvcf.delete());
+    	Assert.assertTrue(outvcf2.delete());
 		}
     
     
@@ -1,14 +1,13 @@
 package com.github.lindenb.jvarkit.tools.trap;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -58,50 +57,64 @@ static final byte MAGIC[]= "TRAP.1.1".getBytes();
 
 public static TrapRecord decode(final String contig,byte array[]) {
 	if(array.length!=RECORD_SIZOF) throw new IllegalStateException("byte.length "+array.length+"!="+RECORD_SIZOF);
-	try {
-		final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(array));
-		final int pos = dis.readInt();
-		if(pos<0) throw new IOException("pos<0 : "+pos);
-		final byte ref = dis.readByte();
-		final byte alt = dis.readByte();
-		int ensgId = dis.readInt();
-		final String ensg = String.format("ENSG%0"+(ENSG_STRLEN-4)+"d",ensgId);
-		byte score_bytes[]=new byte[SCORE_SIZEOF];
-		dis.readFully(score_bytes);
-		final float score ;
-		if( score_bytes[0] == (byte)1)
-			{	
-			score=1.0f;
-			}
-		else
+	return decode(contig,ByteBuffer.wrap(array),0);
+	}
+
+/** read the position of the record starting at 'offset' in the buffer, without decoding the other fields */
+static int decodePosition(final ByteBuffer buffer,final int offset) {
+	return buffer.getInt(offset);
+	}
+
+/** decode the record starting at 'offset' in the buffer. Absolute get are used, the position of the buffer is not modified */
+static TrapRecord decode(final String contig,final ByteBuffer buffer,final int offset) {
+	final int pos = decodePosition(buffer,offset);
+	if(pos<0) throw new RuntimeIOException("pos<0 : "+pos);
+	final byte ref = buffer.get(offset + Integer.BYTES);
+	final byte alt = buffer.get(offset + Integer.BYTES + 1);
+	final int ensgId = buffer.getInt(offset + Integer.BYTES + 2);
+	final String ensg = String.format("ENSG%0"+(ENSG_STRLEN-4)+"d",ensgId);
+	final int score_offset = offset + Integer.BYTES + 2 + Integer.BYTES;
+	final float score ;
+	if( buffer.get(score_offset) == (byte)1)
+		{	
+		score=1.0f;
+		}
+	else
+		{
+		/* same value as Float.parseFloat("0.xyz") : int and power of ten are exact floats and the division is correctly rounded */
+		int digits = 0;
+		int divisor = 1;
+		for(int i=0;i< SCORE_SIZEOF;++i)
 			{
-			score = Float.parseFloat("0."+new String(score_bytes));
+			final byte c = buffer.get(score_offset+i);
+			if(c<'0' || c>'9') throw new RuntimeIOException("bad score digit in record at pos "+pos);
+			digits = digits*10 + (c-'0');
+			divisor *= 10;
 			}
-		return new TrapRecord() {
-			@Override
-			public int getStart() { return pos; }
-			@Override
-			public int getEnd() { return pos; }
-			@Override
-			public String getContig() { return contig;}
-			@Override
-			public String getChr() { return getContig(); }
-			@Override
-			public float getScore() { return score; }
-			@Override
-			public char getRef() {return (char)ref;}
-			@Override
-			public String getGene() {return ensg;}
-			@Override
-			public char getAlt() { return  (char)alt; }
-			@Override
-			public String toString() {
-				return contig+":"+pos+":"+(char)ref+"/"+(char)alt+" "+ensg+" "+score;
-				}
-		};
-	} catch (IOException e) {
-		throw new RuntimeIOException(e);
+		score = digits/(float)divisor;
 		}
+	return new TrapRecord() {
+		@Override
+		public int getStart() { return pos; }
+		@Override
+		public int getEnd() { return pos; }
+		@Override
+		public String getContig() { return contig;}
+		@Override
+		public String getChr() { return getContig(); }
+		@Override
+		public float getScore() { return score; }
+		@Override
+		public char getRef() {return (char)ref;}
+		@Override
+		public String getGene() {return ensg;}
+		@Override
+		public char getAlt() { return  (char)alt; }
+		@Override
+		public String toString() {
+			return contig+":"+pos+":"+(char)ref+"/"+(char)alt+" "+ensg+" "+score;
+			}
+	};
 	}
 
 
@@ -30,6 +30,10 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -39,6 +43,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Stream;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -82,6 +87,9 @@ echo -e "22\tchr22.dat" > out.manifest
 java -jar dist/vcftrap.jar -m out.manifest input.vcf
 ```
 
+When the VCF is sorted, the option `--mmap` memory-maps the index files and searches the
+records from the previous hit. It's much faster than the default random access.
+
 
 ## See also
 
@@ -103,14 +111,14 @@ public class VcfTrap extends Launcher {
 	private CtxWriterFactory component = new CtxWriterFactory();
 	
 	
-	private static class IndexFile extends AbstractList<TrapRecord>
+	/** base class for a binary file produced by TrapIndexer for one contig */
+	private static abstract class AbstractIndexFile extends AbstractList<TrapRecord>
 		implements Closeable
 		{
 		final String contig;
 		final File file;
-		private RandomAccessFile io;
 		final int _size;
-		IndexFile(final String contig,final File file) throws IOException {
+		AbstractIndexFile(final String contig,final File file) throws IOException {
 			this.contig = contig;
 			this.file=file;
 			long length = file.length();
@@ -122,7 +130,30 @@ public class VcfTrap extends Launcher {
 			length -=  TrapIndexer.MAGIC.length;
 			
 			if(length % TrapIndexer.RECORD_SIZOF!=0) throw new  IOException("not a multiple of "+TrapIndexer.RECORD_SIZOF+":"+length);
-			this._size = (int)(length/TrapIndexer.RECORD_SIZOF);
+			final long n_records = length/TrapIndexer.RECORD_SIZOF;
+			if(n_records > Integer.MAX_VALUE) throw new IOException("too many records in "+file);
+			this._size = (int)n_records;
+			}
+		
+		/** return all the records starting at position 'pos' */
+		abstract Stream<TrapRecord> getRecordsAt(final int pos);
+		
+		@Override
+		public int size() {
+			return this._size;
+			}
+		}
+	
+	/** original implementation: one seek+read per record */
+	private static class IndexFile extends AbstractIndexFile
+		{
+		private RandomAccessFile io;
+		private final Comparator<TrapRecord> comparator = (A,B) ->{
+			if(! A.getContig().equals(B.getContig())) throw new IllegalStateException("not the same contigs ???");
+			return Integer.compare(A.getStart(), B.getStart());
+			};
+		IndexFile(final String contig,final File file) throws IOException {
+			super(contig,file);
 			this.io = new RandomAccessFile(this.file, "r");
 			final byte magic[]=new byte[TrapIndexer.MAGIC.length];
 			this.io.readFully(magic);
@@ -147,8 +178,31 @@ public class VcfTrap extends Launcher {
 			}
 		
 		@Override
-		public int size() {
-			return this._size;
+		Stream<TrapRecord> getRecordsAt(final int pos) {
+			return Algorithms.equal_range_stream(
+					this,
+					0,
+					this.size(),
+					new TrapRecord() {
+						@Override
+						public int getStart() { return pos; }
+						@Override
+						public int getEnd() { return pos; }
+						@Override
+						public String getContig() { return IndexFile.this.contig;}
+						@Override
+						public String getChr() { return getContig(); }
+						@Override
+						public float getScore() { return 0f; }
+						@Override
+						public char getRef() {return '\0';}
+						@Override
+						public String getGene() {return "";}
+						@Override
+						public char getAlt() { return '\0'; }
+						},
+					this.comparator
+					);
 			}
 		
 		@Override
@@ -159,6 +213,127 @@ public class VcfTrap extends Launcher {
 			}
 		}
 	
+	/** memory mapped implementation. The file is mapped in chunks of less than 2Gb
+	 * holding a whole number of records. Positions are read directly from the
+	 * mapped buffers and, as the VCF is expected to be sorted, the search starts
+	 * from the previous hit ( galloping search ) 
+	 */
+	private static class MappedIndexFile extends AbstractIndexFile
+		{
+		/** number of records per mapped chunk */
+		private final int recordsPerChunk;
+		private FileChannel channel;
+		private final MappedByteBuffer chunks[];
+		/** index of the previous lower bound */
+		private int lastIndex = 0;
+		MappedIndexFile(final String contig,final File file) throws IOException {
+			this(contig,file,Integer.MAX_VALUE/TrapIndexer.RECORD_SIZOF);
+			}
+		MappedIndexFile(final String contig,final File file,final int recordsPerChunk) throws IOException {
+			super(contig,file);
+			if(recordsPerChunk<1) throw new IllegalArgumentException("recordsPerChunk<1");
+			this.recordsPerChunk = recordsPerChunk;
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try {
+				final ByteBuffer magic = ByteBuffer.allocate(TrapIndexer.MAGIC.length);
+				while(magic.hasRemaining()) {
+					if(this.channel.read(magic, magic.position())==-1) break;
+					}
+				if(magic.hasRemaining() || !Arrays.equals(magic.array(),  TrapIndexer.MAGIC))
+					{
+					throw new IOException("not a TrapIndexer file:"+file);
+					}
+				final int n_chunks = (int)(((long)this.size() + recordsPerChunk - 1L)/recordsPerChunk);
+				this.chunks = new MappedByteBuffer[n_chunks];
+				for(int i=0;i< n_chunks;++i)
+					{
+					final long first_record = (long)i * recordsPerChunk;
+					final long n_records = Math.min(recordsPerChunk, this.size() - first_record);
+					this.chunks[i] = this.channel.map(
+							FileChannel.MapMode.READ_ONLY,
+							TrapIndexer.MAGIC.length + first_record * TrapIndexer.RECORD_SIZOF,
+							n_records * TrapIndexer.RECORD_SIZOF
+							);
+					}
+				}
+			catch(final IOException err)
+				{
+				this.channel.close();
+				throw err;
+				}
+			}
+		
+		private MappedByteBuffer chunk(final int index) {
+			return this.chunks[index/this.recordsPerChunk];
+			}
+		
+		private int offset(final int index) {
+			return (index%this.recordsPerChunk)*TrapIndexer.RECORD_SIZOF;
+			}
+		
+		/** get the position of the record without decoding it */
+		private int getPosition(final int index) {
+			return TrapIndexer.decodePosition(chunk(index), offset(index));
+			}
+		
+		@Override
+		public TrapRecord get(final int index) {
+			if(index<0 || index>=this.size()) throw new IndexOutOfBoundsException("0<="+index+"<"+this.size());
+			return TrapIndexer.decode(this.contig, chunk(index), offset(index));
+			}
+		
+		/** index of the first record having a position greater or equal than 'pos' */
+		int lowerBound(final int pos) {
+			final int n = this.size();
+			int lo = Math.min(this.lastIndex, n);
+			/* variant is before the previous hit (unsorted input): restart from the beginning */
+			if(lo>0 && getPosition(lo-1) >= pos) lo = 0;
+			/* galloping: find a range [lo,hi) containing the lower bound */
+			int hi = lo;
+			long step = 1L;
+			while(hi < n && getPosition(hi) < pos)
+				{
+				lo = hi + 1;
+				hi = (int)Math.min((long)n, lo + step);
+				step <<= 1;
+				}
+			/* binary search in [lo,hi) */
+			int len = hi - lo;
+			while(len > 0)
+				{
+				final int half = len/2;
+				final int middle = lo + half;
+				if(getPosition(middle) < pos)
+					{
+					lo = middle + 1;
+					len = len - half - 1;
+					}
+				else
+					{
+					len = half;
+					}
+				}
+			this.lastIndex = lo;
+			return lo;
+			}
+		
+		@Override
+		Stream<TrapRecord> getRecordsAt(final int pos) {
+			final int first = lowerBound(pos);
+			int last = first;
+			while(last < this.size() && getPosition(last)==pos) ++last;
+			if(first==last) return Stream.empty();
+			return this.subList(first, last).stream();
+			}
+		
+		@Override
+		public void close() throws IOException {
+			LOG.debug("closing "+contig);
+			CloserUtil.close(this.channel);
+			this.channel = null;
+			}
+		}
+	
 	@XmlType(name="vcftrap")
 	@XmlRootElement(name="vcftrap")
 	@XmlAccessorType(XmlAccessType.FIELD)
@@ -174,6 +349,9 @@ public class VcfTrap extends Launcher {
 			@XmlElement(name="attribute")
 			@Parameter(names={"-A","--attribute"},description="VCF INFO attribute Format:(ALT|GENE|SCORE)")
 			private String ATT="TRAP";
+			@XmlElement(name="mmap")
+			@Parameter(names={"--mmap"},description="Memory-map the trap index files and search the records from the previous hit instead of seeking in the files. Faster when the VCF is sorted.")
+			private boolean use_mmap=false;
 
 			
 			@XmlTransient
@@ -181,16 +359,12 @@ public class VcfTrap extends Launcher {
 			
 			private class CtxWriter extends DelegateVariantContextWriter
 				{					
-				private IndexFile current=null;
+				private AbstractIndexFile current=null;
 				private final boolean ignore_filtered = CtxWriterFactory.this.ignore_filtered;
 				private final String ATT = CtxWriterFactory.this.ATT;
 				private final String ATT_MIN = CtxWriterFactory.this.ATT+"_MIN";
 				private final String ATT_MAX = CtxWriterFactory.this.ATT+"_MAX";
 				private final Set<String> contigs_not_found=new HashSet<>();
-				private final Comparator<TrapRecord> comparator = (A,B) ->{
-					if(! A.getContig().equals(B.getContig())) throw new IllegalStateException("not the same contigs ???");
-					return Integer.compare(A.getStart(), B.getStart());
-					};
 				
 				CtxWriter(final VariantContextWriter delegate) {
 					super(delegate);
@@ -250,30 +424,7 @@ public class VcfTrap extends Launcher {
 					final Float min_score[]=new Float[] {null};
 					final Float max_score[]=new Float[] {null};
 					
-					Algorithms.equal_range_stream(
-							this.current,
-							0,
-							this.current.size(),
-							new TrapRecord() {
-								@Override
-								public int getStart() { return var.getStart(); }
-								@Override
-								public int getEnd() { return var.getEnd(); }
-								@Override
-								public String getContig() { return var.getContig();}
-								@Override
-								public String getChr() { return getContig(); }
-								@Override
-								public float getScore() { return 0f; }
-								@Override
-								public char getRef() {return '\0';}
-								@Override
-								public String getGene() {return "";}
-								@Override
-								public char getAlt() { return '\0'; }
-								},
-							this.comparator
-							).
+					this.current.getRecordsAt(var.getStart()).
 							filter(R->var.getReference().equals(Allele.create((byte)R.getRef(),true))).
 							filter(R->var.getAlternateAlleles().stream().anyMatch(A->A.equals(Allele.create((byte)R.getAlt(),false)))).
 							forEach(R->{
@@ -312,14 +463,16 @@ public class VcfTrap extends Launcher {
 					}
 				}
 			
-			private IndexFile getIndexFile(final String s)
+			private AbstractIndexFile getIndexFile(final String s)
 				{
 				File file = this.chromToFile.get(s);
 				if(file==null && s.startsWith("chr")) file =  this.chromToFile.get(s.substring(3));
 				if(file==null && !s.startsWith("chr")) file =  this.chromToFile.get("chr"+s);
 				if(file==null) return null;
 				try {
-					return new IndexFile(s,file);
+					return this.use_mmap?
+						new MappedIndexFile(s,file):
+						new IndexFile(s,file);
 				} catch (final IOException err) {
 					throw new RuntimeIOException(err);
 					}
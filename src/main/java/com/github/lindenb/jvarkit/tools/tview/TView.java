@@ -22,6 +22,9 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
 
 
+History:
+* 2017 readers opened by the caller
+
 */
 package com.github.lindenb.jvarkit.tools.tview;
 
@@ -278,7 +281,7 @@ public class TView implements Closeable
 			return  count.getMostFrequent();
 			}
 		public int getCoverage() {
-			return (int)this.count.getTotal();
+			return Math.toIntExact(this.count.getTotal());
 			}
 		}
 	
@@ -305,6 +308,8 @@ public class TView implements Closeable
 	private IndexedFastaSequenceFile indexedFastaSequenceFile=null;
 	private final List<SamInputResource> samInputResources=new ArrayList<>();
 	private final List<SamReader> samReaders=new ArrayList<>();
+	/** readers opened by the caller, they are not closed by this object */
+	private final List<SamReader> sharedSamReaders=new ArrayList<>();
 	private final List<VcfSource> vcfReaders=new ArrayList<>();
 	private TabixKnownGeneFileReader tabixKnownGene =null;
 	
@@ -366,6 +371,19 @@ public class TView implements Closeable
 		this.samInputResources.addAll(bamFiles);
 		}
 	
+	/** use some readers opened by the caller. They are not closed by this object */
+	public void setSharedSamReaders(final List<SamReader> samReaders)
+		{
+		this.sharedSamReaders.clear();
+		this.sharedSamReaders.addAll(samReaders);
+		}
+	
+	private void closeSamReader(final SamReader samReader)
+		{
+		if(this.sharedSamReaders.contains(samReader)) return;
+		CloserUtil.close(samReader);
+		}
+	
 	public void setInterval(final Interval interval)
 		{
 		this.interval = interval;
@@ -396,6 +414,7 @@ public class TView implements Closeable
 			final SamReader samReader= srf.open(sir);
 			this.samReaders.add(samReader);
 			}
+		this.samReaders.addAll(this.sharedSamReaders);
 		
 		for(final File vcfFile:IOUtils.unrollFile(this.variantFiles))
 			{
@@ -418,7 +437,7 @@ public class TView implements Closeable
 		
 		for(final SamReader r: this.samReaders)
 			{
-			CloserUtil.close(r);
+			closeSamReader(r);
 			}
 
 		for(final VcfSource r: this.vcfReaders)
@@ -427,6 +446,7 @@ public class TView implements Closeable
 			}
 		this.samInputResources.clear();
 		this.samReaders.clear();
+		this.sharedSamReaders.clear();
 		this.vcfReaders.clear();
 		CloserUtil.close(this.tabixKnownGene);
 		this.tabixKnownGene =null;
@@ -552,7 +572,7 @@ public class TView implements Closeable
 					}
 				}
 			CloserUtil.close(iter);
-			CloserUtil.close(samReader);
+			closeSamReader(samReader);
 			}
 		
 
@@ -22,6 +22,10 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
 
 
+History:
+* 2017 creation
+* 2017 pool of readers, cache of regions, number of threads
+
 */
 package com.github.lindenb.jvarkit.tools.tview;
 
@@ -30,8 +34,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.PrintWriter;
-import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -43,13 +47,17 @@ import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.server.handler.HandlerList;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.beust.jcommander.Parameter;
-import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.io.CappedBufferOutputStream;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.tools.tview.TView.Formatout;
+import com.github.lindenb.jvarkit.util.LRUCache;
+import com.github.lindenb.jvarkit.util.ReaderPool;
 import com.github.lindenb.jvarkit.util.bio.IntervalParser;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
@@ -57,8 +65,9 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
-import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.filter.JavascriptSamRecordFilter;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
@@ -95,6 +104,14 @@ $ java -jar dist/tviewserver.jar -R src/test/resources/toy.fa src/test/resources
 
 ```
 
+## Concurrent users
+
+The BAM readers are kept open in a pool (`--pool` readers per BAM) so the
+index is not loaded again for each query. The last rendered regions are kept in memory
+(`--cache`). The number of worker threads of the server is set with `--threads`.
+
+A query log can be replayed against a running server with `serverqueryreplay`.
+
 
 END_DOC
 
@@ -114,6 +131,8 @@ private static final String SHOWINSERT="insert";
 private static final String HIDEBASES="bases";
 private static final String SHOWNAME="name";
 private static final String SHOWALLBAMS="showall";
+/** rendered regions larger than this are not cached */
+private static final int MAX_CACHED_BYTES = 1_000_000;
 
 @Parameter(names={"-R","--reference"},description=Launcher.INDEXED_FASTA_REFERENCE_DESCRIPTION)
 private File optionalReferenceFile=null;
@@ -125,16 +144,41 @@ private boolean disable_javascript = false;
 private int max_interval_length = 2000;
 @Parameter(names={"--url"},description=Launcher.USER_CUSTOM_INTERVAL_URL_DESC)
 private String userCustomUrl=null;
-
+@Parameter(names={"--threads"},description="Max number of server worker threads. Must be large enough for the acceptors and the selectors of the server (e.g. >= 8). 0 = server default.")
+private int numThreads=0;
+@Parameter(names={"--pool"},description="Max number of opened readers per BAM file. Concurrent queries on the same BAM wait for a free reader.")
+private int readersPerFile=4;
+@Parameter(names={"--cache"},description="Number of rendered regions kept in memory. 0 = no cache.")
+private int cacheSize=100;
+
+/** the rendered alignments of a region */
+private static class RegionResult
+	{
+	final Interval interval;
+	final byte content[];
+	RegionResult(final Interval interval,final byte content[])
+		{
+		this.interval = interval;
+		this.content = content;
+		}
+	}
 
 private class SamViewHandler extends AbstractHandler
 	{
 	private final List<File> samFiles;
-	
+	private final ReaderPool<ReaderPool.FileKey,SamReader> readerPool;
+	private final LRUCache<List<Object>,RegionResult> regionCache;
 	
 	SamViewHandler(final List<File> vcfFiles)
 		{
 		this.samFiles = vcfFiles;
+		/* same settings as TView */
+		final SamReaderFactory srf = SamReaderFactory.makeDefault().
+				referenceSequence(TViewServer.this.optionalReferenceFile).
+				validationStringency(ValidationStringency.LENIENT)
+				;
+		this.readerPool = new ReaderPool<>(K->srf.open(K.getFile()),Math.max(1,TViewServer.this.readersPerFile));
+		this.regionCache = new LRUCache<>(TViewServer.this.cacheSize);
 		}
 	
 	
@@ -447,6 +491,163 @@ private class SamViewHandler extends AbstractHandler
 			final String rgn=request.getParameter(REGION_PARAM);
 			return StringUtil.isBlank(rgn)?"No Region specified":rgn;
 			}
+		
+		private void writeAlignmentBegin(final Interval interval) throws XMLStreamException
+			{
+			/* Hyperlink to IGV */
+			if(!StringUtil.isBlank(TViewServer.this.userCustomUrl)) {
+				final String gotostr=Launcher.createUrlFromInterval(
+						TViewServer.this.userCustomUrl,
+						interval
+						);
+				if(!StringUtil.isBlank(gotostr)) {
+					this.writer.writeStartElement("div");
+					this.writer.writeStartElement("a");
+					this.writer.writeAttribute("title","URL");
+					this.writer.writeAttribute("rel","nofollow");
+					this.writer.writeAttribute("href", gotostr );
+					this.writer.writeCharacters("[URL]");
+					this.writer.writeEndElement();//a
+					this.writer.writeEndElement();//div
+					this.writer.writeCharacters("");
+					}
+				}
+			
+			this.writer.writeStartElement("pre");
+			this.writer.writeCharacters("");
+			this.writer.flush();
+			}
+		
+		private void writeAlignmentEnd() throws XMLStreamException
+			{
+			this.writer.flush();
+			this.writer.writeCharacters("");
+			this.writer.writeEndElement();//pre
+			this.writer.writeEmptyElement("hr");
+			this.writer.writeCharacters("");
+			this.flush();
+			}
+		
+		/** render the alignments of one BAM. Returns false if the page must stop */
+		private boolean renderRegion(
+				final File samFile,
+				final ReaderPool.FileKey poolKey,
+				final String rgn_str,
+				final String js_expr,
+				final List<Object> cacheKey
+				) throws XMLStreamException
+			{
+			final ReaderPool<ReaderPool.FileKey,SamReader> pool = getOwner().readerPool;
+			SamReader samReader = null;
+			boolean reader_error = false;
+			TView tview = null;
+			try
+				{
+				samReader = pool.borrow(poolKey);
+				final SAMSequenceDictionary dict= samReader.getFileHeader().getSequenceDictionary();
+				if(dict==null || dict.isEmpty()) {
+					writeError("no dict in this bam file :"+samFile);
+					return false;
+					}
+				final Interval interval;
+				
+				if(!StringUtil.isBlank(rgn_str)) 
+					{
+					final IntervalParser parser= new IntervalParser(dict);
+					parser.setFixContigName(true);
+					parser.setContigNameIsWholeContig(true);
+					parser.setRaiseExceptionOnError(false);
+					interval = TViewServer.this.trimInterval(parser.parse(rgn_str));	
+					}
+				else
+					{
+					final SAMSequenceRecord rec = dict.getSequence(0);
+					interval = TViewServer.this.trimInterval(new Interval(rec.getSequenceName(),1,Math.min(100, rec.getSequenceLength())));
+					}
+				
+				tview = new TView();
+				tview.setInterval(interval);
+				if(optionalReferenceFile!=null) tview.setReferenceFile(optionalReferenceFile);
+				tview.setFormatOut(Formatout.html);
+				tview.setShowClip("true".equals(this.request.getParameter(SHOWCLIP)));
+				tview.setShowReadName("true".equals(this.request.getParameter(SHOWNAME)));
+				tview.setShowInsertions("true".equals(this.request.getParameter(SHOWINSERT)));
+				tview.setHideBases("true".equals(this.request.getParameter(HIDEBASES)));
+				tview.setSharedSamReaders(Collections.singletonList(samReader));
+				
+				if(!StringUtil.isBlank(js_expr))
+					{
+					final JavascriptSamRecordFilter filter;
+					try 
+						{
+						filter = new JavascriptSamRecordFilter(
+								js_expr,
+								samReader.getFileHeader()
+								);
+						}
+					catch(Exception err)
+						{
+						writeException(err);
+						return false;
+						}
+					tview.setSamRecordFilter(filter);
+					}
+				
+				if(tview.initialize()!=0)
+					{
+					writeError("cannot initialize tview");
+					return false;
+					}
+				
+				writeAlignmentBegin(interval);
+				
+				/* small alignments are kept in memory and cached, larger ones are streamed */
+				final CappedBufferOutputStream buffer = new CappedBufferOutputStream(
+						this.response.getOutputStream(),
+						TViewServer.this.cacheSize>0?MAX_CACHED_BYTES:0
+						);
+				final PrintStream out  = new PrintStream(buffer);
+				tview.paint(out);
+				out.flush();
+				out.close();
+				tview.close();
+				tview=null;
+				/* the reader is not needed anymore, give it back before sending the alignment */
+				pool.release(poolKey, samReader);
+				samReader = null;
+				
+				if(buffer.isBuffered())
+					{
+					final byte content[] = buffer.toByteArray();
+					this.response.getOutputStream().write(content);
+					this.response.getOutputStream().flush();
+					getOwner().regionCache.put(cacheKey, new RegionResult(interval, content));
+					}
+				writeAlignmentEnd();
+				}
+			catch(final Exception err)
+				{
+				reader_error = true;
+				super.writeException(err);
+				}
+			finally
+				{
+				CloserUtil.close(tview);
+				if(samReader!=null)
+					{
+					if(reader_error)
+						{
+						pool.invalidate(poolKey, samReader);
+						}
+					else
+						{
+						pool.release(poolKey, samReader);
+						}
+					}
+				}
+			return true;
+			}
+		
 		@Override
 		void writeHtmlBody() throws XMLStreamException {
 			final String rgn_str=request.getParameter(REGION_PARAM);
@@ -484,116 +685,39 @@ private class SamViewHandler extends AbstractHandler
 				this.writer.writeCharacters(samFile.getName());
 				this.writer.writeEndElement();
 				
-				
-				
-				TView tview = new TView();
-				try
+				final ReaderPool.FileKey poolKey = getOwner().getPoolKey(samFile);
+				final String js_expr = (TViewServer.this.disable_javascript?null:this.request.getParameter(JAVASCRIPT_PARAM));
+				/* everything that changes the rendered alignment. The region is the string
+				 * of the user, so a cached alignment is found without reading the BAM */
+				final List<Object> cacheKey = Arrays.asList(
+					poolKey,
+					StringUtil.isBlank(rgn_str)?"":rgn_str.trim(),
+					StringUtil.isBlank(js_expr)?"":js_expr,
+					"true".equals(this.request.getParameter(SHOWCLIP)),
+					"true".equals(this.request.getParameter(SHOWNAME)),
+					"true".equals(this.request.getParameter(SHOWINSERT)),
+					"true".equals(this.request.getParameter(HIDEBASES))
+					);
+				final RegionResult cached = getOwner().regionCache.get(cacheKey);
+				if(cached!=null)
 					{
-					final SAMSequenceDictionary dict= SAMSequenceDictionaryExtractor.extractDictionary(samFile);
-					if(dict==null) {
-						writeError("no dict in this bam file :"+samFile);
-						return;
-						}
-					final Interval interval;
-					
-					if(!StringUtil.isBlank(rgn_str)) 
-						{
-						final IntervalParser parser= new IntervalParser(dict);
-						parser.setFixContigName(true);
-						parser.setContigNameIsWholeContig(true);
-						parser.setRaiseExceptionOnError(false);
-						interval = TViewServer.this.trimInterval(parser.parse(rgn_str));	
-						}
-					else
-						{
-						final SAMSequenceRecord rec = dict.getSequence(0);
-						interval = TViewServer.this.trimInterval(new Interval(rec.getSequenceName(),1,Math.min(100, rec.getSequenceLength())));
-						}
-					
-					tview.setInterval(interval);
-					if(optionalReferenceFile!=null) tview.setReferenceFile(optionalReferenceFile);
-					tview.setFormatOut(Formatout.html);
-					tview.setShowClip("true".equals(this.request.getParameter(SHOWCLIP)));
-					tview.setShowReadName("true".equals(this.request.getParameter(SHOWNAME)));
-					tview.setShowInsertions("true".equals(this.request.getParameter(SHOWINSERT)));
-					tview.setHideBases("true".equals(this.request.getParameter(HIDEBASES)));
-					tview.setBamFiles(Collections.singletonList(SamInputResource.of(samFile)));
-	
-					if(!TViewServer.this.disable_javascript)
+					try
 						{
-						final String js_expr = this.request.getParameter(JAVASCRIPT_PARAM);
-						if(!StringUtil.isBlank(js_expr))
-							{
-							final JavascriptSamRecordFilter filter;
-							try 
-								{
-								StringReader strReader = new StringReader(js_expr);
-								filter = new JavascriptSamRecordFilter(
-										js_expr,
-										SamReaderFactory.makeDefault().getFileHeader(samFile)
-										);
-								strReader.close();
-								}
-							catch(Exception err)
-								{
-								writeException(err);
-								return;
-								}
-							tview.setSamRecordFilter(filter);
-							}
+						writeAlignmentBegin(cached.interval);
+						this.response.getOutputStream().write(cached.content);
+						this.response.getOutputStream().flush();
+						writeAlignmentEnd();
 						}
-					
-					if(tview.initialize()!=0)
+					catch(final Exception err)
 						{
-						writeError("cannot initialize tview");
-						return ;
-						}
-					
-					/* Hyperlink to IGV */
-					if(!StringUtil.isBlank(TViewServer.this.userCustomUrl)) {
-						final String gotostr=Launcher.createUrlFromInterval(
-								TViewServer.this.userCustomUrl,
-								interval
-								);
-						if(!StringUtil.isBlank(gotostr)) {
-							this.writer.writeStartElement("div");
-							this.writer.writeStartElement("a");
-							this.writer.writeAttribute("title","URL");
-							this.writer.writeAttribute("rel","nofollow");
-							this.writer.writeAttribute("href", gotostr );
-							this.writer.writeCharacters("[URL]");
-							this.writer.writeEndElement();//a
-							this.writer.writeEndElement();//div
-							this.writer.writeCharacters("");
-							}
+						super.writeException(err);
 						}
-					
-					this.writer.writeStartElement("pre");
-					this.writer.writeCharacters("");
-					this.writer.flush();
-					
-					final PrintStream out  = new PrintStream(IOUtils.uncloseableOutputStream(this.response.getOutputStream()));
-					tview.paint(out);
-					out.flush();
-					tview.close();
-					tview=null;
-					this.writer.flush();
-					this.writer.writeCharacters("");
-					this.writer.writeEndElement();//pre
-					this.writer.writeEmptyElement("hr");
-					this.writer.writeCharacters("");
-					this.flush();
-					}
-				catch(final Exception err)
-					{
-					super.writeException(err);
 					}
-				finally
+				else if(!renderRegion(samFile, poolKey, rgn_str, js_expr, cacheKey))
 					{
-					CloserUtil.close(tview);
+					return;
 					}
 				
-				
 				if(!this.showAllBamsInOneWindow()) {
 					break;
 					}
@@ -603,7 +727,13 @@ private class SamViewHandler extends AbstractHandler
 			}
 		}
 
-	
+	/** returns the key of this file in the pool of readers. The readers of an older version of the file are closed */
+	private ReaderPool.FileKey getPoolKey(final File file)
+		{
+		final ReaderPool.FileKey key = new ReaderPool.FileKey(file);
+		this.readerPool.retireIf(K->K.getFile().equals(file) && !K.equals(key));
+		return key;
+		}
 	
 	private File getSamFile(final HttpServletRequest req) {
 		
@@ -673,6 +803,7 @@ private static boolean showAllBamsInOneWindow(final HttpServletRequest request)
 @Override
 public int doWork(final List<String> args) {
 	Server server = null;
+	SamViewHandler viewHandler = null;
 	try
 		{
 		final List<File> samFiles = IOUtil.unrollFiles(args.stream().
@@ -711,9 +842,22 @@ public int doWork(final List<String> args) {
 			IOUtil.assertFileIsReadable(F);
 			});
 		
-		server = new Server(this.port);
+		if(this.numThreads>0)
+			{
+			final QueuedThreadPool threadPool = new QueuedThreadPool(this.numThreads);
+			threadPool.setName(TViewServer.class.getSimpleName());
+			server = new Server(threadPool);
+			final ServerConnector connector = new ServerConnector(server);
+			connector.setPort(this.port);
+			server.addConnector(connector);
+			}
+		else
+			{
+			server = new Server(this.port);
+			}
+		viewHandler = new SamViewHandler(samFiles);
 		final HandlerList handlers = new HandlerList();
-		handlers.addHandler(new SamViewHandler(samFiles));
+		handlers.addHandler(viewHandler);
 		server.setHandler(handlers);
 		LOG.info("Starting "+TViewServer.class.getName()+" on http://localhost:"+this.port);
 		server.start();
@@ -731,6 +875,10 @@ public int doWork(final List<String> args) {
 			
 			server.destroy();
 			}
+		if(viewHandler!=null)
+			{
+			viewHandler.readerPool.close();
+			}
 		}
 	}
 
@@ -41,6 +41,7 @@ import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.picard.GenomicSequence;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.ucsc.KnownGene;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGeneStore;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 
@@ -177,7 +178,7 @@ public class VCFCombineTwoSnvs extends Launcher
 	private File outputFile = null;
 
 
-	@Parameter(names={"-k","--knownGene"},description=KnownGene.OPT_KNOWNGENE_DESC ,required=true)
+	@Parameter(names={"-k","--knownGene"},description=KnownGeneStore.OPT_KNOWNGENE_DESC ,required=true)
 	private String kgURI  = KnownGene.getDefaultUri();
 
 	@Parameter(names={"-B","--bam"},description="Optional indexed BAM file used to get phasing information. This can be a list of bam if the filename ends with '.list'")
@@ -194,6 +195,8 @@ public class VCFCombineTwoSnvs extends Launcher
 	
 	/** known Gene collection */
 	private final IntervalTreeMap<List<KnownGene>> knownGenes=new IntervalTreeMap<>();
+	/** used instead of knownGenes if kgURI is a binary store */
+	private KnownGeneStore knownGeneStore = null;
 	/** reference genome */
 	private IndexedFastaSequenceFile indexedFastaSequenceFile=null;
 	/** current genomic sequence */
@@ -280,6 +283,13 @@ public class VCFCombineTwoSnvs extends Launcher
 		try {
 			final SAMSequenceDictionary dict=this.indexedFastaSequenceFile.getSequenceDictionary();
 	        if(dict==null) throw new IOException("dictionary missing");
+	        
+	        if(KnownGeneStore.isStore(this.kgURI))
+	        	{
+	        	LOG.info("opening gene store "+this.kgURI);
+	        	this.knownGeneStore = KnownGeneStore.open(new File(this.kgURI));
+	        	return;
+	        	}
 
 			LOG.info("loading genes from "+this.kgURI);
 			in =IOUtils.openURIForBufferedReading(this.kgURI);
@@ -682,7 +692,21 @@ static private class MutationComparator implements Comparator<CombinedMutation>
 				/* find the overlapping genes : extend the interval of the variant to include the stop codon */
 				final Collection<KnownGene> genes= new ArrayList<>();
 				
-				for(List<KnownGene> lkg:this.knownGenes.getOverlapping(
+				if(this.knownGeneStore!=null)
+					{
+					if(this.indexedFastaSequenceFile.getSequenceDictionary().getSequence(ctx.getContig())!=null)
+						{
+						for(final KnownGene kg:this.knownGeneStore.getOverlapping(
+								ctx.getContig(),
+								Math.max(1,ctx.getStart()-3),
+								ctx.getEnd()+3))
+							{
+							if(kg.isNonCoding()) continue;
+							genes.add(kg);
+							}
+						}
+					}
+				else for(List<KnownGene> lkg:this.knownGenes.getOverlapping(
 						new Interval(ctx.getContig(),
 						Math.max(1,ctx.getStart()-3),
 						ctx.getEnd()+3
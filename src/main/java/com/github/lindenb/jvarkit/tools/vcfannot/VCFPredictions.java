@@ -61,6 +61,7 @@ import com.github.lindenb.jvarkit.util.picard.GenomicSequence;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.so.SequenceOntologyTree;
 import com.github.lindenb.jvarkit.util.ucsc.KnownGene;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGeneStore;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 
 
@@ -156,7 +157,11 @@ public class VCFPredictions extends Launcher
 	{
 	private static final Logger LOG = Logger.build(VCFPredictions.class).make();
 
+	/** because we want to set SO:5KB_upstream_variant */
+	private static final int EXTEND_GENE_SEARCH = 5000;
 	private IntervalTreeMap<List<KnownGene>> knownGenes=null;
+	/** binary store used instead of knownGenes */
+	private KnownGeneStore knownGeneStore=null;
 	private IndexedFastaSequenceFile indexedFastaSequenceFile=null;
 	
 
@@ -166,7 +171,7 @@ public class VCFPredictions extends Launcher
 	private File outputFile = null;
 
 
-	@Parameter(names={"-k","--knownGene"},description=KnownGene.OPT_KNOWNGENE_DESC,required=true)
+	@Parameter(names={"-k","--knownGene"},description=KnownGeneStore.OPT_KNOWNGENE_DESC,required=true)
 	private String kgURI =KnownGene.getDefaultUri();
 
 	@Parameter(names={"-soacn","--printsoacn"},description="Print SO:term accession rather than label")
@@ -310,6 +315,11 @@ public class VCFPredictions extends Launcher
 				throw new IOException(
 						"Cannot get sequence dictionary for reference");
 			}
+			if(KnownGeneStore.isStore(this.kgURI)) {
+				LOG.info("opening knownGene store "+this.kgURI);
+				this.knownGeneStore = KnownGeneStore.open(new File(this.kgURI));
+				return;
+			}
 			int n_genes = 0;
 			this.knownGenes = new IntervalTreeMap<>();
 			LOG.info("loading genes");
@@ -324,11 +334,8 @@ public class VCFPredictions extends Launcher
 				if (this.indexedFastaSequenceFile.getSequenceDictionary().getSequence(g.getContig()) == null) {
 					continue;
 				}
-				final int extend_gene_search = 5000; // because we want to set
-														// SO:5KB_upstream_variant
-
 				final Interval interval = new Interval(g.getContig(),
-						Math.max(1, g.getTxStart() + 1 - extend_gene_search), g.getTxEnd() + extend_gene_search);
+						Math.max(1, g.getTxStart() + 1 - EXTEND_GENE_SEARCH), g.getTxEnd() + EXTEND_GENE_SEARCH);
 				List<KnownGene> L= this.knownGenes.get(interval);
 				if(L==null) {
 					L=new ArrayList<>(2);
@@ -438,13 +445,36 @@ public class VCFPredictions extends Launcher
 			
 			final List<KnownGene> genes=new ArrayList<>();
 			
-			for(final List<KnownGene> l2: this.knownGenes.getOverlapping(new Interval(
-					ctx.getContig(),
-					ctx.getStart(),
-					ctx.getEnd() //1-based
-					)))
+			if(this.knownGeneStore!=null)
 				{
-				genes.addAll(l2);
+				if(this.indexedFastaSequenceFile.getSequenceDictionary().getSequence(ctx.getContig())!=null)
+					{
+					genes.addAll(this.knownGeneStore.getOverlapping(
+						ctx.getContig(),
+						Math.max(1,ctx.getStart()-EXTEND_GENE_SEARCH),
+						ctx.getEnd()+EXTEND_GENE_SEARCH
+						));
+					/* same order as the IntervalTreeMap */
+					genes.sort((A,B)->{
+						final int i = Integer.compare(
+							Math.max(1, A.getTxStart() + 1 - EXTEND_GENE_SEARCH),
+							Math.max(1, B.getTxStart() + 1 - EXTEND_GENE_SEARCH)
+							);
+						if(i!=0) return i;
+						return Integer.compare(A.getTxEnd(), B.getTxEnd());
+						});
+					}
+				}
+			else
+				{
+				for(final List<KnownGene> l2: this.knownGenes.getOverlapping(new Interval(
+						ctx.getContig(),
+						ctx.getStart(),
+						ctx.getEnd() //1-based
+						)))
+					{
+					genes.addAll(l2);
+					}
 				}
 			final List<Annotation> ctx_annotations=new ArrayList<Annotation>();
 			if(genes==null || genes.isEmpty())
@@ -41,8 +41,14 @@ import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
+import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.vcf.InfoAnnotator;
+import com.github.lindenb.jvarkit.util.vcf.MergeJoinAnnotationSource;
 
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.AbstractIterator;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.tribble.AsciiFeatureCodec;
@@ -199,6 +205,40 @@ public class EigenInfoAnnotator implements InfoAnnotator
 	private TabixFeatureReader<NonCodingFeature, PositionalBufferedStream> nonCodingFeatureReader = null;
 	private TabixFeatureReader<CodingFeature, PositionalBufferedStream> codingFeatureReader = null;
 	private int prev_contig=-1;
+	/** when streaming: dictionary of the user's VCF */
+	private SAMSequenceDictionary streamingDict = null;
+	/** when streaming: merge-join over the non-coding file of the current contig */
+	private MergeJoinAnnotationSource<NonCodingFeature> nonCodingJoin = null;
+	/** when streaming: merge-join over the whole coding file */
+	private MergeJoinAnnotationSource<CodingFeature> codingJoin = null;
+	
+	/** iterator over all the features of a tab.bgz file */
+	private static class FeatureIterator<T extends AbstractFeature>
+		extends AbstractIterator<T>
+		implements CloseableIterator<T>
+		{
+		private LineIterator lineIter;
+		private final AbstractFeatureCodec<T> codec;
+		FeatureIterator(final File file,final AbstractFeatureCodec<T> codec) throws IOException {
+			this.lineIter = IOUtils.openStreamForLineIterator(new BlockCompressedInputStream(file));
+			this.codec = codec;
+			}
+		@Override
+		protected T advance() {
+			while(this.lineIter!=null && this.lineIter.hasNext())
+				{
+				final T feat = this.codec.decode(this.lineIter.next());
+				if(feat!=null) return feat;
+				}
+			close();
+			return null;
+			}
+		@Override
+		public void close() {
+			CloserUtil.close(this.lineIter);
+			this.lineIter=null;
+			}
+		}
 	
 	
 	public EigenInfoAnnotator(final File dir) {
@@ -274,6 +314,20 @@ public class EigenInfoAnnotator implements InfoAnnotator
 		return tabixPrefix;
 	}
 	
+	/** Don't use tabix random access but read the eigen files in one sorted merge-join pass.
+	 * The variants must be sorted on 'dict', and the eigen files must be sorted the same way.
+	 * @param dict dictionary of the user's VCF or null to use tabix.
+	 */
+	public void setStreamingDictionary(final SAMSequenceDictionary dict) {
+		this.streamingDict = dict;
+	}
+	
+	private File getCodingFile()
+		{
+		if(this.eigenDirectory==null) throw new IllegalStateException("Eigein directory was not defined");
+		return new File(this.eigenDirectory,getTabixPrefix()+"coding_annot_04092016.tab.bgz");
+		}
+	
 	private File getNonCodingFileForContig(final int C)
 		{
 		if(this.eigenDirectory==null) throw new IllegalStateException("Eigein directory was not defined");
@@ -310,39 +364,68 @@ public class EigenInfoAnnotator implements InfoAnnotator
 		if( contig < 1) return Collections.emptyMap();
 	
 		try {
-			if(this.codingFeatureReader == null) {
-				this.codingFeatureReader = new TabixFeatureReader<>(
-						new File(this.eigenDirectory,getTabixPrefix()+"coding_annot_04092016.tab.bgz").getPath(),
-						new CodingFeatureCodec());
-				}
-			
-			if( this.prev_contig==-1 || prev_contig!=contig)
+			final Map<Allele,NonCodingFeature> alt2nonCoding= new HashMap<>();
+			final Map<Allele,CodingFeature> alt2coding= new HashMap<>();
+			if(this.streamingDict!=null)
 				{
-				CloserUtil.close(this.nonCodingFeatureReader);
-				this.nonCodingFeatureReader = new TabixFeatureReader<>(
-						getNonCodingFileForContig(contig).getPath(),
-						new NonCodingFeatureCodec());
-				this.prev_contig = contig;
+				if(this.codingJoin == null) {
+					this.codingJoin = new MergeJoinAnnotationSource<>(
+						new FeatureIterator<>(getCodingFile(), new CodingFeatureCodec()),
+						this.streamingDict
+						);
+					}
+				if( this.prev_contig==-1 || prev_contig!=contig)
+					{
+					CloserUtil.close(this.nonCodingJoin);
+					this.nonCodingJoin = new MergeJoinAnnotationSource<>(
+						new FeatureIterator<>(getNonCodingFileForContig(contig), new NonCodingFeatureCodec()),
+						this.streamingDict
+						);
+					this.prev_contig = contig;
+					}
+				for(final NonCodingFeature feat: this.nonCodingJoin.query(ctx)) {
+					if(!feat.accept(ctx)) continue;
+					alt2nonCoding.put(feat.alt, feat);
+					}
+				for(final CodingFeature feat: this.codingJoin.query(ctx)) {
+					if(!feat.accept(ctx)) continue;
+					alt2coding.put(feat.alt, feat);
+					}
 				}
-			final Map<Allele,NonCodingFeature> alt2nonCoding= new HashMap<>();
-			CloseableTribbleIterator<NonCodingFeature> iter1= this.nonCodingFeatureReader.query(
+			else
+				{
+				if(this.codingFeatureReader == null) {
+					this.codingFeatureReader = new TabixFeatureReader<>(
+							getCodingFile().getPath(),
+							new CodingFeatureCodec());
+					}
+				
+				if( this.prev_contig==-1 || prev_contig!=contig)
+					{
+					CloserUtil.close(this.nonCodingFeatureReader);
+					this.nonCodingFeatureReader = new TabixFeatureReader<>(
+							getNonCodingFileForContig(contig).getPath(),
+							new NonCodingFeatureCodec());
+					this.prev_contig = contig;
+					}
+				CloseableTribbleIterator<NonCodingFeature> iter1= this.nonCodingFeatureReader.query(
+							String.valueOf(contig), ctx.getStart(),ctx.getEnd());
+				while(iter1.hasNext()) {
+					NonCodingFeature feat = iter1.next();
+					if(feat==null || !feat.accept(ctx)) continue;
+					alt2nonCoding.put(feat.alt, feat);
+					}
+				iter1.close();
+				
+				CloseableTribbleIterator<CodingFeature> iter2= this.codingFeatureReader.query(
 						String.valueOf(contig), ctx.getStart(),ctx.getEnd());
-			while(iter1.hasNext()) {
-				NonCodingFeature feat = iter1.next();
-				if(feat==null || !feat.accept(ctx)) continue;
-				alt2nonCoding.put(feat.alt, feat);
-				}
-			iter1.close();
-			
-			final Map<Allele,CodingFeature> alt2coding= new HashMap<>();
-			CloseableTribbleIterator<CodingFeature> iter2= this.codingFeatureReader.query(
-					String.valueOf(contig), ctx.getStart(),ctx.getEnd());
-			while(iter2.hasNext()) {
-				CodingFeature feat = iter2.next();
-				if(feat==null || !feat.accept(ctx)) continue;
-				alt2coding.put(feat.alt, feat);
+				while(iter2.hasNext()) {
+					CodingFeature feat = iter2.next();
+					if(feat==null || !feat.accept(ctx)) continue;
+					alt2coding.put(feat.alt, feat);
+					}
+				iter2.close();
 				}
-			iter2.close();
 			
 			if( alt2nonCoding.isEmpty() && alt2coding.isEmpty() ) return Collections.emptyMap();
 			
@@ -414,8 +497,12 @@ public class EigenInfoAnnotator implements InfoAnnotator
 		prev_contig=-1;
 		CloserUtil.close(this.nonCodingFeatureReader);
 		CloserUtil.close(this.codingFeatureReader);
+		CloserUtil.close(this.nonCodingJoin);
+		CloserUtil.close(this.codingJoin);
 		this.nonCodingFeatureReader=null;
 		this.codingFeatureReader=null;
+		this.nonCodingJoin=null;
+		this.codingJoin=null;
 		
 		}
 	}
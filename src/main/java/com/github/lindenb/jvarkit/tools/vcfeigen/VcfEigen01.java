@@ -47,6 +47,7 @@ import com.github.lindenb.jvarkit.util.vcf.DelegateVariantContextWriter;
 import com.github.lindenb.jvarkit.util.vcf.VariantContextWriterFactory;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 
+import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
@@ -165,6 +166,11 @@ public class VcfEigen01
 				@Override
 				public void writeHeader(final VCFHeader header) {
 					final  VCFHeader h2 = new VCFHeader(header);
+					if(CtxWriterFactory.this.streaming) {
+						final SAMSequenceDictionary dict = header.getSequenceDictionary();
+						if(dict==null || dict.isEmpty()) throw new JvarkitException.DictionaryMissing("A dictionary is required in the input VCF when using the streaming mode");
+						CtxWriterFactory.this.annotator.setStreamingDictionary(dict);
+						}
 					//addMetaData(h2);
 					for(final VCFInfoHeaderLine vihl: CtxWriterFactory.this.annotator.getInfoHeaderLines()) {
 						if(h2.getInfoHeaderLine(vihl.getID())!=null) {
@@ -204,6 +210,12 @@ public class VcfEigen01
 					)
 			@XmlElement(name="prefix")
 			private String tabixFilePrefix = "Eigen_hg19_";
+			
+			@Parameter(names={"--streaming"},
+					description="Don't use tabix random-access (which are ok for small inputs) but read the eigen files and the VCF in one sorted merge-join pass (better to annotate a large WGS file). Assume dictionaries are sorted the same way. The input VCF must have a dictionary."
+					)
+			@XmlElement(name="streaming")
+			private boolean streaming = false;
 
 			
 			@XmlTransient
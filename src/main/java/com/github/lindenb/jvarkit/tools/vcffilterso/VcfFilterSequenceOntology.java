@@ -211,6 +211,9 @@ public class VcfFilterSequenceOntology
 			/* all sequence terms */
 			@XmlTransient
 			private final Set<SequenceOntologyTree.Term> user_terms=new HashSet<SequenceOntologyTree.Term>();
+			/* user_terms as a bitset, built in initialize */
+			@XmlTransient
+			private SequenceOntologyTree.TermMatcher user_terms_matcher = null;
 
 			
 			private class CtxWriter extends DelegateVariantContextWriter
@@ -427,9 +430,7 @@ public class VcfFilterSequenceOntology
 				
 				private boolean hasUserTem(final Set<SequenceOntologyTree.Term> ctxTerms)
 					{
-					return ctxTerms.
-							stream().
-							anyMatch(S->user_terms.contains(S));
+					return user_terms_matcher.testAny(ctxTerms);
 					}
 				private boolean hasUserTemLabel(final Collection<String> ctxTerms)
 					{
@@ -477,6 +478,8 @@ public class VcfFilterSequenceOntology
 						if(reasoning) this.user_terms.addAll(t.getAllDescendants());					
 					});
 				
+				this.user_terms_matcher = this.sequenceOntologyTree.createTermMatcher(this.user_terms, false);
+				
 				if(this.user_terms.isEmpty())
 					{
 					LOG.warn("No SO: term found ");
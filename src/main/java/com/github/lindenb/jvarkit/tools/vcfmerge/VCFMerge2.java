@@ -23,32 +23,48 @@ SOFTWARE.
 
 
 History:
+* 2017 merge of indexed VCFs by chunks in parallel
 * 2015 adapted for knime
 * 2014 creation
 
 */
 package com.github.lindenb.jvarkit.tools.vcfmerge;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import htsjdk.tribble.Tribble;
 import htsjdk.tribble.readers.LineIterator;
 import htsjdk.tribble.readers.LineIteratorImpl;
 import htsjdk.tribble.readers.LineReader;
@@ -60,6 +76,7 @@ import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.AbstractVCFCodec;
+import htsjdk.variant.vcf.VCFEncoder;
 import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderLine;
@@ -67,12 +84,14 @@ import htsjdk.variant.vcf.VCFHeaderLineType;
 import htsjdk.variant.vcf.VCFInfoHeaderLine;
 
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.PeekableIterator;
 import htsjdk.samtools.util.SequenceUtil;
-import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.util.StringUtil;
 
 import com.beust.jcommander.Parameter;
@@ -84,6 +103,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.JvarkitSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
@@ -100,6 +120,19 @@ BEGIN_DOC
 $  find ./ -name "*.vcf.gz" | xargs java -jar dist/vcfmerge.jar   > out.vcf
 ```
 
+When all the VCFs are indexed (tabix or tribble), `--threads` splits the
+dictionary into chunks of `--chunkSize` bases that are merged in parallel.
+The chunks are concatenated in order; the output is BGZF-compressed when its
+name ends with `.vcf.gz`.
+
+Each thread keeps one open reader (and its index) per input VCF, so N VCFs and
+T threads open N*T readers. `--maxOpenReaders` caps this number: the number of
+threads is reduced to `maxOpenReaders/N` (at least one thread).
+
+```bash
+$  find ./ -name "*.vcf.gz" | xargs java -jar dist/vcfmerge.jar --threads 8 -o out.vcf.gz
+```
+
 END_DOC
  */
 @Program(name="vcfmerge",
@@ -130,6 +163,15 @@ public class VCFMerge2
 	@Parameter(names={"-region","--region"},description="Merge in that region: " + IntervalParser.OPT_DESC )
 	private String regionStr = "";
 
+	@Parameter(names={"--threads"},description="Number of threads. When greater than 0 and all the VCFs are indexed (tabix or tribble), the dictionary is split into chunks of '--chunkSize' bases that are merged in parallel and written in order. Each thread keeps one reader per VCF (see --maxOpenReaders). The output is BGZF-compressed if its name ends with '.vcf.gz'. 0: read the VCFs sequentially.")
+	private int nThreads = 0;
+
+	@Parameter(names={"--chunkSize"},description="Size of the chunks merged by each thread when '--threads' is greater than 0. The merged variants of a chunk are written in a temporary file (see --tmpDir) until they are printed.")
+	private int chunkSize = 1_000_000;
+
+	@Parameter(names={"--maxOpenReaders"},description="When '--threads' is greater than 0, maximum number of VCF readers opened at the same time. Each thread keeps one reader per VCF, so the number of threads is reduced to maxOpenReaders/(number of VCFs), at least one.")
+	private int maxOpenReaders = 1_000;
+
 	
 	@ParametersDelegate
 	private WritingSortingCollection writingSortingCollection = new WritingSortingCollection();
@@ -265,20 +307,7 @@ public class VCFMerge2
 			final List<VariantContext> L = new ArrayList<>(row.size());
 			for(final VariantOfFile vof:row)
 				{
-				final VariantContext ctx = vof.parse();
-				final VariantContextBuilder vcb=new VariantContextBuilder(ctx);
-				final List<Genotype> genotypes = new ArrayList<>(ctx.getGenotypes());
-				final Set<String> remainingSamples=new HashSet<String>(header.getSampleNamesInOrder());
-				remainingSamples.removeAll(ctx.getSampleNames());
-				for(String sampleName:remainingSamples)
-					{
-					genotypes.add(createMissingGenotype(sampleName,ctx.getReference()));
-					}
-				vcb.genotypes(genotypes);
-				vcb.attribute(NO_MERGE_INFO_HEADER.getID(),
-						VCFUtils.escapeInfoField(this.vcfHandlers.get(vof.fileIndex).origin)
-						);
-				L.add(vcb.make());
+				L.add(buildUnmergedContext(header, vof.parse(), this.vcfHandlers.get(vof.fileIndex).origin));
 				}
 			return L;
 			}
@@ -289,6 +318,28 @@ public class VCFMerge2
 		return buildContextFromVariantContext(header,row2);
 		}
 	
+	/** one variant of the row when the lines are not merged */
+	private VariantContext buildUnmergedContext(
+			final VCFHeader header,
+			final VariantContext ctx,
+			final String origin
+			)
+		{
+		final VariantContextBuilder vcb=new VariantContextBuilder(ctx);
+		final List<Genotype> genotypes = new ArrayList<>(ctx.getGenotypes());
+		final Set<String> remainingSamples=new HashSet<String>(header.getSampleNamesInOrder());
+		remainingSamples.removeAll(ctx.getSampleNames());
+		for(String sampleName:remainingSamples)
+			{
+			genotypes.add(createMissingGenotype(sampleName,ctx.getReference()));
+			}
+		vcb.genotypes(genotypes);
+		vcb.attribute(NO_MERGE_INFO_HEADER.getID(),
+				VCFUtils.escapeInfoField(origin)
+				);
+		return vcb.make();
+		}
+	
 	private Genotype createMissingGenotype(final String sampleName,final Allele ref)
 		{
 		if(this.useHomRefForUnknown)
@@ -392,6 +443,10 @@ public class VCFMerge2
 				in.close();
 				in=null;
 				}
+			else if(this.nThreads>0 && allFilesAreIndexed())
+				{
+				return workUsingChunks();
+				}
 			else
 				{
 				return workUsingPeekOrSorting();
@@ -669,19 +724,17 @@ public class VCFMerge2
 	private int workUsingSortingCollection() 
 		{
 		VariantContextWriter w=null;
-		SortingCollection<VariantOfFile> array = null;
+		JvarkitSortingCollection<VariantOfFile> array = null;
 		InputStream in = null;
 		CloseableIterator<VariantOfFile> iter=null;
 			try {
 			final List<String> IN=new ArrayList<String>(this.userVcfFiles);
 			final Set<String> genotypeSampleNames=new TreeSet<String>();
 			final Set<VCFHeaderLine> metaData=new HashSet<VCFHeaderLine>();
-			array= SortingCollection.newInstance(
+			array= this.writingSortingCollection.make(
 					VariantOfFile.class,
 					new VariantCodec(),
-					new VariantComparator(),
-					this.writingSortingCollection.getMaxRecordsInRam(),
-					this.writingSortingCollection.getTmpDirectories()
+					new VariantComparator()
 					);
 			array.setDestructiveIteration(true);
 			
@@ -813,6 +866,431 @@ public class VCFMerge2
 			}
 		}
 
+	/** returns true if all the input VCFs have a tabix or a tribble index */
+	private boolean allFilesAreIndexed()
+		{
+		for(final String uri:this.userVcfFiles)
+			{
+			final File file = new File(uri);
+			if(!file.exists() || (!Tribble.indexFile(file).exists() && !Tribble.tabixIndexFile(file).exists()))
+				{
+				LOG.warn("No index for "+uri+". Option --threads is ignored.");
+				return false;
+				}
+			}
+		return true;
+		}
+	
+	/** a chunk of the genome merged by one thread */
+	private static class Chunk
+		{
+		final String contig;
+		final int start;
+		final int end;
+		/** true if the variants starting before 'start' and overlapping the chunk belong to this chunk */
+		final boolean acceptBefore;
+		Chunk(final String contig,final int start,final int end,final boolean acceptBefore)
+			{
+			this.contig = contig;
+			this.start = start;
+			this.end = end;
+			this.acceptBefore = acceptBefore;
+			}
+		/** a variant belongs to the chunk containing its start, so it is merged only once */
+		boolean accept(final VariantContext ctx)
+			{
+			return ctx.getStart()<=this.end && (this.acceptBefore || ctx.getStart()>=this.start);
+			}
+		}
+	
+	/** per-thread readers used when the chunks are merged in parallel */
+	private static class ChunkResources
+		{
+		final List<VCFFileReader> readers = new ArrayList<>();
+		ChunkResources(final List<String> uris)
+			{
+			try
+				{
+				for(final String uri:uris) this.readers.add(new VCFFileReader(new File(uri),true));
+				}
+			catch(final RuntimeException err)
+				{
+				close();
+				throw err;
+				}
+			}
+		void close()
+			{
+			for(final VCFFileReader r:this.readers) CloserUtil.close(r);
+			}
+		}
+	
+	/** variants of one VCF in one chunk, grouped by position like PeekVCF. Each line is decoded once. */
+	private class ChunkCursor
+		{
+		final int fileIndex;
+		final String origin;
+		final Chunk chunk;
+		final PeekableIterator<VariantContext> iter;
+		/** variants at the current position, sorted on REF */
+		final List<VariantContext> buffer = new ArrayList<>();
+		
+		ChunkCursor(final int fileIndex,final String origin,final VCFFileReader reader,final Chunk chunk)
+			{
+			this.fileIndex = fileIndex;
+			this.origin = origin;
+			this.chunk = chunk;
+			this.iter = new PeekableIterator<>(reader.query(chunk.contig, chunk.start, chunk.end));
+			}
+		
+		/** fills the buffer with the variants of the next position. Returns false at the end of the chunk */
+		boolean fill()
+			{
+			if(!this.buffer.isEmpty()) return true;
+			while(this.iter.hasNext())
+				{
+				final VariantContext ctx = this.iter.peek();
+				if(!this.chunk.accept(ctx))
+					{
+					this.iter.next();
+					continue;
+					}
+				if(this.buffer.isEmpty())
+					{
+					this.buffer.add(this.iter.next());
+					continue;
+					}
+				final int i = VCFMerge2.this.compareChromPos.compare(ctx, this.buffer.get(0));
+				if( i< 0) {
+					throw new JvarkitException.UserError("Variant are not sorted! got: "+ctx+" after "+buffer.get(0));
+					}
+				else if(i > 0)
+					{
+					break;
+					}
+				this.buffer.add(this.iter.next());
+				}
+			Collections.sort(this.buffer, VCFMerge2.this.compareChromPosRef);
+			return !this.buffer.isEmpty();
+			}
+		
+		VariantContext head()
+			{
+			return this.buffer.get(0);
+			}
+		
+		/** moves the variants having the same CHROM/POS/REF as 'key' to 'row' */
+		void drain(final VariantContext key,final List<VariantContext> row)
+			{
+			while(!this.buffer.isEmpty() && VCFMerge2.this.compareChromPosRef.compare(this.buffer.get(0), key)==0)
+				{
+				row.add(this.buffer.remove(0));
+				}
+			}
+		
+		void close()
+			{
+			this.iter.close();
+			}
+		}
+	
+	/** BGZF-compresses 'plain' without the terminator block, so it can be concatenated with the chunks */
+	private static byte[] compressBgzf(final byte plain[]) throws IOException
+		{
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(plain.length/4+1);
+		final BlockCompressedOutputStream bcos = new BlockCompressedOutputStream(baos,(File)null);
+		bcos.write(plain);
+		bcos.close();
+		final byte array[] = baos.toByteArray();
+		final byte eof[] = BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK;
+		if(array.length>=eof.length &&
+			Arrays.equals(Arrays.copyOfRange(array, array.length-eof.length, array.length), eof))
+			{
+			return Arrays.copyOf(array, array.length-eof.length);
+			}
+		return array;
+		}
+	
+	/** copies a temporary file of mergeChunk to 'out', without the BGZF terminator block, and deletes it */
+	private static void appendChunk(final File tmpFile,final boolean bgzf,final OutputStream out) throws IOException
+		{
+		final byte eof[] = BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK;
+		long remain = tmpFile.length();
+		final byte buffer[] = new byte[1<<16];
+		try(final RandomAccessFile in = new RandomAccessFile(tmpFile, "r"))
+			{
+			if(bgzf && remain>=eof.length)
+				{
+				final byte tail[] = new byte[eof.length];
+				in.seek(remain-eof.length);
+				in.readFully(tail);
+				if(Arrays.equals(tail, eof)) remain -= eof.length;
+				in.seek(0L);
+				}
+			while(remain>0L)
+				{
+				final int n = in.read(buffer, 0, (int)Math.min(buffer.length, remain));
+				if(n==-1) throw new IOException("unexpected end of file "+tmpFile);
+				out.write(buffer, 0, n);
+				remain -= n;
+				}
+			}
+		Files.delete(tmpFile.toPath());
+		}
+	
+	/** merges the variants of one chunk with a heap of cursors, returns a temporary file containing the VCF lines, BGZF-compressed if 'bgzf' */
+	private File mergeChunk(
+			final ChunkResources resources,
+			final List<String> uris,
+			final Chunk chunk,
+			final VCFHeader header,
+			final boolean bgzf
+			) throws IOException
+		{
+		final VCFEncoder encoder = new VCFEncoder(header, false, false);
+		final File tmpFile = File.createTempFile("vcfmerge.", ".chunk", this.writingSortingCollection.getTmpDirectories().get(0));
+		final List<ChunkCursor> cursors = new ArrayList<>(uris.size());
+		Writer w = null;
+		try
+			{
+			w = new BufferedWriter(new OutputStreamWriter(
+					bgzf?new BlockCompressedOutputStream(tmpFile):Files.newOutputStream(tmpFile.toPath()),
+					VCFEncoder.VCF_CHARSET
+					));
+			final PriorityQueue<ChunkCursor> queue = new PriorityQueue<>(
+				Math.max(1, uris.size()),
+				(A,B)->{
+					final int i = this.compareChromPosRef.compare(A.head(), B.head());
+					if(i!=0) return i;
+					return Integer.compare(A.fileIndex, B.fileIndex);
+					});
+			for(int i=0;i< uris.size();++i)
+				{
+				final ChunkCursor cursor = new ChunkCursor(i, uris.get(i), resources.readers.get(i), chunk);
+				cursors.add(cursor);
+				if(cursor.fill()) queue.add(cursor);
+				}
+			final List<ChunkCursor> active = new ArrayList<>();
+			final List<VariantContext> row = new ArrayList<>();
+			while(!queue.isEmpty())
+				{
+				/* the row is filled in the order of the files, like workUsingPeekIterator */
+				active.clear();
+				row.clear();
+				active.add(queue.poll());
+				final VariantContext key = active.get(0).head();
+				while(!queue.isEmpty() && this.compareChromPosRef.compare(queue.peek().head(), key)==0)
+					{
+					active.add(queue.poll());
+					}
+				for(final ChunkCursor cursor:active)
+					{
+					final int n = row.size();
+					cursor.drain(key, row);
+					if(this.doNotMergeRowLines)
+						{
+						for(int j=n;j< row.size();++j)
+							{
+							w.write(encoder.encode(buildUnmergedContext(header, row.get(j), cursor.origin)));
+							w.write('\n');
+							}
+						}
+					if(cursor.fill()) queue.add(cursor);
+					}
+				if(!this.doNotMergeRowLines)
+					{
+					for(final VariantContext merged: buildContextFromVariantContext(header, row))
+						{
+						w.write(encoder.encode(merged));
+						w.write('\n');
+						}
+					}
+				}
+			w.close();
+			w = null;
+			return tmpFile;
+			}
+		catch(final IOException|RuntimeException err)
+			{
+			CloserUtil.close(w);
+			w = null;
+			Files.deleteIfExists(tmpFile.toPath());
+			throw err;
+			}
+		finally
+			{
+			CloserUtil.close(w);
+			for(final ChunkCursor cursor:cursors) cursor.close();
+			}
+		}
+	
+	/** merge the chunks in parallel, the chunks are written in order */
+	private void mergeChunks(
+			final List<String> uris,
+			final List<Chunk> chunks,
+			final VCFHeader header,
+			final boolean bgzf,
+			final OutputStream out
+			) throws Exception
+		{
+		final List<ChunkResources> allResources = Collections.synchronizedList(new ArrayList<>());
+		final ThreadLocal<ChunkResources> threadResources = ThreadLocal.withInitial(()->{
+			final ChunkResources r = new ChunkResources(uris);
+			allResources.add(r);
+			return r;
+			});
+		/* each thread opens all the VCFs */
+		final int nWorkers = Math.max(1, Math.min(this.nThreads, this.maxOpenReaders/uris.size()));
+		if(nWorkers < this.nThreads)
+			{
+			LOG.warn("Using "+nWorkers+" thread(s) instead of "+this.nThreads+" to keep at most "+this.maxOpenReaders+" readers opened on "+uris.size()+" VCFs (see --maxOpenReaders).");
+			}
+		final ExecutorService executor = Executors.newFixedThreadPool(nWorkers);
+		final Deque<Future<File>> pending = new ArrayDeque<>();
+		try
+			{
+			final SAMSequenceDictionaryProgress progress = new SAMSequenceDictionaryProgress(this.global_dictionary);
+			for(final Chunk chunk:chunks)
+				{
+				pending.add(executor.submit(()->mergeChunk(threadResources.get(), uris, chunk, header, bgzf)));
+				/* keep a bounded number of temporary files */
+				while(pending.size() > nWorkers)
+					{
+					appendChunk(pending.removeFirst().get(), bgzf, out);
+					}
+				progress.watch(chunk.contig, chunk.start);
+				}
+			while(!pending.isEmpty())
+				{
+				appendChunk(pending.removeFirst().get(), bgzf, out);
+				}
+			progress.finish();
+			}
+		finally
+			{
+			for(final Future<File> f:pending) f.cancel(true);
+			executor.shutdownNow();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+			/* remove the temporary files that were not printed */
+			for(final Future<File> f:pending)
+				{
+				if(!f.isDone() || f.isCancelled()) continue;
+				try
+					{
+					Files.deleteIfExists(f.get().toPath());
+					}
+				catch(final Exception err)
+					{
+					LOG.warn(err);
+					}
+				}
+			for(final ChunkResources r:allResources) r.close();
+			}
+		}
+	
+	/** merge indexed VCFs: the dictionary is split into chunks merged in parallel */
+	private int workUsingChunks()
+		{
+		OutputStream out = null;
+		try {
+			if(this.chunkSize<1)
+				{
+				LOG.error("bad chunk size "+this.chunkSize);
+				return -1;
+				}
+			final List<String> uris = new ArrayList<>(this.userVcfFiles);
+			final Set<String> genotypeSampleNames=new TreeSet<String>();
+			final Set<VCFHeaderLine> metaData=new HashSet<VCFHeaderLine>();
+			
+			//get all VCF, check same dict
+			for(final String uri:uris)
+				{
+				LOG.info("Opening "+uri);
+				final VCFFileReader r = new VCFFileReader(new File(uri),true);
+				final VCFHeader header = r.getFileHeader();
+				r.close();
+				genotypeSampleNames.addAll(header.getSampleNamesInOrder());
+				metaData.addAll(header.getMetaDataInInputOrder());
+				if(this.global_dictionary==null)
+					{
+					this.global_dictionary=header.getSequenceDictionary();
+					}
+				else if(!SequenceUtil.areSequenceDictionariesEqual(this.global_dictionary, header.getSequenceDictionary()))
+					{
+					throw new JvarkitException.DictionariesAreNotTheSame(this.global_dictionary, header.getSequenceDictionary());
+					}
+				}
+			if(this.global_dictionary==null)
+				{
+				throw new IllegalStateException("No Dict");
+				}
+			if(this.doNotMergeRowLines)
+				{
+				metaData.add(NO_MERGE_INFO_HEADER);
+				}
+			final VCFHeader headerOut=new VCFHeader(
+					metaData,
+					genotypeSampleNames
+					);
+			
+			/* split the dictionary or the region into chunks */
+			final List<Chunk> chunks = new ArrayList<>();
+			if(!StringUtil.isBlank(this.regionStr))
+				{
+				final IntervalParser intervalParser=new IntervalParser(this.global_dictionary);
+				intervalParser.setContigNameIsWholeContig(true);
+				final Interval rgn = intervalParser.parse(this.regionStr);
+				for(int start=rgn.getStart();start<=rgn.getEnd();start+=this.chunkSize)
+					{
+					chunks.add(new Chunk(rgn.getContig(), start,
+						(int)Math.min((long)rgn.getEnd(), (long)start+this.chunkSize-1L),
+						start==rgn.getStart()));
+					}
+				}
+			else
+				{
+				for(final SAMSequenceRecord ssr:this.global_dictionary.getSequences())
+					{
+					for(int start=1;start<=ssr.getSequenceLength();start+=this.chunkSize)
+						{
+						chunks.add(new Chunk(ssr.getSequenceName(), start,
+							(int)Math.min((long)ssr.getSequenceLength(), (long)start+this.chunkSize-1L),
+							start==1));
+						}
+					}
+				}
+			
+			/* BGZF blocks can be concatenated: the chunks are compressed by the threads */
+			final boolean bgzf = this.outputFile!=null && this.outputFile.getName().endsWith(".vcf.gz");
+			out = (bgzf?
+					Files.newOutputStream(this.outputFile.toPath()):
+					super.openFileOrStdoutAsStream(this.outputFile)
+					);
+			final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+			final VariantContextWriter headerWriter = VCFUtils.createVariantContextWriterToOutputStream(headerBytes);
+			headerWriter.writeHeader(headerOut);
+			headerWriter.close();
+			out.write(bgzf?compressBgzf(headerBytes.toByteArray()):headerBytes.toByteArray());
+			
+			mergeChunks(uris, chunks, headerOut, bgzf, out);
+			
+			if(bgzf) out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+			out.flush();
+			out.close();
+			out=null;
+			LOG.info("Done merging "+chunks.size()+" chunks");
+			return RETURN_OK;
+			}
+		catch(final Exception err) {
+			LOG.error(err);
+			return -1;
+		}
+		finally
+			{
+			CloserUtil.close(out);
+			}
+		}
+
 	public static void main(final String[] args)
 		{
 		new VCFMerge2().instanceMainWithExit(args);
@@ -0,0 +1,257 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.tools.vcfserver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.jcommander.Program;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.util.CloserUtil;
+
+/**
+
+BEGIN_DOC
+
+## Input
+
+A query log: one query per line. A line is either
+
+  * a full URL: `http://localhost:8080/?vcf=0&rgn=chr1:1-1000`
+  * a path or a query string, appended to `--base`: `/?vcf=0&rgn=chr1:1-1000` or `vcf=0&rgn=chr1:1-1000`
+  * a line of a NCSA access log containing `"GET /?vcf=0&rgn=chr1:1-1000 HTTP/1.1"`
+
+Empty lines and lines starting with '#' are ignored.
+
+## Output
+
+One line of tab-delimited statistics: number of requests, errors (status != 200), time, requests per second
+and the latency in milliseconds.
+
+## Example
+
+```
+$ java -jar dist/vcfserver.jar --threads 50 input.vcf.gz &
+$ java -jar dist/serverqueryreplay.jar -t 20 -n 5 queries.txt
+#requests	errors	seconds	requests/sec	mean.ms	p50.ms	p95.ms	p99.ms	max.ms
+500	0	3.211	155.71	125.9	110	240	305	411
+```
+
+END_DOC
+
+**/
+@Program(name="serverqueryreplay",
+	description="Replays a log of queries against a running vcfserver or tviewserver and prints the latencies. A load-test for the servers.",
+	keywords={"server","web","benchmark"}
+	)
+public class ServerQueryReplay extends Launcher
+	{
+	private static final Logger LOG = Logger.build(ServerQueryReplay.class).make();
+
+	@Parameter(names={"-o","--out"},description=OPT_OUPUT_FILE_OR_STDOUT)
+	private File outputFile = null;
+	@Parameter(names={"-u","--base"},description="Base URL of the server. Relative queries are appended to this URL.")
+	private String baseUrl = "http://localhost:8080/";
+	@Parameter(names={"-t","--threads"},description="Number of concurrent clients.")
+	private int nThreads = 4;
+	@Parameter(names={"-n","--repeat"},description="Number of times the query log is replayed.")
+	private int repeat = 1;
+	@Parameter(names={"--timeout"},description="Connect and read timeout, in seconds.")
+	private int timeout_seconds = 60;
+
+	/** convert a line of the log to a URL, returns null if the line must be ignored */
+	private String toUrl(final String line)
+		{
+		String s = line.trim();
+		if(s.isEmpty() || s.startsWith("#")) return null;
+		if(s.startsWith("http://") || s.startsWith("https://")) return s;
+		final int get = s.indexOf("\"GET ");
+		if(get!=-1)
+			{
+			s = s.substring(get+5);
+			final int space = s.indexOf(' ');
+			if(space!=-1) s = s.substring(0, space);
+			final int quote = s.indexOf('\"');
+			if(quote!=-1) s = s.substring(0, quote);
+			}
+		String base = this.baseUrl;
+		while(base.endsWith("/")) base = base.substring(0, base.length()-1);
+		if(s.startsWith("/")) return base + s;
+		if(s.startsWith("?")) return base + "/" + s;
+		return base + "/?" + s;
+		}
+
+	/** run one query, returns the HTTP status */
+	private int query(final String url) throws Exception
+		{
+		final byte buffer[] = new byte[8192];
+		final HttpURLConnection con = (HttpURLConnection)new URL(url).openConnection();
+		InputStream in = null;
+		try
+			{
+			con.setConnectTimeout(this.timeout_seconds*1000);
+			con.setReadTimeout(this.timeout_seconds*1000);
+			final int status = con.getResponseCode();
+			in = (status>=400?con.getErrorStream():con.getInputStream());
+			if(in!=null) while(in.read(buffer)!=-1);
+			return status;
+			}
+		finally
+			{
+			CloserUtil.close(in);
+			}
+		}
+
+	@Override
+	public int doWork(final List<String> args)
+		{
+		if(this.nThreads<1 || this.repeat<1)
+			{
+			LOG.error("bad number of threads or repeat");
+			return -1;
+			}
+		BufferedReader r = null;
+		PrintWriter out = null;
+		ExecutorService executor = null;
+		try
+			{
+			final List<String> urls = new ArrayList<>();
+			r = super.openBufferedReader(oneFileOrNull(args));
+			String line;
+			while((line=r.readLine())!=null)
+				{
+				final String url = toUrl(line);
+				if(url!=null) urls.add(url);
+				}
+			r.close();
+			r = null;
+			if(urls.isEmpty())
+				{
+				LOG.error("no query found");
+				return -1;
+				}
+
+			final int nQueries = urls.size()*this.repeat;
+			final long latencies[] = new long[nQueries];
+			final AtomicInteger nErrors = new AtomicInteger(0);
+			executor = Executors.newFixedThreadPool(this.nThreads);
+			final long start = System.nanoTime();
+			for(int i=0;i< nQueries;++i)
+				{
+				final int index = i;
+				final String url = urls.get(i%urls.size());
+				executor.execute(()->{
+					final long t0 = System.nanoTime();
+					try
+						{
+						final int status = query(url);
+						if(status!=HttpURLConnection.HTTP_OK)
+							{
+							LOG.warn("status "+status+" for "+url);
+							nErrors.incrementAndGet();
+							}
+						}
+					catch(final Exception err)
+						{
+						LOG.warn("cannot query "+url+" : "+err.getMessage());
+						nErrors.incrementAndGet();
+						}
+					latencies[index] = System.nanoTime()-t0;
+					});
+				}
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+			executor = null;
+			final double seconds = (System.nanoTime()-start)/1.0E9;
+
+			Arrays.sort(latencies);
+			double mean = 0;
+			for(final long t:latencies) mean += t/1.0E6;
+			mean /= nQueries;
+
+			out = super.openFileOrStdoutAsPrintWriter(this.outputFile);
+			out.println(String.join("\t",
+				"#requests","errors","seconds","requests/sec",
+				"mean.ms","p50.ms","p95.ms","p99.ms","max.ms"
+				));
+			out.println(String.join("\t",
+				String.valueOf(nQueries),
+				String.valueOf(nErrors.get()),
+				String.format("%.3f",seconds),
+				String.format("%.2f",nQueries/seconds),
+				String.format("%.1f",mean),
+				String.valueOf(percentile(latencies,0.50)),
+				String.valueOf(percentile(latencies,0.95)),
+				String.valueOf(percentile(latencies,0.99)),
+				String.valueOf(latencies[nQueries-1]/1_000_000L)
+				));
+			out.flush();
+			out.close();
+			out = null;
+			return nErrors.get()==0?0:-1;
+			}
+		catch(final Exception err)
+			{
+			LOG.error(err);
+			return -1;
+			}
+		finally
+			{
+			if(executor!=null) executor.shutdownNow();
+			CloserUtil.close(r);
+			CloserUtil.close(out);
+			}
+		}
+
+	/** percentile of the sorted latencies, in milliseconds */
+	private static long percentile(final long sorted[],final double p)
+		{
+		final int idx = (int)Math.ceil(p*sorted.length)-1;
+		return sorted[Math.max(0,Math.min(sorted.length-1, idx))]/1_000_000L;
+		}
+
+	public static void main(final String[] args)
+		{
+		new ServerQueryReplay().instanceMainWithExit(args);
+		}
+	}
@@ -22,6 +22,10 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
 
 
+History:
+* 2017 creation
+* 2017 pool of readers, cache of regions, number of threads
+
 */
 package com.github.lindenb.jvarkit.tools.vcfserver;
 
@@ -34,6 +38,7 @@ import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.function.Predicate;
@@ -46,13 +51,17 @@ import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.server.handler.HandlerList;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.beust.jcommander.Parameter;
-import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.io.CappedBufferOutputStream;
 import com.github.lindenb.jvarkit.tools.misc.VcfToTable;
+import com.github.lindenb.jvarkit.util.LRUCache;
 import com.github.lindenb.jvarkit.util.Pedigree;
+import com.github.lindenb.jvarkit.util.ReaderPool;
 import com.github.lindenb.jvarkit.util.bio.IntervalParser;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
@@ -106,6 +115,14 @@ $ java -jar dist/vcfserver.jar input.vcf.gz
 
 ```
 
+## Concurrent users
+
+The indexed VCF readers are kept open in a pool (`--pool` readers per VCF) so the
+index is not loaded again for each query. The last rendered regions are kept in memory
+(`--cache`). The number of worker threads of the server is set with `--threads`.
+
+A query log can be replayed against a running server with `serverqueryreplay`.
+
 
 END_DOC
 
@@ -127,6 +144,8 @@ private static final String HIDE_NOCALL_PARAM="nc";
 private static final String HIDE_HOMREF_PARAM="hr";
 private static final String HIDE_GENOTYPES_PARAM="gt";
 private static final String TEXT_FORMAT_PARAM="txt";
+/** rendered regions larger than this are not cached */
+private static final int MAX_CACHED_BYTES = 1_000_000;
 
 @Parameter(names={"-p","--ped","--pedigree"},description="Optional Pedigree file:"+Pedigree.OPT_DESCRIPTION)
 private File pedigreeFile=null;
@@ -138,6 +157,25 @@ private long timeout_seconds =60;
 private boolean use_jexl = false;
 @Parameter(names={"--url"},description=Launcher.USER_CUSTOM_INTERVAL_URL_DESC)
 private String userCustomUrl=null;
+@Parameter(names={"--threads"},description="Max number of server worker threads. Must be large enough for the acceptors and the selectors of the server (e.g. >= 8). 0 = server default.")
+private int numThreads=0;
+@Parameter(names={"--pool"},description="Max number of opened readers per VCF file. Concurrent queries on the same VCF wait for a free reader.")
+private int readersPerFile=4;
+@Parameter(names={"--cache"},description="Number of rendered regions kept in memory. 0 = no cache.")
+private int cacheSize=100;
+
+/** a rendered table of variants */
+private static class RegionResult
+	{
+	final byte content[];
+	/** limit was reached */
+	final boolean hasMore;
+	RegionResult(final byte content[],final boolean hasMore)
+		{
+		this.content = content;
+		this.hasMore = hasMore;
+		}
+	}
 
 /** used to escape the text output in pre tag */
 private static class EscapeXmlOutputStream
@@ -182,11 +220,14 @@ private static class EscapeXmlOutputStream
 private class ViewVcfHandler extends AbstractHandler
 	{
 	private final List<File> vcfFiles;
-	
+	private final ReaderPool<ReaderPool.FileKey,VCFFileReader> readerPool;
+	private final LRUCache<List<Object>,RegionResult> regionCache;
 	
 	ViewVcfHandler(final List<File> vcfFiles)
 		{
 		this.vcfFiles = vcfFiles;
+		this.readerPool = new ReaderPool<>(K->new VCFFileReader(K.getFile(), true),Math.max(1,VcfServer.this.readersPerFile));
+		this.regionCache = new LRUCache<>(VcfServer.this.cacheSize);
 		}
 	
 	private abstract class DelegateHandler implements Closeable
@@ -588,6 +629,47 @@ private class ViewVcfHandler extends AbstractHandler
 			final String rgn=request.getParameter(REGION_PARAM);
 			return StringUtil.isBlank(rgn)?"No Region specified":rgn;
 			}
+		
+		private void writeTableBegin(final boolean text_output) throws XMLStreamException
+			{
+			this.writer.writeComment("BEGIN-TABLE");
+			this.writer.writeCharacters("");
+			if(text_output) {
+				this.writer.writeStartElement("pre");
+				this.writer.writeCharacters("");
+				}
+			this.flush();
+			}
+		
+		private void writeTableEnd(final boolean text_output,final boolean hasMore,final boolean timeout_flag) throws XMLStreamException
+			{
+			if(text_output)
+				{
+				this.writer.writeCharacters("");
+				this.writer.writeEndElement();//pre
+				}
+			if(hasMore)
+				{
+				this.writer.writeStartElement("p");
+				this.writer.writeAttribute("class", "error");
+				this.writer.writeCharacters("WARNING: there are more variants but limit was reached.");
+				this.writer.writeEndElement();
+				this.writer.flush();
+				}
+			
+			if(timeout_flag)
+				{
+				this.writer.writeStartElement("p");
+				this.writer.writeAttribute("class", "error");
+				this.writer.writeCharacters("Time out reached!");
+				this.writer.writeEndElement();
+				this.writer.flush();
+				}
+			
+			this.writer.writeComment("END-TABLE");
+			this.flush();
+			}
+		
 		@Override
 		void writeHtmlBody() throws XMLStreamException {
 			final String rgn_str=request.getParameter(REGION_PARAM);
@@ -596,12 +678,61 @@ private class ViewVcfHandler extends AbstractHandler
 			writer.writeEmptyElement("hr");
 			flush();
 			
+			final String js_str= (VcfServer.this.use_jexl ?null:this.request.getParameter(JAVASCRIPT_PARAM));
+			final String jexl_str= (VcfServer.this.use_jexl ?this.request.getParameter(JEXL_PARAM):null);
+			final boolean text_output= "true".equals(this.request.getParameter(TEXT_FORMAT_PARAM));
+			int limit=DEFAULT_LIMIT;
+			final String limit_str = request.getParameter(LIMIT_PARAM);
+			try {
+				limit=StringUtil.isBlank(limit_str)?
+					DEFAULT_LIMIT:
+					Integer.parseInt(limit_str)
+					;
+				}
+			catch(NumberFormatException err)
+				{
+				limit=DEFAULT_LIMIT;
+				}
+			
+			final ReaderPool.FileKey poolKey = getOwner().getPoolKey(vcfFile);
+			/* everything that changes the rendered table. The region is the string
+			 * of the user, so a cached table is found without reading the VCF */
+			final List<Object> cacheKey = Arrays.asList(
+				poolKey,
+				StringUtil.isBlank(rgn_str)?"":rgn_str.trim(),
+				StringUtil.isBlank(js_str)?"":js_str,
+				StringUtil.isBlank(jexl_str)?"":jexl_str,
+				text_output,
+				limit,
+				"true".equals(this.request.getParameter(SHOW_HEADER_PARAM)),
+				"true".equals(this.request.getParameter(HIDE_GENOTYPES_PARAM)),
+				"true".equals(this.request.getParameter(HIDE_HOMREF_PARAM)),
+				"true".equals(this.request.getParameter(HIDE_NOCALL_PARAM))
+				);
+			final RegionResult cached = getOwner().regionCache.get(cacheKey);
+			if(cached!=null)
+				{
+				try
+					{
+					writeTableBegin(text_output);
+					this.response.getOutputStream().write(cached.content);
+					this.response.getOutputStream().flush();
+					writeTableEnd(text_output, cached.hasMore, false);
+					}
+				catch(final Exception err)
+					{
+					super.writeException(err);
+					}
+				return;
+				}
 			
+			final ReaderPool<ReaderPool.FileKey,VCFFileReader> pool = getOwner().readerPool;
 			VCFFileReader reader=null;
+			boolean reader_error=false;
 			CloseableIterator<VariantContext> iter=null;
 			try
 				{
-				reader = new VCFFileReader(vcfFile, true);
+				reader = pool.borrow(poolKey);
 				final VCFHeader header = reader.getFileHeader();
 				if(header==null)
 					{
@@ -630,9 +761,6 @@ private class ViewVcfHandler extends AbstractHandler
 					interval = null;
 					}
 				final Predicate<VariantContext> variantPredicate;
-				final String js_str= (VcfServer.this.use_jexl ?null:this.request.getParameter(JAVASCRIPT_PARAM));
-				final String jexl_str= (VcfServer.this.use_jexl ?this.request.getParameter(JEXL_PARAM):null);
-
 				if(!StringUtil.isBlank(jexl_str) && VcfServer.this.use_jexl)
 					{
 				
@@ -669,18 +797,13 @@ private class ViewVcfHandler extends AbstractHandler
 					{
 					variantPredicate =  (V)->true;
 					}
-				this.writer.writeComment("BEGIN-TABLE");
-				this.writer.writeCharacters("");
-				
-				final boolean text_output= "true".equals(this.request.getParameter(TEXT_FORMAT_PARAM));
-
-				if(text_output) {
-					this.writer.writeStartElement("pre");
-					this.writer.writeCharacters("");
-					}
-				this.flush();
-				
+				writeTableBegin(text_output);
 				
+				/* small tables are kept in memory and cached, larger tables are streamed */
+				final CappedBufferOutputStream buffer = new CappedBufferOutputStream(
+						this.response.getOutputStream(),
+						VcfServer.this.cacheSize>0?MAX_CACHED_BYTES:0
+						);
 				final VcfToTable.VcfToTableViewer vcfToTable=new VcfToTable.VcfToTableViewer();
 				vcfToTable.setOutputFormat(text_output?
 						VcfToTable.OutputFormat.text:
@@ -688,7 +811,7 @@ private class ViewVcfHandler extends AbstractHandler
 						);
 				final PrintStream newOut= new PrintStream(
 						new EscapeXmlOutputStream(
-						IOUtils.uncloseableOutputStream(this.response.getOutputStream()),
+						buffer,
 						text_output
 						));
 				vcfToTable.setOutputStream(newOut);
@@ -713,18 +836,6 @@ private class ViewVcfHandler extends AbstractHandler
 					{
 					iter = reader.query(interval.getContig(), interval.getStart(), interval.getEnd());
 					}
-				int limit=DEFAULT_LIMIT;
-				final String limit_str = request.getParameter(LIMIT_PARAM);
-				try {
-					limit=StringUtil.isBlank(limit_str)?
-						DEFAULT_LIMIT:
-						Integer.parseInt(limit_str)
-						;
-					}
-				catch(NumberFormatException err)
-					{
-					limit=DEFAULT_LIMIT;
-					}
 				final long start_millisec = System.currentTimeMillis();
 				boolean timeout_flag = false;
 				while(iter!=null && iter.hasNext() && limit>0)
@@ -748,45 +859,56 @@ private class ViewVcfHandler extends AbstractHandler
 				newOut.flush();
 				newOut.close();
 				
-				if(text_output)
-					{
-					this.writer.writeCharacters("");
-					this.writer.writeEndElement();//pre
-					}
-				if(iter!=null && iter.hasNext())
-					{
-					this.writer.writeStartElement("p");
-					this.writer.writeAttribute("class", "error");
-					this.writer.writeCharacters("WARNING: there are more variants but limit was reached.");
-					this.writer.writeEndElement();
-					this.writer.flush();
-					}
+				final boolean hasMore = iter!=null && iter.hasNext();
+				CloserUtil.close(iter);
+				iter=null;
+				/* the reader is not needed anymore, give it back before sending the table */
+				pool.release(poolKey, reader);
+				reader=null;
 				
-				if(timeout_flag)
+				if(buffer.isBuffered())
 					{
-					this.writer.writeStartElement("p");
-					this.writer.writeAttribute("class", "error");
-					this.writer.writeCharacters("Time out reached!");
-					this.writer.writeEndElement();
-					this.writer.flush();
+					final byte content[] = buffer.toByteArray();
+					this.response.getOutputStream().write(content);
+					this.response.getOutputStream().flush();
+					/* an incomplete table is not cached */
+					if(!timeout_flag)
+						{
+						getOwner().regionCache.put(cacheKey, new RegionResult(content, hasMore));
+						}
 					}
-				
-				
-				this.writer.writeComment("END-TABLE");
-				this.flush();
+				writeTableEnd(text_output, hasMore, timeout_flag);
 				}
 			catch(final Exception err)
 				{
+				reader_error = true;
 				super.writeException(err);
 				}
 			finally
 				{
 				CloserUtil.close(iter);
-				CloserUtil.close(reader);
+				if(reader!=null)
+					{
+					if(reader_error)
+						{
+						pool.invalidate(poolKey, reader);
+						}
+					else
+						{
+						pool.release(poolKey, reader);
+						}
+					}
 				}
 			}
 		}
 
+	/** returns the key of this file in the pool of readers. The readers of an older version of the file are closed */
+	private ReaderPool.FileKey getPoolKey(final File file)
+		{
+		final ReaderPool.FileKey key = new ReaderPool.FileKey(file);
+		this.readerPool.retireIf(K->K.getFile().equals(file) && !K.equals(key));
+		return key;
+		}
 	
 	
 	private File getVcfFile(final HttpServletRequest req) {
@@ -840,6 +962,7 @@ private class ViewVcfHandler extends AbstractHandler
 @Override
 public int doWork(final List<String> args) {
 	Server server = null;
+	ViewVcfHandler viewHandler = null;
 	try
 		{
 		final List<File> vcfFiles = IOUtil.unrollFiles(args.stream().
@@ -854,9 +977,22 @@ public int doWork(final List<String> args) {
 			}
 		vcfFiles.forEach(F->IOUtil.assertFileIsReadable(F));
 		
-		server = new Server(this.port);
+		if(this.numThreads>0)
+			{
+			final QueuedThreadPool threadPool = new QueuedThreadPool(this.numThreads);
+			threadPool.setName(VcfServer.class.getSimpleName());
+			server = new Server(threadPool);
+			final ServerConnector connector = new ServerConnector(server);
+			connector.setPort(this.port);
+			server.addConnector(connector);
+			}
+		else
+			{
+			server = new Server(this.port);
+			}
+		viewHandler = new ViewVcfHandler(vcfFiles);
 		final HandlerList handlers = new HandlerList();
-		handlers.addHandler(new ViewVcfHandler(vcfFiles));
+		handlers.addHandler(viewHandler);
 		server.setHandler(handlers);
 		LOG.info("Starting "+VcfServer.class.getName()+" on http://localhost:"+this.port);
 		server.start();
@@ -874,6 +1010,10 @@ public int doWork(final List<String> args) {
 			
 			server.destroy();
 			}
+		if(viewHandler!=null)
+			{
+			viewHandler.readerPool.close();
+			}
 		}
 	}
 
@@ -38,6 +38,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import com.beust.jcommander.Parameter;
@@ -53,7 +55,9 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.so.SequenceOntologyTree;
 import com.github.lindenb.jvarkit.util.ucsc.KnownGene;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGeneStore;
 import com.github.lindenb.jvarkit.util.vcf.ContigPosRef;
+import com.github.lindenb.jvarkit.util.vcf.GenotypeConcordanceMatrix;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 import com.github.lindenb.jvarkit.util.vcf.VcfTools;
 
@@ -213,9 +217,11 @@ public class VcfStats extends Launcher
 	@Parameter(names={"-o","--output"},description="output Directory or zip file. The output contains the data files as well as a Makefile to convert the data files to graphics using gnuplot.",required=true)
 	private File outputFile = null;
 	
-	@Parameter(names={"-K","-kg","--knownGenes"},description=KnownGene.OPT_KNOWNGENE_DESC)
+	@Parameter(names={"-K","-kg","--knownGenes"},description=KnownGeneStore.OPT_KNOWNGENE_DESC)
 	private String kgFile = null;
 	private IntervalTreeMap<List<KnownGene>> knownGeneTreeMap=null;
+	/** used instead of knownGeneTreeMap if kgFile is a binary store */
+	private KnownGeneStore knownGeneStore=null;
 	
 	@Parameter(names={"-ped","--pedigree"},description=Pedigree.OPT_DESCRIPTION)
 	private File pedigreeFile = null;
@@ -249,6 +255,10 @@ public class VcfStats extends Launcher
 	private boolean disableMAFPlot=false;
 	@Parameter(names={"--disableGTConcordance"},description="Disable Plot Sample vs Sample Genotypes (Faster...)")
 	private boolean disableGenotypeConcordance=false;
+	@Parameter(names={"--concordanceThreads"},description="Number of threads used to compute the Sample vs Sample Genotypes concordance.")
+	private int concordanceThreads=1;
+	/** executor for the genotype concordance, null if concordanceThreads<=1 */
+	private ExecutorService concordanceExecutor = null;
 	@Parameter(names={"--binSize"},description="[20170718] When plotting data over a genome, divide it into 'N' bp.")
 	private int binSize = 1_000_000;
 	
@@ -325,50 +335,6 @@ public class VcfStats extends Launcher
 			}
 		}
 	
-	//define a pair of samples
-	private class SamplePair
-		{
-		final int sample1;
-		final int sample2;
-		
-		SamplePair(final int sample1,final int sample2)
-			{
-			if(sample1 < sample2)
-				{
-				this.sample1 = sample1;
-				this.sample2 = sample2;
-				}
-			else
-				{
-				this.sample1 = sample2;
-				this.sample2 = sample1;
-				}
-			}
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + this.sample1;
-			result = prime * result + this.sample2;
-			return result;
-			}
-		@Override
-		public boolean equals(final Object obj) {
-			if (this == obj)  return true;
-			if (obj == null)  return false;
-			if (!(obj instanceof SamplePair)) return false;
-			final SamplePair other = (SamplePair) obj;
-			return other.sample1==this.sample1 && 
-				   other.sample2==this.sample2; 
-			}
-		@Override
-		public String toString() {
-			return  VcfStats.this.sampleNamesInOrder.get(sample1)+"/"+
-					VcfStats.this.sampleNamesInOrder.get(sample2);
-			}
-		}
-	
-	
 	private class PlotMaf implements Closeable
 		{
 		//final String title;
@@ -446,14 +412,12 @@ public class VcfStats extends Launcher
 			prevCtx=contigPosRef;
 			}
 		
-		protected void visitForConsequences(final VariantContext ctx,Collection<SequenceOntologyTree.Term> terms,final VcfTools vcfTools)
+		/** @param terms the observed SO terms found in the predictions of the variant */
+		protected void visitForConsequences(final Collection<SequenceOntologyTree.Term> terms)
 			{
 			for(final SequenceOntologyTree.Term t:terms)
 				{
-				if(vcfTools.hasSequenceOntologyTerm(ctx, t))
-					{
-					this.consequences.incr(t.getLabel());
-					}	
+				this.consequences.incr(t.getLabel());
 				}
 			}
 
@@ -515,7 +479,8 @@ public class VcfStats extends Launcher
 		final Counter<RangeOfIntegers.Range> countAffectedSamples = new Counter<>();
 		final Counter<RangeOfIntegers.Range> countAltAlleles = new Counter<>();
 		final Counter<RangeOfIntegers.Range> countIndelSize = new Counter<>();
-		final Counter<SamplePair>  genotypeConcordance = new Counter<>();
+		/** Sample vs Sample genotype concordance, null if disabled */
+		private final GenotypeConcordanceMatrix genotypeConcordance;
 
 		private int countVariants=0;
 		
@@ -531,7 +496,7 @@ public class VcfStats extends Launcher
 				this.pedireePerson= VcfStats.this.pedigree.getPersonById(sampleName);
 				}
 			
-			public void visit(final VariantContext ctx,final List<KnownGene> knownGenes) {
+			public void visit(final VariantContext ctx,final List<KnownGene> knownGenes,final List<SequenceOntologyTree.Term> ctxConsequences) {
 				final Genotype genotype = ctx.getGenotype(this.sampleName);
 				if(genotype==null) return;
 				this.countTypes.incr(genotype.getType());
@@ -545,12 +510,9 @@ public class VcfStats extends Launcher
 					this.pedireePerson.hasAtLeastOneParent() &&
 					VariantStats.this.vcfTools.isMendelianIncompatibility(ctx, this.pedireePerson))
 					{
-					for(final SequenceOntologyTree.Term t:VariantStats.this.sequenceOntologyTermsToObserve)
+					for(final SequenceOntologyTree.Term t:ctxConsequences)
 						{
-						if(vcfTools.hasSequenceOntologyTerm(ctx, t))
-							{
-							this.countMendelianViolations.incr(t.getLabel());
-							}
+						this.countMendelianViolations.incr(t.getLabel());
 						}
 					}
 				
@@ -569,10 +531,7 @@ public class VcfStats extends Launcher
 					{
 					visitForDistance(ctx);
 					visitForGeneLocation(ctx,knownGenes);
-					visitForConsequences(ctx,
-							VariantStats.this.sequenceOntologyTermsToObserve,
-							VariantStats.this.vcfTools
-							);
+					visitForConsequences(ctxConsequences);
 
 					}
 				}
@@ -594,7 +553,7 @@ public class VcfStats extends Launcher
 			this.sequenceOntologyTermsToObserve.addAll(
 				VcfStats.this.sequenceOntologyTermsStr.stream().
 			 	filter(S->!S.trim().isEmpty()).
-			 	map(S->SequenceOntologyTree.createDefault().getTermByAcn(S)).
+			 	map(S->SequenceOntologyTree.getInstance().getTermByAcn(S)).
 			 	collect(Collectors.toSet())
 			 	);
 			
@@ -622,15 +581,38 @@ public class VcfStats extends Launcher
 						;
 			// genotype concordance
 			if(!VcfStats.this.disableGenotypeConcordance) {
-				final int n_samples = VcfStats.this.sampleNamesInOrder.size();
-				for(int x=0;x +1 < n_samples;++x)
+				this.genotypeConcordance = new GenotypeConcordanceMatrix(
+						VcfStats.this.sampleNamesInOrder.size(),
+						VcfStats.this.concordanceExecutor,
+						VcfStats.this.concordanceThreads
+						);
+				}
+			else
+				{
+				this.genotypeConcordance = null;
+				}
+			}
+		
+		/** returns the observed SO terms found in the predictions of the variant. The predictions are parsed once per variant */
+		private List<SequenceOntologyTree.Term> getConsequences(final VariantContext ctx) {
+			if(this.sequenceOntologyTermsToObserve.isEmpty()) return Collections.emptyList();
+			final Set<SequenceOntologyTree.Term> ctxTerms = this.vcfTools.getSequenceOntologyTerms(ctx);
+			if(ctxTerms.isEmpty()) return Collections.emptyList();
+			final SequenceOntologyTree soTree = this.vcfTools.getSequenceOntologyTree();
+			final List<SequenceOntologyTree.Term> L = new ArrayList<>();
+			for(final SequenceOntologyTree.Term t:this.sequenceOntologyTermsToObserve)
+				{
+				if(t==null) continue;
+				for(final SequenceOntologyTree.Term ctxTerm : ctxTerms)
 					{
-					for(int y= x +1; y < n_samples;++y)
+					if(soTree.isA(ctxTerm, t))
 						{
-						this.genotypeConcordance.initializeIfNotExists(new SamplePair(x,y));
+						L.add(t);
+						break;
 						}
 					}
 				}
+			return L;
 			}
 		
 		public void visit(final VariantContext ctx) {
@@ -645,8 +627,10 @@ public class VcfStats extends Launcher
 			
 			final List<KnownGene> knownGenes =  VcfStats.this.getOverlappingKnownGenes(ctx);			
 
+			final List<SequenceOntologyTree.Term> ctxConsequences = getConsequences(ctx);
+
 			visitForGeneLocation(ctx,knownGenes);
-			for(final SampleStat st: this.sample2stats.values()) st.visit(ctx,knownGenes);
+			for(final SampleStat st: this.sample2stats.values()) st.visit(ctx,knownGenes,ctxConsequences);
 			
 			//distance
 			visitForDistance(ctx);
@@ -656,13 +640,13 @@ public class VcfStats extends Launcher
 
 			
 			/** consequences */
-			visitForConsequences(ctx,this.sequenceOntologyTermsToObserve,this.vcfTools);
+			visitForConsequences(ctxConsequences);
 			
 			/** transvertion / transition */
 			if(alternates.size()==1 )
 				{
 				boolean in_cds=false;
-				if(VcfStats.this.knownGeneTreeMap!=null)
+				if(VcfStats.this.hasKnownGenes())
 					{
 					in_cds = knownGenes.stream().
 							filter(K->!((K.getTxStart()+1) > ctx.getEnd() || (K.getTxEnd()) < ctx.getStart()  )).
@@ -677,13 +661,13 @@ public class VcfStats extends Launcher
 				final Character altChar=asSimpleATGC(alternates.get(0));
 				if(isTransition(refChar,altChar)) {
 					this.nucleicAcidChanges.incr(NucleicAcidChange.transition);
-					if(VcfStats.this.knownGeneTreeMap!=null && in_cds) {
+					if(VcfStats.this.hasKnownGenes() && in_cds) {
 						this.nucleicAcidChanges.incr(NucleicAcidChange.transition_in_cds);
 						}
 					}	
 				else if(isTransversion(refChar,altChar)) {
 					this.nucleicAcidChanges.incr(NucleicAcidChange.transversion);
-					if(VcfStats.this.knownGeneTreeMap!=null && in_cds) {
+					if(VcfStats.this.hasKnownGenes() && in_cds) {
 						this.nucleicAcidChanges.incr(NucleicAcidChange.transversion_in_cds);
 						}
 					}	
@@ -782,21 +766,8 @@ public class VcfStats extends Launcher
 			
 			// genotype concordance
 
-			if(!VcfStats.this.disableGenotypeConcordance) {
-				for(int x=0;x < ctx.getNSamples();++x)
-					{
-					final Genotype g1 = ctx.getGenotype(x);
-					if(!g1.isCalled()) continue;
-					for(int y= x ; y < ctx.getNSamples();++y)
-						{
-						final Genotype g2 = ctx.getGenotype(y);
-						if(!g2.isCalled()) continue;
-						if(g1.sameGenotype(g2))
-							{
-							this.genotypeConcordance.incr(new SamplePair(x,y));
-							}
-						}
-					}
+			if(this.genotypeConcordance!=null) {
+				this.genotypeConcordance.visit(ctx);
 				}
 			
 			}
@@ -1551,7 +1522,7 @@ public class VcfStats extends Launcher
 
 				}
 			
-			if(!VcfStats.this.disableGenotypeConcordance && !this.genotypeConcordance.isEmpty())
+			if(this.genotypeConcordance!=null && !this.genotypeConcordance.isEmpty())
 				{
 				final String filename = toTsv("gtConcordance");
 				final PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
@@ -1569,7 +1540,7 @@ public class VcfStats extends Launcher
 					for(int x=0;x<  VcfStats.this.sampleNamesInOrder.size();++x)
 						{
 						pw.print(",");
-						pw.print(this.genotypeConcordance.count(new SamplePair(x,y)));
+						pw.print(this.genotypeConcordance.count(x,y));
 						}
 					pw.println();
 					}
@@ -1604,8 +1575,18 @@ public class VcfStats extends Launcher
 		//this.selectExpressions.add("vc azd");
 		}
 	
+	private boolean hasKnownGenes()
+		{
+		return this.knownGeneTreeMap!=null || this.knownGeneStore!=null;
+		}
+	
 	public List<KnownGene> getOverlappingKnownGenes(final VariantContext ctx)
 		{
+		if(this.knownGeneStore!=null)
+			{
+			if(this.the_dictionary!=null && this.the_dictionary.getSequence(ctx.getContig())==null) return Collections.emptyList();
+			return this.knownGeneStore.getOverlapping(ctx.getContig(),ctx.getStart(),ctx.getEnd());
+			}
 		if(this.knownGeneTreeMap==null) return Collections.emptyList();
 		final List<KnownGene> L = new ArrayList<>();
 		for(final List<KnownGene> lkg:VcfStats.this.knownGeneTreeMap.getOverlapping(new Interval(ctx.getContig(),ctx.getStart(),ctx.getEnd())))
@@ -1684,11 +1665,21 @@ public class VcfStats extends Launcher
 			if(this.kgFile!=null)
 				{
 				LOG.info("load "+kgFile);
-				this.knownGeneTreeMap=KnownGene.loadUriAsIntervalTreeMap(this.kgFile,KG->(dict==null || dict.getSequence(KG.getContig())!=null));
+				if(KnownGeneStore.isStore(this.kgFile))
+					{
+					this.knownGeneStore=KnownGeneStore.open(new File(this.kgFile));
+					this.knownGeneTreeMap=null;
+					}
+				else
+					{
+					this.knownGeneStore=null;
+					this.knownGeneTreeMap=KnownGene.loadUriAsIntervalTreeMap(this.kgFile,KG->(dict==null || dict.getSequence(KG.getContig())!=null));
+					}
 				}
 			else
 				{
 				this.knownGeneTreeMap=null;
+				this.knownGeneStore=null;
 				}
 			if(this.pedigreeFile!=null)
 				{
@@ -1716,6 +1707,11 @@ public class VcfStats extends Launcher
 
 			
 			
+			if(!this.disableGenotypeConcordance && this.concordanceThreads>1)
+				{
+				this.concordanceExecutor = Executors.newFixedThreadPool(this.concordanceThreads);
+				}
+			
 			if(teeOut!=null) teeOut.writeHeader(header);
 			final SAMSequenceDictionaryProgress progress= new SAMSequenceDictionaryProgress(header).logger(LOG);
 			while(iter.hasNext())
@@ -1756,6 +1752,12 @@ public class VcfStats extends Launcher
 		} finally
 			{
 			knownGeneTreeMap=null;
+			knownGeneStore=null;
+			if(this.concordanceExecutor!=null)
+				{
+				this.concordanceExecutor.shutdownNow();
+				this.concordanceExecutor=null;
+				}
 			CloserUtil.close(archiveFactory);
 			CloserUtil.close(teeOut);
 			CloserUtil.close(iter);
@@ -3,16 +3,22 @@ package com.github.lindenb.jvarkit.tools.vcfvcf;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import com.github.lindenb.jvarkit.util.vcf.MergeJoinAnnotationSource;
+import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
@@ -59,6 +65,8 @@ public class VcfVcf extends Launcher
 	public boolean ALT_ALLELES_MATTERS=false;
 	@Parameter(names="-ACF",description="Flag to set if alternate alleles conflict.")			
 	public String ALT_CONFLICT_FLAG=null;
+	@Parameter(names={"--streaming"},description="Don't use tabix random-access but read the annotation VCF and the input in one sorted merge-join pass (better to annotate a large WGS file). Assume dictionaries are sorted the same way. The input VCF must have a dictionary.")
+	public boolean STREAMING=false;
 	
 	
 	@Override
@@ -68,9 +76,29 @@ public class VcfVcf extends Launcher
 			CloseableIterator<VariantContext> iter=null;
 			
 			LOG.info("opening file: "+this.TABIX);
-		    IndexedVcfFileReader tabix= new IndexedVcfFileReader(this.TABIX);
-			VCFHeader header3=tabix.getHeader();
 			VCFHeader header1=r.getHeader();
+			IndexedVcfFileReader tabix=null;
+			MergeJoinAnnotationSource<VariantContext> join=null;
+			VCFHeader header3;
+			if(this.STREAMING)
+				{
+				final SAMSequenceDictionary dict1=header1.getSequenceDictionary();
+				if(dict1==null || dict1.isEmpty()) throw new JvarkitException.VcfDictionaryMissing(inputName==null?"input":inputName);
+				final VcfIterator in3 = VCFUtils.createVcfIterator(this.TABIX);
+				header3=in3.getHeader();
+				final SAMSequenceDictionary dict3=header3.getSequenceDictionary();
+				final ContigNameConverter converter = (dict3==null || dict3.isEmpty()?
+						ContigNameConverter.fromOneDictionary(dict1):
+						ContigNameConverter.fromDictionaries(dict3, dict1)
+						);
+				converter.setOnNotFound(ContigNameConverter.OnNotFound.SKIP);
+				join = new MergeJoinAnnotationSource<>(in3, dict1, converter);
+				}
+			else
+				{
+			    tabix= new IndexedVcfFileReader(this.TABIX);
+				header3=tabix.getHeader();
+				}
 			
 			VCFHeader h2=new VCFHeader(header1.getMetaDataInInputOrder(),header1.getSampleNamesInOrder());
 			for(String infoId:this.INFO_IDS)
@@ -105,15 +133,24 @@ public class VcfVcf extends Launcher
 				List<VariantContext> variantsList=new ArrayList<VariantContext>();
 				
 			
-				iter=tabix.iterator(ctx1.getChr(),
-						Math.max(0,ctx1.getStart()-1),
-						(ctx1.getEnd()+1)
-						);
+				final Iterator<VariantContext> candidates;
+				if(join!=null)
+					{
+					candidates=join.query(ctx1).iterator();
+					}
+				else
+					{
+					iter=tabix.iterator(ctx1.getContig(),
+							Math.max(0,ctx1.getStart()-1),
+							(ctx1.getEnd()+1)
+							);
+					candidates=iter;
+					}
 				
-				while(iter.hasNext())
+				while(candidates.hasNext())
 					{
-					VariantContext ctx3=iter.next();
-					if(!ctx3.getChr().equals(ctx1.getStart())) continue;
+					VariantContext ctx3=candidates.next();
+					/* no need to check the contig: both the tabix query and the merge-join return variants on the same contig */
 					if(ctx3.getStart()!=ctx1.getStart()) continue;
 					if(ctx3.getEnd()!=ctx1.getEnd()) continue;
 					
@@ -187,7 +224,8 @@ public class VcfVcf extends Launcher
 					}
 				w.add(vcb.make());
 				}
-			tabix.close();
+			CloserUtil.close(tabix);
+			CloserUtil.close(join);
 			
 			return 0;
 			}
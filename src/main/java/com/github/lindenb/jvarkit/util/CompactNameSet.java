@@ -0,0 +1,333 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of names (e.g. read names) with one counter per name, using much less
+ * memory than a HashMap&lt;String,Integer&gt;.
+ *
+ * The names are stored as packed bytes in off-heap arenas. The set itself is an
+ * open-addressing hash table of 64-bit fingerprints, each slot pointing to the
+ * bytes of the name, so a lookup never creates any object. An optional Bloom
+ * filter quickly rejects the names that are not in the set.
+ *
+ * This class is not thread-safe.
+ */
+public class CompactNameSet
+	{
+	/** size of one arena */
+	private static final int ARENA_SIZE = 1<<26;
+	/** empty slot */
+	private static final long FREE = 0L;
+	/** removed name */
+	private static final long DELETED = -1L;
+
+	private final List<ByteBuffer> arenas = new ArrayList<>();
+	/** (fingerprint, address) for each slot */
+	private long table[];
+	/** count for each slot */
+	private int counts[];
+	/** number of names in the set */
+	private int size = 0;
+	/** number of slots used by a name or a deleted name */
+	private int used = 0;
+	/** blocked Bloom filter, 512 bits per block */
+	private long bloom[] = null;
+
+	public CompactNameSet()
+		{
+		this.allocate(1024);
+		}
+
+	private void allocate(final int capacity)
+		{
+		this.table = new long[capacity*2];
+		this.counts = new int[capacity];
+		}
+
+	/** number of names in this set */
+	public int size()
+		{
+		return this.size;
+		}
+
+	public boolean isEmpty()
+		{
+		return this.size==0;
+		}
+
+	/** number of bytes used by the names, the table and the Bloom filter */
+	public long getMemoryUsage()
+		{
+		long n = 8L*this.table.length + 4L*this.counts.length;
+		if(this.bloom!=null) n+= 8L*this.bloom.length;
+		for(final ByteBuffer arena: this.arenas) n+= arena.capacity();
+		return n;
+		}
+
+	/** add a name, returns false if it was already in this set */
+	public boolean add(final CharSequence name)
+		{
+		final byte bytes[] = encode(name);
+		final long fingerprint = fingerprint(name, bytes);
+		if(indexOf(name, bytes, fingerprint)>=0) return false;
+		if(4L*(this.used+1) > 3L*this.counts.length) /* load factor 0.75 */
+			{
+			rehash();
+			}
+		final int mask = this.counts.length-1;
+		int slot = (int)fingerprint & mask;
+		for(;;)
+			{
+			final long f = this.table[slot*2];
+			if(f==FREE || f==DELETED) break;
+			slot = (slot+1) & mask;
+			}
+		if(this.table[slot*2]==FREE) this.used++;
+		this.table[slot*2] = fingerprint;
+		this.table[slot*2+1] = store(name, bytes);
+		this.counts[slot] = 0;
+		this.size++;
+		if(this.bloom!=null) addToBloom(fingerprint);
+		return true;
+		}
+
+	/** returns true if this set contains the name */
+	public boolean contains(final CharSequence name)
+		{
+		return find(name)>=0;
+		}
+
+	/** increments the counter of the name and returns the new count, or -1 if the name is not in this set */
+	public int incrementCount(final CharSequence name)
+		{
+		final int slot = find(name);
+		if(slot<0) return -1;
+		if(this.counts[slot]!=Integer.MAX_VALUE) this.counts[slot]++;
+		return this.counts[slot];
+		}
+
+	/** remove a name, returns true if the name was in this set */
+	public boolean remove(final CharSequence name)
+		{
+		final int slot = find(name);
+		if(slot<0) return false;
+		this.table[slot*2] = DELETED;
+		this.table[slot*2+1] = 0L;
+		this.size--;
+		return true;
+		}
+
+	/** build a Bloom filter for the current names, the names added later are also inserted in this filter */
+	public void buildBloomFilter(final int bitsPerName)
+		{
+		if(bitsPerName<1) throw new IllegalArgumentException("bad number of bits per name "+bitsPerName);
+		long nBlocks = (Math.max(1L,this.size)*bitsPerName)/512L + 1L;
+		if(nBlocks*8L > Integer.MAX_VALUE) nBlocks = Integer.MAX_VALUE/8;
+		this.bloom = new long[(int)nBlocks*8];
+		for(int slot=0;slot< this.counts.length;++slot)
+			{
+			final long f = this.table[slot*2];
+			if(f==FREE || f==DELETED) continue;
+			addToBloom(f);
+			}
+		}
+
+	private int bloomBlock(final long fingerprint)
+		{
+		return (int)(((fingerprint>>>32) % (this.bloom.length/8)))*8;
+		}
+
+	private void addToBloom(final long fingerprint)
+		{
+		final int block = bloomBlock(fingerprint);
+		for(int k=0;k<3;++k)
+			{
+			final int bit = (int)(fingerprint>>>(k*9)) & 511;
+			this.bloom[block+(bit>>>6)] |= (1L<<(bit&63));
+			}
+		}
+
+	private boolean mayContain(final long fingerprint)
+		{
+		final int block = bloomBlock(fingerprint);
+		for(int k=0;k<3;++k)
+			{
+			final int bit = (int)(fingerprint>>>(k*9)) & 511;
+			if((this.bloom[block+(bit>>>6)] & (1L<<(bit&63)))==0L) return false;
+			}
+		return true;
+		}
+
+	private int find(final CharSequence name)
+		{
+		final byte bytes[] = encode(name);
+		final long fingerprint = fingerprint(name, bytes);
+		if(this.bloom!=null && !mayContain(fingerprint)) return -1;
+		return indexOf(name, bytes, fingerprint);
+		}
+
+	private int indexOf(final CharSequence name,final byte bytes[],final long fingerprint)
+		{
+		final int mask = this.counts.length-1;
+		int slot = (int)fingerprint & mask;
+		for(;;)
+			{
+			final long f = this.table[slot*2];
+			if(f==FREE) return -1;
+			if(f==fingerprint && sameName(this.table[slot*2+1],name,bytes)) return slot;
+			slot = (slot+1) & mask;
+			}
+		}
+
+	private void rehash()
+		{
+		final long oldTable[] = this.table;
+		final int oldCounts[] = this.counts;
+		long capacity = oldCounts.length;
+		/* only grow if the table is not filled with deleted names */
+		while(2L*(this.size+1) > capacity) capacity*=2L;
+		if(capacity > (1<<29)) throw new IllegalStateException("too many names");
+		this.allocate((int)capacity);
+		final int mask = this.counts.length-1;
+		for(int i=0;i< oldCounts.length;++i)
+			{
+			final long f = oldTable[i*2];
+			if(f==FREE || f==DELETED) continue;
+			int slot = (int)f & mask;
+			while(this.table[slot*2]!=FREE) slot = (slot+1) & mask;
+			this.table[slot*2] = f;
+			this.table[slot*2+1] = oldTable[i*2+1];
+			this.counts[slot] = oldCounts[i];
+			}
+		this.used = this.size;
+		}
+
+	/** returns the UTF-8 bytes of the name, or null if the name is ASCII and can be read char by char */
+	private static byte[] encode(final CharSequence name)
+		{
+		for(int i=0;i< name.length();++i)
+			{
+			if(name.charAt(i)>=0x80) return name.toString().getBytes(StandardCharsets.UTF_8);
+			}
+		return null;
+		}
+
+	/** 64-bit hash of the name, never FREE or DELETED */
+	private static long fingerprint(final CharSequence name,final byte bytes[])
+		{
+		final int len = (bytes==null?name.length():bytes.length);
+		long h = 0x9E3779B97F4A7C15L ^ len;
+		for(int i=0;i< len;++i)
+			{
+			final int c = (bytes==null?name.charAt(i):bytes[i]&0xFF);
+			h = (h ^ c) * 0x100000001B3L;
+			h ^= (h>>>29);
+			}
+		/* final avalanche (murmur3 fmix64) */
+		h ^= (h>>>33);
+		h *= 0xff51afd7ed558ccdL;
+		h ^= (h>>>33);
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= (h>>>33);
+		if(h==FREE || h==DELETED) h = 1L;
+		return h;
+		}
+
+	/** copy the name in the arenas: varint length followed by the bytes. Returns the address of the name */
+	private long store(final CharSequence name,final byte bytes[])
+		{
+		final int len = (bytes==null?name.length():bytes.length);
+		final int needed = 5 + len;
+		if(needed > ARENA_SIZE) throw new IllegalArgumentException("name is too long");
+		ByteBuffer arena = this.arenas.isEmpty()?null:this.arenas.get(this.arenas.size()-1);
+		if(arena==null || arena.remaining() < needed)
+			{
+			arena = ByteBuffer.allocateDirect(ARENA_SIZE);
+			this.arenas.add(arena);
+			}
+		final long address = (((long)this.arenas.size()-1L)<<32) | arena.position();
+		int n = len;
+		while(n >= 0x80)
+			{
+			arena.put((byte)((n & 0x7F) | 0x80));
+			n>>>=7;
+			}
+		arena.put((byte)n);
+		for(int i=0;i< len;++i)
+			{
+			arena.put(bytes==null?(byte)name.charAt(i):bytes[i]);
+			}
+		return address;
+		}
+
+	private boolean sameName(final long address,final CharSequence name,final byte bytes[])
+		{
+		final ByteBuffer arena = this.arenas.get((int)(address>>>32));
+		int offset = (int)address;
+		int len = 0;
+		int shift = 0;
+		for(;;)
+			{
+			final byte b = arena.get(offset++);
+			len |= (b & 0x7F)<<shift;
+			if((b & 0x80)==0) break;
+			shift+=7;
+			}
+		if(bytes!=null)
+			{
+			if(len!=bytes.length) return false;
+			for(int i=0;i< len;++i)
+				{
+				if(arena.get(offset+i)!=bytes[i]) return false;
+				}
+			}
+		else
+			{
+			if(len!=name.length()) return false;
+			for(int i=0;i< len;++i)
+				{
+				if(arena.get(offset+i)!=(byte)name.charAt(i)) return false;
+				}
+			}
+		return true;
+		}
+
+	@Override
+	public String toString()
+		{
+		return "CompactNameSet(size="+this.size+", capacity="+this.counts.length+
+			", bloom="+(this.bloom!=null)+", arenas="+this.arenas.size()+")";
+		}
+	}
@@ -0,0 +1,83 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A small thread-safe cache keeping the 'capacity' most recently used entries.
+ * A capacity of 0 disables the cache.
+ */
+public class LRUCache<K,V>
+	{
+	private final int capacity;
+	private final LinkedHashMap<K,V> map;
+
+	public LRUCache(final int capacity)
+		{
+		this.capacity = Math.max(0, capacity);
+		this.map = new LinkedHashMap<K,V>(16, 0.75f, true)
+			{
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<K,V> eldest)
+				{
+				return size() > LRUCache.this.capacity;
+				}
+			};
+		}
+
+	public int getCapacity()
+		{
+		return this.capacity;
+		}
+
+	/** returns the value for this key or null */
+	public synchronized V get(final K key)
+		{
+		return this.map.get(key);
+		}
+
+	public synchronized void put(final K key,final V value)
+		{
+		if(this.capacity==0) return;
+		this.map.put(key, value);
+		}
+
+	public synchronized int size()
+		{
+		return this.map.size();
+		}
+
+	public synchronized void clear()
+		{
+		this.map.clear();
+		}
+	}
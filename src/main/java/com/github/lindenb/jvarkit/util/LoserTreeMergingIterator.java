@@ -0,0 +1,136 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+
+/**
+ * Merges some sorted iterators using a tree of losers: each call to next()
+ * costs log2(k) comparisons, about half the comparisons of a binary heap.
+ * Equal items are returned in the order of their iterators, so a merge of
+ * sorted chunks is a stable sort. The iterators must not return null.
+ * Closing this iterator closes the underlying iterators.
+ */
+public class LoserTreeMergingIterator<T> implements CloseableIterator<T>
+	{
+	private final List<Iterator<T>> sources;
+	private final Comparator<T> comparator;
+	/** current item of each source, null if the source is exhausted */
+	private final Object heads[];
+	/** tree[0] is the winner, tree[1..k-1] are the losers of each match */
+	private final int tree[];
+	private final int k;
+
+	public LoserTreeMergingIterator(final List<? extends Iterator<T>> sources,final Comparator<T> comparator)
+		{
+		this.sources = new ArrayList<>(sources);
+		this.comparator = comparator;
+		this.k = this.sources.size();
+		this.heads = new Object[this.k];
+		this.tree = new int[Math.max(1, this.k)];
+		for(int i=0;i< this.k;++i)
+			{
+			final Iterator<T> iter = this.sources.get(i);
+			this.heads[i] = (iter.hasNext()?iter.next():null);
+			}
+		if(this.k>0) this.tree[0] = this.init(1);
+		}
+
+	/** play the matches below 'node', returns the winner */
+	private int init(final int node)
+		{
+		if(node>=this.k) return node-this.k;
+		final int left = this.init(2*node);
+		final int right = this.init(2*node+1);
+		if(this.beats(left, right))
+			{
+			this.tree[node] = right;
+			return left;
+			}
+		else
+			{
+			this.tree[node] = left;
+			return right;
+			}
+		}
+
+	/** returns true if source 'a' must be returned before source 'b' */
+	@SuppressWarnings("unchecked")
+	private boolean beats(final int a,final int b)
+		{
+		final Object ha = this.heads[a];
+		final Object hb = this.heads[b];
+		if(ha==null) return hb==null && a<b;
+		if(hb==null) return true;
+		final int i = this.comparator.compare((T)ha,(T)hb);
+		return i<0 || (i==0 && a<b);
+		}
+
+	@Override
+	public boolean hasNext()
+		{
+		return this.k>0 && this.heads[this.tree[0]]!=null;
+		}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T next()
+		{
+		if(!hasNext()) throw new NoSuchElementException();
+		int winner = this.tree[0];
+		final T item = (T)this.heads[winner];
+		final Iterator<T> iter = this.sources.get(winner);
+		this.heads[winner] = (iter.hasNext()?iter.next():null);
+		/* replay the matches from the leaf to the root */
+		for(int node=(winner+this.k)/2; node>0; node/=2)
+			{
+			if(this.beats(this.tree[node], winner))
+				{
+				final int tmp = this.tree[node];
+				this.tree[node] = winner;
+				winner = tmp;
+				}
+			}
+		this.tree[0] = winner;
+		return item;
+		}
+
+	@Override
+	public void close()
+		{
+		for(final Iterator<T> iter:this.sources) CloserUtil.close(iter);
+		}
+	}
@@ -0,0 +1,282 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.function.Predicate;
+
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+
+/**
+ * A bounded pool of readers per key (e.g. one indexed VCF or BAM file).
+ * Readers are opened lazily and kept open after use, so their header and
+ * index are loaded once per reader instead of once per query. At most
+ * 'maxPerKey' readers are borrowed at the same time for one key; other
+ * callers wait for a reader to be released.
+ *
+ * <pre>
+ * final R r = pool.borrow(key);
+ * try { ... pool.release(key,r); }
+ * catch(Exception err) { pool.invalidate(key,r); }
+ * </pre>
+ */
+public class ReaderPool<K,R extends Closeable> implements Closeable
+	{
+	/** opens a new reader for a key */
+	public interface Opener<K,R>
+		{
+		public R open(K key) throws IOException;
+		}
+
+	/** a file and its version (modification time and size). A file replaced on disk gets a new key */
+	public static class FileKey
+		{
+		private final File file;
+		private final long lastModified;
+		private final long length;
+
+		public FileKey(final File file)
+			{
+			this.file = file;
+			this.lastModified = file.lastModified();
+			this.length = file.length();
+			}
+
+		public File getFile()
+			{
+			return this.file;
+			}
+
+		@Override
+		public int hashCode()
+			{
+			return (this.file.hashCode()*31 + Long.hashCode(this.lastModified))*31 + Long.hashCode(this.length);
+			}
+
+		@Override
+		public boolean equals(final Object obj)
+			{
+			if(obj==this) return true;
+			if(obj==null || !(obj instanceof FileKey)) return false;
+			final FileKey other = FileKey.class.cast(obj);
+			return this.lastModified == other.lastModified &&
+				this.length == other.length &&
+				this.file.equals(other.file);
+			}
+
+		@Override
+		public String toString()
+			{
+			return this.file.getPath();
+			}
+		}
+
+	private class Slot
+		{
+		final Semaphore permits = new Semaphore(ReaderPool.this.maxPerKey, true);
+		/** idle readers, guarded by the lock of the pool */
+		final ArrayDeque<R> idle = new ArrayDeque<>();
+		/** retired slots don't keep their readers. Guarded by the lock of the pool */
+		boolean retired = false;
+		}
+
+	private final Opener<K,R> opener;
+	private final int maxPerKey;
+	/** guarded by the lock of the pool */
+	private final Map<K,Slot> slots = new HashMap<>();
+	/** slot of each borrowed reader. Guarded by the lock of the pool */
+	private final Map<R,Slot> borrowed = new IdentityHashMap<>();
+	/** guarded by the lock of the pool */
+	private boolean closed = false;
+
+	public ReaderPool(final Opener<K,R> opener,final int maxPerKey)
+		{
+		if(maxPerKey<1) throw new IllegalArgumentException("maxPerKey<1");
+		this.opener = opener;
+		this.maxPerKey = maxPerKey;
+		}
+
+	public int getMaxPerKey()
+		{
+		return this.maxPerKey;
+		}
+
+	private synchronized Slot getSlot(final K key)
+		{
+		if(this.closed) throw new IllegalStateException("pool was closed");
+		return this.slots.computeIfAbsent(key, K->new Slot());
+		}
+
+	/** get a reader for this key, waiting if 'maxPerKey' readers are already in use */
+	public R borrow(final K key)
+		{
+		final Slot slot = getSlot(key);
+		try
+			{
+			slot.permits.acquire();
+			}
+		catch(final InterruptedException err)
+			{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(err);
+			}
+		synchronized(this)
+			{
+			if(this.closed)
+				{
+				slot.permits.release();
+				throw new IllegalStateException("pool was closed");
+				}
+			final R r = slot.idle.pollFirst();
+			if(r!=null)
+				{
+				this.borrowed.put(r, slot);
+				return r;
+				}
+			}
+		/* open outside the lock, loading an index can be slow */
+		final R r;
+		try
+			{
+			r = this.opener.open(key);
+			}
+		catch(final IOException err)
+			{
+			slot.permits.release();
+			throw new RuntimeIOException(err);
+			}
+		catch(final RuntimeException err)
+			{
+			slot.permits.release();
+			throw err;
+			}
+		synchronized(this)
+			{
+			if(!this.closed)
+				{
+				this.borrowed.put(r, slot);
+				return r;
+				}
+			}
+		CloserUtil.close(r);
+		slot.permits.release();
+		throw new IllegalStateException("pool was closed");
+		}
+
+	/** give back a reader obtained with borrow. The reader is closed if the pool was closed or the key was retired */
+	public void release(final K key,final R r)
+		{
+		if(r==null) return;
+		final Slot slot;
+		boolean keep = false;
+		synchronized(this)
+			{
+			slot = this.borrowed.remove(r);
+			if(slot==null) throw new IllegalArgumentException("reader was not borrowed from this pool");
+			if(!this.closed && !slot.retired)
+				{
+				/* most recently used first: its buffers are still warm */
+				slot.idle.addFirst(r);
+				keep = true;
+				}
+			}
+		if(!keep) CloserUtil.close(r);
+		slot.permits.release();
+		}
+
+	/** close a reader obtained with borrow, e.g. after an I/O error. It won't be reused */
+	public void invalidate(final K key,final R r)
+		{
+		if(r==null) return;
+		final Slot slot;
+		synchronized(this)
+			{
+			slot = this.borrowed.remove(r);
+			}
+		CloserUtil.close(r);
+		if(slot!=null) slot.permits.release();
+		}
+
+	/** close the idle readers of the keys matching the predicate, and forget these keys. Readers still borrowed are closed when they are released */
+	public void retireIf(final Predicate<K> predicate)
+		{
+		final List<R> L = new ArrayList<>();
+		synchronized(this)
+			{
+			final Iterator<Map.Entry<K,Slot>> iter = this.slots.entrySet().iterator();
+			while(iter.hasNext())
+				{
+				final Map.Entry<K,Slot> entry = iter.next();
+				if(!predicate.test(entry.getKey())) continue;
+				final Slot slot = entry.getValue();
+				slot.retired = true;
+				L.addAll(slot.idle);
+				slot.idle.clear();
+				/* the borrowed readers still know their slot, a later borrow gets a new one */
+				iter.remove();
+				}
+			}
+		for(final R r:L) CloserUtil.close(r);
+		}
+
+	/** number of idle readers for this key */
+	public synchronized int getIdleCount(final K key)
+		{
+		final Slot slot = this.slots.get(key);
+		return slot==null?0:slot.idle.size();
+		}
+
+	/** close all the idle readers. Readers still borrowed are closed when they are released */
+	@Override
+	public void close()
+		{
+		final List<R> L = new ArrayList<>();
+		synchronized(this)
+			{
+			this.closed = true;
+			for(final Slot slot:this.slots.values())
+				{
+				L.addAll(slot.idle);
+				slot.idle.clear();
+				}
+			}
+		for(final R r:L) CloserUtil.close(r);
+		}
+	}
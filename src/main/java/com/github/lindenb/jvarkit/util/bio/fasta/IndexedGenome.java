@@ -3,6 +3,8 @@ package com.github.lindenb.jvarkit.util.bio.fasta;
 import java.io.Closeable;
 import java.io.File;
 import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import com.github.lindenb.jvarkit.lang.JvarkitException;
@@ -25,10 +27,13 @@ public static final String ENV_NAME="REF_PATH";
 private final IndexedFastaSequenceFile indexedFastaSequenceFile;
 private final SAMSequenceDictionary dict;
 private GenomicSequence cached=null;
+/** all the contigs when the sequences are read from a 2-bit image */
+private final Map<String,GenomicSequence> twoBitCache;
 
 private IndexedGenome(final IndexedFastaSequenceFile indexedFastaSequenceFile) {
 	this.indexedFastaSequenceFile=indexedFastaSequenceFile;
 	this.dict=this.indexedFastaSequenceFile.getSequenceDictionary();
+	this.twoBitCache = (TwoBitGenome.forFasta(indexedFastaSequenceFile)==null?null:new HashMap<>());
 	}
 public GenomicSequence  get(int i)
 	{
@@ -39,6 +44,10 @@ private GenomicSequence  _get(final String contigName)
 	{
 	final SAMSequenceRecord rec=this.dict.getSequence(contigName);
 	if(rec==null) throw new NoSuchElementException(contigName);
+	if(this.twoBitCache!=null) {
+		/* no buffer, a GenomicSequence is cheap */
+		return this.twoBitCache.computeIfAbsent(rec.getSequenceName(),C->new GenomicSequence(this.indexedFastaSequenceFile,C));
+		}
 	if(this.cached!=null && this.cached.getChrom().equals(contigName)) {
 		return this.cached;
 		}
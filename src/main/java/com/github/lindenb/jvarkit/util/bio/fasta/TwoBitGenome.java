@@ -0,0 +1,497 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util.bio.fasta;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+
+/**
+ * A memory-mapped image of a reference genome.
+ *
+ * The bases are packed in 2 bits (ACGT). The other symbols (N, IUPAC...) and the
+ * soft-masked (lower case) regions are stored as runs, so charAt returns exactly the
+ * same character as the fasta file. Every 256 bases, a block stores the number of
+ * GC/AT so the GC% of any interval is computed in constant time.
+ *
+ * The file is mapped once and can be shared by all the threads.
+ * An image 'ref.fa.twobit' next to 'ref.fa' is used by GenomicSequence.
+ */
+public class TwoBitGenome
+	{
+	private static final Logger LOG = Logger.build(TwoBitGenome.class).make();
+	/** suffix of an image next to the fasta file */
+	public static final String SUFFIX = ".twobit";
+	private static final byte MAGIC[] = "JVK2BIT1".getBytes(StandardCharsets.US_ASCII);
+	private static final int BLOCK_SHIFT = 8;
+	private static final int BLOCK_SIZE = 1<<BLOCK_SHIFT;
+	/** size of a block: gc-prefix, at-prefix, first exception run, first lower-case run */
+	private static final int BLOCK_BYTES = 16;
+	/** size of an exception run: start, end, char */
+	private static final int EXC_BYTES = 9;
+	/** size of a lower-case run: start, end */
+	private static final int LOWER_BYTES = 8;
+	private static final char BASES[] = {'A','C','G','T'};
+	/** images for the fasta files, empty if there is no image */
+	private static final Map<String, Optional<TwoBitGenome>> FASTA2IMAGE = new ConcurrentHashMap<>();
+
+	private final File file;
+	private final List<Contig> contigs;
+	private final Map<String,Contig> name2contig = new HashMap<>();
+
+	/** one sequence of the image */
+	public static class Contig
+		{
+		private final String name;
+		private final int length;
+		private final int nExceptions;
+		private final int nLowers;
+		/** 2-bit bases */
+		private final ByteBuffer data;
+		private final ByteBuffer blocks;
+		private final ByteBuffer exceptions;
+		private final ByteBuffer lowers;
+
+		private Contig(final String name,final int length,final int nExceptions,final int nLowers,final MappedByteBuffer buffer)
+			{
+			this.name = name;
+			this.length = length;
+			this.nExceptions = nExceptions;
+			this.nLowers = nLowers;
+			final int dataSize = dataSize(length);
+			final int blocksSize = blocksSize(length);
+			this.data = slice(buffer,0,dataSize);
+			this.blocks = slice(buffer,dataSize,blocksSize);
+			this.exceptions = slice(buffer,dataSize+blocksSize,nExceptions*EXC_BYTES);
+			this.lowers = slice(buffer,dataSize+blocksSize+nExceptions*EXC_BYTES,nLowers*LOWER_BYTES);
+			}
+
+		private static ByteBuffer slice(final ByteBuffer buffer,final int offset,final int size)
+			{
+			final ByteBuffer dup = buffer.duplicate();
+			dup.position(offset);
+			dup.limit(offset+size);
+			return dup.slice();
+			}
+
+		public String getName()
+			{
+			return this.name;
+			}
+
+		public int length()
+			{
+			return this.length;
+			}
+
+		/** returns the base at position index0, same case as in the fasta file */
+		public char charAt(final int index0)
+			{
+			if(index0<0 || index0>=this.length) throw new IndexOutOfBoundsException("index:"+index0);
+			final int block = index0>>>BLOCK_SHIFT;
+			char c = BASES[(this.data.get(index0>>>2)>>>(6-2*(index0&3)))&3];
+			if(this.nExceptions>0)
+				{
+				int i = this.blocks.getInt(block*BLOCK_BYTES+8);
+				while(i< this.nExceptions)
+					{
+					final int start = this.exceptions.getInt(i*EXC_BYTES);
+					if(start>index0) break;
+					if(index0 < this.exceptions.getInt(i*EXC_BYTES+4))
+						{
+						c = (char)this.exceptions.get(i*EXC_BYTES+8);
+						break;
+						}
+					i++;
+					}
+				}
+			if(this.nLowers>0)
+				{
+				int i = this.blocks.getInt(block*BLOCK_BYTES+12);
+				while(i< this.nLowers)
+					{
+					final int start = this.lowers.getInt(i*LOWER_BYTES);
+					if(start>index0) break;
+					if(index0 < this.lowers.getInt(i*LOWER_BYTES+4))
+						{
+						c = Character.toLowerCase(c);
+						break;
+						}
+					i++;
+					}
+				}
+			return c;
+			}
+
+		/** number of C,G,S in [0,index0) */
+		private int prefixGC(final int index0)
+			{
+			final int block = index0>>>BLOCK_SHIFT;
+			int n = this.blocks.getInt(block*BLOCK_BYTES);
+			for(int i=block<<BLOCK_SHIFT;i< index0;++i)
+				{
+				if(isGC(charAt(i))) n++;
+				}
+			return n;
+			}
+
+		/** number of A,T,W in [0,index0) */
+		private int prefixAT(final int index0)
+			{
+			final int block = index0>>>BLOCK_SHIFT;
+			int n = this.blocks.getInt(block*BLOCK_BYTES+4);
+			for(int i=block<<BLOCK_SHIFT;i< index0;++i)
+				{
+				if(isAT(charAt(i))) n++;
+				}
+			return n;
+			}
+
+		/** number of C,G,S (any case) between start (inclusive, 0 based) and end (exclusive) */
+		public int countGC(final int start,final int end)
+			{
+			final int e = Math.min(end, this.length);
+			if(start>=e) return 0;
+			return prefixGC(e)-prefixGC(Math.max(0,start));
+			}
+
+		/** number of A,T,W (any case) between start (inclusive, 0 based) and end (exclusive) */
+		public int countAT(final int start,final int end)
+			{
+			final int e = Math.min(end, this.length);
+			if(start>=e) return 0;
+			return prefixAT(e)-prefixAT(Math.max(0,start));
+			}
+
+		@Override
+		public String toString()
+			{
+			return this.name+"("+this.length+")";
+			}
+		}
+
+	private TwoBitGenome(final File file) throws IOException
+		{
+		this.file = file;
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r"))
+			{
+			final byte magic[] = new byte[MAGIC.length];
+			raf.readFully(magic);
+			if(!Arrays.equals(magic, MAGIC))
+				{
+				throw new JvarkitException.FileFormatError("not a 2-bit image: "+file);
+				}
+			final int n = raf.readInt();
+			this.contigs = new ArrayList<>(n);
+			final FileChannel channel = raf.getChannel();
+			for(int i=0;i< n;++i)
+				{
+				final String name = raf.readUTF();
+				final int length = raf.readInt();
+				final long offset = raf.readLong();
+				final int nExceptions = raf.readInt();
+				final int nLowers = raf.readInt();
+				final long size = (long)dataSize(length)+blocksSize(length)+(long)nExceptions*EXC_BYTES+(long)nLowers*LOWER_BYTES;
+				if(size>Integer.MAX_VALUE) throw new JvarkitException.FileFormatError("contig too large "+name+" in "+file);
+				final Contig contig = new Contig(name, length, nExceptions, nLowers,
+					channel.map(FileChannel.MapMode.READ_ONLY, offset, size)
+					);
+				this.contigs.add(contig);
+				this.name2contig.put(name, contig);
+				}
+			}
+		}
+
+	private static int dataSize(final int length)
+		{
+		return (int)(((long)length+3L)/4L);
+		}
+
+	private static int blocksSize(final int length)
+		{
+		return ((length>>>BLOCK_SHIFT)+1)*BLOCK_BYTES;
+		}
+
+	private static boolean isGC(final char c)
+		{
+		switch(c)
+			{
+			case 'c': case 'C':
+			case 'g': case 'G':
+			case 's': case 'S': return true;
+			default: return false;
+			}
+		}
+
+	private static boolean isAT(final char c)
+		{
+		switch(c)
+			{
+			case 'a': case 'A':
+			case 't': case 'T':
+			case 'w': case 'W': return true;
+			default: return false;
+			}
+		}
+
+	/** open a 2-bit image */
+	public static TwoBitGenome open(final File file) throws IOException
+		{
+		return new TwoBitGenome(file);
+		}
+
+	public File getFile()
+		{
+		return this.file;
+		}
+
+	public List<Contig> getContigs()
+		{
+		return Collections.unmodifiableList(this.contigs);
+		}
+
+	/** returns the contig or null */
+	public Contig getContig(final String name)
+		{
+		return this.name2contig.get(name);
+		}
+
+	/** returns true if the names and the lengths of the contigs are the same as in the dictionary */
+	public boolean isCompatible(final SAMSequenceDictionary dict)
+		{
+		if(dict==null || dict.size()!=this.contigs.size()) return false;
+		for(int i=0;i< dict.size();++i)
+			{
+			final SAMSequenceRecord ssr = dict.getSequence(i);
+			final Contig contig = this.contigs.get(i);
+			if(!ssr.getSequenceName().equals(contig.getName())) return false;
+			if(ssr.getSequenceLength()!=contig.length()) return false;
+			}
+		return true;
+		}
+
+	/** returns the shared image 'fasta.twobit' next to the fasta file, or null if there is no such file.
+	 * The image is ignored if it is older than the fasta or if the dictionaries differ */
+	public static TwoBitGenome forFasta(final IndexedFastaSequenceFile fasta)
+		{
+		if(fasta==null) return null;
+		/* toString returns the absolute path of the fasta */
+		final String path = fasta.toString();
+		return FASTA2IMAGE.computeIfAbsent(path, P->{
+			final File fastaFile = new File(P);
+			final File imageFile = new File(P+SUFFIX);
+			if(!imageFile.isFile() || !fastaFile.isFile()) return Optional.empty();
+			if(imageFile.lastModified() < fastaFile.lastModified())
+				{
+				LOG.warn("Ignoring "+imageFile+" because it is older than "+fastaFile);
+				return Optional.empty();
+				}
+			try
+				{
+				final TwoBitGenome image = open(imageFile);
+				if(!image.isCompatible(fasta.getSequenceDictionary()))
+					{
+					LOG.warn("Ignoring "+imageFile+" because its contigs are not the same as in "+fastaFile);
+					return Optional.empty();
+					}
+				LOG.info("Using 2-bit image "+imageFile);
+				return Optional.of(image);
+				}
+			catch(final IOException err)
+				{
+				LOG.warn("Cannot open "+imageFile+" "+err.getMessage());
+				return Optional.empty();
+				}
+			}).orElse(null);
+		}
+
+	/** growable array of int */
+	private static class IntArray
+		{
+		int array[] = new int[64];
+		int size = 0;
+		void add(final int v)
+			{
+			if(this.size==this.array.length) this.array = Arrays.copyOf(this.array, this.size*2);
+			this.array[this.size++] = v;
+			}
+		}
+
+	/** fill the block starting at pos. The first run of a block is the last run if it may continue in this block */
+	private static void setBlock(final int blocks[],final int pos,final int gc,final int at,final IntArray exc,final IntArray lower)
+		{
+		final int b = (pos>>>BLOCK_SHIFT)*4;
+		blocks[b] = gc;
+		blocks[b+1] = at;
+		blocks[b+2] = exc.size/3 - (exc.size>0 && exc.array[exc.size-2]==pos?1:0);
+		blocks[b+3] = lower.size/2 - (lower.size>0 && lower.array[lower.size-1]==pos?1:0);
+		}
+
+	/** write the 2-bit image of an indexed fasta file */
+	public static void write(final IndexedFastaSequenceFile fasta,final File out) throws IOException
+		{
+		final SAMSequenceDictionary dict = fasta.getSequenceDictionary();
+		if(dict==null) throw new JvarkitException.FastaDictionaryMissing(String.valueOf(fasta));
+		long headerSize = MAGIC.length+4;
+		for(final SAMSequenceRecord ssr: dict.getSequences())
+			{
+			headerSize += 2 + ssr.getSequenceName().getBytes(StandardCharsets.UTF_8).length + 4 + 8 + 4 + 4;
+			}
+		try(RandomAccessFile raf = new RandomAccessFile(out, "rw"))
+			{
+			raf.setLength(0L);
+			final FileChannel channel = raf.getChannel();
+			final long offsets[] = new long[dict.size()];
+			final int nExceptions[] = new int[dict.size()];
+			final int nLowers[] = new int[dict.size()];
+			long position = headerSize;
+			channel.position(position);
+			final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1<<20));
+			for(final SAMSequenceRecord ssr: dict.getSequences())
+				{
+				LOG.info("writing "+ssr.getSequenceName());
+				final int length = ssr.getSequenceLength();
+				final int nBlocks = (length>>>BLOCK_SHIFT)+1;
+				final int blocks[] = new int[nBlocks*4];
+				final IntArray exc = new IntArray();/* start, end, char */
+				final IntArray lower = new IntArray();/* start, end */
+				int gc = 0;
+				int at = 0;
+				int packed = 0;
+				final int chunkSize = 1<<20;
+				for(int chunkStart=0;chunkStart< length;chunkStart+=chunkSize)
+					{
+					final int chunkEnd = Math.min(length, chunkStart+chunkSize);
+					final byte bases[] = fasta.getSubsequenceAt(ssr.getSequenceName(), chunkStart+1, chunkEnd).getBases();
+					for(int j=0;j< bases.length;++j)
+						{
+						final int pos = chunkStart+j;
+						if((pos&(BLOCK_SIZE-1))==0)
+							{
+							setBlock(blocks, pos, gc, at, exc, lower);
+							}
+						final char c = (char)bases[j];
+						if(isGC(c)) gc++;
+						else if(isAT(c)) at++;
+						if(Character.isLowerCase(c))
+							{
+							if(lower.size>0 && lower.array[lower.size-1]==pos) lower.array[lower.size-1]++;
+							else { lower.add(pos); lower.add(pos+1);}
+							}
+						final char uc = Character.toUpperCase(c);
+						final int code;
+						switch(uc)
+							{
+							case 'A': code=0; break;
+							case 'C': code=1; break;
+							case 'G': code=2; break;
+							case 'T': code=3; break;
+							default:
+								{
+								code=0;
+								if(exc.size>0 && exc.array[exc.size-2]==pos && exc.array[exc.size-1]==uc) exc.array[exc.size-2]++;
+								else { exc.add(pos); exc.add(pos+1); exc.add(uc);}
+								break;
+								}
+							}
+						packed = (packed<<2) | code;
+						if((pos&3)==3)
+							{
+							dos.write(packed);
+							packed = 0;
+							}
+						}
+					}
+				if((length&3)!=0)
+					{
+					dos.write(packed<<(2*(4-(length&3))));
+					}
+				/* last block: totals of the contig */
+				if((length&(BLOCK_SIZE-1))==0)
+					{
+					setBlock(blocks, length, gc, at, exc, lower);
+					}
+				for(final int v: blocks) dos.writeInt(v);
+				for(int i=0;i< exc.size;i+=3)
+					{
+					dos.writeInt(exc.array[i]);
+					dos.writeInt(exc.array[i+1]);
+					dos.writeByte(exc.array[i+2]);
+					}
+				for(int i=0;i< lower.size;++i) dos.writeInt(lower.array[i]);
+
+				final int tid = ssr.getSequenceIndex();
+				offsets[tid] = position;
+				nExceptions[tid] = exc.size/3;
+				nLowers[tid] = lower.size/2;
+				position += (long)dataSize(length)+blocksSize(length)+(long)nExceptions[tid]*EXC_BYTES+(long)nLowers[tid]*LOWER_BYTES;
+				}
+			dos.flush();
+			raf.seek(0L);
+			raf.write(MAGIC);
+			raf.writeInt(dict.size());
+			for(final SAMSequenceRecord ssr: dict.getSequences())
+				{
+				raf.writeUTF(ssr.getSequenceName());
+				raf.writeInt(ssr.getSequenceLength());
+				raf.writeLong(offsets[ssr.getSequenceIndex()]);
+				raf.writeInt(nExceptions[ssr.getSequenceIndex()]);
+				raf.writeInt(nLowers[ssr.getSequenceIndex()]);
+				}
+			}
+		}
+
+	@Override
+	public String toString()
+		{
+		return "TwoBitGenome("+this.file+")";
+		}
+	}
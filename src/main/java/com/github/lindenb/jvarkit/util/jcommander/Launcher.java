@@ -40,6 +40,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
@@ -77,6 +78,8 @@ import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodec;
 import com.github.lindenb.jvarkit.util.bio.samfilter.SamFilterParser;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.JvarkitSortingCollection;
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 import com.github.lindenb.semontology.Term;
@@ -89,6 +92,7 @@ import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.IntervalTreeMap;
+import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
@@ -573,6 +577,13 @@ private final JCommander jcommander = new MyJCommander();
 @Parameter(description = "Files")
 private List<String> files = new ArrayList<>();
 
+@Parameter(names={"--vcfBgzfThreads"},description="[20171018] When reading a BGZF-compressed VCF with openVcfIterator, inflate the BGZF blocks using this number of threads. Ignored if lower than 2.")
+private int vcfBgzfThreads = 0;
+@Parameter(names={"--vcfDecodeThreads"},description="[20171018] When reading a VCF with openVcfIterator, decode the VCF lines using this number of threads. The genotypes are decoded in those threads, so the missing trailing FORMAT fields may be trimmed in the output. Ignored if lower than 2.")
+private int vcfDecodeThreads = 0;
+@Parameter(names={"--vcfFullyDecode"},description="[20171018] When --vcfDecodeThreads is used, fully decode the variants (INFO and FORMAT types) in the decoding threads.")
+private boolean vcfFullyDecode = false;
+
 private String programName="";
 
 public class CompressionArgs
@@ -617,6 +628,8 @@ public class WritingSortingCollection
 	@Parameter(names={"--tmpDir"},description= "tmp working directory. Default: java.io.tmpDir")
 	private List<File> tmpDirs=new ArrayList<>();
 	
+	@Parameter(names={"--sortThreads"},description="When greater than 0, the records are sorted and written to deflated temporary files by 'sortThreads' threads while the input is read, and the temporary files are merged with a loser tree. Up to (sortThreads+1)*maxRecordsInRam records are held in RAM. 0: use the htsjdk SortingCollection.")
+	private int sortThreads=0;
 	
 	public WritingSortingCollection maxRecordsInRam(final int n)
 		{
@@ -624,6 +637,38 @@ public class WritingSortingCollection
 		return this;
 		}
 	public int getMaxRecordsInRam() { return this.maxRecordsInRam;}
+	public WritingSortingCollection sortThreads(final int n)
+		{
+		this.sortThreads = n;
+		return this;
+		}
+	public int getSortThreads() { return this.sortThreads;}
+	
+	/** creates a new sorting collection: a ParallelSortingCollection if sortThreads&gt;0, else a htsjdk SortingCollection */
+	public <T> JvarkitSortingCollection<T> make(
+			final Class<T> componentType,
+			final SortingCollection.Codec<T> codec,
+			final Comparator<T> comparator)
+		{
+		if(this.sortThreads>0)
+			{
+			return new ParallelSortingCollection<>(
+				componentType,
+				codec,
+				comparator,
+				this.getMaxRecordsInRam(),
+				this.getTmpDirectories(),
+				this.sortThreads
+				);
+			}
+		return JvarkitSortingCollection.wrap(SortingCollection.newInstance(
+				componentType,
+				codec,
+				comparator,
+				this.getMaxRecordsInRam(),
+				this.getTmpPaths()
+				));
+		}
 	public List<File> getTmpDirectories() {
 		final List<File> L= new ArrayList<>(this.tmpDirs);
 		if(L.isEmpty() )
@@ -958,7 +1003,11 @@ protected Status parseArgs(final String args[])
 	}
 
 protected VcfIterator openVcfIterator(final String inputNameOrNull) throws IOException {
-	return VCFUtils.createVcfIterator(inputNameOrNull);
+	if(this.vcfDecodeThreads>1)
+		{
+		return VCFUtils.createParallelVcfIterator(inputNameOrNull,this.vcfBgzfThreads,this.vcfDecodeThreads,this.vcfFullyDecode);
+		}
+	return VCFUtils.createVcfIterator(inputNameOrNull,this.vcfBgzfThreads);
 }
 
 /**
@@ -34,11 +34,14 @@ import htsjdk.samtools.SAMSequenceRecord;
 
 import com.github.lindenb.jvarkit.lang.AbstractCharSequence;
 import com.github.lindenb.jvarkit.util.bio.ChromosomeSequence;
+import com.github.lindenb.jvarkit.util.bio.fasta.TwoBitGenome;
 
 /**
  * 
  * implementation of java.lang.CharSequence for a given
- * chromosome of a picard IndexedFastaSequenceFile
+ * chromosome of a picard IndexedFastaSequenceFile.
+ * If a 2-bit image 'ref.fa.twobit' was built for the fasta (see fasta2twobit),
+ * the bases are read from this memory-mapped image.
  *
  */
 public class GenomicSequence
@@ -47,6 +50,8 @@ public class GenomicSequence
 	{
 	private final IndexedFastaSequenceFile indexedFastaSequenceFile;
 	private final SAMSequenceRecord samSequenceRecord;
+	/** 2-bit image of this contig, or null */
+	private final TwoBitGenome.Contig twoBitContig;
 	private byte buffer[]=null;
 	private int buffer_pos=-1;
 	private int half_buffer_capacity=1000000;
@@ -142,6 +147,8 @@ public class GenomicSequence
 			}
 		this.samSequenceRecord=this.indexedFastaSequenceFile.getSequenceDictionary().getSequence(chrom);
 		if(this.samSequenceRecord==null) throw new IllegalArgumentException("not chromosome "+chrom+" in reference.");
+		final TwoBitGenome twoBit = TwoBitGenome.forFasta(this.indexedFastaSequenceFile);
+		this.twoBitContig = (twoBit==null?null:twoBit.getContig(chrom));
 		}
 	
 	public SAMSequenceRecord getSAMSequenceRecord()
@@ -175,6 +182,10 @@ public class GenomicSequence
 			{
 			throw new IndexOutOfBoundsException("index:"+index0);
 			}
+		if(this.twoBitContig!=null)
+			{
+			return this.twoBitContig.charAt(index0);
+			}
 		if(buffer!=null && index0>=buffer_pos && index0-buffer_pos < buffer.length)
 			{
 			return (char)buffer[index0-buffer_pos];
@@ -197,6 +208,12 @@ public class GenomicSequence
 				start+1,
 				Math.min(end, L)
 				);
+		if(this.twoBitContig!=null) {
+			gcp.count = Math.max(0, Math.min(end, L)-start);
+			gcp.count_gc = this.twoBitContig.countGC(start, end);
+			gcp.count_at = this.twoBitContig.countAT(start, end);
+			return gcp;
+			}
 		for(int i=start;i< end && i< L;++i) {
 			gcp.count++;
 			switch(this.charAt(i)) {
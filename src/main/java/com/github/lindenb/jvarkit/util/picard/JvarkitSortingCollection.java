@@ -0,0 +1,65 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util.picard;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.SortingCollection;
+
+/**
+ * The contract of htsjdk's SortingCollection: add, doneAdding, iterator, cleanup.
+ * Implemented by a wrapped htsjdk SortingCollection and by ParallelSortingCollection.
+ */
+public interface JvarkitSortingCollection<T> extends Iterable<T>
+	{
+	public void add(T o);
+	public void doneAdding();
+	public void setDestructiveIteration(boolean destructiveIteration);
+	@Override
+	public CloseableIterator<T> iterator();
+	/** delete the temporary files */
+	public void cleanup();
+
+	/** wrap a htsjdk SortingCollection */
+	public static <T> JvarkitSortingCollection<T> wrap(final SortingCollection<T> delegate)
+		{
+		return new JvarkitSortingCollection<T>()
+			{
+			@Override
+			public void add(final T o) { delegate.add(o);}
+			@Override
+			public void doneAdding() { delegate.doneAdding();}
+			@Override
+			public void setDestructiveIteration(final boolean b) { delegate.setDestructiveIteration(b);}
+			@Override
+			public CloseableIterator<T> iterator() { return delegate.iterator();}
+			@Override
+			public void cleanup() { delegate.cleanup();}
+			};
+		}
+	}
@@ -24,6 +24,7 @@ SOFTWARE.
 
 History:
 * 2014 creation
+* 2017 loser tree and background readers
 
 */
 package com.github.lindenb.jvarkit.util.picard;
@@ -33,102 +34,285 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.github.lindenb.jvarkit.util.LoserTreeMergingIterator;
 
-import htsjdk.samtools.util.PeekableIterator;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordCoordinateComparator;
 import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
 
 /** a fast ? version of merging samrecorditerator, no merging of read groups
- * assuming sam sequence dictionaries are the same */
+ * assuming sam sequence dictionaries are the same.
+ * 
+ * The sources are merged with a tree of losers (log2(k) comparisons per record).
+ * With a readAhead greater than 0, each source is decoded by a background thread into a bounded queue.
+ * The constructors without a readAhead don't start any thread.
+ * Records comparing equal are returned round-robin: the first record of each source
+ * in the order of the sources, then the second record of each source, etc...
+ */
 public class MergingSamRecordIterator implements Iterator<SAMRecord>,CloseableIterator<SAMRecord>
 	{
-	private List<PeekableIterator<SAMRecord>> iterators=new ArrayList<PeekableIterator<SAMRecord>>();
-	private SAMRecord _next=null;
-	private Comparator<SAMRecord> comparator;
-	private ArrayList<Integer> bestIndexes;
-	public MergingSamRecordIterator(
-			Comparator<SAMRecord> comparator,
-			List<CloseableIterator<SAMRecord>> iterators
-			)
+	/** suggested number of records buffered for each source when the caller wants background readers */
+	public static final int DEFAULT_READ_AHEAD = 256;
+	/** max number of records moved at once between a reader and the consumer */
+	private static final int MAX_BATCH_SIZE = 64;
+	/** marks the end of a source in its queue */
+	private static final List<SAMRecord> EOF = new ArrayList<>(0);
+	private final List<Source> sources;
+	private final LoserTreeMergingIterator<Holder> merger;
+	private boolean closed = false;
+
+	/** a record and its rank among the consecutive records comparing equal in its source */
+	private static class Holder
 		{
-		this.iterators=new ArrayList<PeekableIterator<SAMRecord>>(iterators.size());
-		for(CloseableIterator<SAMRecord> it:iterators)
+		final SAMRecord rec;
+		final int occurrence;
+		Holder(final SAMRecord rec,final int occurrence)
 			{
-			this.iterators.add(new PeekableIterator<SAMRecord>(it));
+			this.rec = rec;
+			this.occurrence = occurrence;
 			}
-		this.bestIndexes=new ArrayList<>();
-		this.comparator=comparator;
-		if(this.comparator==null) throw new NullPointerException("comparator is null");
-		}
-	public MergingSamRecordIterator(List<CloseableIterator<SAMRecord>> iterators)
-		{
-		this(new SAMRecordCoordinateComparator(),iterators);
 		}
 	
-
-	@Override
-	public boolean hasNext()
+	/** one source of records, read directly or by a background thread */
+	private static class Source implements Iterator<Holder>
 		{
-		if(_next!=null) return true;
-		if(!this.bestIndexes.isEmpty())
+		private final CloseableIterator<SAMRecord> delegate;
+		private final Comparator<SAMRecord> comparator;
+		/** null if the source is read directly */
+		private final BlockingQueue<List<SAMRecord>> queue;
+		private final int batchSize;
+		private Thread thread = null;
+		private volatile boolean stopped = false;
+		private volatile Throwable error = null;
+		private List<SAMRecord> batch = null;
+		private int batchIndex = 0;
+		private boolean eof = false;
+		private SAMRecord peeked = null;
+		private Holder last = null;
+		
+		Source(final CloseableIterator<SAMRecord> delegate,final Comparator<SAMRecord> comparator,final int readAhead)
 			{
-			int las_index= this.bestIndexes.remove(this.bestIndexes.size()-1);
-			_next= iterators.get(las_index).next();
-			return true;
-			}	
-		if(iterators.isEmpty()) return false;
-		int i=0;
-		SAMRecord best=null;
-		while(i<iterators.size())
+			this.delegate = delegate;
+			this.comparator = comparator;
+			if(readAhead<=0)
+				{
+				this.queue = null;
+				this.batchSize = 0;
+				}
+			else
+				{
+				this.batchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, readAhead/2));
+				this.queue = new ArrayBlockingQueue<>(Math.max(1, readAhead/this.batchSize));
+				}
+			}
+		
+		void start(final int index)
 			{
-			PeekableIterator<SAMRecord> peeker=iterators.get(i);
-			if(!peeker.hasNext())
+			if(this.queue==null) return;
+			this.thread = new Thread(this::read,"MergingSamRecordIterator-"+index);
+			this.thread.setDaemon(true);
+			this.thread.start();
+			}
+		
+		/** background reader: moves the records of the delegate into the queue */
+		private void read()
+			{
+			try
+				{
+				List<SAMRecord> L = new ArrayList<>(this.batchSize);
+				while(!this.stopped && this.delegate.hasNext())
+					{
+					L.add(this.delegate.next());
+					if(L.size() < this.batchSize) continue;
+					if(!put(L)) return;
+					L = new ArrayList<>(this.batchSize);
+					}
+				if(!L.isEmpty()) put(L);
+				}
+			catch(final Throwable err)
+				{
+				this.error = err;
+				}
+			finally
+				{
+				CloserUtil.close(this.delegate);
+				put(EOF);
+				}
+			}
+		
+		/** returns false if this source was stopped */
+		private boolean put(final List<SAMRecord> L)
+			{
+			try
+				{
+				while(!this.stopped)
+					{
+					if(this.queue.offer(L, 100L, TimeUnit.MILLISECONDS)) return true;
+					}
+				}
+			catch(final InterruptedException err)
 				{
-				peeker.close();
-				iterators.remove(i);
-				continue;
+				this.stopped = true;
 				}
-			SAMRecord rec=peeker.peek();
+			return false;
+			}
 		
-			
-			if(best==null)
+		/** returns the next record of the delegate or null */
+		private SAMRecord nextRecord()
+			{
+			if(this.eof) return null;
+			if(this.queue==null)
 				{
-				this.bestIndexes.clear();
-				this.bestIndexes.add(i);
-				best=rec;
+				if(!this.delegate.hasNext())
+					{
+					this.eof = true;
+					CloserUtil.close(this.delegate);
+					return null;
+					}
+				return this.delegate.next();
 				}
-			else
+			if(this.batch==null || this.batchIndex>=this.batch.size())
 				{
-				int cmp=this.comparator.compare(rec, best);
-				if(cmp<0)
+				try
 					{
-					this.bestIndexes.clear();
-					this.bestIndexes.add(i);
-					best=rec;
+					this.batch = this.queue.take();
 					}
-				else if(cmp==0)
+				catch(final InterruptedException err)
 					{
-					this.bestIndexes.add(0,i);//push front
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(err);
 					}
+				this.batchIndex = 0;
+				if(this.batch==EOF)
+					{
+					this.eof = true;
+					this.batch = null;
+					final Throwable err = this.error;
+					if(err!=null)
+						{
+						if(err instanceof RuntimeException) throw (RuntimeException)err;
+						if(err instanceof Error) throw (Error)err;
+						throw new RuntimeException(err);
+						}
+					return null;
+					}
+				}
+			return this.batch.get(this.batchIndex++);
+			}
+		
+		@Override
+		public boolean hasNext()
+			{
+			if(this.peeked==null) this.peeked = nextRecord();
+			return this.peeked!=null;
+			}
+		
+		@Override
+		public Holder next()
+			{
+			if(!hasNext()) throw new NoSuchElementException();
+			final int occurrence = (this.last!=null && this.comparator.compare(this.last.rec, this.peeked)==0?
+					this.last.occurrence+1:
+					0);
+			this.last = new Holder(this.peeked, occurrence);
+			this.peeked = null;
+			return this.last;
+			}
+		
+		/** stops the background reader and closes the delegate */
+		void stop()
+			{
+			this.stopped = true;
+			this.peeked = null;
+			this.last = null;
+			this.batch = null;
+			if(this.thread==null)
+				{
+				CloserUtil.close(this.delegate);
+				return;
+				}
+			this.queue.clear();
+			try
+				{
+				this.thread.join();
 				}
-			++i;
+			catch(final InterruptedException err)
+				{
+				Thread.currentThread().interrupt();
+				}
+			this.thread = null;
+			this.queue.clear();
+			}
+		}
+	
+	/**
+	 * @param comparator how the records are sorted
+	 * @param iterators sorted sources
+	 * @param readAhead number of records read in advance by a background thread for each source. 0 : no background thread.
+	 */
+	public MergingSamRecordIterator(
+			final Comparator<SAMRecord> comparator,
+			final List<CloseableIterator<SAMRecord>> iterators,
+			final int readAhead
+			)
+		{
+		if(comparator==null) throw new NullPointerException("comparator is null");
+		this.sources = new ArrayList<>(iterators.size());
+		for(final CloseableIterator<SAMRecord> it:iterators)
+			{
+			this.sources.add(new Source(it, comparator, readAhead));
+			}
+		for(int i=0;i< this.sources.size();++i)
+			{
+			this.sources.get(i).start(i);
 			}
-		if(!bestIndexes.isEmpty())
+		/* equal records are sorted on their rank in their source, then on the index of the source */
+		final Comparator<Holder> holderComparator = (A,B)->{
+			final int i = comparator.compare(A.rec, B.rec);
+			if(i!=0) return i;
+			return Integer.compare(A.occurrence, B.occurrence);
+			};
+		try
 			{
-			int las_index= this.bestIndexes.remove(this.bestIndexes.size()-1);
-			_next= iterators.get(las_index).next();
+			this.merger = new LoserTreeMergingIterator<>(this.sources, holderComparator);
 			}
-		return _next!=null;
+		catch(final RuntimeException err)
+			{
+			for(final Source src:this.sources) src.stop();
+			throw err;
+			}
+		}
+	
+	/** merge the sources in the current thread, no background reader */
+	public MergingSamRecordIterator(
+			Comparator<SAMRecord> comparator,
+			List<CloseableIterator<SAMRecord>> iterators
+			)
+		{
+		this(comparator,iterators,0);
+		}
+	public MergingSamRecordIterator(List<CloseableIterator<SAMRecord>> iterators)
+		{
+		this(new SAMRecordCoordinateComparator(),iterators);
+		}
+	
+
+	@Override
+	public boolean hasNext()
+		{
+		return !this.closed && this.merger.hasNext();
 		}
 
 	@Override
 	public SAMRecord next()
 		{
 		if(!hasNext()) throw new NoSuchElementException();
-		SAMRecord o=_next;
-		_next=null;
-		return o;
+		return this.merger.next().rec;
 		}
 
 	@Override
@@ -139,12 +323,10 @@ public class MergingSamRecordIterator implements Iterator<SAMRecord>,CloseableIt
 	@Override
 	public void close()
 		{
-		for(PeekableIterator<SAMRecord> it:this.iterators)
+		this.closed = true;
+		for(final Source src:this.sources)
 			{
-			it.close();
+			src.stop();
 			}
-		this.bestIndexes.clear();
-		this.iterators.clear();
-		this._next=null;
 		}
 	}
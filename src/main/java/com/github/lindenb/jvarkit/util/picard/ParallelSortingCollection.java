@@ -0,0 +1,339 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.github.lindenb.jvarkit.util.LoserTreeMergingIterator;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.SortingCollection;
+
+/**
+ * An external sort with the same contract as htsjdk's SortingCollection.
+ * When 'maxRecordsInRam' records have been added, the chunk is sorted and
+ * written to a deflated temporary file by a worker thread while the caller
+ * keeps adding records. At most 'nThreads' chunks are pending, so up to
+ * (nThreads+1)*maxRecordsInRam records can be in memory.
+ * The last chunk stays in memory and the chunks are merged with a loser tree.
+ * Equal records are returned in the order they were added.
+ */
+public class ParallelSortingCollection<T> implements JvarkitSortingCollection<T>
+	{
+	private static final int BUFFER_SIZE = 65536;
+	private final Class<T> componentType;
+	private final SortingCollection.Codec<T> codec;
+	private final Comparator<T> comparator;
+	private final int maxRecordsInRam;
+	private final List<File> tmpDirs;
+	private final int nThreads;
+	private final ExecutorService executor;
+	/** sorted chunks written by the workers, in the order of insertion */
+	private final List<Future<File>> spills = new ArrayList<>();
+	/** index of the first chunk that may still be running */
+	private int firstPending = 0;
+	/** all the temporary files */
+	private final List<File> files = Collections.synchronizedList(new ArrayList<>());
+	private T ramRecords[];
+	private int numRecordsInRam = 0;
+	private boolean doneAdding = false;
+	private boolean iterationStarted = false;
+	private boolean destructiveIteration = true;
+
+	public ParallelSortingCollection(
+			final Class<T> componentType,
+			final SortingCollection.Codec<T> codec,
+			final Comparator<T> comparator,
+			final int maxRecordsInRam,
+			final List<File> tmpDirs,
+			final int nThreads
+			)
+		{
+		if(maxRecordsInRam<=0) throw new IllegalArgumentException("maxRecordsInRam must be > 0");
+		if(nThreads<=0) throw new IllegalArgumentException("nThreads must be > 0");
+		if(tmpDirs==null || tmpDirs.isEmpty()) throw new IllegalArgumentException("At least one temp directory must be provided.");
+		this.componentType = componentType;
+		this.codec = codec;
+		this.comparator = comparator;
+		this.maxRecordsInRam = maxRecordsInRam;
+		this.tmpDirs = new ArrayList<>(tmpDirs);
+		this.nThreads = nThreads;
+		this.executor = Executors.newFixedThreadPool(nThreads, R->{
+			final Thread t = new Thread(R,"ParallelSortingCollection");
+			t.setDaemon(true);
+			return t;
+			});
+		this.ramRecords = this.newArray();
+		}
+
+	@SuppressWarnings("unchecked")
+	private T[] newArray()
+		{
+		return (T[])Array.newInstance(this.componentType, this.maxRecordsInRam);
+		}
+
+	@Override
+	public void add(final T rec)
+		{
+		if(this.doneAdding) throw new IllegalStateException("Cannot add after calling doneAdding()");
+		if(this.iterationStarted) throw new IllegalStateException("Cannot add after calling iterator()");
+		if(this.numRecordsInRam==this.maxRecordsInRam)
+			{
+			this.spill();
+			}
+		this.ramRecords[this.numRecordsInRam++] = rec;
+		}
+
+	/** send the records in RAM to a worker thread */
+	private void spill()
+		{
+		/* bound the number of chunks in memory */
+		while(this.spills.size()-this.firstPending >= this.nThreads)
+			{
+			this.waitFor(this.spills.get(this.firstPending));
+			this.firstPending++;
+			}
+		final T array[] = this.ramRecords;
+		final int n = this.numRecordsInRam;
+		final File tmpFile = this.newTempFile();
+		this.spills.add(this.executor.submit(()->{
+			Arrays.sort(array, 0, n, this.comparator);
+			this.write(array, n, tmpFile);
+			return tmpFile;
+			}));
+		this.ramRecords = this.newArray();
+		this.numRecordsInRam = 0;
+		}
+
+	private File newTempFile()
+		{
+		final File dir = this.tmpDirs.get(this.spills.size()%this.tmpDirs.size());
+		try
+			{
+			final File f = File.createTempFile("sortingcollection.", ".tmp", dir);
+			f.deleteOnExit();
+			this.files.add(f);
+			return f;
+			}
+		catch(final IOException err)
+			{
+			throw new RuntimeIOException(err);
+			}
+		}
+
+	private void write(final T array[],final int n,final File tmpFile) throws IOException
+		{
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try(OutputStream out = new BufferedOutputStream(new DeflaterOutputStream(new FileOutputStream(tmpFile), deflater, BUFFER_SIZE), BUFFER_SIZE))
+			{
+			final SortingCollection.Codec<T> c = this.codec.clone();
+			c.setOutputStream(out);
+			for(int i=0;i< n;++i)
+				{
+				c.encode(array[i]);
+				array[i] = null;
+				}
+			out.flush();
+			}
+		finally
+			{
+			deflater.end();
+			}
+		}
+
+	private File waitFor(final Future<File> future)
+		{
+		try
+			{
+			return future.get();
+			}
+		catch(final ExecutionException err)
+			{
+			final Throwable cause = err.getCause();
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if(cause instanceof IOException) throw new RuntimeIOException(cause);
+			throw new RuntimeException(cause);
+			}
+		catch(final InterruptedException err)
+			{
+			throw new RuntimeException(err);
+			}
+		}
+
+	@Override
+	public void doneAdding()
+		{
+		if(this.doneAdding) return;
+		this.doneAdding = true;
+		for(final Future<File> future: this.spills)
+			{
+			this.waitFor(future);
+			}
+		this.firstPending = this.spills.size();
+		this.executor.shutdown();
+		/* the last chunk stays in memory */
+		Arrays.sort(this.ramRecords, 0, this.numRecordsInRam, this.comparator);
+		}
+
+	@Override
+	public void setDestructiveIteration(final boolean destructiveIteration)
+		{
+		this.destructiveIteration = destructiveIteration;
+		}
+
+	@Override
+	public CloseableIterator<T> iterator()
+		{
+		if(!this.doneAdding) this.doneAdding();
+		if(this.ramRecords==null) throw new IllegalStateException("cleanup() was called");
+		this.iterationStarted = true;
+		final List<CloseableIterator<T>> sources = new ArrayList<>(this.spills.size()+1);
+		for(final Future<File> future: this.spills)
+			{
+			sources.add(new FileRecordIterator(this.waitFor(future)));
+			}
+		sources.add(new InMemoryIterator());
+		if(sources.size()==1) return sources.get(0);
+		return new LoserTreeMergingIterator<>(sources, this.comparator);
+		}
+
+	@Override
+	public void cleanup()
+		{
+		this.executor.shutdownNow();
+		this.ramRecords = null;
+		this.numRecordsInRam = 0;
+		synchronized(this.files)
+			{
+			for(final File f: this.files) f.delete();
+			this.files.clear();
+			}
+		}
+
+	private class InMemoryIterator implements CloseableIterator<T>
+		{
+		private int i = 0;
+		@Override
+		public boolean hasNext()
+			{
+			return this.i < ParallelSortingCollection.this.numRecordsInRam;
+			}
+		@Override
+		public T next()
+			{
+			if(!hasNext()) throw new NoSuchElementException();
+			final T rec = ParallelSortingCollection.this.ramRecords[this.i];
+			if(ParallelSortingCollection.this.destructiveIteration)
+				{
+				ParallelSortingCollection.this.ramRecords[this.i] = null;
+				}
+			this.i++;
+			return rec;
+			}
+		@Override
+		public void close()
+			{
+			}
+		}
+
+	/** read a sorted chunk, the file is closed as soon as it is exhausted */
+	private class FileRecordIterator implements CloseableIterator<T>
+		{
+		private final Inflater inflater = new Inflater();
+		private InputStream in;
+		private final SortingCollection.Codec<T> c;
+		private T next;
+		FileRecordIterator(final File file)
+			{
+			try
+				{
+				this.in = new BufferedInputStream(new InflaterInputStream(new FileInputStream(file), this.inflater, BUFFER_SIZE), BUFFER_SIZE);
+				}
+			catch(final IOException err)
+				{
+				this.inflater.end();
+				throw new RuntimeIOException(err);
+				}
+			this.c = ParallelSortingCollection.this.codec.clone();
+			this.c.setInputStream(this.in);
+			this.advance();
+			}
+		private void advance()
+			{
+			this.next = this.c.decode();
+			if(this.next==null) this.close();
+			}
+		@Override
+		public boolean hasNext()
+			{
+			return this.next!=null;
+			}
+		@Override
+		public T next()
+			{
+			if(!hasNext()) throw new NoSuchElementException();
+			final T rec = this.next;
+			this.advance();
+			return rec;
+			}
+		@Override
+		public void close()
+			{
+			if(this.in==null) return;
+			CloserUtil.close(this.in);
+			this.in = null;
+			this.inflater.end();
+			this.next = null;
+			}
+		}
+	}
@@ -0,0 +1,224 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util.samtools;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+
+/**
+ * Runs coverage tasks on a list of BAM files using a ForkJoinPool.
+ *
+ * The work is split by the caller into tasks of (BAM, chunk of a contig). Each worker
+ * thread keeps its last SamReader open, so the consecutive tasks on the same BAM don't
+ * re-open the file and its index. The results are returned as Futures, so the caller
+ * can print them in the order of submission.
+ */
+public class CoverageEngine implements Closeable
+	{
+	/** a task working on one BAM */
+	@FunctionalInterface
+	public static interface Task<T>
+		{
+		public T apply(SamReader samReader) throws Exception;
+		}
+
+	/** the SamReader currently opened by a worker thread */
+	private static class OpenedReader
+		{
+		File file = null;
+		SamReader samReader = null;
+		void close() {
+			CloserUtil.close(this.samReader);
+			this.samReader = null;
+			this.file = null;
+			}
+		}
+
+	private final SamReaderFactory samReaderFactory;
+	private final ForkJoinPool pool;
+	private final ThreadLocal<OpenedReader> openedReader;
+	/** all the readers, closed by close() */
+	private final List<OpenedReader> allReaders = new ArrayList<>();
+
+	public CoverageEngine(final SamReaderFactory samReaderFactory,final int nThreads)
+		{
+		this.samReaderFactory = samReaderFactory;
+		this.pool = new ForkJoinPool(Math.max(1, nThreads));
+		this.openedReader = ThreadLocal.withInitial(()->{
+			final OpenedReader r = new OpenedReader();
+			synchronized(this.allReaders) { this.allReaders.add(r);}
+			return r;
+			});
+		}
+
+	/** get the SamReader for 'file' in the current worker, re-using the previous one if it is the same file */
+	private SamReader getSamReader(final File file)
+		{
+		final OpenedReader r = this.openedReader.get();
+		synchronized(r) {
+			if(r.samReader==null || !file.equals(r.file))
+				{
+				r.close();
+				r.samReader = this.samReaderFactory.open(file);
+				r.file = file;
+				}
+			return r.samReader;
+			}
+		}
+
+	/** submit a task on a BAM file */
+	public <T> Future<T> submit(final File bamFile,final Task<T> task)
+		{
+		return this.pool.submit(()->task.apply(getSamReader(bamFile)));
+		}
+
+	/** wait for the result of a Future returned by submit */
+	public static <T> T get(final Future<T> future)
+		{
+		try {
+			return future.get();
+			}
+		catch(final InterruptedException err)
+			{
+			throw new RuntimeIOException(err);
+			}
+		catch(final ExecutionException err)
+			{
+			if(err.getCause() instanceof RuntimeException) throw RuntimeException.class.cast(err.getCause());
+			throw new RuntimeException(err.getCause());
+			}
+		}
+
+	@Override
+	public void close()
+		{
+		this.pool.shutdownNow();
+		synchronized(this.allReaders) {
+			for(final OpenedReader r:this.allReaders)
+				{
+				synchronized(r) { r.close();}
+				}
+			this.allReaders.clear();
+			}
+		}
+
+	/**
+	 * increment counts[pos-start1] for each base of 'rec' aligned (M,=,X) in [start1,end1]
+	 */
+	public static void addCoverage(final SAMRecord rec,final int start1,final int end1,final int counts[])
+		{
+		final Cigar cigar = rec.getCigar();
+		if(cigar==null) return;
+		int refpos1=rec.getAlignmentStart();
+		for(final CigarElement ce:cigar.getCigarElements())
+			{
+			final CigarOperator op=ce.getOperator();
+			if(!op.consumesReferenceBases()) continue;
+			if(op.consumesReadBases())
+				{
+				final int beg = Math.max(refpos1, start1);
+				final int end = Math.min(refpos1+ce.getLength()-1, end1);
+				for(int pos=beg;pos<=end;++pos)
+					{
+					counts[pos-start1]++;
+					}
+				}
+			refpos1+=ce.getLength();
+			if(refpos1>end1) break;
+			}
+		}
+
+	/** histogram of depths, can be merged with another histogram */
+	public static class DepthHistogram
+		{
+		/** histogram[depth] = number of bases */
+		private long histogram[] = new long[100];
+		private long count = 0L;
+		private long sum = 0L;
+		private int min = Integer.MAX_VALUE;
+		private int max = 0;
+
+		public void add(final int depth)
+			{
+			if(depth>=this.histogram.length) {
+				this.histogram = Arrays.copyOf(this.histogram, Math.max(depth+1,this.histogram.length*2));
+				}
+			this.histogram[depth]++;
+			this.count++;
+			this.sum+=depth;
+			this.min = Math.min(this.min, depth);
+			this.max = Math.max(this.max, depth);
+			}
+
+		public void addAll(final int depths[])
+			{
+			for(final int d:depths) add(d);
+			}
+
+		public void merge(final DepthHistogram other)
+			{
+			if(other.count==0L) return;
+			if(other.histogram.length > this.histogram.length) {
+				this.histogram = Arrays.copyOf(this.histogram, other.histogram.length);
+				}
+			for(int i=0;i< other.histogram.length;++i) this.histogram[i]+=other.histogram[i];
+			this.count += other.count;
+			this.sum += other.sum;
+			this.min = Math.min(this.min, other.min);
+			this.max = Math.max(this.max, other.max);
+			}
+		/** number of bases */
+		public long getCount() { return this.count;}
+		public int getMin() { return this.min;}
+		public int getMax() { return this.max;}
+		public double getMean() { return this.sum/(double)this.count;}
+		/** number of bases having a depth lower or equal than 'depth' */
+		public long getCountAtMost(final int depth)
+			{
+			long n=0L;
+			for(int i=0;i<=depth && i< this.histogram.length;++i) n+=this.histogram[i];
+			return n;
+			}
+		}
+	}
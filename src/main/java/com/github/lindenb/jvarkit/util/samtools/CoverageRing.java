@@ -0,0 +1,96 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util.samtools;
+
+import java.util.Arrays;
+
+/**
+ * Circular buffer of depths on one contig, used to sweep a coordinate-sorted BAM.
+ *
+ * 'start' is the 1-based position of the first depth. The buffer only
+ * contains the positions between 'start' and the end of the reads added so far,
+ * it grows when a read goes beyond its capacity.
+ */
+public class CoverageRing
+	{
+	private int depths[] = new int[10_000];
+	/** index of 'start' in depths */
+	private int head = 0;
+	/** 1-based position of depths[head] */
+	private int start = 1;
+	
+	/** clear the buffer, the first position is now 'pos' */
+	public void reset(final int pos) {
+		Arrays.fill(this.depths, 0);
+		this.head = 0;
+		this.start = pos;
+		}
+	/** 1-based position of the first depth in the buffer */
+	public int getStart() {
+		return this.start;
+		}
+	/** increment the depth of the bases in [beg,end], beg must be &gt;= start */
+	public void increment(final int beg,final int end) {
+		if(end-this.start >= this.depths.length) {
+			/* grow the ring, keep the depths in order */
+			final int copy[] = new int[Math.max(end-this.start+1, this.depths.length*2)];
+			final int n1 = this.depths.length - this.head;
+			System.arraycopy(this.depths, this.head, copy, 0, n1);
+			System.arraycopy(this.depths, 0, copy, n1, this.head);
+			this.depths = copy;
+			this.head = 0;
+			}
+		for(int pos=beg;pos<=end;++pos) {
+			this.depths[(this.head + (pos - this.start)) % this.depths.length]++;
+			}
+		}
+	/** get the depth at 'pos', pos must be &gt;= start */
+	public int get(final int pos) {
+		if(pos - this.start >= this.depths.length) return 0;
+		return this.depths[(this.head + (pos - this.start)) % this.depths.length];
+		}
+	/** remove and return the depth at 'start' */
+	public int pop() {
+		final int depth = this.depths[this.head];
+		this.depths[this.head] = 0;
+		this.head = (this.head+1) % this.depths.length;
+		this.start++;
+		return depth;
+		}
+	/** move start to 'pos', discarding the depths before */
+	public void skipTo(final int pos) {
+		if(pos - this.start >= this.depths.length) {
+			reset(pos);
+			}
+		else
+			{
+			while(this.start < pos) pop();
+			}
+		}
+	}
@@ -31,6 +31,7 @@ package com.github.lindenb.jvarkit.util.so;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -38,6 +39,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLEventReader;
@@ -63,6 +65,8 @@ public class SequenceOntologyTree
 	private static SequenceOntologyTree INSTANCE=null;
 	private final Map<String,TermImpl> acn2term=new HashMap<>(3000);
 	private final Map<String,TermImpl> label2term=new HashMap<>(3000);
+	/** terms indexed by their dense integer id, filled by buildClosure */
+	private TermImpl index2term[] = new TermImpl[0];
 	
 	
 	public interface Term
@@ -79,7 +83,8 @@ public class SequenceOntologyTree
 		public Set<Term> getChildren();
 		/** get ALL (recursive) children of this node */
 		public Set<Term> getAllDescendants();
-
+		/** returns true if this term is 'ancestor' or one of its descendants */
+		public boolean isA(final Term ancestor);
 		}
 	private class TermImpl implements Term
 		{
@@ -87,6 +92,12 @@ public class SequenceOntologyTree
 		String label;
 		final Set<Term> parents=new HashSet<>();
 		final Set<Term> children=new HashSet<>();
+		/** dense id of this term in the tree */
+		int index = -1;
+		/** ids of this term and of all its ancestors */
+		BitSet ancestors = null;
+		/** ids of this term and of all its descendants */
+		BitSet descendants = null;
 		
 		TermImpl(final String accession,final String label) {
 			this.accession = accession;
@@ -118,11 +129,20 @@ public class SequenceOntologyTree
 		@Override
 		public Set<Term> getAllDescendants()
 			{
-			final Set<Term> set=new HashSet<Term>();
-			_getAllDescendants(this,set);
+			final Set<Term> set=new HashSet<Term>(this.descendants.cardinality());
+			for(int i = this.descendants.nextSetBit(0); i >= 0; i = this.descendants.nextSetBit(i+1))
+				{
+				set.add(SequenceOntologyTree.this.index2term[i]);
+				}
 			return set;
 			}
 		
+		@Override
+		public boolean isA(final Term ancestor)
+			{
+			return SequenceOntologyTree.this.isA(this, ancestor);
+			}
+		
 		
 		@Override
 		public Set<Term> getParents()
@@ -153,13 +173,132 @@ public class SequenceOntologyTree
 
 		}
 	
-	private static void _getAllDescendants(final Term term,final Set<Term> set)
+	/** a set of terms of one tree, tested with one lookup in a BitSet */
+	public class TermMatcher implements Predicate<Term>
+		{
+		private final BitSet bits;
+		private TermMatcher(final BitSet bits)
+			{
+			this.bits = bits;
+			}
+		/** returns true if this term belongs to the set */
+		@Override
+		public boolean test(final Term t)
+			{
+			final int index = indexOf(t);
+			return index!=-1 && this.bits.get(index);
+			}
+		/** returns true if any of the terms belongs to the set */
+		public boolean testAny(final Collection<? extends Term> terms)
+			{
+			for(final Term t:terms)
+				{
+				if(test(t)) return true;
+				}
+			return false;
+			}
+		/** returns true if the term with this label belongs to the set */
+		public boolean testLabel(final String label)
+			{
+			return test(getTermByLabel(label));
+			}
+		public boolean isEmpty()
+			{
+			return this.bits.isEmpty();
+			}
+		/** returns the terms in this set */
+		public Set<Term> getTerms()
+			{
+			final Set<Term> set = new HashSet<>(this.bits.cardinality());
+			for(int i = this.bits.nextSetBit(0); i >= 0; i = this.bits.nextSetBit(i+1))
+				{
+				set.add(SequenceOntologyTree.this.index2term[i]);
+				}
+			return set;
+			}
+		}
+	
+	/** returns the dense id of the term, or -1 if this tree doesn't contain its accession */
+	private int indexOf(final Term t)
+		{
+		if(t==null) return -1;
+		if(t instanceof TermImpl)
+			{
+			final int index = TermImpl.class.cast(t).index;
+			if(index>=0 && index< this.index2term.length && this.index2term[index]==t) return index;
+			}
+		/* term from another tree, terms are identified by their accession */
+		final TermImpl other = this.acn2term.get(t.getAcn());
+		return other==null?-1:other.index;
+		}
+	
+	/** returns true if 'term' is 'ancestor' or one of its descendants */
+	public boolean isA(final Term term,final Term ancestor)
+		{
+		final int i1 = indexOf(term);
+		if(i1==-1) return false;
+		final int i2 = indexOf(ancestor);
+		if(i2==-1) return false;
+		return this.index2term[i1].ancestors.get(i2);
+		}
+	
+	/** create a matcher for the terms. If reasoning is true, the descendants of the terms are also matched */
+	public TermMatcher createTermMatcher(final Collection<? extends Term> terms,final boolean reasoning)
+		{
+		final BitSet bits = new BitSet(this.index2term.length);
+		for(final Term t:terms)
+			{
+			final int index = indexOf(t);
+			if(index==-1) continue;
+			if(reasoning)
+				{
+				bits.or(this.index2term[index].descendants);
+				}
+			else
+				{
+				bits.set(index);
+				}
+			}
+		return new TermMatcher(bits);
+		}
+	
+	/** assign a dense id to each term and compute the transitive closure of the tree */
+	private void buildClosure()
+		{
+		final List<TermImpl> terms = new ArrayList<>(this.acn2term.values());
+		terms.sort((A,B)->A.accession.compareTo(B.accession));
+		this.index2term = terms.toArray(new TermImpl[terms.size()]);
+		for(int i=0;i< this.index2term.length;++i)
+			{
+			this.index2term[i].index = i;
+			this.index2term[i].ancestors = new BitSet(this.index2term.length);
+			this.index2term[i].descendants = null;
+			}
+		for(final TermImpl t:this.index2term)
+			{
+			closeDescendants(t);
+			}
+		for(final TermImpl t:this.index2term)
+			{
+			for(int i = t.descendants.nextSetBit(0); i >= 0; i = t.descendants.nextSetBit(i+1))
+				{
+				this.index2term[i].ancestors.set(t.index);
+				}
+			}
+		}
+	
+	private BitSet closeDescendants(final TermImpl t)
 		{
-		set.add(term);
-		for(final Term c:term.getChildren())
+		if(t.descendants!=null) return t.descendants;
+		final BitSet bits = new BitSet(this.index2term.length);
+		bits.set(t.index);
+		/* mark the node, in case of cycle */
+		t.descendants = bits;
+		for(final Term c:t.children)
 			{
-			_getAllDescendants(c,set);
+			bits.or(closeDescendants(TermImpl.class.cast(c)));
 			}
+		return bits;
 		}
 
 	/*
@@ -2442,6 +2581,7 @@ public class SequenceOntologyTree
 			if(t.label==null) throw new JvarkitException.ProgrammingError("term "+t.accession+" has no label");
 			if(t!=tree.getTermByLabel(t.label)) throw new JvarkitException.ProgrammingError("???");
 		}
+		tree.buildClosure();
 		return tree;
 	 }
 		
@@ -2559,6 +2699,7 @@ public class SequenceOntologyTree
 					child.parents.add(parent);
 					}
 				final SequenceOntologyTree t2 = this.tree;
+				t2.buildClosure();
 				this.tree = null;
 				this.uri2terms.clear();
 				return t2;
@@ -590,6 +590,13 @@ public class KnownGene implements Iterable<Integer>,Feature
 				}
 			}
 		
+		public void setExonBounds(final int exonStarts[],final int exonEnds[])
+			{
+			if(exonStarts.length!=exonEnds.length) throw new IllegalArgumentException("exonStarts.length!=exonEnds.length");
+			this.exonStarts=exonStarts;
+			this.exonEnds=exonEnds;
+			}
+		
 		public int getExonStart(int index)
 			{
 			return this.exonStarts[index];
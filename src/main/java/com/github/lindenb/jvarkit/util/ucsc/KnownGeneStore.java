@@ -0,0 +1,443 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util.ucsc;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+
+import htsjdk.samtools.util.CloserUtil;
+
+/**
+ * A binary, memory-mapped store of UCSC knownGene records.
+ *
+ * The genes are stored in columns (txStart, txEnd, cdsStart, cdsEnd, strand, exons...),
+ * the names are packed in one block of bytes and the contigs are interned.
+ * The overlap queries use a nested containment list (Alekseyenko and Lee, 2007),
+ * so opening a store doesn't parse or index anything and the pages of the file
+ * are shared by all the processes using the same store.
+ *
+ * The KnownGene objects are only created for the genes returned by a query.
+ */
+public class KnownGeneStore
+	{
+	/** description of the option of the tools accepting a knownGene file or a store */
+	public static final String OPT_KNOWNGENE_DESC = KnownGene.OPT_KNOWNGENE_DESC+" This can also be a binary knownGene store created with [http://lindenb.github.io/jvarkit/KnownGenesToBinary.html](http://lindenb.github.io/jvarkit/KnownGenesToBinary.html)";
+	private static final byte MAGIC[] = "JVKKGBN1".getBytes(StandardCharsets.US_ASCII);
+	/** number of int columns per gene: txStart, txEnd, cdsStart, cdsEnd, exonOffset, nameOffset, childStart, childCount, rank */
+	private static final int NCOLS = 9;
+	private static final int COL_TXSTART = 0;
+	private static final int COL_TXEND = 1;
+	private static final int COL_CDSSTART = 2;
+	private static final int COL_CDSEND = 3;
+	private static final int COL_EXON_OFFSET = 4;
+	private static final int COL_NAME_OFFSET = 5;
+	private static final int COL_CHILD_START = 6;
+	private static final int COL_CHILD_COUNT = 7;
+	/** index of the gene in the original file */
+	private static final int COL_RANK = 8;
+
+	private final File file;
+	private final int nGenes;
+	private final int nExons;
+	/** contig name to index */
+	private final Map<String,Integer> contig2index = new LinkedHashMap<>();
+	private final String contigs[];
+	/** for each contig: first gene, number of genes in the top list */
+	private final int contigRoots[];
+	/** gene-major int columns */
+	private final ByteBuffer genes;
+	private final ByteBuffer strands;
+	private final ByteBuffer geneContigs;
+	private final ByteBuffer exonStarts;
+	private final ByteBuffer exonEnds;
+	private final ByteBuffer names;
+
+	private KnownGeneStore(final File file) throws IOException
+		{
+		this.file = file;
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r"))
+			{
+			final byte magic[] = new byte[MAGIC.length];
+			raf.readFully(magic);
+			if(!Arrays.equals(magic, MAGIC)) throw new JvarkitException.FileFormatError("not a knownGene store: "+file);
+			final int nContigs = raf.readInt();
+			this.contigs = new String[nContigs];
+			this.contigRoots = new int[nContigs*2];
+			for(int i=0;i< nContigs;++i)
+				{
+				this.contigs[i] = raf.readUTF();
+				this.contig2index.put(this.contigs[i], i);
+				this.contigRoots[i*2] = raf.readInt();
+				this.contigRoots[i*2+1] = raf.readInt();
+				}
+			this.nGenes = raf.readInt();
+			this.nExons = raf.readInt();
+			final int namesSize = raf.readInt();
+			final long offset = raf.getFilePointer();
+			final long size = 4L*NCOLS*this.nGenes + this.nGenes + 4L*this.nGenes + 8L*this.nExons + namesSize;
+			if(size > Integer.MAX_VALUE) throw new JvarkitException.FileFormatError("store is too large: "+file);
+			final ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, size);
+			int pos = 0;
+			this.genes = slice(buffer, pos, 4*NCOLS*this.nGenes);
+			pos += 4*NCOLS*this.nGenes;
+			this.strands = slice(buffer, pos, this.nGenes);
+			pos += this.nGenes;
+			this.geneContigs = slice(buffer, pos, 4*this.nGenes);
+			pos += 4*this.nGenes;
+			this.exonStarts = slice(buffer, pos, 4*this.nExons);
+			pos += 4*this.nExons;
+			this.exonEnds = slice(buffer, pos, 4*this.nExons);
+			pos += 4*this.nExons;
+			this.names = slice(buffer, pos, namesSize);
+			}
+		}
+
+	private static ByteBuffer slice(final ByteBuffer buffer,final int offset,final int size)
+		{
+		final ByteBuffer dup = buffer.duplicate();
+		dup.position(offset);
+		dup.limit(offset+size);
+		return dup.slice();
+		}
+
+	/** open a store */
+	public static KnownGeneStore open(final File file) throws IOException
+		{
+		return new KnownGeneStore(file);
+		}
+
+	/** returns true if the uri is a local file starting with the signature of a store */
+	public static boolean isStore(final String uri)
+		{
+		if(uri==null || IOUtils.isRemoteURI(uri)) return false;
+		final File f = new File(uri);
+		if(!f.isFile() || f.length()< MAGIC.length) return false;
+		try(DataInputStream in = new DataInputStream(new FileInputStream(f)))
+			{
+			final byte magic[] = new byte[MAGIC.length];
+			in.readFully(magic);
+			return Arrays.equals(magic, MAGIC);
+			}
+		catch(final IOException err)
+			{
+			return false;
+			}
+		}
+
+	public File getFile()
+		{
+		return this.file;
+		}
+
+	/** number of genes in this store */
+	public int size()
+		{
+		return this.nGenes;
+		}
+
+	/** names of the contigs */
+	public List<String> getContigs()
+		{
+		return Collections.unmodifiableList(Arrays.asList(this.contigs));
+		}
+
+	private int col(final int gene,final int column)
+		{
+		return this.genes.getInt((gene*NCOLS+column)*4);
+		}
+
+	/** returns the genes overlapping the 1-based interval [start1,end1], sorted on txStart, txEnd and order in the original file */
+	public List<KnownGene> getOverlapping(final String contig,final int start1,final int end1)
+		{
+		final Integer tid = this.contig2index.get(contig);
+		if(tid==null || end1< start1) return Collections.emptyList();
+		final List<Integer> hits = new ArrayList<>();
+		/* overlap of half-open interval [txStart,txEnd) and [start1-1,end1) */
+		query(this.contigRoots[tid*2], this.contigRoots[tid*2+1], start1-1, end1, hits);
+		if(hits.isEmpty()) return Collections.emptyList();
+		hits.sort((A,B)->{
+			int i = Integer.compare(col(A,COL_TXSTART), col(B,COL_TXSTART));
+			if(i!=0) return i;
+			i = Integer.compare(col(A,COL_TXEND), col(B,COL_TXEND));
+			if(i!=0) return i;
+			return Integer.compare(col(A,COL_RANK), col(B,COL_RANK));
+			});
+		final List<KnownGene> L = new ArrayList<>(hits.size());
+		for(final Integer gene: hits) L.add(getKnownGene(gene));
+		return L;
+		}
+
+	/** scan a sub-list of the nested containment list: the genes of a sub-list are sorted on start and on end */
+	private void query(final int listStart,final int listCount,final int start0,final int end0,final List<Integer> hits)
+		{
+		int lo = listStart;
+		int hi = listStart+listCount;
+		/* first gene with txEnd > start0 */
+		while(lo< hi)
+			{
+			final int mid = (lo+hi)>>>1;
+			if(col(mid,COL_TXEND) <= start0)
+				{
+				lo = mid+1;
+				}
+			else
+				{
+				hi = mid;
+				}
+			}
+		for(int i=lo;i< listStart+listCount && col(i,COL_TXSTART) < end0;++i)
+			{
+			hits.add(i);
+			final int childCount = col(i,COL_CHILD_COUNT);
+			if(childCount>0) query(col(i,COL_CHILD_START), childCount, start0, end0, hits);
+			}
+		}
+
+	private KnownGene getKnownGene(final int gene)
+		{
+		final KnownGene kg = new KnownGene();
+		final int nameStart = col(gene,COL_NAME_OFFSET);
+		final int nameEnd = (gene+1< this.nGenes?col(gene+1,COL_NAME_OFFSET):this.names.limit());
+		final byte nameBytes[] = new byte[nameEnd-nameStart];
+		for(int i=0;i< nameBytes.length;++i) nameBytes[i] = this.names.get(nameStart+i);
+		kg.setName(new String(nameBytes, StandardCharsets.UTF_8));
+		kg.setChrom(this.contigs[this.geneContigs.getInt(gene*4)]);
+		kg.setStrand((char)this.strands.get(gene));
+		kg.setTxStart(col(gene,COL_TXSTART));
+		kg.setTxEnd(col(gene,COL_TXEND));
+		kg.setCdsStart(col(gene,COL_CDSSTART));
+		kg.setCdsEnd(col(gene,COL_CDSEND));
+		final int exonStart = col(gene,COL_EXON_OFFSET);
+		final int exonEnd = (gene+1< this.nGenes?col(gene+1,COL_EXON_OFFSET):this.nExons);
+		final int starts[] = new int[exonEnd-exonStart];
+		final int ends[] = new int[exonEnd-exonStart];
+		for(int i=0;i< starts.length;++i)
+			{
+			starts[i] = this.exonStarts.getInt((exonStart+i)*4);
+			ends[i] = this.exonEnds.getInt((exonStart+i)*4);
+			}
+		kg.setExonBounds(starts, ends);
+		return kg;
+		}
+
+	/** convert a UCSC knownGene file to a store */
+	public static void write(final String uri,final File out) throws IOException
+		{
+		final List<KnownGene> genes = new ArrayList<>();
+		BufferedReader in = null;
+		try
+			{
+			in = IOUtils.openURIForBufferedReading(uri);
+			final Pattern tab = Pattern.compile("[\t]");
+			String line;
+			while((line=in.readLine())!=null)
+				{
+				if(line.isEmpty()) continue;
+				genes.add(new KnownGene(tab.split(line)));
+				}
+			in.close();
+			in = null;
+			}
+		finally
+			{
+			CloserUtil.close(in);
+			}
+		write(genes, out);
+		}
+
+	/** write the genes to a store */
+	public static void write(final List<KnownGene> genes,final File out) throws IOException
+		{
+		final int n = genes.size();
+		/* interned contigs, in order of appearance */
+		final Map<String,Integer> contig2index = new LinkedHashMap<>();
+		for(final KnownGene kg: genes)
+			{
+			contig2index.putIfAbsent(kg.getContig(), contig2index.size());
+			}
+		/* sort on contig, start, end descending: a gene is after the genes containing it */
+		final Integer sorted[] = new Integer[n];
+		for(int i=0;i< n;++i) sorted[i] = i;
+		Arrays.sort(sorted, (A,B)->{
+			final KnownGene a = genes.get(A);
+			final KnownGene b = genes.get(B);
+			int i = contig2index.get(a.getContig()).compareTo(contig2index.get(b.getContig()));
+			if(i!=0) return i;
+			i = Integer.compare(a.getTxStart(), b.getTxStart());
+			if(i!=0) return i;
+			i = Integer.compare(b.getTxEnd(), a.getTxEnd());
+			if(i!=0) return i;
+			return A.compareTo(B);
+			});
+		/* parent of each gene in the nested containment list */
+		final int parent[] = new int[n];
+		final int stack[] = new int[n];
+		int stackSize = 0;
+		String prevContig = null;
+		for(int i=0;i< n;++i)
+			{
+			final KnownGene kg = genes.get(sorted[i]);
+			if(!kg.getContig().equals(prevContig)) stackSize = 0;
+			prevContig = kg.getContig();
+			while(stackSize>0 && genes.get(sorted[stack[stackSize-1]]).getTxEnd() < kg.getTxEnd()) stackSize--;
+			parent[i] = (stackSize==0?-1:stack[stackSize-1]);
+			stack[stackSize++] = i;
+			}
+		/* children of each gene, in sorted order */
+		final Map<Integer,List<Integer>> children = new HashMap<>();
+		for(int i=0;i< n;++i)
+			{
+			if(parent[i]==-1) continue;
+			children.computeIfAbsent(parent[i], K->new ArrayList<>()).add(i);
+			}
+		/* layout: for each contig, the top list and then the sub-lists, breadth first */
+		final int layout[] = new int[n];/* position -> sorted index */
+		final int childStart[] = new int[n];
+		final int childCount[] = new int[n];
+		final int contigRoots[] = new int[contig2index.size()*2];
+		int pos = 0;
+		int i = 0;
+		while(i< n)
+			{
+			final String contig = genes.get(sorted[i]).getContig();
+			final int tid = contig2index.get(contig);
+			final int first = pos;
+			int j = i;
+			while(j< n && genes.get(sorted[j]).getContig().equals(contig))
+				{
+				if(parent[j]==-1) layout[pos++] = j;
+				j++;
+				}
+			contigRoots[tid*2] = first;
+			contigRoots[tid*2+1] = pos-first;
+			for(int head=first;head< pos;++head)
+				{
+				final List<Integer> kids = children.get(layout[head]);
+				if(kids==null) continue;
+				childStart[head] = pos;
+				childCount[head] = kids.size();
+				for(final Integer k: kids) layout[pos++] = k;
+				}
+			i = j;
+			}
+		int nExons = 0;
+		for(final KnownGene kg: genes) nExons += kg.getExonCount();
+		final byte nameBytes[][] = new byte[n][];
+		int namesSize = 0;
+		for(int p=0;p< n;++p)
+			{
+			nameBytes[p] = genes.get(sorted[layout[p]]).getName().getBytes(StandardCharsets.UTF_8);
+			namesSize += nameBytes[p].length;
+			}
+
+		try(DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out), 1<<20)))
+			{
+			dos.write(MAGIC);
+			dos.writeInt(contig2index.size());
+			for(final String contig: contig2index.keySet())
+				{
+				final int tid = contig2index.get(contig);
+				dos.writeUTF(contig);
+				dos.writeInt(contigRoots[tid*2]);
+				dos.writeInt(contigRoots[tid*2+1]);
+				}
+			dos.writeInt(n);
+			dos.writeInt(nExons);
+			dos.writeInt(namesSize);
+			int exonOffset = 0;
+			int nameOffset = 0;
+			for(int p=0;p< n;++p)
+				{
+				final KnownGene kg = genes.get(sorted[layout[p]]);
+				dos.writeInt(kg.getTxStart());
+				dos.writeInt(kg.getTxEnd());
+				dos.writeInt(kg.getCdsStart());
+				dos.writeInt(kg.getCdsEnd());
+				dos.writeInt(exonOffset);
+				dos.writeInt(nameOffset);
+				dos.writeInt(childStart[p]);
+				dos.writeInt(childCount[p]);
+				dos.writeInt(sorted[layout[p]]);
+				exonOffset += kg.getExonCount();
+				nameOffset += nameBytes[p].length;
+				}
+			for(int p=0;p< n;++p)
+				{
+				final char strand;
+				switch(genes.get(sorted[layout[p]]).getStrand())
+					{
+					case POSITIVE: strand='+'; break;
+					case NEGATIVE: strand='-'; break;
+					default: strand='.'; break;
+					}
+				dos.writeByte(strand);
+				}
+			for(int p=0;p< n;++p) dos.writeInt(contig2index.get(genes.get(sorted[layout[p]]).getContig()));
+			for(int p=0;p< n;++p)
+				{
+				final KnownGene kg = genes.get(sorted[layout[p]]);
+				for(int e=0;e< kg.getExonCount();++e) dos.writeInt(kg.getExonStart(e));
+				}
+			for(int p=0;p< n;++p)
+				{
+				final KnownGene kg = genes.get(sorted[layout[p]]);
+				for(int e=0;e< kg.getExonCount();++e) dos.writeInt(kg.getExonEnd(e));
+				}
+			for(int p=0;p< n;++p) dos.write(nameBytes[p]);
+			dos.flush();
+			}
+		}
+
+	@Override
+	public String toString()
+		{
+		return "KnownGeneStore("+this.file+")";
+		}
+	}
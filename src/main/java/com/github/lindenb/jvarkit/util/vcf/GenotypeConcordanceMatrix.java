@@ -0,0 +1,295 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+
+/**
+ * Sample-vs-sample genotype concordance: for each pair of samples (x,y), x&lt;=y,
+ * the number of variants where both genotypes are called and
+ * <code>Genotype.sameGenotype</code> is true. Counts on the diagonal are the
+ * number of called genotypes of the sample.
+ *
+ * Each variant is encoded with 2 bits per sample (0 = no call, 1-3 = one class
+ * of genotype). The variants are accumulated in blocks of 64*WORDS variants and
+ * the pairs are counted with xor/and and Long.bitCount. A variant with more
+ * than three classes of genotypes is stored as several rows, each row holding
+ * three classes, the other samples being 'no call'.
+ */
+public class GenotypeConcordanceMatrix
+	{
+	/** number of 64-bit words per sample in one block */
+	private static final int WORDS = 16;
+	private static final int BLOCK_SIZE = WORDS * 64;
+	/** bit of the no-call allele in a genotype key */
+	private static final int NO_CALL_BIT = 55;
+	private final int nSamples;
+	private final ExecutorService executor;
+	private final int nTasks;
+	/** upper triangle of the matrix, row-major */
+	private final long counts[];
+	/** low bits of the codes for the current block: lo[sample*WORDS+word] */
+	private final long lo[];
+	/** high bits of the codes for the current block */
+	private final long hi[];
+	/** number of rows in the current block */
+	private int nRows = 0;
+	/** class of each sample for the current variant, 0 = no call */
+	private final int classes[];
+	/** keys of the classes of genotype for the current variant */
+	private long classKeys[] = new long[8];
+	private boolean visited = false;
+
+	/**
+	 * @param nSamples number of samples
+	 * @param executor optional executor used to count the pairs. May be null.
+	 * @param nThreads number of tasks submitted to the executor for each block.
+	 */
+	public GenotypeConcordanceMatrix(final int nSamples,final ExecutorService executor,final int nThreads)
+		{
+		if(nSamples<0) throw new IllegalArgumentException("nSamples<0");
+		this.nSamples = nSamples;
+		this.executor = executor;
+		this.nTasks = Math.max(1, nThreads);
+		final long size = (long)nSamples*(nSamples+1L)/2L;
+		if(size > Integer.MAX_VALUE) throw new IllegalArgumentException("too many samples for a concordance matrix: "+nSamples);
+		this.counts = new long[(int)size];
+		this.lo = new long[nSamples*WORDS];
+		this.hi = new long[nSamples*WORDS];
+		this.classes = new int[nSamples];
+		}
+
+	public GenotypeConcordanceMatrix(final int nSamples)
+		{
+		this(nSamples,null,1);
+		}
+
+	public int getNSamples()
+		{
+		return this.nSamples;
+		}
+
+	/** same rule as the Counter of pairs previously used by VcfStats: empty if no pair was defined and nothing was counted */
+	public boolean isEmpty()
+		{
+		return this.nSamples < 2 && !this.visited;
+		}
+
+	/** returns the key of the genotype: ploidy and set of allele indexes, or -1 if it cannot be encoded */
+	private static long genotypeKey(final VariantContext ctx,final Genotype g)
+		{
+		final List<Allele> alleles = g.getAlleles();
+		final int ploidy = alleles.size();
+		if(ploidy>=255) return -1L;
+		long key = ((long)ploidy) << 56;
+		for(final Allele a:alleles)
+			{
+			final int idx;
+			if(a.isNoCall())
+				{
+				idx = NO_CALL_BIT;
+				}
+			else
+				{
+				idx = ctx.getAlleleIndex(a);
+				if(idx<0 || idx>=NO_CALL_BIT) return -1L;
+				}
+			key |= (1L << idx);
+			}
+		return key;
+		}
+
+	/** add the genotypes of this variant. The genotypes are read in the order of the VariantContext */
+	public void visit(final VariantContext ctx)
+		{
+		final int n = Math.min(this.nSamples, ctx.getNSamples());
+		int nClasses = 0;
+		Map<Object,Integer> otherKeys = null;
+		for(int x=0;x< this.nSamples;++x)
+			{
+			if(x>=n)
+				{
+				this.classes[x]=0;
+				continue;
+				}
+			final Genotype g = ctx.getGenotype(x);
+			if(!g.isCalled())
+				{
+				this.classes[x]=0;
+				continue;
+				}
+			this.visited = true;
+			final long key = genotypeKey(ctx, g);
+			int c = -1;
+			if(key!=-1L)
+				{
+				for(int k=0;k< nClasses;++k)
+					{
+					if(this.classKeys[k]==key)
+						{
+						c = k;
+						break;
+						}
+					}
+				if(c==-1)
+					{
+					if(nClasses==this.classKeys.length) this.classKeys = Arrays.copyOf(this.classKeys, nClasses*2);
+					this.classKeys[nClasses] = key;
+					c = nClasses++;
+					}
+				}
+			else
+				{
+				/* rare: alleles that cannot be indexed. Same rule as Genotype.sameGenotype */
+				if(otherKeys==null) otherKeys = new HashMap<>();
+				final List<Object> okey = Arrays.asList(g.getPloidy(), new TreeSet<>(g.getAlleles()));
+				final Integer prev = otherKeys.get(okey);
+				if(prev==null)
+					{
+					if(nClasses==this.classKeys.length) this.classKeys = Arrays.copyOf(this.classKeys, nClasses*2);
+					/* a key that is never produced by genotypeKey */
+					this.classKeys[nClasses] = -1L;
+					otherKeys.put(okey, nClasses);
+					c = nClasses++;
+					}
+				else
+					{
+					c = prev;
+					}
+				}
+			this.classes[x] = c+1;
+			}
+		if(nClasses==0) return;
+		/* three classes per row */
+		for(int group=0;group*3 < nClasses;++group)
+			{
+			final int word = this.nRows / 64;
+			final long bit = 1L << (this.nRows % 64);
+			for(int x=0;x< this.nSamples;++x)
+				{
+				final int c = this.classes[x] - 1;
+				if(c<0 || c/3!=group) continue;
+				final int code = (c%3)+1;
+				if((code & 1)!=0) this.lo[x*WORDS+word] |= bit;
+				if((code & 2)!=0) this.hi[x*WORDS+word] |= bit;
+				}
+			this.nRows++;
+			if(this.nRows==BLOCK_SIZE) flush();
+			}
+		}
+
+	/** index of (x,y) x&lt;=y in the upper triangle */
+	private int index(final int x,final int y)
+		{
+		return (int)((long)x*this.nSamples - ((long)x*(x-1L))/2L + (y-x));
+		}
+
+	/** count the pairs of the rows x, x+step, x+2*step... for the current block */
+	private void countRows(final int first,final int step,final int nWords)
+		{
+		for(int x=first;x< this.nSamples;x+=step)
+			{
+			final int ox = x*WORDS;
+			int idx = index(x,x);
+			for(int y=x;y< this.nSamples;++y)
+				{
+				final int oy = y*WORDS;
+				long n = 0L;
+				for(int w=0;w< nWords;++w)
+					{
+					final long lx = this.lo[ox+w];
+					final long hx = this.hi[ox+w];
+					/* called in x, and same code in y */
+					n += Long.bitCount((lx|hx) & ~((lx^this.lo[oy+w])|(hx^this.hi[oy+w])));
+					}
+				this.counts[idx++] += n;
+				}
+			}
+		}
+
+	/** count the pairs of the variants in the current block */
+	private void flush()
+		{
+		if(this.nRows==0) return;
+		final int nWords = (this.nRows+63)/64;
+		if(this.executor==null || this.nTasks<=1 || this.nSamples < 2*this.nTasks)
+			{
+			countRows(0,1,nWords);
+			}
+		else
+			{
+			/* rows are striped over the tasks, each task writes its own rows */
+			final List<Callable<Void>> tasks = new ArrayList<>(this.nTasks);
+			for(int t=0;t< this.nTasks;++t)
+				{
+				final int first = t;
+				tasks.add(()->{countRows(first,this.nTasks,nWords);return null;});
+				}
+			try
+				{
+				for(final Future<Void> f:this.executor.invokeAll(tasks))
+					{
+					f.get();
+					}
+				}
+			catch(final InterruptedException err)
+				{
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(err);
+				}
+			catch(final ExecutionException err)
+				{
+				throw new RuntimeException(err.getCause());
+				}
+			}
+		Arrays.fill(this.lo, 0L);
+		Arrays.fill(this.hi, 0L);
+		this.nRows = 0;
+		}
+
+	/** returns the number of variants where samples x and y have the same called genotype */
+	public long count(final int x,final int y)
+		{
+		flush();
+		return x<=y?this.counts[index(x,y)]:this.counts[index(y,x)];
+		}
+	}
@@ -0,0 +1,206 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Locatable;
+
+/**
+ * Sorted merge-join between the variants of the user and a sorted source of annotations.
+ *
+ * Both streams must be sorted on the user's dictionary. The contigs of the source
+ * are converted to the user's contigs using a ContigNameConverter; the records
+ * of the source on a contig that cannot be converted are skipped.
+ *
+ * Instead of doing one random access per variant, the source is read once:
+ * the buffer only contains the records overlapping the current query,
+ * plus the first record after it.
+ *
+ */
+public class MergeJoinAnnotationSource<T extends Locatable>
+	implements Closeable
+	{
+	private Iterator<T> delegate;
+	private final SAMSequenceDictionary dict;
+	private final ContigNameConverter contigNameConverter;
+	/** records of the source overlapping the last query */
+	private final List<T> buffer = new ArrayList<>();
+	/** contig index of the records in the buffer */
+	private int bufferTid = -1;
+	/** next record of the source, or null */
+	private T peek = null;
+	/** contig index of peek in the user's dictionary */
+	private int peekTid = -1;
+	/** last query */
+	private int prevQueryTid = -1;
+	private int prevQueryStart = 0;
+	/** cache for the conversion of the source contig */
+	private String prevSourceContig = null;
+	private int prevSourceTid = -1;
+	/** last record read from the source, used to check the order */
+	private int lastSourceTid = -1;
+	private int lastSourceStart = 0;
+
+	/**
+	 * @param delegate the sorted source. Will be closed by close() if it implements Closeable
+	 * @param dict the dictionary of the user's variants
+	 * @param contigNameConverter convert the contigs of the source to the contigs of the user
+	 */
+	public MergeJoinAnnotationSource(
+			final Iterator<T> delegate,
+			final SAMSequenceDictionary dict,
+			final ContigNameConverter contigNameConverter
+			)
+		{
+		if(dict==null || dict.isEmpty()) throw new JvarkitException.DictionaryMissing("No dictionary provided for the merge-join");
+		this.delegate = delegate;
+		this.dict = dict;
+		this.contigNameConverter = contigNameConverter;
+		}
+
+	/** creates a MergeJoinAnnotationSource using a converter guessing the contig names from the user's dictionary */
+	public MergeJoinAnnotationSource(
+			final Iterator<T> delegate,
+			final SAMSequenceDictionary dict
+			)
+		{
+		this(delegate,dict,ContigNameConverter.fromOneDictionary(dict).setOnNotFound(ContigNameConverter.OnNotFound.SKIP));
+		}
+
+	public SAMSequenceDictionary getSequenceDictionary() {
+		return this.dict;
+		}
+
+	/** convert the contig of the source to a contig index in the user's dictionary, -1 if not found */
+	private int sourceTid(final String contig)
+		{
+		if(contig.equals(this.prevSourceContig)) return this.prevSourceTid;
+		final String userContig = this.contigNameConverter.apply(contig);
+		this.prevSourceContig = contig;
+		this.prevSourceTid = (userContig==null?-1:this.dict.getSequenceIndex(userContig));
+		return this.prevSourceTid;
+		}
+
+	/** move 'peek' to the next record of the source having a known contig */
+	private void advance()
+		{
+		this.peek = null;
+		this.peekTid = -1;
+		if(this.delegate==null) return;
+		while(this.delegate.hasNext())
+			{
+			final T rec = this.delegate.next();
+			if(rec==null) continue;
+			final int tid = sourceTid(rec.getContig());
+			if(tid<0) continue;
+			if(tid < this.lastSourceTid || (tid==this.lastSourceTid && rec.getStart() < this.lastSourceStart))
+				{
+				throw new IllegalStateException("Annotation source is not sorted on the user's dictionary. Got "+
+						rec.getContig()+":"+rec.getStart()+" after "+
+						this.dict.getSequence(this.lastSourceTid).getSequenceName()+":"+this.lastSourceStart);
+				}
+			this.lastSourceTid = tid;
+			this.lastSourceStart = rec.getStart();
+			this.peek = rec;
+			this.peekTid = tid;
+			return;
+			}
+		close();
+		}
+
+	/**
+	 * returns the records of the source overlapping 'loc'. Successive queries must be sorted on the user's dictionary.
+	 */
+	public List<T> query(final Locatable loc)
+		{
+		final int tid = this.dict.getSequenceIndex(loc.getContig());
+		if(tid<0) throw new JvarkitException.ContigNotFoundInDictionary(loc.getContig(), this.dict);
+		if(tid < this.prevQueryTid || (tid == this.prevQueryTid && loc.getStart() < this.prevQueryStart))
+			{
+			throw new IllegalStateException("Variants are not sorted on the dictionary. Got "+
+					loc.getContig()+":"+loc.getStart()+" after "+
+					this.dict.getSequence(this.prevQueryTid).getSequenceName()+":"+this.prevQueryStart
+					);
+			}
+		if(this.prevQueryTid==-1) advance();
+		this.prevQueryTid = tid;
+		this.prevQueryStart = loc.getStart();
+
+		/* contig has changed */
+		if(tid!=this.bufferTid)
+			{
+			this.buffer.clear();
+			this.bufferTid = tid;
+			}
+		/* remove the records ending before this query: next queries start after this one */
+		this.buffer.removeIf(R->R.getEnd() < loc.getStart());
+
+		/* fill the buffer with the records starting before the end of this query */
+		while(this.peek!=null)
+			{
+			if(this.peekTid < tid || (this.peekTid == tid && this.peek.getEnd() < loc.getStart()))
+				{
+				advance();
+				}
+			else if(this.peekTid == tid && this.peek.getStart() <= loc.getEnd())
+				{
+				this.buffer.add(this.peek);
+				advance();
+				}
+			else
+				{
+				break;
+				}
+			}
+		if(this.buffer.isEmpty()) return Collections.emptyList();
+		final List<T> L = new ArrayList<>(this.buffer.size());
+		for(final T rec: this.buffer)
+			{
+			if(rec.getStart() > loc.getEnd()) continue;
+			L.add(rec);
+			}
+		return L;
+		}
+
+	@Override
+	public void close() {
+		CloserUtil.close(this.delegate);
+		this.delegate = null;
+		}
+	}
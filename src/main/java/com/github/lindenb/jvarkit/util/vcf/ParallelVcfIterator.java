@@ -0,0 +1,262 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.tribble.readers.LineIterator;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.AbstractVCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+
+/**
+ * A VcfIterator decoding the VCF lines in parallel.
+ *
+ * One thread reads the lines and groups them into batches. The batches are decoded
+ * by a pool of workers, each worker having its own codec. The decoded batches are
+ * stored in a bounded queue, in the original order of the lines, so the memory used
+ * is about (2*nThreads*BATCH_SIZE) variants.
+ *
+ * The genotypes are decoded by the workers, so the caller doesn't pay for the lazy decoding.
+ */
+public class ParallelVcfIterator implements VcfIterator
+	{
+	private static final Logger LOG = Logger.build(ParallelVcfIterator.class).make();
+	/** number of lines decoded by a worker in one task */
+	private static final int BATCH_SIZE = 1000;
+	/** marks the end of the queue */
+	private static final Future<List<VariantContext>> END_OF_QUEUE = CompletableFuture.completedFuture(Collections.emptyList());
+	/** associated line iterator */
+	private final LineIterator lineIterator;
+	/** header lines used to create one codec per worker */
+	private final List<String> headerLines;
+	/** codec for the caller thread */
+	private final AbstractVCFCodec vcfCodec;
+	/** associated VCF header */
+	private final VCFHeader vcfHeader;
+	/** call VariantContext.fullyDecode in the workers */
+	private final boolean fullyDecode;
+	/** workers */
+	private final ExecutorService executor;
+	/** one codec per worker */
+	private final ThreadLocal<VCFUtils.CodecAndHeader> workerCodec;
+	/** ordered queue of decoded batches */
+	private final BlockingQueue<Future<List<VariantContext>>> queue;
+	/** thread reading the lines */
+	private final Thread readerThread;
+	/** current batch */
+	private List<VariantContext> batch = Collections.emptyList();
+	/** index in the current batch */
+	private int batchIndex = 0;
+	/** END_OF_QUEUE was found */
+	private boolean eof = false;
+
+	/**
+	 * @param r the lines of the VCF, including the header. Will be closed by close()
+	 * @param nThreads number of workers decoding the lines
+	 * @param fullyDecode call VariantContext.fullyDecode for each variant
+	 */
+	public ParallelVcfIterator(final LineIterator r,final int nThreads,final boolean fullyDecode)
+		{
+		if(nThreads<1) throw new IllegalArgumentException("Bad number of threads: "+nThreads);
+		this.lineIterator = r;
+		this.fullyDecode = fullyDecode;
+		this.headerLines = new ArrayList<>();
+		while(r.hasNext() && r.peek().startsWith("#"))
+			{
+			this.headerLines.add(r.next());
+			}
+		final VCFUtils.CodecAndHeader cah = VCFUtils.parseHeader(this.headerLines);
+		this.vcfHeader = cah.header;
+		this.vcfCodec = cah.codec;
+		this.workerCodec = ThreadLocal.withInitial(()->VCFUtils.parseHeader(this.headerLines));
+		this.executor = Executors.newFixedThreadPool(nThreads,R->{
+			final Thread t = new Thread(R,"vcf-decoder");
+			t.setDaemon(true);
+			return t;
+			});
+		this.queue = new ArrayBlockingQueue<>(nThreads*2);
+		this.readerThread = new Thread(()->readLines(),"vcf-line-reader");
+		this.readerThread.setDaemon(true);
+		this.readerThread.start();
+		}
+
+	/** runs in the reader thread: split the lines into batches and submit them to the workers */
+	private void readLines()
+		{
+		try
+			{
+			for(;;)
+				{
+				final List<String> lines = new ArrayList<>(BATCH_SIZE);
+				while(lines.size() < BATCH_SIZE && this.lineIterator.hasNext())
+					{
+					lines.add(this.lineIterator.next());
+					}
+				if(lines.isEmpty()) break;
+				this.queue.put(this.executor.submit(()->decodeLines(lines)));
+				}
+			this.queue.put(END_OF_QUEUE);
+			}
+		catch(final InterruptedException err)
+			{
+			//closed
+			}
+		catch(final Throwable err)
+			{
+			final CompletableFuture<List<VariantContext>> failed = new CompletableFuture<>();
+			failed.completeExceptionally(err);
+			try {this.queue.put(failed);}
+			catch(final InterruptedException err2) {}
+			}
+		}
+
+	/** runs in a worker: decode a batch of lines */
+	private List<VariantContext> decodeLines(final List<String> lines)
+		{
+		final VCFUtils.CodecAndHeader cah = this.workerCodec.get();
+		final List<VariantContext> L = new ArrayList<>(lines.size());
+		for(final String line:lines)
+			{
+			VariantContext ctx = cah.codec.decode(line);
+			if(ctx==null) continue;
+			if(this.fullyDecode)
+				{
+				ctx = ctx.fullyDecode(cah.header, false);
+				}
+			else if(ctx.getGenotypes() instanceof LazyGenotypesContext)
+				{
+				LazyGenotypesContext.class.cast(ctx.getGenotypes()).decode();
+				}
+			L.add(ctx);
+			}
+		return L;
+		}
+
+	/** move to the next non-empty batch, returns false at the end */
+	private boolean fillBatch()
+		{
+		while(this.batchIndex >= this.batch.size())
+			{
+			if(this.eof) return false;
+			try
+				{
+				final Future<List<VariantContext>> f = this.queue.take();
+				if(f==END_OF_QUEUE)
+					{
+					this.eof = true;
+					this.batch = Collections.emptyList();
+					this.batchIndex = 0;
+					return false;
+					}
+				this.batch = f.get();
+				this.batchIndex = 0;
+				}
+			catch(final InterruptedException err)
+				{
+				throw new RuntimeIOException(err);
+				}
+			catch(final ExecutionException err)
+				{
+				LOG.error(err.getCause());
+				if(err.getCause() instanceof RuntimeException) throw RuntimeException.class.cast(err.getCause());
+				throw new RuntimeIOException(err.getCause());
+				}
+			}
+		return true;
+		}
+
+	@Override
+	public AbstractVCFCodec getCodec()
+		{
+		return this.vcfCodec;
+		}
+
+	@Override
+	public VCFHeader getHeader()
+		{
+		return this.vcfHeader;
+		}
+
+	@Override
+	public VariantContext peek()
+		{
+		if(!fillBatch()) return null;
+		return this.batch.get(this.batchIndex);
+		}
+
+	@Override
+	public boolean hasNext()
+		{
+		return fillBatch();
+		}
+
+	@Override
+	public VariantContext next()
+		{
+		if(!fillBatch()) throw new NoSuchElementException();
+		return this.batch.get(this.batchIndex++);
+		}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+		}
+
+	@Override
+	public void close()
+		{
+		this.eof = true;
+		this.batch = Collections.emptyList();
+		this.readerThread.interrupt();
+		this.executor.shutdownNow();
+		this.queue.clear();
+		CloserUtil.close(this.lineIterator);
+		}
+
+	@Override
+	public String toString() {
+		return "Parallel VCF Iterator. Codec: "+this.vcfCodec;
+		}
+	}
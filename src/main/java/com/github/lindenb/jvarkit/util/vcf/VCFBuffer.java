@@ -24,12 +24,22 @@ SOFTWARE.
 
 History:
 * 2016 creation
+* 2017 records are stored in a compact binary form, off-heap
 
 */
 package com.github.lindenb.jvarkit.util.vcf;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Stream;
@@ -37,42 +47,62 @@ import java.util.stream.StreamSupport;
 
 import com.github.lindenb.jvarkit.util.log.Logger;
 
-import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.AbstractIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IterableAdapter;
 import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.AbstractVCFCodec;
-import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 
 /**
  * used to store a VCF in memory. If there are
  * too many variant, the content is flushed to disk.
  * 
+ * The variants are encoded with a VariantContextBinaryCodec and stored
+ * in off-heap segments. When there are more than 'maxRecordsInRam' variants,
+ * the segments are written verbatim to an uncompressed temporary file, so
+ * the variants are never converted to text.
+ * 
  * @author lindenb
  *
  */
 public class VCFBuffer implements VariantContextWriter{
 private static final Logger LOG = Logger.build(VCFBuffer.class).make();
-
+/** default size of an off-heap segment */
+private static final int SEGMENT_SIZE = 1_000_000;
 /** vcf header */
 private VCFHeader header=null;
-/** memory buffer */
-private final List<VariantContext> buffer = new ArrayList<>();
+/** binary codec, owns the symbols of the encoded variants */
+private final VariantContextBinaryCodec codec = new VariantContextBinaryCodec();
+/** memory buffer: off-heap segments, each segment is in 'write' mode */
+private final List<ByteBuffer> segments = new ArrayList<>();
+/** scratch buffer used to encode one variant */
+private final Scratch scratch = new Scratch();
+private final DataOutputStream scratchOut = new DataOutputStream(this.scratch);
+/** number of variants in memory */
+private int recordsInRam = 0;
 /** file buffer */
 private File tmpFile = null;
 /** directory where to create tmpFile */
 private final File tmpDir;
-/** variant context writer. Null if buffered in memory */
-private VariantContextWriter variantContextWriter= null;
+/** channel to tmpFile. Null if buffered in memory */
+private FileChannel fileChannel= null;
 /** max number of variants in memory */
 private final int maxRecordsInRam;
 /** done adding , we can always call 'iterator()' */
 private boolean done_adding=false;
 /** we cannot use it anymore, tmp File have been deleted */
 private boolean disposed=false;
+
+/** ByteArrayOutputStream giving access to its internal buffer */
+private static class Scratch extends ByteArrayOutputStream
+	{
+	Scratch() { super(10_000);}
+	byte[] getBuffer() { return super.buf;}
+	}
+
 public VCFBuffer(final int maxRecordsInRam,final File tmpDir) {
 	this.maxRecordsInRam = maxRecordsInRam;
 	this.tmpDir = tmpDir;
@@ -86,7 +116,8 @@ public VCFBuffer() {
 public void dispose() {
 	close();
 	if(this.tmpFile!=null) this.tmpFile.delete();
-	if(this.buffer!=null) this.buffer.clear();
+	this.segments.clear();
+	this.recordsInRam = 0;
 	this.tmpFile=null;
 	disposed=true;
 	}
@@ -99,23 +130,10 @@ protected void finalize() throws Throwable {
 
 public Stream<VariantContext> stream()
 	{
-	close();
-	if(this.disposed) throw new IllegalStateException("buffer was disposed");
-	if(this.header==null) {
-		throw new IllegalStateException("header was not set");	
-		}
-	if(this.tmpFile==null) 
-		{
-		return this.buffer.stream();
-		}
-	else
-		{
-		final VCFFileReader reader= new VCFFileReader(this.tmpFile,false);
-		final CloseableIterator<VariantContext> iter = reader.iterator();
-		return  StreamSupport.stream(new IterableAdapter<VariantContext>(iter).spliterator(), false).onClose(
-				()->{CloserUtil.close(iter);CloserUtil.close(reader);}
-				);
-		}
+	final VcfIterator iter = iterator();
+	return  StreamSupport.stream(new IterableAdapter<VariantContext>(iter).spliterator(), false).onClose(
+			()->{CloserUtil.close(iter);}
+			);
 	}
 
 public VcfIterator iterator() {
@@ -126,12 +144,12 @@ if(this.header==null) {
 	}
 if(this.tmpFile==null) 
 	{
-	return new ArrayIterator();
+	return new SegmentIterator();
 	}
 else
 	{
 	try {
-		return VCFUtils.createVcfIteratorFromFile(this.tmpFile);
+		return new FileIterator();
 	} catch (final IOException e) {
 		throw new RuntimeIOException(e);
 	}
@@ -155,10 +173,29 @@ public VCFHeader getHeader()
 	return this.header;
 	}
 
+/** write the content of a segment to the temporary file */
+private void writeSegment(final ByteBuffer segment) throws IOException
+	{
+	final ByteBuffer b = segment.duplicate();
+	b.flip();
+	while(b.hasRemaining()) this.fileChannel.write(b);
+	}
+
 @Override
 public void close() {
-	CloserUtil.close(this.variantContextWriter);
-	this.variantContextWriter=null;
+	if(this.fileChannel!=null)
+		{
+		try {
+			for(final ByteBuffer segment:this.segments) writeSegment(segment);
+			this.segments.clear();
+			this.fileChannel.close();
+			}
+		catch(final IOException err)
+			{
+			throw new RuntimeIOException(err);
+			}
+		}
+	this.fileChannel=null;
 	this.done_adding=true;
 	}
 
@@ -170,35 +207,54 @@ public boolean checkError() {
 public void add(final VariantContext vc) {
 	if(this.done_adding) throw new IllegalArgumentException("iterator() already called");
 	if(this.header==null) throw new IllegalArgumentException("Header wasn't set");
-	if(this.variantContextWriter!=null) {
-		this.variantContextWriter.add(vc);
-		}
-	else if(this.buffer.size()+1>= this.maxRecordsInRam )
-		{
-		try {
-			this.tmpFile = File.createTempFile("buffer.", ".vcf.gz",this.tmpDir);
+	try {
+		this.scratch.reset();
+		this.codec.encode(vc, this.scratchOut);
+		this.scratchOut.flush();
+		final int len = this.scratch.size();
+		ByteBuffer segment = this.segments.isEmpty()?null:this.segments.get(this.segments.size()-1);
+		if(segment==null || segment.remaining() < 4 + len)
+			{
+			if(segment!=null && this.fileChannel!=null)
+				{
+				/* spilling: recycle the segment */
+				writeSegment(segment);
+				this.segments.clear();
+				if(segment.capacity() < 4 + len) segment = null;
+				else segment.clear();
+				}
+			else
+				{
+				segment = null;
+				}
+			if(segment==null) segment = ByteBuffer.allocateDirect(Math.max(SEGMENT_SIZE, 4 + len));
+			this.segments.add(segment);
+			}
+		segment.putInt(len);
+		segment.put(this.scratch.getBuffer(), 0, len);
+		this.recordsInRam++;
+		
+		if(this.fileChannel==null && this.recordsInRam >= this.maxRecordsInRam )
+			{
+			this.tmpFile = File.createTempFile("buffer.", ".bin",this.tmpDir);
 			LOG.debug("Flushing to disk "+this.tmpFile);
 			this.tmpFile.deleteOnExit();
-			this.variantContextWriter = VCFUtils.createVariantContextWriter(this.tmpFile);
-			this.variantContextWriter.writeHeader(this.header);
-			for(final VariantContext bvc:this.buffer) {
-				this.variantContextWriter.add(bvc);
-			}
-			this.buffer.clear();
-			this.variantContextWriter.add(vc);
-		} catch (IOException e) {
-			throw new RuntimeIOException(e);
+			this.fileChannel = new FileOutputStream(this.tmpFile).getChannel();
+			/* keep the last segment in memory */
+			for(int i=0;i+1< this.segments.size();++i) writeSegment(this.segments.get(i));
+			final ByteBuffer last = this.segments.get(this.segments.size()-1);
+			this.segments.clear();
+			this.segments.add(last);
 			}
 		}
-	else
-		{
-		this.buffer.add(vc);
+	catch (final IOException e) {
+		throw new RuntimeIOException(e);
 		}
 	}
 
-private class ArrayIterator implements VcfIterator {
-	int index=-1;
-	
+private abstract class AbstractBufferIterator 
+	extends AbstractIterator<VariantContext>
+	implements VcfIterator {
 	@Override
 	public VCFHeader getHeader() {
 		return VCFBuffer.this.header;
@@ -208,28 +264,63 @@ private class ArrayIterator implements VcfIterator {
 	public AbstractVCFCodec getCodec() {
 		return VCFUtils.createDefaultVCFCodec();
 		}
+	}
+
+/** iterator over the off-heap segments */
+private class SegmentIterator extends AbstractBufferIterator {
+	private int segmentIndex = 0;
+	private ByteBuffer current = null;
 	@Override
-	public boolean hasNext() {
-		return index+1< VCFBuffer.this.buffer.size();
+	protected VariantContext advance() {
+		for(;;) {
+			if(this.current!=null && this.current.hasRemaining()) {
+				this.current.getInt();
+				return VCFBuffer.this.codec.decode(this.current);
+				}
+			if(this.segmentIndex >= VCFBuffer.this.segments.size()) return null;
+			this.current = VCFBuffer.this.segments.get(this.segmentIndex++).duplicate();
+			this.current.flip();
+			}
 		}
 	@Override
-	public VariantContext next() {
-		index++;
-		return VCFBuffer.this.buffer.get(index);
+	public void close() {
+		this.current = null;
+		this.segmentIndex = VCFBuffer.this.segments.size();
+		}
+	}
+
+/** iterator over the temporary file */
+private class FileIterator extends AbstractBufferIterator {
+	private DataInputStream in;
+	private byte array[] = new byte[10_000];
+	FileIterator() throws IOException {
+		this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(VCFBuffer.this.tmpFile),SEGMENT_SIZE));
 		}
 	@Override
-	public VariantContext peek() {
-		return  VCFBuffer.this.buffer.get(index+1);
+	protected VariantContext advance() {
+		if(this.in==null) return null;
+		try {
+			final int len;
+			try {
+				len = this.in.readInt();
+				}
+			catch(final EOFException err) {
+				close();
+				return null;
+				}
+			if(len > this.array.length) this.array = new byte[len];
+			this.in.readFully(this.array, 0, len);
+			return VCFBuffer.this.codec.decode(ByteBuffer.wrap(this.array, 0, len));
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
 		}
 	@Override
-	public void close() throws IOException {
-		
+	public void close() {
+		CloserUtil.close(this.in);
+		this.in = null;
+		}
 	}
-}
-
 
 }
-
-
-
-
@@ -28,12 +28,15 @@ History:
 */
 package com.github.lindenb.jvarkit.util.vcf;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -46,6 +49,7 @@ import java.util.Objects;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
+import htsjdk.samtools.Defaults;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.AbstractIterator;
@@ -57,7 +61,9 @@ import htsjdk.tribble.AsciiFeatureCodec;
 import htsjdk.tribble.FeatureCodec;
 import htsjdk.tribble.Tribble;
 import htsjdk.tribble.readers.LineIterator;
+import htsjdk.tribble.readers.LineIteratorImpl;
 import htsjdk.tribble.readers.LineReader;
+import htsjdk.tribble.readers.SynchronousLineReader;
 import htsjdk.tribble.util.TabixUtils;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.VariantContext;
@@ -79,6 +85,7 @@ import htsjdk.variant.vcf.VCFHeaderVersion;
 import htsjdk.variant.vcf.VCFInfoHeaderLine;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.io.ParallelBgzfInputStream;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
 public class VCFUtils
@@ -328,6 +335,65 @@ public class VCFUtils
 			return new VcfIteratorImpl(IOUtils.openURIForReading(IN));
 			}
 		}
+	/** create a VCF iterator, the BGZF blocks are inflated in parallel
+	 * 
+	 * @param IN : input uri or null for stdin
+	 * @param bgzfThreads : number of threads used to inflate the BGZF blocks. If lower than 2, use createVcfIterator(IN)
+	 * */
+	public static  VcfIterator createVcfIterator(final String IN,final int bgzfThreads) throws IOException
+		{
+		if(bgzfThreads<2 || (IN!=null && IN.endsWith(".bcf")))
+			{
+			return createVcfIterator(IN);
+			}
+		return new VcfIteratorImpl(openVcfInputStream(IN, bgzfThreads));
+		}
+	
+	/** create a VCF iterator decoding the lines in parallel
+	 * 
+	 * @param IN : input uri or null for stdin
+	 * @param bgzfThreads : number of threads used to inflate the BGZF blocks. Ignored if lower than 2
+	 * @param decodeThreads : number of threads used to decode the lines. If lower than 2, use createVcfIterator(IN,bgzfThreads)
+	 * @param fullyDecode : fully decode the variants in the worker threads
+	 * */
+	public static  VcfIterator createParallelVcfIterator(final String IN,final int bgzfThreads,final int decodeThreads,final boolean fullyDecode) throws IOException
+		{
+		if(decodeThreads<2 || (IN!=null && IN.endsWith(".bcf")))
+			{
+			return createVcfIterator(IN,bgzfThreads);
+			}
+		return new ParallelVcfIterator(
+				new LineIteratorImpl(new SynchronousLineReader(openVcfInputStream(IN, bgzfThreads))),
+				decodeThreads,
+				fullyDecode
+				);
+		}
+	
+	/** open a VCF input stream, the BGZF blocks are inflated in parallel if bgzfThreads &gt; 1 */
+	private static InputStream openVcfInputStream(final String IN,final int bgzfThreads) throws IOException
+		{
+		if(bgzfThreads<2)
+			{
+			return IN==null?System.in:IOUtils.openURIForReading(IN);
+			}
+		final InputStream in;
+		if(IN==null)
+			{
+			in = System.in;
+			}
+		else if(IOUtils.isRemoteURI(IN))
+			{
+			in = new URL(IN).openStream();
+			}
+		else
+			{
+			final File file = new File(IN.startsWith("file://")?IN.substring(7):IN);
+			IOUtil.assertFileIsReadable(file);
+			in = Files.newInputStream(file.toPath());
+			}
+		return new BufferedInputStream(ParallelBgzfInputStream.uncompress(in, bgzfThreads),Defaults.NON_ZERO_BUFFER_SIZE);
+		}
+	
 	/** create a VCF iterator
 	 * 
 	 * @param IN : input uri or null for stdin
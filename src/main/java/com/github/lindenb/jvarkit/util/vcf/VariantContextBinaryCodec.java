@@ -0,0 +1,411 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypeBuilder;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+
+/**
+ * Compact binary encoding of a VariantContext.
+ *
+ * The contigs, the keys of the INFO/FORMAT fields, the FILTERs and the sample names
+ * are stored as indexes in a table of symbols owned by this codec: a record can only
+ * be decoded by the codec that encoded it.
+ *
+ * The values of the attributes keep their java type (String, Integer, Double, List...),
+ * so decoding a record doesn't require any text parsing.
+ */
+public class VariantContextBinaryCodec
+	{
+	private static final byte TYPE_NULL = 0;
+	private static final byte TYPE_STRING = 1;
+	private static final byte TYPE_INT = 2;
+	private static final byte TYPE_DOUBLE = 3;
+	private static final byte TYPE_BOOLEAN = 4;
+	private static final byte TYPE_LIST = 5;
+	private static final byte TYPE_LONG = 6;
+	private static final byte TYPE_FLOAT = 7;
+	private static final byte TYPE_INT_ARRAY = 8;
+	private static final byte TYPE_DOUBLE_ARRAY = 9;
+	private static final byte TYPE_OBJECT_ARRAY = 10;
+
+	private static final byte FILTER_UNFILTERED = 0;
+	private static final byte FILTER_PASS = 1;
+	private static final byte FILTER_FILTERED = 2;
+
+	/** allele index for an allele that is not in the alleles of the variant */
+	private static final int ALLELE_OTHER = -2;
+
+	/** symbol to index */
+	private final Map<String,Integer> symbol2index = new HashMap<>();
+	/** index to symbol */
+	private final List<String> symbols = new ArrayList<>();
+
+	/** get or create the index of a symbol */
+	private int symbol(final String s)
+		{
+		Integer idx = this.symbol2index.get(s);
+		if(idx==null)
+			{
+			idx = this.symbols.size();
+			this.symbols.add(s);
+			this.symbol2index.put(s, idx);
+			}
+		return idx;
+		}
+
+	private static void writeString(final DataOutput out,final String s) throws IOException
+		{
+		final byte array[] = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(array.length);
+		out.write(array);
+		}
+
+	private static String readString(final ByteBuffer in)
+		{
+		final byte array[] = new byte[in.getInt()];
+		in.get(array);
+		return new String(array, StandardCharsets.UTF_8);
+		}
+
+	private static void writeInts(final DataOutput out,final int array[]) throws IOException
+		{
+		if(array==null)
+			{
+			out.writeInt(-1);
+			return;
+			}
+		out.writeInt(array.length);
+		for(final int v:array) out.writeInt(v);
+		}
+
+	private static int[] readInts(final ByteBuffer in)
+		{
+		final int n = in.getInt();
+		if(n<0) return null;
+		final int array[] = new int[n];
+		for(int i=0;i< n;++i) array[i] = in.getInt();
+		return array;
+		}
+
+	private void writeValue(final DataOutput out,final Object o) throws IOException
+		{
+		if(o==null)
+			{
+			out.writeByte(TYPE_NULL);
+			}
+		else if(o instanceof String)
+			{
+			out.writeByte(TYPE_STRING);
+			writeString(out,String.class.cast(o));
+			}
+		else if(o instanceof Integer)
+			{
+			out.writeByte(TYPE_INT);
+			out.writeInt(Integer.class.cast(o));
+			}
+		else if(o instanceof Double)
+			{
+			out.writeByte(TYPE_DOUBLE);
+			out.writeDouble(Double.class.cast(o));
+			}
+		else if(o instanceof Boolean)
+			{
+			out.writeByte(TYPE_BOOLEAN);
+			out.writeBoolean(Boolean.class.cast(o));
+			}
+		else if(o instanceof Long)
+			{
+			out.writeByte(TYPE_LONG);
+			out.writeLong(Long.class.cast(o));
+			}
+		else if(o instanceof Float)
+			{
+			out.writeByte(TYPE_FLOAT);
+			out.writeFloat(Float.class.cast(o));
+			}
+		else if(o instanceof Collection)
+			{
+			final Collection<?> L = Collection.class.cast(o);
+			out.writeByte(TYPE_LIST);
+			out.writeInt(L.size());
+			for(final Object o2: L) writeValue(out,o2);
+			}
+		else if(o instanceof int[])
+			{
+			out.writeByte(TYPE_INT_ARRAY);
+			writeInts(out,(int[])o);
+			}
+		else if(o instanceof double[])
+			{
+			final double array[]=(double[])o;
+			out.writeByte(TYPE_DOUBLE_ARRAY);
+			out.writeInt(array.length);
+			for(final double v:array) out.writeDouble(v);
+			}
+		else if(o instanceof Object[])
+			{
+			final Object array[]=(Object[])o;
+			out.writeByte(TYPE_OBJECT_ARRAY);
+			out.writeInt(array.length);
+			for(final Object o2:array) writeValue(out,o2);
+			}
+		else
+			{
+			out.writeByte(TYPE_STRING);
+			writeString(out,String.valueOf(o));
+			}
+		}
+
+	private Object readValue(final ByteBuffer in)
+		{
+		final byte type = in.get();
+		switch(type)
+			{
+			case TYPE_NULL: return null;
+			case TYPE_STRING: return readString(in);
+			case TYPE_INT: return in.getInt();
+			case TYPE_DOUBLE: return in.getDouble();
+			case TYPE_BOOLEAN: return in.get()!=0;
+			case TYPE_LONG: return in.getLong();
+			case TYPE_FLOAT: return in.getFloat();
+			case TYPE_LIST:
+				{
+				final int n = in.getInt();
+				final List<Object> L = new ArrayList<>(n);
+				for(int i=0;i< n;++i) L.add(readValue(in));
+				return L;
+				}
+			case TYPE_INT_ARRAY: return readInts(in);
+			case TYPE_DOUBLE_ARRAY:
+				{
+				final double array[] = new double[in.getInt()];
+				for(int i=0;i< array.length;++i) array[i] = in.getDouble();
+				return array;
+				}
+			case TYPE_OBJECT_ARRAY:
+				{
+				final Object array[] = new Object[in.getInt()];
+				for(int i=0;i< array.length;++i) array[i] = readValue(in);
+				return array;
+				}
+			default: throw new IllegalStateException("Unknown type "+type);
+			}
+		}
+
+	private void writeAttributes(final DataOutput out,final Map<String,Object> atts) throws IOException
+		{
+		out.writeInt(atts.size());
+		for(final String key:atts.keySet())
+			{
+			out.writeInt(symbol(key));
+			writeValue(out,atts.get(key));
+			}
+		}
+
+	private Map<String,Object> readAttributes(final ByteBuffer in)
+		{
+		final int n = in.getInt();
+		final Map<String,Object> atts = new LinkedHashMap<>(n);
+		for(int i=0;i< n;++i)
+			{
+			final String key = this.symbols.get(in.getInt());
+			atts.put(key, readValue(in));
+			}
+		return atts;
+		}
+
+	/** encode the variant */
+	public void encode(final VariantContext ctx,final DataOutput out) throws IOException
+		{
+		out.writeInt(symbol(ctx.getSource()==null?"":ctx.getSource()));
+		out.writeInt(symbol(ctx.getContig()));
+		out.writeInt(ctx.getStart());
+		out.writeInt(ctx.getEnd());
+		writeString(out,ctx.getID());
+		final List<Allele> alleles = ctx.getAlleles();
+		out.writeInt(alleles.size());
+		for(final Allele a:alleles)
+			{
+			out.writeBoolean(a.isReference());
+			writeString(out,a.getDisplayString());
+			}
+		out.writeDouble(ctx.getLog10PError());
+		if(!ctx.filtersWereApplied())
+			{
+			out.writeByte(FILTER_UNFILTERED);
+			}
+		else if(!ctx.isFiltered())
+			{
+			out.writeByte(FILTER_PASS);
+			}
+		else
+			{
+			out.writeByte(FILTER_FILTERED);
+			out.writeInt(ctx.getFilters().size());
+			for(final String f:ctx.getFilters()) out.writeInt(symbol(f));
+			}
+		writeAttributes(out,ctx.getAttributes());
+
+		if(!ctx.hasGenotypes())
+			{
+			out.writeInt(-1);
+			return;
+			}
+		out.writeInt(ctx.getNSamples());
+		for(final Genotype g:ctx.getGenotypes())
+			{
+			out.writeInt(symbol(g.getSampleName()));
+			out.writeInt(g.getPloidy());
+			for(final Allele a:g.getAlleles())
+				{
+				if(a.isNoCall())
+					{
+					out.writeInt(-1);
+					continue;
+					}
+				final int idx = alleles.indexOf(a);
+				out.writeInt(idx<0?ALLELE_OTHER:idx);
+				if(idx<0)
+					{
+					out.writeBoolean(a.isReference());
+					writeString(out,a.getDisplayString());
+					}
+				}
+			out.writeBoolean(g.isPhased());
+			out.writeInt(g.hasGQ()?g.getGQ():-1);
+			out.writeInt(g.hasDP()?g.getDP():-1);
+			writeInts(out,g.hasAD()?g.getAD():null);
+			writeInts(out,g.hasPL()?g.getPL():null);
+			if(g.getFilters()==null)
+				{
+				out.writeBoolean(false);
+				}
+			else
+				{
+				out.writeBoolean(true);
+				writeString(out,g.getFilters());
+				}
+			writeAttributes(out,g.getExtendedAttributes());
+			}
+		}
+
+	/** decode a variant encoded by this codec */
+	public VariantContext decode(final ByteBuffer in)
+		{
+		final String source = this.symbols.get(in.getInt());
+		final String contig = this.symbols.get(in.getInt());
+		final int start = in.getInt();
+		final int end = in.getInt();
+		final String id = readString(in);
+		final int nAlleles = in.getInt();
+		final List<Allele> alleles = new ArrayList<>(nAlleles);
+		for(int i=0;i< nAlleles;++i)
+			{
+			final boolean isRef = in.get()!=0;
+			alleles.add(Allele.create(readString(in), isRef));
+			}
+		final VariantContextBuilder vcb = new VariantContextBuilder(source, contig, start, end, alleles);
+		vcb.id(id);
+		vcb.log10PError(in.getDouble());
+		final byte filterType = in.get();
+		switch(filterType)
+			{
+			case FILTER_UNFILTERED: vcb.unfiltered();break;
+			case FILTER_PASS: vcb.passFilters();break;
+			default:
+				{
+				final int n = in.getInt();
+				final Set<String> filters = new LinkedHashSet<>(n);
+				for(int i=0;i< n;++i) filters.add(this.symbols.get(in.getInt()));
+				vcb.filters(filters);
+				break;
+				}
+			}
+		vcb.attributes(readAttributes(in));
+
+		final int nSamples = in.getInt();
+		if(nSamples<0) return vcb.make();
+		final List<Genotype> genotypes = new ArrayList<>(nSamples);
+		for(int i=0;i< nSamples;++i)
+			{
+			final GenotypeBuilder gb = new GenotypeBuilder(this.symbols.get(in.getInt()));
+			final int ploidy = in.getInt();
+			final List<Allele> gtAlleles = new ArrayList<>(ploidy);
+			for(int j=0;j< ploidy;++j)
+				{
+				final int idx = in.getInt();
+				if(idx==-1)
+					{
+					gtAlleles.add(Allele.NO_CALL);
+					}
+				else if(idx==ALLELE_OTHER)
+					{
+					final boolean isRef = in.get()!=0;
+					gtAlleles.add(Allele.create(readString(in), isRef));
+					}
+				else
+					{
+					gtAlleles.add(alleles.get(idx));
+					}
+				}
+			gb.alleles(gtAlleles);
+			gb.phased(in.get()!=0);
+			final int gq = in.getInt();
+			if(gq!=-1) gb.GQ(gq);
+			final int dp = in.getInt();
+			if(dp!=-1) gb.DP(dp);
+			final int ad[] = readInts(in);
+			if(ad!=null) gb.AD(ad);
+			final int pl[] = readInts(in);
+			if(pl!=null) gb.PL(pl);
+			if(in.get()!=0) gb.filter(readString(in));
+			gb.attributes(readAttributes(in));
+			genotypes.add(gb.make());
+			}
+		vcb.genotypes(genotypes);
+		return vcb.make();
+		}
+	}
@@ -30,6 +30,7 @@ package com.github.lindenb.jvarkit.util.vcf;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -152,21 +153,45 @@ public boolean hasSequenceOntologyAccession(final VariantContext ctx,final Strin
 public boolean hasSequenceOntologyTerm(final VariantContext ctx,final SequenceOntologyTree.Term t)
 	{
 	if(t==null) return false;
-	final Set<SequenceOntologyTree.Term> children=t.getAllDescendants();
 	for(final AnnPredictionParser.AnnPrediction a: getAnnPredictions(ctx)) {
-		if(!Collections.disjoint(a.getSOTerms(),children)) return true;
+		if(hasSequenceOntologyTerm(a.getSOTerms(),t)) return true;
 		}
 	for(final VepPredictionParser.VepPrediction a: getVepPredictions(ctx)) {
-		if(!Collections.disjoint(a.getSOTerms(),children)) return true;
+		if(hasSequenceOntologyTerm(a.getSOTerms(),t)) return true;
 		}
 	for(final SnpEffPredictionParser.SnpEffPrediction a: getSnpEffPredictions(ctx)) {
-		if(!Collections.disjoint(a.getSOTerms(),children)) return true;
+		if(hasSequenceOntologyTerm(a.getSOTerms(),t)) return true;
 		}
 	
 	
 	return false;
 	}
 
+/** return true if any term is 't' or one of its children */
+private boolean hasSequenceOntologyTerm(final Set<SequenceOntologyTree.Term> terms,final SequenceOntologyTree.Term t)
+	{
+	for(final SequenceOntologyTree.Term term:terms) {
+		if(this.getSequenceOntologyTree().isA(term, t)) return true;
+		}
+	return false;
+	}
+
+/** return all the SO terms found in the ANN, VEP and snpEff predictions of this variant */
+public Set<SequenceOntologyTree.Term> getSequenceOntologyTerms(final VariantContext ctx)
+	{
+	final Set<SequenceOntologyTree.Term> set = new HashSet<>();
+	for(final AnnPredictionParser.AnnPrediction a: getAnnPredictions(ctx)) {
+		set.addAll(a.getSOTerms());
+		}
+	for(final VepPredictionParser.VepPrediction a: getVepPredictions(ctx)) {
+		set.addAll(a.getSOTerms());
+		}
+	for(final SnpEffPredictionParser.SnpEffPrediction a: getSnpEffPredictions(ctx)) {
+		set.addAll(a.getSOTerms());
+		}
+	return set;
+	}
+
 public boolean isMendelianIncompatibility(final Genotype child,final Genotype parent)
 	{
 	if(child==null || parent==null) return false;
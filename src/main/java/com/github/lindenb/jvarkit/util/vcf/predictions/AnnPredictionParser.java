@@ -29,12 +29,10 @@ History:
 package com.github.lindenb.jvarkit.util.vcf.predictions;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import htsjdk.variant.variantcontext.VariantContext;
@@ -79,9 +77,6 @@ public class AnnPredictionParser
 		}
 	private static final Logger LOG=Logger.build(AnnPredictionParser.class).make();
 
-	private final Pattern pipeRegex=Pattern.compile("[\\|]");
-	private final Pattern ampRegex = Pattern.compile("[&]");
-
 	private final String tag;
 	private final boolean valid;
 	private SequenceOntologyTree soTree = SequenceOntologyTree.getInstance();
@@ -167,8 +162,7 @@ public class AnnPredictionParser
 			return parseOnePrediction( o.toString());
 			}
 		final String s=String.class.cast(o).trim();
-		final String tokens[]=this.pipeRegex.split(s);
-		return new AnnPrediction(s,tokens);
+		return new AnnPrediction(s,PredictionFields.parse(s,"|"));
 		}
 	
 	/*
@@ -184,16 +178,17 @@ public class AnnPredictionParser
 		implements Prediction
 		{
 		private final String originalStr;
-		private final String tokens[];
-		private AnnPrediction(final String originalStr,final String tokens[])
+		/** the fields are decoded on demand */
+		private final PredictionFields fields;
+		private AnnPrediction(final String originalStr,final PredictionFields fields)
 			{
 			this.originalStr = originalStr;
-			this.tokens=tokens;
+			this.fields=fields;
 			}
 		
 		private String at(int i)
 			{
-			return(i<0 || i>=tokens.length ? null:tokens[i]);
+			return this.fields.get(i);
 			}
 		
 		public String getAllele()
@@ -275,17 +270,15 @@ public class AnnPredictionParser
 		/** return true if SO-term-string is and is only equals to 'intergenic_region' */
 		public boolean isIntergenicRegion()
 			{
-			return "intergenic_region".equals(this.getSOTermsString());
+			return this.fields.equals(1,"intergenic_region");
 			}
 		
 		public String getSOTermsString() {
-			return(this.tokens.length<2 ?"":tokens[1]);
+			return(this.fields.size()<2 ?"":this.fields.get(1));
 			}
 		
 		public List<String> getSOTermsStrings() {
-			final String soterms =getSOTermsString();
-			if(soterms==null || soterms.isEmpty()) return Collections.emptyList();
-			return Arrays.asList(AnnPredictionParser.this.ampRegex.split(soterms));
+			return this.fields.split(1,'&');
 			}
 		
 		//@Override
@@ -310,8 +303,8 @@ public class AnnPredictionParser
 		
 		public Impact getPutativeImpact()
 			{
-			if(this.tokens.length<3) return Impact.UNDEFINED;
-			final String s=this.tokens[2];
+			if(this.fields.size()<3) return Impact.UNDEFINED;
+			final String s=this.fields.get(2);
 			return Impact.valueOf(s.toUpperCase().trim());
 			}
 		
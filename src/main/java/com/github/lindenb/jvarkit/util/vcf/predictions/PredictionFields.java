@@ -0,0 +1,171 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util.vcf.predictions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lazy view of the fields of one prediction (ANN, CSQ, EFF...).
+ * Only the offsets of the delimiters are recorded; a field is decoded
+ * when it is asked for. The fields are the same as the ones returned by
+ * Pattern.split: trailing empty fields are removed.
+ */
+final class PredictionFields
+	{
+	/** per-thread scratch buffer for the offsets of the delimiters */
+	private static final ThreadLocal<int[]> SCRATCH = ThreadLocal.withInitial(()->new int[64]);
+	private final String source;
+	/** ends[i] is the offset of the end of field 'i'. Field 'i' starts at ends[i-1]+1 */
+	private final int ends[];
+
+	private PredictionFields(final String source,final int ends[])
+		{
+		this.source = source;
+		this.ends = ends;
+		}
+
+	/** split 's' on any char in 'delimiters' */
+	static PredictionFields parse(final String s,final String delimiters)
+		{
+		int scratch[] = SCRATCH.get();
+		int n=0;
+		final int len = s.length();
+		if(delimiters.length()==1)
+			{
+			final char delim = delimiters.charAt(0);
+			int i = s.indexOf(delim);
+			while(i!=-1)
+				{
+				if(n+1 >= scratch.length)
+					{
+					scratch = Arrays.copyOf(scratch, scratch.length*2);
+					SCRATCH.set(scratch);
+					}
+				scratch[n++] = i;
+				i = s.indexOf(delim, i+1);
+				}
+			}
+		else
+			{
+			for(int i=0;i< len;++i)
+				{
+				if(delimiters.indexOf(s.charAt(i))==-1) continue;
+				if(n+1 >= scratch.length)
+					{
+					scratch = Arrays.copyOf(scratch, scratch.length*2);
+					SCRATCH.set(scratch);
+					}
+				scratch[n++] = i;
+				}
+			}
+		if(n==0)
+			{
+			/* no delimiter: the whole string is the only field, like Pattern.split */
+			return new PredictionFields(s, new int[]{len});
+			}
+		scratch[n++] = len;
+		/* remove trailing empty fields */
+		while(n>0 && (n==1?scratch[0]==0:scratch[n-1]==scratch[n-2]+1))
+			{
+			n--;
+			}
+		return new PredictionFields(s, Arrays.copyOf(scratch, n));
+		}
+
+	/** number of fields */
+	int size()
+		{
+		return this.ends.length;
+		}
+
+	private int start(final int i)
+		{
+		return i==0?0:this.ends[i-1]+1;
+		}
+
+	/** returns field 'i' or null if 'i' is out of range */
+	String get(final int i)
+		{
+		if(i<0 || i>=this.ends.length) return null;
+		return this.source.substring(start(i), this.ends[i]);
+		}
+
+	/** returns true if field 'i' is out of range or empty */
+	boolean isEmpty(final int i)
+		{
+		if(i<0 || i>=this.ends.length) return true;
+		return start(i)==this.ends[i];
+		}
+
+	/** returns true if field 'i' is equal to 's', without decoding the field */
+	boolean equals(final int i,final String s)
+		{
+		if(i<0 || i>=this.ends.length) return false;
+		final int start = start(i);
+		return this.ends[i]-start == s.length() && this.source.regionMatches(start, s, 0, s.length());
+		}
+
+	/** returns field 'i' split on 'delim', like Pattern.split. Empty list if the field is empty or out of range */
+	List<String> split(final int i,final char delim)
+		{
+		if(isEmpty(i)) return Collections.emptyList();
+		final int start = start(i);
+		final int end = this.ends[i];
+		final List<String> L = new ArrayList<>();
+		int prev = start;
+		for(int j=start;j< end;++j)
+			{
+			if(this.source.charAt(j)!=delim) continue;
+			L.add(this.source.substring(prev, j));
+			prev = j+1;
+			}
+		if(L.isEmpty()) return Collections.singletonList(this.source.substring(start,end));
+		L.add(this.source.substring(prev, end));
+		int n = L.size();
+		while(n>0 && L.get(n-1).isEmpty()) n--;
+		return L.subList(0, n);
+		}
+
+	/** returns all the fields */
+	List<String> asList()
+		{
+		final List<String> L = new ArrayList<>(this.ends.length);
+		for(int i=0;i< this.ends.length;++i) L.add(get(i));
+		return L;
+		}
+
+	@Override
+	public String toString()
+		{
+		return this.source;
+		}
+	}
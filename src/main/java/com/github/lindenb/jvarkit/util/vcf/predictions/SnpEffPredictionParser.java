@@ -29,7 +29,6 @@ History:
 package com.github.lindenb.jvarkit.util.vcf.predictions;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -158,8 +157,7 @@ public class SnpEffPredictionParser implements PredictionParser
 			{
 			return parseOnePrediction( o.toString());
 			}
-		final String tokens[]=pipe.split(String.class.cast(o).trim());
-		return new SnpEffPrediction(tokens);
+		return new SnpEffPrediction(PredictionFields.parse(String.class.cast(o).trim(),"|()"));
 		}
 	
 	
@@ -174,17 +172,18 @@ public class SnpEffPredictionParser implements PredictionParser
 	public class SnpEffPrediction
 		implements Prediction
 		{
-		private final String tokens[];
-		SnpEffPrediction(final String tokens[])
+		/** the fields are decoded on demand */
+		private final PredictionFields fields;
+		SnpEffPrediction(final PredictionFields fields)
 			{
-			this.tokens=tokens;
+			this.fields=fields;
 			}
 		/** get column by name, may return null. Returns null if column is empty */
 		private String getByCol(String col)
 			{
 			final Integer idx=col2col.get(col);
-			if(idx==null || idx>=this.tokens.length || tokens[idx].isEmpty()) return null;
-			return tokens[idx];
+			if(idx==null || this.fields.isEmpty(idx)) return null;
+			return this.fields.get(idx);
 			}
 		public String getGeneName()
 			{
@@ -211,7 +210,7 @@ public class SnpEffPredictionParser implements PredictionParser
 			int i=1;
 			while(i< aa.length() && Character.isDigit(aa.charAt(i)))
 				{
-				change.pos+=(aa.charAt(i)-'0')+change.pos*10;
+				change.pos=change.pos*10+(aa.charAt(i)-'0');
 				++i;
 				}
 			if(change.pos==0) return null;
@@ -245,8 +244,8 @@ public class SnpEffPredictionParser implements PredictionParser
 			for(final String c: col2col.keySet())
 				{
 				int idx=col2col.get(c);
-				if(idx>=this.tokens.length) continue;
-				hash.put(c, tokens[idx]);
+				if(idx>=this.fields.size()) continue;
+				hash.put(c, this.fields.get(idx));
 				}
 			return hash;
 			}
@@ -256,13 +255,11 @@ public class SnpEffPredictionParser implements PredictionParser
 			final Set<SequenceOntologyTree.Term> set=new HashSet<SequenceOntologyTree.Term>();
 			String EFF=getByCol("Effect");
 			if(EFF==null) return set;
-			for(final SequenceOntologyTree.Term t: SnpEffPredictionParser.this.soTree.getTerms())
+			/* labels are unique in the tree */
+			final SequenceOntologyTree.Term t = SnpEffPredictionParser.this.soTree.getTermByLabel(EFF);
+			if(t!=null && t.getLabel().equals(EFF))
 				{
-				if(t.getLabel().equals(EFF))
-					{
-					set.add(t);
-					//break ?
-					}
+				set.add(t);
 				}
 			return set;
 			}
@@ -271,7 +268,7 @@ public class SnpEffPredictionParser implements PredictionParser
 		
 		@Override
 		public String toString() {
-			return getMap().toString()+ " "+Arrays.asList(tokens);
+			return getMap().toString()+ " "+this.fields.asList();
 			}
 		}
 	
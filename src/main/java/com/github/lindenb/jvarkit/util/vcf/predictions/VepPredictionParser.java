@@ -29,7 +29,6 @@ History:
 package com.github.lindenb.jvarkit.util.vcf.predictions;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -89,10 +88,11 @@ public class VepPredictionParser implements PredictionParser
 		*/
 	private final Map<String, Integer> col2col=new HashMap<String, Integer>();
 	private final Pattern pipe=Pattern.compile("[\\|]");
-	private final Pattern ampRegex = Pattern.compile("[&]");
 	private final String tag;
 	private SequenceOntologyTree soTree = SequenceOntologyTree.getInstance();
 	private final boolean valid;
+	/** index of the column 'Allele' or -1 */
+	private int alleleColumn = -1;
 	
 	VepPredictionParser(final VCFHeader header)
 		{		
@@ -147,6 +147,8 @@ public class VepPredictionParser implements PredictionParser
 				}
 			this.col2col.put(tokens[i], i);
 			}
+		final Integer idx_allele = this.col2col.get("Allele");
+		this.alleleColumn = (idx_allele==null?-1:idx_allele);
 		this.valid=true;
 		}
 	
@@ -176,8 +178,7 @@ public class VepPredictionParser implements PredictionParser
 			return parseOnePrediction(ctx,o.toString());
 			}
 		final String s=String.class.cast(o).trim();
-		final String tokens[]= this.pipe.split(s);
-		return new VepPrediction(tokens,s,ctx);
+		return new VepPrediction(PredictionFields.parse(s,"|"),s,ctx);
 		}
 	
 	private void _predictions(final List<VepPrediction> preds,final Object o,final VariantContext ctx)
@@ -191,36 +192,49 @@ public class VepPredictionParser implements PredictionParser
 		implements Prediction
 		{
 		private final String source;
-		private final String tokens[];
-		VepPrediction(final String tokens[],final String source,final VariantContext ctx)
+		/** the fields are decoded on demand */
+		private final PredictionFields fields;
+		/** replaces the 'Allele' field when it is '-' */
+		private final String alleleOverride;
+		VepPrediction(final PredictionFields fields,final String source,final VariantContext ctx)
 			{
 			this.source=source;
-			this.tokens=tokens;
+			this.fields=fields;
 			/** special case for ALT, can be '-' */
-			Integer idx_allele = VepPredictionParser.this.col2col.get("Allele");
-			if(	idx_allele!=null && 
-				idx_allele<tokens.length &&
-				tokens[idx_allele].equals("-"))
+			final int idx_allele = VepPredictionParser.this.alleleColumn;
+			if(	idx_allele!=-1 && 
+				fields.equals(idx_allele,"-"))
 				{
 				if(ctx.getAlternateAlleles().size()==1)
 					{
-					this.tokens[idx_allele]=ctx.getAlternateAlleles().get(0).getDisplayString();
+					this.alleleOverride=ctx.getAlternateAlleles().get(0).getDisplayString();
 					}
 				else
 					{
-					this.tokens[idx_allele]=INDEL_SYMBOL_STR;
+					this.alleleOverride=INDEL_SYMBOL_STR;
 					}
 				}
+			else
+				{
+				this.alleleOverride=null;
+				}
+			}
+		
+		private String at(final int idx)
+			{
+			if(idx==VepPredictionParser.this.alleleColumn && this.alleleOverride!=null) return this.alleleOverride;
+			return this.fields.get(idx);
 			}
+		
 		public String getByCol(final String col)
 			{
 			if(col==null || col.isEmpty()) return null;
 			final Integer idx= VepPredictionParser.this.col2col.get(col);
-			if(idx==null || idx>=tokens.length || tokens[idx].isEmpty())
+			if(idx==null || this.fields.isEmpty(idx))
 				{
 				return null;
 				}
-			return this.tokens[idx];
+			return at(idx);
 			}
 		
 		/** alias of getByColl */
@@ -320,8 +334,8 @@ public class VepPredictionParser implements PredictionParser
 			for(final String c: col2col.keySet())
 				{
 				int idx=col2col.get(c);
-				if(idx>=this.tokens.length) continue;
-				hash.put(c, tokens[idx]);
+				if(idx>=this.fields.size()) continue;
+				hash.put(c, at(idx));
 				}
 			return hash;
 			}
@@ -370,9 +384,9 @@ public class VepPredictionParser implements PredictionParser
 		/** return the "Consequence" splitted, as an array of String, empty if consequence is not found */
 		public List<String> getSOTermsStrings()
 		{
-			final String EFF=getSOTermsString();
-			if(EFF==null || EFF.isEmpty()) return Collections.emptyList();
-			return Arrays.asList(VepPredictionParser.this.ampRegex.split(EFF));
+			final Integer idx= VepPredictionParser.this.col2col.get("Consequence");
+			if(idx==null) return Collections.emptyList();
+			return this.fields.split(idx,'&');
 		}
 	
 		/** convert the list of getConsequences() to a list of SequenceOntology Terms */